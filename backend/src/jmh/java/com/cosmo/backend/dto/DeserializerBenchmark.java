@@ -0,0 +1,102 @@
+package com.cosmo.backend.dto;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JSON binding of a submission: the metric matrix (MetricMatrixDeserializer), the parameter
+ * values (ParameterValuesDeserializer) and the whole InitialConditionsDTO.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DeserializerBenchmark {
+
+    /** Number of fields (the metric is nf x nf) */
+    @Param({"2", "8", "32"})
+    public int nf;
+
+    @Param({"4", "32"})
+    public int parameters;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+
+    private String metricJson;
+    private String parameterValuesJson;
+    private String requestJson;
+
+    @Setup
+    public void setUp() {
+        // Mixed cells: numbers, numeric strings and field-dependent expressions
+        StringBuilder metric = new StringBuilder("[");
+        for (int i = 1; i <= nf; i++) {
+            metric.append(i > 1 ? "," : "").append('[');
+            for (int j = 1; j <= nf; j++) {
+                metric.append(j > 1 ? "," : "");
+                if (i != j) {
+                    metric.append(0);
+                } else if (i % 3 == 0) {
+                    metric.append("\"1\"");
+                } else {
+                    metric.append(String.format(Locale.ROOT, "\"exp(-2*x(%d)/Sqrt(6))\"", i));
+                }
+            }
+            metric.append(']');
+        }
+        metric.append(']');
+        metricJson = "{\"metric\":" + metric + "}";
+
+        // Numbers and numeric strings, as different clients send them
+        StringBuilder values = new StringBuilder("{");
+        for (int p = 1; p <= parameters; p++) {
+            values.append(p > 1 ? "," : "").append("\"p").append(p).append("\":");
+            double value = 1.0e-3 * p + 0.123456789;
+            values.append(p % 2 == 0 ? String.valueOf(value) : "\"" + value + "\"");
+        }
+        values.append('}');
+        parameterValuesJson = "{\"parameterValues\":" + values + "}";
+
+        StringBuilder fields = new StringBuilder("[");
+        for (int i = 1; i <= nf; i++) {
+            fields.append(i > 1 ? "," : "").append(5.5 + 0.1 * i);
+        }
+        fields.append(']');
+        requestJson = "{\"fieldValues\":" + fields
+            + ",\"initialTime\":0.0,\"timeStep\":0.05,\"kstar\":0.05,\"cq\":100.0"
+            + ",\"potentialExpression\":\"0.5*p1**2*x(1)**2\""
+            + ",\"parameterValues\":" + values
+            + ",\"metric\":" + metric + "}";
+    }
+
+    @Benchmark
+    public InitialConditionsDTO metricMatrix() throws IOException {
+        return objectMapper.readValue(metricJson, InitialConditionsDTO.class);
+    }
+
+    @Benchmark
+    public InitialConditionsDTO parameterValues() throws IOException {
+        return objectMapper.readValue(parameterValuesJson, InitialConditionsDTO.class);
+    }
+
+    @Benchmark
+    public InitialConditionsDTO fullRequest() throws IOException {
+        return objectMapper.readValue(requestJson, InitialConditionsDTO.class);
+    }
+}
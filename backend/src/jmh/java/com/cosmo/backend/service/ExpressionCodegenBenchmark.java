@@ -0,0 +1,151 @@
+package com.cosmo.backend.service;
+
+import com.cosmo.backend.expression.Expr;
+import com.cosmo.backend.expression.ExpressionParser;
+import com.cosmo.backend.expression.FortranEmitter;
+import com.cosmo.backend.expression.ParsedExpression;
+import com.cosmo.backend.expression.PotentialDerivatives;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Expression to Fortran 77 code generation as done for every request: parsing, parameter
+ * binding (inlined values or potpar(k) references), emission with continuation lines, the
+ * analytic derivatives and the metric expressions, plus the parameter validation done by the
+ * controller.
+ *
+ * The potential is a sum of per-field masses and quartic couplings, nearest-neighbour
+ * interactions and an exponential plateau term, so its length grows with nf and the number
+ * of parameters like the potentials users enter for multi-field models.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ExpressionCodegenBenchmark {
+
+    private static final String POTENTIAL_PREFIX = "      VV=       ";
+
+    /** Number of fields */
+    @Param({"2", "8", "32"})
+    public int nf;
+
+    /** Number of distinct parameters in the potential */
+    @Param({"4", "32"})
+    public int parameters;
+
+    private final ExpressionService expressionService = new ExpressionService();
+
+    private String potential;
+    private Map<String, Double> parameterValues;
+    private ParsedExpression parsed;
+    private Function<Expr.Param, Expr> constants;
+    private Function<Expr.Param, Expr> references;
+    private String metricExpression;
+
+    @Setup
+    public void setUp() {
+        parameterValues = new LinkedHashMap<>();
+        for (int p = 1; p <= parameters; p++) {
+            parameterValues.put(parameterName(p), 1.0e-3 * p + 0.123456789);
+        }
+        potential = buildPotential(nf, parameters);
+        parsed = ExpressionParser.parse(potential);
+        constants = FortranExecutionService.parameterConstants(parameterValues);
+        references = FortranExecutionService.parameterReferences(
+            FortranExecutionService.buildRuntimeParameterOrder(parameterValues));
+        metricExpression = buildMetricExpression(nf);
+    }
+
+    /** Tokenize and parse (cache miss) */
+    @Benchmark
+    public ParsedExpression parse() {
+        return ExpressionParser.parse(potential);
+    }
+
+    @Benchmark
+    public String emitInlinedValues() {
+        return FortranEmitter.emit(POTENTIAL_PREFIX, parsed.getRoot(), constants, nf);
+    }
+
+    @Benchmark
+    public String emitRuntimeReferences() {
+        return FortranEmitter.emit(POTENTIAL_PREFIX, parsed.getRoot(), references, nf);
+    }
+
+    /** Cached parse and emission, as writePotentialInc sees it */
+    @Benchmark
+    public String potentialPipeline() {
+        return FortranEmitter.emit(POTENTIAL_PREFIX, expressionService.parse(potential).getRoot(), constants, nf);
+    }
+
+    /** Symbolic gradient and Hessian (cache miss), as written to potential_gradient.inc and potential_hessian.inc */
+    @Benchmark
+    public PotentialDerivatives differentiate() {
+        return PotentialDerivatives.of(parsed.getRoot(), nf);
+    }
+
+    /** Parameter validation of the controller (cached parse) */
+    @Benchmark
+    public List<String> findMissingParameters() {
+        return expressionService.findMissingParameters(potential, parameterValues.keySet());
+    }
+
+    @Benchmark
+    public String metricExpression() {
+        return FortranEmitter.emit("        lll=", ExpressionParser.parse(metricExpression).getRoot(), constants, nf);
+    }
+
+    /** Parameter names of different lengths and case (m1, lam2, coupling3, V4, ...) */
+    static String parameterName(int p) {
+        String[] stems = {"m", "lam", "g", "coupling", "V", "alpha"};
+        return stems[p % stems.length] + p;
+    }
+
+    static String buildPotential(int nf, int parameters) {
+        StringBuilder sb = new StringBuilder();
+        int p = 0;
+        for (int i = 1; i <= nf; i++) {
+            String mass = parameterName(p++ % parameters + 1);
+            String quartic = parameterName(p++ % parameters + 1);
+            if (sb.length() > 0) {
+                sb.append(" + ");
+            }
+            sb.append(String.format(Locale.ROOT, "0.5*%s**2*x(%d)**2 + %s*x(%d)**4/24", mass, i, quartic, i));
+            if (i < nf) {
+                String coupling = parameterName(p++ % parameters + 1);
+                sb.append(String.format(Locale.ROOT, " + %s*x(%d)**2*x(%d)**2", coupling, i, i + 1));
+            }
+        }
+        sb.append(" + ").append(parameterName(parameters))
+            .append("*(1 - Exp(-Sqrt(2/3)*x(1)))**2 + 2.2e-12*Tanh(x(").append(nf).append(")/Sqrt(6))**2");
+        return sb.toString();
+    }
+
+    /** Field-dependent metric element, as used for non-canonical kinetic terms */
+    static String buildMetricExpression(int nf) {
+        StringBuilder sb = new StringBuilder("1");
+        for (int i = 1; i <= nf; i++) {
+            sb.append(String.format(Locale.ROOT, " + 0.5*exp(-2*x(%d)/Sqrt(6))*x(%d)**2", i, i));
+        }
+        return sb.toString();
+    }
+}
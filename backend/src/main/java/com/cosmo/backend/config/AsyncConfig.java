@@ -1,22 +1,31 @@
 package com.cosmo.backend.config;
 
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.scheduling.annotation.EnableAsync;
+import org.springframework.scheduling.annotation.EnableScheduling;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 
-import java.util.concurrent.Executor;
-
 @Configuration
 @EnableAsync
+@EnableScheduling
 public class AsyncConfig {
-    
+
+    /**
+     * Threads for the CPU-bound stages of Fortran executions (include generation, compilation,
+     * output collection and plots). Jobs are admitted by the JobScheduler; while the Fortran
+     * process runs, the ProcessSupervisor tracks it and no thread of this pool is held, so the
+     * pool is sized for the CPU work, not for the number of running executions.
+     *
+     * @param threads Pool size (cosmo.fortran.executor-threads, 0 = number of cores)
+     */
     @Bean(name = "fortranExecutor")
-    public Executor fortranExecutor() {
+    public ThreadPoolTaskExecutor fortranExecutor(@Value("${cosmo.fortran.executor-threads:0}") int threads) {
+        int size = threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
         ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
-        executor.setCorePoolSize(2);
-        executor.setMaxPoolSize(5);
-        executor.setQueueCapacity(100);
+        executor.setCorePoolSize(size);
+        executor.setMaxPoolSize(size);
         executor.setThreadNamePrefix("fortran-exec-");
         executor.initialize();
         return executor;
@@ -1,7 +1,23 @@
 package com.cosmo.backend.controller;
 
 import com.cosmo.backend.dto.InitialConditionsDTO;
+import com.cosmo.backend.dto.SweepRequestDTO;
+import com.cosmo.backend.expression.ExpressionException;
+import com.cosmo.backend.service.BackgroundEvolutionService;
+import com.cosmo.backend.service.BuildProfileService;
+import com.cosmo.backend.service.CompileCacheService;
+import com.cosmo.backend.service.ExecutionEventService;
+import com.cosmo.backend.service.ExecutionResultStore;
+import com.cosmo.backend.service.ExecutionWorkspaceService;
+import com.cosmo.backend.service.ExpressionService;
 import com.cosmo.backend.service.FortranExecutionService;
+import com.cosmo.backend.service.JobScheduler;
+import com.cosmo.backend.service.MetricsService;
+import com.cosmo.backend.service.OutputDataService;
+import com.cosmo.backend.service.ResultCacheService;
+import com.cosmo.backend.service.SlowRollEstimatorService;
+import com.cosmo.backend.service.SpectrumStreamService;
+import com.cosmo.backend.service.SweepService;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.core.io.FileSystemResource;
 import org.springframework.core.io.Resource;
@@ -10,21 +26,15 @@ import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import jakarta.servlet.http.HttpServletRequest;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
-import java.util.HashSet;
 import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CompletableFuture;
-import org.springframework.beans.factory.annotation.Qualifier;
-import java.util.concurrent.Executor;
-import java.util.regex.Pattern;
-import java.util.regex.Matcher;
 
 //Logging API (prints to conslole/logs in a structures way)
 import org.slf4j.Logger;
@@ -48,12 +58,47 @@ public class CosmoController {
     // --> no new private FortranExecutionService will created
     
     @Autowired
-    @Qualifier("fortranExecutor")
-    private Executor fortranExecutor;
+    private CompileCacheService compileCacheService;
     
-    // Map to store execution results by execution ID
-    private final Map<String, FortranExecutionService.FortranExecutionResult> executionResults = new ConcurrentHashMap<>();
-    private final Map<String, String> executionStatus = new ConcurrentHashMap<>(); // "running", "completed", "cancelled", "failed"
+    @Autowired
+    private BuildProfileService buildProfileService;
+    
+    @Autowired
+    private ExecutionWorkspaceService executionWorkspaceService;
+    
+    @Autowired
+    private SweepService sweepService;
+    
+    @Autowired
+    private ExecutionEventService executionEventService;
+    
+    @Autowired
+    private SpectrumStreamService spectrumStreamService;
+    
+    @Autowired
+    private OutputDataService outputDataService;
+    
+    @Autowired
+    private ResultCacheService resultCacheService;
+    
+    @Autowired
+    private JobScheduler jobScheduler;
+
+    @Autowired
+    private MetricsService metricsService;
+
+    @Autowired
+    private ExpressionService expressionService;
+
+    @Autowired
+    private BackgroundEvolutionService backgroundEvolutionService;
+
+    @Autowired
+    private SlowRollEstimatorService slowRollEstimatorService;
+    
+    // Status ("running", "completed", "cancelled", "failed") and results by execution ID, bounded by TTL and size
+    @Autowired
+    private ExecutionResultStore executionResultStore;
 
     //Execute cosmological perturbations calculation
     //POST /api/cosmo-perturbations/calculate
@@ -65,7 +110,7 @@ public class CosmoController {
 
     @PostMapping("/calculate")
     public ResponseEntity<?> calculate(
-            @RequestBody InitialConditionsDTO initialConditions) {
+            @RequestBody InitialConditionsDTO initialConditions, HttpServletRequest request) {
 
         //ResponseEntity <..> --> return both a body and a HTTP status code
         //@RequestBody ---> take the JSON body from the frontend and convert it to InitialConditionsDTO
@@ -102,10 +147,21 @@ public class CosmoController {
             // Validate parameters in potential expression
             String potentialExpression = initialConditions.getPotentialExpression();
             if (potentialExpression != null && !potentialExpression.trim().isEmpty()) {
-                List<String> missingParams = validatePotentialParameters(
-                    potentialExpression, 
-                    initialConditions.getParameterValues()
-                );
+                List<String> missingParams;
+                try {
+                    missingParams = validatePotentialParameters(
+                        potentialExpression, 
+                        initialConditions.getParameterValues()
+                    );
+                    int maxFieldIndex = expressionService.parse(potentialExpression).getMaxFieldIndex();
+                    if (maxFieldIndex > initialConditions.getFieldValues().size()) {
+                        throw new ExpressionException("x(" + maxFieldIndex + ") used but only "
+                            + initialConditions.getFieldValues().size() + " field value(s) given");
+                    }
+                } catch (ExpressionException e) {
+                    logger.warn("Validation failed: invalid potential expression: {}", e.getMessage());
+                    return ResponseEntity.badRequest().build();
+                }
                 
                 if (!missingParams.isEmpty()) {
                     String errorMsg = "Missing parameter values for: " + String.join(", ", missingParams);
@@ -114,52 +170,106 @@ public class CosmoController {
                 }
             }
             
-            // We passed validation, so now we try running Fortran.
+            // We passed validation, so now we try running Fortran (or replay an identical earlier run).
             logger.info("Input validated. 🚀 Starting Fortran execution...");
             
             // Generate execution ID immediately
             String executionId = UUID.randomUUID().toString();
             logger.info("Generated execution ID: {}", executionId);
             
-            // Mark as running
-            executionStatus.put(executionId, "running");
+            // Identical calculation already done: answer with the stored outputs under the new ID
+            FortranExecutionService.FortranExecutionResult cachedResult =
+                fortranExecutionService.replayCachedResult(initialConditions, executionId);
+            if (cachedResult != null) {
+                executionResultStore.putResult(executionId, cachedResult);
+                executionEventService.publishResult(executionId, ExecutionEventService.COMPLETED);
+                
+                Map<String, Object> response = new java.util.HashMap<>();
+                response.put("executionId", executionId);
+                response.put("status", "completed");
+                response.put("cached", true);
+                response.put("message", cachedResult.getMessage());
+                return ResponseEntity.ok()
+                    .header("X-Execution-Id", executionId)
+                    .body(response);
+            }
             
-            // Start async execution
-            CompletableFuture.supplyAsync(() -> {
+            // Background that cannot inflate long enough for the k modes: reject before queueing
+            // (after the cache lookup, so a repeated calculation does not pay for the check)
+            if (backgroundEvolutionService.isValidationEnabled()) {
+                String failure;
                 try {
-                    logger.info("Starting async Fortran execution for ID: {}", executionId);
-                    // Pass execution ID to service so it can track the process correctly
-                    FortranExecutionService.FortranExecutionResult result = 
-                        fortranExecutionService.executeFortran(initialConditions, executionId);
-                    
-                    // Store result
-                    executionResults.put(executionId, result);
-                    executionStatus.put(executionId, result.isSuccess() ? "completed" : "failed");
-                    
-                    logger.info("🏺Fortran execution completed for ID: {}. Success: {}, Message: {}", 
-                        executionId, result.isSuccess(), result.getMessage());
-                    
-                    return result;
-                } catch (Exception e) {
-                    logger.error("Error in async Fortran execution for ID: {}", executionId, e);
-                    FortranExecutionService.FortranExecutionResult errorResult = 
-                        new FortranExecutionService.FortranExecutionResult(
-                            executionId,
-                            false,
-                            "Error: " + e.getMessage(),
-                            e.getClass().getSimpleName() + ": " + e.getMessage(),
-                            null
-                        );
-                    executionResults.put(executionId, errorResult);
-                    executionStatus.put(executionId, "failed");
-                    return errorResult;
+                    failure = backgroundEvolutionService.evolve(initialConditions).getFailure();
+                } catch (ExpressionException e) {
+                    failure = e.getMessage();
+                }
+                if (failure != null) {
+                    logger.warn("Validation failed: background evolution: {}", failure);
+                    metricsService.increment("cosmo_preview_rejections", "Calculations rejected by the background check");
+                    Map<String, Object> response = new java.util.HashMap<>();
+                    response.put("success", false);
+                    response.put("message", failure);
+                    return ResponseEntity.badRequest().body(response);
                 }
-            }, fortranExecutor);
+            }
+            
+            // Queue the job; it waits (status "queued") until the scheduler admits it
+            executionResultStore.setStatus(executionId, ExecutionResultStore.QUEUED);
+            executionEventService.publishState(executionId, ExecutionEventService.QUEUED);
+            
+            String client = clientKey(request);
+            try {
+                jobScheduler.submitAsync(executionId, client, true, () -> {
+                    logger.info("Starting async Fortran execution for ID: {}", executionId);
+                    executionResultStore.markRunning(executionId);
+                    // Pass execution ID to service so it can track the process correctly;
+                    // the scheduler slot is held until the returned future completes
+                    return fortranExecutionService.executeFortranAsync(initialConditions, executionId)
+                        .handle((result, e) -> {
+                            if (e != null) {
+                                logger.error("Error in async Fortran execution for ID: {}", executionId, e);
+                                result = new FortranExecutionService.FortranExecutionResult(
+                                    executionId,
+                                    false,
+                                    "Error: " + e.getMessage(),
+                                    e.getClass().getSimpleName() + ": " + e.getMessage(),
+                                    null
+                                );
+                            }
+                            
+                            // Store result
+                            executionResultStore.putResult(executionId, result);
+                            executionEventService.publishResult(executionId,
+                                result.isSuccess() ? ExecutionEventService.COMPLETED : ExecutionEventService.FAILED);
+                            
+                            logger.info("🏺Fortran execution completed for ID: {}. Success: {}, Message: {}", 
+                                executionId, result.isSuccess(), result.getMessage());
+                            
+                            return result;
+                        });
+                });
+            } catch (JobScheduler.QueueFullException e) {
+                logger.warn("Rejected calculation from {}: {}", client, e.getMessage());
+                executionResultStore.remove(executionId);
+                // Terminal state, so max-channels can evict the channel opened with QUEUED
+                executionEventService.publishResult(executionId, ExecutionEventService.FAILED);
+                Map<String, Object> response = new java.util.HashMap<>();
+                response.put("success", false);
+                response.put("message", e.getMessage());
+                response.put("retryAfterSeconds", e.getRetryAfterSeconds());
+                return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+                    .body(response);
+            }
             
             // Return execution ID immediately
+            int queuePosition = jobScheduler.getQueuePosition(executionId);
             Map<String, Object> response = new java.util.HashMap<>();
             response.put("executionId", executionId);
-            response.put("status", "running");
+            response.put("status", queuePosition > 0 ? ExecutionResultStore.QUEUED : ExecutionResultStore.RUNNING);
+            if (queuePosition > 0) {
+                response.put("queuePosition", queuePosition);
+            }
             response.put("message", "Calculation started. Use the execution ID to check status or cancel.");
             
             return ResponseEntity.ok()
@@ -190,7 +300,7 @@ public class CosmoController {
     public ResponseEntity<Map<String, Object>> getExecutionStatus(@PathVariable String executionId) {
         logger.info("Status check for execution: {}", executionId);
         
-        String status = executionStatus.get(executionId);
+        String status = executionResultStore.getStatus(executionId);
         if (status == null) {
             Map<String, Object> response = new java.util.HashMap<>();
             response.put("success", false);
@@ -202,8 +312,12 @@ public class CosmoController {
         response.put("executionId", executionId);
         response.put("status", status);
         
-        if ("completed".equals(status) || "failed".equals(status)) {
-            FortranExecutionService.FortranExecutionResult result = executionResults.get(executionId);
+        if (ExecutionResultStore.QUEUED.equals(status)) {
+            int position = jobScheduler.getQueuePosition(executionId);
+            response.put("queuePosition", position);
+            response.put("message", "Waiting in queue (position " + position + ")");
+        } else if ("completed".equals(status) || "failed".equals(status)) {
+            FortranExecutionService.FortranExecutionResult result = executionResultStore.getResult(executionId);
             if (result != null) {
                 response.put("success", result.isSuccess());
                 response.put("message", result.getMessage());
@@ -217,6 +331,66 @@ public class CosmoController {
         return ResponseEntity.ok(response);
     }
     
+    /**
+     * Execution lifecycle as Server-Sent Events (replaces polling /status)
+     * GET /api/cosmo-perturbations/events/{executionId}
+     * 
+     * Events: "state" (queued, compiling, running, plotting, completed, failed, cancelled),
+     * "progress" (markers while running) and "result" (sent once, then the stream completes).
+     * 
+     * @param executionId The execution ID
+     * @return SSE stream, or 404 if the execution is unknown
+     */
+    @GetMapping(value = "/events/{executionId}", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> streamExecutionEvents(@PathVariable String executionId) {
+        SseEmitter emitter = executionEventService.subscribe(executionId);
+        if (emitter == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok()
+            .header(HttpHeaders.CACHE_CONTROL, "no-cache")
+            .header("X-Accel-Buffering", "no")
+            .body(emitter);
+    }
+    
+    /**
+     * Live power spectrum while the program runs, as Server-Sent Events
+     * GET /api/cosmo-perturbations/events/{executionId}/spectrum
+     * 
+     * Events: "rows" ({rows: [[N, P_R, k], ...]}, all rows so far on connect, then new ones
+     * as k modes finish) and "done" when the run ended. The final spectrum comes with the result.
+     * 
+     * @param executionId The execution ID
+     * @return SSE stream, or 404 if the execution has not started running
+     */
+    @GetMapping(value = "/events/{executionId}/spectrum", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> streamSpectrum(@PathVariable String executionId) {
+        SseEmitter emitter = spectrumStreamService.subscribe(executionId);
+        if (emitter == null) {
+            return ResponseEntity.notFound().build();
+        }
+        return ResponseEntity.ok()
+            .header(HttpHeaders.CACHE_CONTROL, "no-cache")
+            .header("X-Accel-Buffering", "no")
+            .body(emitter);
+    }
+    
+    /**
+     * Fair-share key of the caller: the X-Client-Id header if sent, else the client address
+     * (first X-Forwarded-For entry behind a proxy)
+     */
+    private static String clientKey(HttpServletRequest request) {
+        String clientId = request.getHeader("X-Client-Id");
+        if (clientId != null && !clientId.isBlank()) {
+            return "id:" + clientId.trim();
+        }
+        String forwarded = request.getHeader("X-Forwarded-For");
+        if (forwarded != null && !forwarded.isBlank()) {
+            return "addr:" + forwarded.split(",")[0].trim();
+        }
+        return "addr:" + request.getRemoteAddr();
+    }
+    
     /**
      * Cancel a running Fortran execution
      * POST /api/cosmo-perturbations/cancel/{executionId}
@@ -230,7 +404,7 @@ public class CosmoController {
         
         try {
             // Check if execution exists
-            String status = executionStatus.get(executionId);
+            String status = executionResultStore.getStatus(executionId);
             if (status == null) {
                 Map<String, Object> response = new java.util.HashMap<>();
                 response.put("success", false);
@@ -247,19 +421,21 @@ public class CosmoController {
                 return ResponseEntity.status(HttpStatus.BAD_REQUEST).body(response);
             }
             
-            // Cancel the Fortran process
-            boolean cancelled = fortranExecutionService.cancelExecution(executionId);
+            // Drop the job if it has not started yet, otherwise cancel the Fortran process
+            boolean cancelled = jobScheduler.cancel(executionId)
+                || fortranExecutionService.cancelExecution(executionId);
             
             Map<String, Object> response = new java.util.HashMap<>();
             if (cancelled) {
-                executionStatus.put(executionId, "cancelled");
+                executionResultStore.setStatus(executionId, ExecutionResultStore.CANCELLED);
+                executionEventService.publishResult(executionId, ExecutionEventService.CANCELLED);
                 response.put("success", true);
                 response.put("message", "Execution cancelled successfully");
                 logger.info("Successfully cancelled execution: {}", executionId);
                 return ResponseEntity.ok(response);
             } else {
                 // Process might have finished between check and cancel
-                String currentStatus = executionStatus.get(executionId);
+                String currentStatus = executionResultStore.getStatus(executionId);
                 if ("completed".equals(currentStatus) || "failed".equals(currentStatus)) {
                     response.put("success", false);
                     response.put("message", "Execution already finished");
@@ -279,6 +455,262 @@ public class CosmoController {
         }
     }
     
+    /**
+     * Start a parameter sweep: the base calculation evaluated over grid, list, random or
+     * Latin-hypercube points of the given axes
+     * POST /api/cosmo-perturbations/sweep
+     * 
+     * @param request Base initial conditions plus sweep axes
+     * @return Sweep ID and number of points; progress and results via GET /sweep/{sweepId}
+     */
+    @PostMapping("/sweep")
+    public ResponseEntity<Map<String, Object>> startSweep(@RequestBody SweepRequestDTO request) {
+        logger.info("Received sweep request");
+        
+        Map<String, Object> response = new java.util.HashMap<>();
+        InitialConditionsDTO base = request != null ? request.getBase() : null;
+        if (base == null || base.getFieldValues() == null || base.getFieldValues().isEmpty()
+                || base.getFieldVelocities() == null
+                || base.getFieldValues().size() != base.getFieldVelocities().size()) {
+            logger.warn("Sweep validation failed: base fieldValues/fieldVelocities missing or of different size");
+            response.put("success", false);
+            response.put("message", "base.fieldValues and base.fieldVelocities are required and must have the same size");
+            return ResponseEntity.badRequest().body(response);
+        }
+        
+        // Parameters swept on an axis do not need a value in the base
+        String potentialExpression = base.getPotentialExpression();
+        if (potentialExpression != null && !potentialExpression.trim().isEmpty()) {
+            Map<String, Double> providedParams = new java.util.HashMap<>();
+            if (base.getParameterValues() != null) {
+                providedParams.putAll(base.getParameterValues());
+            }
+            if (request.getAxes() != null) {
+                for (SweepRequestDTO.SweepAxis axis : request.getAxes()) {
+                    if (SweepService.isParameterTarget(axis.getTarget())) {
+                        providedParams.put(axis.getTarget().trim(), 0.0);
+                    }
+                }
+            }
+            List<String> missingParams;
+            try {
+                missingParams = validatePotentialParameters(potentialExpression, providedParams);
+            } catch (ExpressionException e) {
+                logger.warn("Sweep validation failed: invalid potential expression: {}", e.getMessage());
+                response.put("success", false);
+                response.put("message", "Invalid potential expression: " + e.getMessage());
+                return ResponseEntity.badRequest().body(response);
+            }
+            if (!missingParams.isEmpty()) {
+                String errorMsg = "Missing parameter values for: " + String.join(", ", missingParams);
+                logger.warn("Sweep validation failed: {}", errorMsg);
+                response.put("success", false);
+                response.put("message", errorMsg);
+                return ResponseEntity.badRequest().body(response);
+            }
+        }
+        
+        try {
+            SweepService.Sweep sweep = sweepService.startSweep(request);
+            response.put("success", true);
+            response.put("sweepId", sweep.getId());
+            response.put("totalPoints", sweep.getTotalPoints());
+            response.put("status", sweep.getStatus());
+            response.put("message", "Sweep started. Use the sweep ID to check progress and results.");
+            return ResponseEntity.ok(response);
+        } catch (IllegalArgumentException e) {
+            logger.warn("Sweep validation failed: {}", e.getMessage());
+            response.put("success", false);
+            response.put("message", e.getMessage());
+            return ResponseEntity.badRequest().body(response);
+        }
+    }
+    
+    /**
+     * Sweep progress and the consolidated result table (one row per point)
+     * GET /api/cosmo-perturbations/sweep/{sweepId}
+     * 
+     * @param sweepId The sweep ID
+     * @return Aggregate progress plus columns/rows of the result table
+     */
+    @GetMapping("/sweep/{sweepId}")
+    public ResponseEntity<Map<String, Object>> getSweep(@PathVariable String sweepId) {
+        SweepService.Sweep sweep = sweepService.getSweep(sweepId);
+        if (sweep == null) {
+            Map<String, Object> response = new java.util.HashMap<>();
+            response.put("success", false);
+            response.put("message", "Sweep not found");
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(response);
+        }
+        Map<String, Object> response = sweep.getProgress();
+        response.put("table", sweep.getTable());
+        return ResponseEntity.ok(response);
+    }
+    
+    /**
+     * Cancel a sweep (pending points are dropped, running points are killed)
+     * POST /api/cosmo-perturbations/sweep/{sweepId}/cancel
+     */
+    @PostMapping("/sweep/{sweepId}/cancel")
+    public ResponseEntity<Map<String, Object>> cancelSweep(@PathVariable String sweepId) {
+        Map<String, Object> response = new java.util.HashMap<>();
+        if (sweepService.getSweep(sweepId) == null) {
+            response.put("success", false);
+            response.put("message", "Sweep not found");
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(response);
+        }
+        boolean cancelled = sweepService.cancelSweep(sweepId);
+        response.put("success", cancelled);
+        response.put("message", cancelled ? "Sweep cancelled" : "Sweep already finished");
+        return cancelled ? ResponseEntity.ok(response) : ResponseEntity.status(HttpStatus.BAD_REQUEST).body(response);
+    }
+    
+    /**
+     * Background evolution only, computed in-process in milliseconds: field trajectory, epsilon(N),
+     * H(N) and the number of e-folds until the end of inflation, before running the full calculation
+     * POST /api/cosmo-perturbations/preview
+     * 
+     * @param initialConditions Same body as /calculate (fieldVelocities only used with cosmo.fortran.use-field-velocities)
+     * @param maxPoints Maximum number of trajectory rows returned (evenly sampled, last row always included)
+     * @return nTotal, inflationEnded and the columns n, fields (one array per field), epsilon, hubble
+     */
+    @PostMapping("/preview")
+    public ResponseEntity<Map<String, Object>> preview(@RequestBody InitialConditionsDTO initialConditions,
+            @RequestParam(defaultValue = "500") int maxPoints) {
+        Map<String, Object> response = new java.util.HashMap<>();
+        if (initialConditions == null || initialConditions.getFieldValues() == null
+                || initialConditions.getFieldValues().isEmpty()
+                || initialConditions.getFieldValues().contains(null)) {
+            response.put("success", false);
+            response.put("message", "fieldValues is required");
+            return ResponseEntity.badRequest().body(response);
+        }
+        
+        BackgroundEvolutionService.BackgroundResult result;
+        try {
+            String potentialExpression = initialConditions.getPotentialExpression();
+            if (potentialExpression != null && !potentialExpression.trim().isEmpty()) {
+                int maxFieldIndex = expressionService.parse(potentialExpression).getMaxFieldIndex();
+                if (maxFieldIndex > initialConditions.getFieldValues().size()) {
+                    throw new ExpressionException("x(" + maxFieldIndex + ") used but only "
+                        + initialConditions.getFieldValues().size() + " field value(s) given");
+                }
+            }
+            result = backgroundEvolutionService.evolve(initialConditions);
+        } catch (ExpressionException e) {
+            logger.warn("Preview validation failed: {}", e.getMessage());
+            response.put("success", false);
+            response.put("message", "Invalid potential or metric: " + e.getMessage());
+            return ResponseEntity.badRequest().body(response);
+        }
+        
+        int count = result.getCount();
+        int stride = Math.max(1, (count + Math.max(1, maxPoints) - 1) / Math.max(1, maxPoints));
+        List<Double> n = new ArrayList<>();
+        List<Double> epsilon = new ArrayList<>();
+        List<Double> hubble = new ArrayList<>();
+        List<List<Double>> fields = new ArrayList<>();
+        for (int i = 0; i < result.getNumFields(); i++) {
+            fields.add(new ArrayList<>());
+        }
+        for (int row = 0; row < count; row += stride) {
+            addPreviewRow(result, row, n, fields, epsilon, hubble);
+        }
+        if (count > 0 && (count - 1) % stride != 0) {
+            addPreviewRow(result, count - 1, n, fields, epsilon, hubble);
+        }
+        
+        response.put("success", result.getFailure() == null);
+        response.put("message", result.getFailure() != null ? result.getFailure()
+            : result.isTimedOut() ? "Preview timed out; trajectory is incomplete"
+            : result.isInflationEnded() ? "Inflation ends after " + result.getNEnd() + " e-folds"
+            : "Inflation does not end within the integrated range");
+        response.put("nTotal", Double.isNaN(result.getNEnd()) ? null : result.getNEnd());
+        response.put("inflationEnded", result.isInflationEnded());
+        response.put("timedOut", result.isTimedOut());
+        response.put("steps", count);
+        response.put("elapsedMs", result.getElapsedNanos() / 1_000_000.0);
+        response.put("initialPotential", result.getInitialPotential());
+        response.put("initialVelocities", result.getInitialVelocities());
+        response.put("n", n);
+        response.put("fields", fields);
+        response.put("epsilon", epsilon);
+        response.put("hubble", hubble);
+        return ResponseEntity.ok(response);
+    }
+    
+    private static void addPreviewRow(BackgroundEvolutionService.BackgroundResult result, int row, List<Double> n,
+            List<List<Double>> fields, List<Double> epsilon, List<Double> hubble) {
+        n.add(result.getN(row));
+        for (int i = 0; i < fields.size(); i++) {
+            fields.get(i).add(result.getField(i, row));
+        }
+        epsilon.add(result.getEpsilon(row));
+        hubble.add(result.getHubble(row));
+    }
+    
+    /**
+     * Slow-roll estimates of n_s, r, A_s and the pivot field values N_* e-folds before the end
+     * of inflation, from the potential alone (milliseconds, no Fortran run)
+     * POST /api/cosmo-perturbations/estimate
+     * 
+     * @param initialConditions Same body as /calculate (fieldValues, potential, parameters, metric)
+     * @param efolds Values of N_* (e-folds before the end of inflation)
+     * @return nEnd, fieldsAtEnd and one entry per N_* in pivots
+     */
+    @PostMapping("/estimate")
+    public ResponseEntity<Map<String, Object>> estimate(@RequestBody InitialConditionsDTO initialConditions,
+            @RequestParam(defaultValue = "50,55,60") List<Double> efolds) {
+        Map<String, Object> response = new java.util.HashMap<>();
+        if (initialConditions == null || initialConditions.getFieldValues() == null
+                || initialConditions.getFieldValues().isEmpty()
+                || initialConditions.getFieldValues().contains(null)) {
+            response.put("success", false);
+            response.put("message", "fieldValues is required");
+            return ResponseEntity.badRequest().body(response);
+        }
+        
+        SlowRollEstimatorService.Estimate estimate;
+        try {
+            String potentialExpression = initialConditions.getPotentialExpression();
+            if (potentialExpression != null && !potentialExpression.trim().isEmpty()) {
+                int maxFieldIndex = expressionService.parse(potentialExpression).getMaxFieldIndex();
+                if (maxFieldIndex > initialConditions.getFieldValues().size()) {
+                    throw new ExpressionException("x(" + maxFieldIndex + ") used but only "
+                        + initialConditions.getFieldValues().size() + " field value(s) given");
+                }
+            }
+            estimate = slowRollEstimatorService.estimate(initialConditions, efolds);
+        } catch (ExpressionException e) {
+            response.put("success", false);
+            response.put("message", "Invalid potential or metric: " + e.getMessage());
+            return ResponseEntity.badRequest().body(response);
+        }
+        
+        List<Map<String, Object>> pivots = new ArrayList<>();
+        for (SlowRollEstimatorService.Pivot pivot : estimate.getPivots()) {
+            Map<String, Object> entry = new java.util.HashMap<>();
+            entry.put("efoldsBeforeEnd", pivot.getEfoldsBeforeEnd());
+            entry.put("fields", pivot.getFields());
+            entry.put("ns", pivot.getSpectralIndex());
+            entry.put("r", pivot.getTensorToScalar());
+            entry.put("nt", pivot.getTensorIndex());
+            entry.put("As", pivot.getAmplitude());
+            entry.put("epsilon", pivot.getEpsilon());
+            entry.put("eta", pivot.getEta());
+            entry.put("potential", pivot.getPotential());
+            entry.put("hubble", pivot.getHubble());
+            pivots.add(entry);
+        }
+        response.put("success", estimate.getFailure() == null);
+        response.put("message", estimate.getFailure() != null ? estimate.getFailure() : "Slow-roll estimate");
+        response.put("nEnd", Double.isNaN(estimate.getNEnd()) ? null : estimate.getNEnd());
+        response.put("fieldsAtEnd", estimate.getFieldsAtEnd());
+        response.put("pivots", pivots);
+        response.put("elapsedMs", estimate.getElapsedNanos() / 1_000_000.0);
+        return ResponseEntity.ok(response);
+    }
+    
     // Health check endpoint
     // GET /api/cosmo-perturbations/health --> this is a simple endpoint to check if the backend is runnin
      
@@ -287,6 +719,62 @@ public class CosmoController {
         return ResponseEntity.ok("Cosmological Perturbations API is running");  // Updated message
     }
     
+    /**
+     * Compile cache statistics (hits, misses, size)
+     * GET /api/cosmo-perturbations/compile-cache/stats
+     */
+    @GetMapping("/compile-cache/stats")
+    public ResponseEntity<Map<String, Object>> getCompileCacheStats() {
+        return ResponseEntity.ok(compileCacheService.getStats());
+    }
+    
+    /**
+     * Build profiles with their flags and average compile and run times
+     * GET /api/cosmo-perturbations/compile-profiles/stats
+     */
+    @GetMapping("/compile-profiles/stats")
+    public ResponseEntity<Map<String, Object>> getCompileProfileStats() {
+        return ResponseEntity.ok(buildProfileService.getStats());
+    }
+    
+    /**
+     * Result cache statistics (hits, misses, size)
+     * GET /api/cosmo-perturbations/result-cache/stats
+     */
+    @GetMapping("/result-cache/stats")
+    public ResponseEntity<Map<String, Object>> getResultCacheStats() {
+        return ResponseEntity.ok(resultCacheService.getStats());
+    }
+    
+    /**
+     * Scheduler statistics (queued and running jobs, rejections, average job duration)
+     * GET /api/cosmo-perturbations/scheduler/stats
+     */
+    @GetMapping("/scheduler/stats")
+    public ResponseEntity<Map<String, Object>> getSchedulerStats() {
+        return ResponseEntity.ok(jobScheduler.getStats());
+    }
+    
+    /**
+     * Execution result store statistics (entries, retained and spilled bytes, evictions)
+     * GET /api/cosmo-perturbations/results/stats
+     */
+    @GetMapping("/results/stats")
+    public ResponseEntity<Map<String, Object>> getResultStoreStats() {
+        return ResponseEntity.ok(executionResultStore.getStats());
+    }
+    
+    /**
+     * Pipeline metrics (stage timings, turnaround, failures, queue and store gauges) for Prometheus
+     * GET /api/cosmo-perturbations/metrics
+     */
+    @GetMapping("/metrics")
+    public ResponseEntity<String> getMetrics() {
+        return ResponseEntity.ok()
+            .contentType(MediaType.parseMediaType("text/plain; version=0.0.4; charset=utf-8"))
+            .body(metricsService.scrape());
+    }
+    
     /**
      * Test endpoint to check Fortran executable
      * GET /api/cosmo-perturbations/check-executable
@@ -319,9 +807,135 @@ public class CosmoController {
     }
     
     /**
-     * Serve output files (plots, data files) from the fortran directory
+     * Serve output files (plots, data files) of one execution from its workspace
+     * GET /api/cosmo-perturbations/files/{executionId}/{filename}
+     * 
+     * @param executionId The execution that produced the file
+     * @param filename Name of the file to serve
+     * @return File resource or 404 if not found
+     */
+    @GetMapping("/files/{executionId}/{filename:.+}")
+    public ResponseEntity<Resource> getExecutionFile(@PathVariable String executionId, @PathVariable String filename) {
+        Path workspace = executionWorkspaceService.getWorkspace(executionId);
+        if (workspace == null) {
+            logger.warn("Workspace not found for execution: {}", executionId);
+            return ResponseEntity.notFound().build();
+        }
+        return serveFile(workspace, filename);
+    }
+    
+    /**
+     * Numeric columns of an output file, parsed once and cached server-side
+     * GET /api/cosmo-perturbations/data/{executionId}/{filename}?columns=0,1&points=1000&method=lttb&format=json
+     * 
+     * The first requested column is the x axis, the second (or the first, if only one is
+     * requested) drives the downsampling. format=binary returns the columns as little-endian
+     * float64, one column after the other (rows/columns in the X-Rows/X-Columns headers).
+     * 
+     * @param executionId The execution that produced the file
+     * @param filename Output file (e.g. fields.txt, n_epsilon_hubble.txt, kmode.txt)
+     * @param columns Comma separated 0-based column indices (default: all)
+     * @param points Target number of points, 0 = all rows
+     * @param method lttb (default), minmax or none
+     * @param format json (default) or binary
+     * @return Column data, 400 on bad parameters, 404 if the file does not exist
+     */
+    @GetMapping("/data/{executionId}/{filename:.+}")
+    public ResponseEntity<?> getExecutionData(@PathVariable String executionId, @PathVariable String filename,
+                                              @RequestParam(required = false) String columns,
+                                              @RequestParam(defaultValue = "0") int points,
+                                              @RequestParam(defaultValue = "lttb") String method,
+                                              @RequestParam(defaultValue = "json") String format) {
+        Map<String, Object> response = new java.util.HashMap<>();
+        Path workspace = executionWorkspaceService.getWorkspace(executionId);
+        if (workspace == null) {
+            response.put("success", false);
+            response.put("message", "Execution not found");
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(response);
+        }
+        Path filePath = workspace.resolve(filename).normalize();
+        if (!filePath.startsWith(workspace.normalize())) {
+            logger.warn("Attempted path traversal attack: {}", filename);
+            return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
+        }
+        if (!Files.isRegularFile(filePath)) {
+            response.put("success", false);
+            response.put("message", "File not found: " + filename);
+            return ResponseEntity.status(HttpStatus.NOT_FOUND).body(response);
+        }
+        
+        try {
+            OutputDataService.ColumnarData data = outputDataService.load(filePath);
+            int[] selectedColumns;
+            if (columns == null || columns.isBlank()) {
+                selectedColumns = new int[data.getColumnCount()];
+                for (int i = 0; i < selectedColumns.length; i++) {
+                    selectedColumns[i] = i;
+                }
+            } else {
+                String[] parts = columns.split(",");
+                selectedColumns = new int[parts.length];
+                for (int i = 0; i < parts.length; i++) {
+                    selectedColumns[i] = Integer.parseInt(parts[i].trim());
+                    if (selectedColumns[i] < 0 || selectedColumns[i] >= data.getColumnCount()) {
+                        throw new IllegalArgumentException("Column " + selectedColumns[i] + " out of range (file has "
+                            + data.getColumnCount() + " columns)");
+                    }
+                }
+            }
+            int[] rows = new int[0];
+            if (selectedColumns.length > 0 && data.getRowCount() > 0) {
+                double[] x = data.getColumn(selectedColumns[0]);
+                double[] y = data.getColumn(selectedColumns[Math.min(1, selectedColumns.length - 1)]);
+                rows = OutputDataService.selectRows(x, y, points, method);
+            }
+            double[][] values = OutputDataService.extract(data, selectedColumns, rows);
+            String columnList = java.util.Arrays.stream(selectedColumns)
+                .mapToObj(String::valueOf).collect(java.util.stream.Collectors.joining(","));
+            
+            if ("binary".equalsIgnoreCase(format)) {
+                return ResponseEntity.ok()
+                    .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                    .header("X-Rows", String.valueOf(rows.length))
+                    .header("X-Total-Rows", String.valueOf(data.getRowCount()))
+                    .header("X-Columns", columnList)
+                    .header(HttpHeaders.CACHE_CONTROL, "no-cache")
+                    .body(OutputDataService.toLittleEndianFloat64(values));
+            }
+            if (!"json".equalsIgnoreCase(format)) {
+                throw new IllegalArgumentException("Unknown format: " + format + " (use json or binary)");
+            }
+            response.put("success", true);
+            response.put("executionId", executionId);
+            response.put("file", filename);
+            response.put("totalRows", data.getRowCount());
+            response.put("rows", rows.length);
+            response.put("columnCount", data.getColumnCount());
+            response.put("columns", selectedColumns);
+            response.put("method", rows.length < data.getRowCount() ? method.toLowerCase() : "none");
+            response.put("data", values);
+            return ResponseEntity.ok()
+                .header(HttpHeaders.CACHE_CONTROL, "no-cache")
+                .body(response);
+        } catch (IllegalArgumentException e) {
+            // Also NumberFormatException from the column list
+            response.put("success", false);
+            response.put("message", e.getMessage());
+            return ResponseEntity.badRequest().body(response);
+        } catch (java.io.IOException e) {
+            logger.error("Error reading data file {}: ", filename, e);
+            response.put("success", false);
+            response.put("message", "Could not read " + filename + ": " + e.getMessage());
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).body(response);
+        }
+    }
+    
+    /**
+     * Serve shared files from the fortran directory
      * GET /api/cosmo-perturbations/files/{filename}
      * 
+     * Execution outputs live in per-execution workspaces, see {@link #getExecutionFile}.
+     * 
      * @param filename Name of the file to serve
      * @return File resource or 404 if not found
      */
@@ -351,10 +965,26 @@ public class CosmoController {
                 fortranDir = possiblePaths.get(0);
             }
             
-            Path filePath = fortranDir.resolve(filename).normalize();
+            return serveFile(fortranDir, filename);
+        } catch (Exception e) {
+            logger.error("Error serving file {}: ", filename, e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
+        }
+    }
+    
+    /**
+     * Serve a file from the given base directory with no-cache headers
+     * 
+     * @param baseDir Directory the file must be inside of
+     * @param filename Name of the file to serve
+     * @return File resource, 403 on path traversal, or 404 if not found
+     */
+    private ResponseEntity<Resource> serveFile(Path baseDir, String filename) {
+        try {
+            Path filePath = baseDir.resolve(filename).normalize();
             
-            // Security check: ensure file is within fortran directory
-            if (!filePath.startsWith(fortranDir.normalize())) {
+            // Security check: ensure file is within the base directory
+            if (!filePath.startsWith(baseDir.normalize())) {
                 logger.warn("Attempted path traversal attack: {}", filename);
                 return ResponseEntity.status(HttpStatus.FORBIDDEN).build();
             }
@@ -371,6 +1001,8 @@ public class CosmoController {
             if (contentType == null) {
                 if (filename.toLowerCase().endsWith(".png")) {
                     contentType = MediaType.IMAGE_PNG_VALUE;
+                } else if (filename.toLowerCase().endsWith(".svg")) {
+                    contentType = "image/svg+xml";
                 } else if (filename.toLowerCase().endsWith(".txt")) {
                     contentType = MediaType.TEXT_PLAIN_VALUE;
                 } else {
@@ -401,113 +1033,11 @@ public class CosmoController {
      * @param expression The potential expression
      * @param parameterValues Map of parameter names to values
      * @return List of missing parameter names, empty if all parameters are provided
+     * @throws ExpressionException If the expression cannot be parsed
      */
     private List<String> validatePotentialParameters(String expression, Map<String, Double> parameterValues) {
-        List<String> missingParams = new ArrayList<>();
-        
-        if (expression == null || expression.trim().isEmpty()) {
-            return missingParams;
-        }
-        
-        Set<String> requiredParams = extractParameterSymbols(expression);
-        
-        if (requiredParams.isEmpty()) {
-            // No parameters in expression, validation passes
-            return missingParams;
-        }
-        
-        if (parameterValues == null || parameterValues.isEmpty()) {
-            // Expression has parameters but no values provided
-            missingParams.addAll(requiredParams);
-            return missingParams;
-        }
-        
-        // Check each required parameter (case-insensitive)
-        for (String param : requiredParams) {
-            boolean found = false;
-            for (String providedParam : parameterValues.keySet()) {
-                if (param.equalsIgnoreCase(providedParam)) {
-                    found = true;
-                    break;
-                }
-            }
-            if (!found) {
-                missingParams.add(param);
-            }
-        }
-        
-        return missingParams;
-    }
-    
-    /**
-     * Extract parameter symbols from a potential expression
-     * Finds all Latin letter identifiers (like m, lambda, i, etc.) that are not function names
-     * 
-     * @param expression The potential expression
-     * @return Set of parameter symbols found in the expression
-     */
-    private Set<String> extractParameterSymbols(String expression) {
-        Set<String> parameters = new HashSet<>();
-        
-        if (expression == null || expression.trim().isEmpty()) {
-            return parameters;
-        }
-        
-        // Common function names that should NOT be treated as parameters
-        Set<String> functionNames = new HashSet<>();
-        functionNames.add("sin"); functionNames.add("cos"); functionNames.add("tan");
-        functionNames.add("sinh"); functionNames.add("cosh"); functionNames.add("tanh");
-        functionNames.add("asin"); functionNames.add("acos"); functionNames.add("atan");
-        functionNames.add("exp"); functionNames.add("log"); functionNames.add("ln");
-        functionNames.add("sqrt"); functionNames.add("abs");
-        functionNames.add("x"); // x is the field array, not a parameter
-        
-        // Pattern to match identifiers: letters followed by optional letters/digits
-        Pattern identifierPattern = Pattern.compile("\\b([a-zA-Z][a-zA-Z0-9]*)\\b");
-        Matcher matcher = identifierPattern.matcher(expression);
-        
-        while (matcher.find()) {
-            String identifier = matcher.group(1).toLowerCase();
-            
-            // Skip if it's a function name
-            if (functionNames.contains(identifier)) {
-                continue;
-            }
-            
-            // Skip if it's part of x(...) array access
-            int start = matcher.start();
-            if (start > 0 && expression.charAt(start - 1) == '(') {
-                // Check if preceded by 'x'
-                int checkStart = Math.max(0, start - 2);
-                String before = expression.substring(checkStart, start);
-                if (before.endsWith("x")) {
-                    continue; // This is x(...), not a parameter
-                }
-            }
-            
-            // Skip if it's scientific notation: 2.2e-12, 10.e-11, 2.2d-12 etc.
-            if ("e".equals(identifier) || "d".equals(identifier)) {
-                boolean digitOrDotBefore = start > 0 && (Character.isDigit(expression.charAt(start - 1)) || expression.charAt(start - 1) == '.');
-                int end = matcher.end();
-                boolean signAndDigitsAfter = false;
-                if (end < expression.length()) {
-                    int pos = end;
-                    if (expression.charAt(pos) == '+' || expression.charAt(pos) == '-') {
-                        pos++;
-                        while (pos < expression.length() && Character.isDigit(expression.charAt(pos))) {
-                            pos++;
-                        }
-                        signAndDigitsAfter = pos > end;
-                    }
-                }
-                if (digitOrDotBefore && signAndDigitsAfter) {
-                    continue;
-                }
-            }
-            
-            parameters.add(identifier);
-        }
-        
-        return parameters;
+        // The parsed expression is cached, so the execution does not parse it again
+        return expressionService.findMissingParameters(expression,
+            parameterValues != null ? parameterValues.keySet() : null);
     }
 }
@@ -1,5 +1,6 @@
 package com.cosmo.backend.controller;
 
+import com.cosmo.backend.expression.ExpressionException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.http.HttpStatus;
@@ -35,6 +36,18 @@ public class GlobalExceptionHandler {
                 ));
     }
 
+    @ExceptionHandler(ExpressionException.class)
+    public ResponseEntity<Map<String, Object>> handleInvalidExpression(ExpressionException e) {
+        logger.warn("Invalid expression: {}", e.getMessage());
+        return ResponseEntity
+                .status(HttpStatus.BAD_REQUEST)
+                .body(Map.of(
+                        "success", false,
+                        "message", "Invalid expression: " + e.getMessage(),
+                        "status", "failed"
+                ));
+    }
+
     @ExceptionHandler(Exception.class)
     public ResponseEntity<Map<String, Object>> handleUnexpected(Exception e) {
         logger.error("Unexpected error: ", e);
@@ -51,6 +51,15 @@ public class InitialConditionsDTO {
     @JsonDeserialize(using = MetricMatrixDeserializer.class)
     private List<List<String>> metric;
 
+    // Skip the memoized result of an identical earlier calculation and run it again
+    private Boolean bypassCache;
+
+    // Solver engine: "fortran" (compiled multifix) or "java" (in-process); null for the configured default
+    private String engine;
+
+    // Compiler optimization profile of the Fortran build (debug, o2, o3-native, fast-math, pgo); null for the configured default
+    private String buildProfile;
+
     //Constructors
     public InitialConditionsDTO(){
         this.initialTime=0.0;
@@ -159,4 +168,28 @@ public class InitialConditionsDTO {
     public void setMetric(List<List<String>> metric) {
         this.metric = metric;
     }
+
+    public Boolean getBypassCache() {
+        return bypassCache;
+    }
+
+    public void setBypassCache(Boolean bypassCache) {
+        this.bypassCache = bypassCache;
+    }
+
+    public String getEngine() {
+        return engine;
+    }
+
+    public void setEngine(String engine) {
+        this.engine = engine;
+    }
+
+    public String getBuildProfile() {
+        return buildProfile;
+    }
+
+    public void setBuildProfile(String buildProfile) {
+        this.buildProfile = buildProfile;
+    }
 }
@@ -0,0 +1,149 @@
+package com.cosmo.backend.dto;
+
+import java.util.List;
+
+//Data Transfer Object for a parameter sweep
+//A base calculation plus the axes that are varied across the sweep points
+
+public class SweepRequestDTO {
+
+    // the calculation every point starts from
+    private InitialConditionsDTO base;
+
+    // the varied quantities
+    private List<SweepAxis> axes;
+
+    // "grid" (Cartesian product), "list" (axes zipped), "random" or "lhs" (Latin hypercube)
+    private String mode;
+
+    // number of points for random / lhs
+    private Integer samples;
+
+    // random seed for random / lhs (reproducible sweeps)
+    private Long seed;
+
+    // number of points executed at the same time (capped by cosmo.sweep.max-concurrency)
+    private Integer concurrency;
+
+    public SweepRequestDTO() {
+        this.mode = "grid";
+    }
+
+    public InitialConditionsDTO getBase() {
+        return base;
+    }
+
+    public void setBase(InitialConditionsDTO base) {
+        this.base = base;
+    }
+
+    public List<SweepAxis> getAxes() {
+        return axes;
+    }
+
+    public void setAxes(List<SweepAxis> axes) {
+        this.axes = axes;
+    }
+
+    public String getMode() {
+        return mode;
+    }
+
+    public void setMode(String mode) {
+        this.mode = mode;
+    }
+
+    public Integer getSamples() {
+        return samples;
+    }
+
+    public void setSamples(Integer samples) {
+        this.samples = samples;
+    }
+
+    public Long getSeed() {
+        return seed;
+    }
+
+    public void setSeed(Long seed) {
+        this.seed = seed;
+    }
+
+    public Integer getConcurrency() {
+        return concurrency;
+    }
+
+    public void setConcurrency(Integer concurrency) {
+        this.concurrency = concurrency;
+    }
+
+    /**
+     * One varied quantity.
+     *
+     * target is a potential parameter name (e.g. "m"), "fieldValues[i]", "fieldVelocities[i]"
+     * (0-based), "timeStep", "kstar" or "cq". Values are either listed explicitly or spanned
+     * by min/max (steps points for grid/list, sampled for random/lhs), optionally in log scale.
+     */
+    public static class SweepAxis {
+
+        private String target;
+
+        private List<Double> values;
+
+        private Double min;
+
+        private Double max;
+
+        private Integer steps;
+
+        private boolean logScale;
+
+        public String getTarget() {
+            return target;
+        }
+
+        public void setTarget(String target) {
+            this.target = target;
+        }
+
+        public List<Double> getValues() {
+            return values;
+        }
+
+        public void setValues(List<Double> values) {
+            this.values = values;
+        }
+
+        public Double getMin() {
+            return min;
+        }
+
+        public void setMin(Double min) {
+            this.min = min;
+        }
+
+        public Double getMax() {
+            return max;
+        }
+
+        public void setMax(Double max) {
+            this.max = max;
+        }
+
+        public Integer getSteps() {
+            return steps;
+        }
+
+        public void setSteps(Integer steps) {
+            this.steps = steps;
+        }
+
+        public boolean isLogScale() {
+            return logScale;
+        }
+
+        public void setLogScale(boolean logScale) {
+            this.logScale = logScale;
+        }
+    }
+}
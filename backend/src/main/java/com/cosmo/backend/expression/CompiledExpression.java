@@ -0,0 +1,165 @@
+package com.cosmo.backend.expression;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.function.Function;
+
+/**
+ * Expression tree compiled to nested Java closures for repeated evaluation at different field values,
+ * as done by the background evolution preview (thousands of evaluations per request).
+ *
+ * Parameters are bound once at compile time with the same bindings the Fortran emitter uses, so
+ * the Java and Fortran evaluations see the same values. Functions follow their Fortran meaning
+ * (log is the natural logarithm, sign(a,b) is |a| with the sign of b, ** with an integer exponent
+ * accepts a negative base).
+ */
+public final class CompiledExpression {
+
+    /** Compiled node: value at the field values x (x[0] is x(1)) */
+    private interface Node {
+        double evaluate(double[] x);
+    }
+
+    private final Node root;
+
+    private CompiledExpression(Node root) {
+        this.root = root;
+    }
+
+    /**
+     * Compile an expression.
+     *
+     * @param expr Expression tree
+     * @param parameters Value (Num) for each parameter; null if unknown
+     * @return The compiled expression
+     * @throws ExpressionException If a parameter has no numeric value
+     */
+    public static CompiledExpression compile(Expr expr, Function<Expr.Param, Expr> parameters) {
+        return new CompiledExpression(node(expr, parameters));
+    }
+
+    /**
+     * Value at the given field values.
+     *
+     * @param x Field values, x[0] is x(1); must cover every field index of the expression
+     */
+    public double evaluate(double[] x) {
+        return root.evaluate(x);
+    }
+
+    private static Node node(Expr expr, Function<Expr.Param, Expr> parameters) {
+        if (expr instanceof Expr.Num) {
+            double value = ((Expr.Num) expr).getValue();
+            return x -> value;
+        }
+        if (expr instanceof Expr.Param) {
+            Expr.Param param = (Expr.Param) expr;
+            Expr bound = parameters != null ? parameters.apply(param) : null;
+            if (!(bound instanceof Expr.Num)) {
+                throw new ExpressionException("No value for parameter '" + param.getName() + "'");
+            }
+            double value = ((Expr.Num) bound).getValue();
+            return x -> value;
+        }
+        if (expr instanceof Expr.Ref) {
+            Expr.Ref ref = (Expr.Ref) expr;
+            if (!ref.isField()) {
+                throw new ExpressionException("Cannot evaluate " + ref.getArray() + "(" + ref.getIndex() + ")");
+            }
+            int index = ref.getIndex() - 1;
+            return x -> x[index];
+        }
+        if (expr instanceof Expr.Neg) {
+            Node operand = node(((Expr.Neg) expr).getOperand(), parameters);
+            return x -> -operand.evaluate(x);
+        }
+        if (expr instanceof Expr.Binary) {
+            return binary((Expr.Binary) expr, parameters);
+        }
+        if (expr instanceof Expr.Call) {
+            return call((Expr.Call) expr, parameters);
+        }
+        throw new IllegalStateException("Unexpected node " + expr.getClass().getSimpleName());
+    }
+
+    private static Node binary(Expr.Binary binary, Function<Expr.Param, Expr> parameters) {
+        Node left = node(binary.getLeft(), parameters);
+        Node right = node(binary.getRight(), parameters);
+        switch (binary.getOp()) {
+            case '+':
+                return x -> left.evaluate(x) + right.evaluate(x);
+            case '-':
+                return x -> left.evaluate(x) - right.evaluate(x);
+            case '*':
+                return x -> left.evaluate(x) * right.evaluate(x);
+            case '/':
+                return x -> left.evaluate(x) / right.evaluate(x);
+            default:
+                if (binary.getRight() instanceof Expr.Num && ((Expr.Num) binary.getRight()).getValue() == 2) {
+                    // Most common exponent; x*x is exact and cheaper than Math.pow
+                    return x -> {
+                        double base = left.evaluate(x);
+                        return base * base;
+                    };
+                }
+                return x -> Math.pow(left.evaluate(x), right.evaluate(x));
+        }
+    }
+
+    private static Node call(Expr.Call call, Function<Expr.Param, Expr> parameters) {
+        List<Expr> args = call.getArgs();
+        Node[] nodes = new Node[args.size()];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = node(args.get(i), parameters);
+        }
+        Node a = nodes[0];
+        String name = call.getFunction().toLowerCase(Locale.ROOT);
+        // Double precision variants (dsin, dexp, ...) are the same functions
+        if (name.length() > 1 && name.charAt(0) == 'd' && ExpressionParser.isFunction(name.substring(1))) {
+            name = name.substring(1);
+        }
+        switch (name) {
+            case "sin": return x -> Math.sin(a.evaluate(x));
+            case "cos": return x -> Math.cos(a.evaluate(x));
+            case "tan": return x -> Math.tan(a.evaluate(x));
+            case "sinh": return x -> Math.sinh(a.evaluate(x));
+            case "cosh": return x -> Math.cosh(a.evaluate(x));
+            case "tanh": return x -> Math.tanh(a.evaluate(x));
+            case "asin": return x -> Math.asin(a.evaluate(x));
+            case "acos": return x -> Math.acos(a.evaluate(x));
+            case "atan": return x -> Math.atan(a.evaluate(x));
+            case "exp": return x -> Math.exp(a.evaluate(x));
+            case "log":
+            case "ln": return x -> Math.log(a.evaluate(x));
+            case "log10": return x -> Math.log10(a.evaluate(x));
+            case "sqrt": return x -> Math.sqrt(a.evaluate(x));
+            case "abs": return x -> Math.abs(a.evaluate(x));
+            case "atan2": {
+                Node b = nodes[1];
+                return x -> Math.atan2(a.evaluate(x), b.evaluate(x));
+            }
+            case "sign": {
+                Node b = nodes[1];
+                return x -> b.evaluate(x) >= 0 ? Math.abs(a.evaluate(x)) : -Math.abs(a.evaluate(x));
+            }
+            case "min":
+                return x -> {
+                    double value = nodes[0].evaluate(x);
+                    for (int i = 1; i < nodes.length; i++) {
+                        value = Math.min(value, nodes[i].evaluate(x));
+                    }
+                    return value;
+                };
+            case "max":
+                return x -> {
+                    double value = nodes[0].evaluate(x);
+                    for (int i = 1; i < nodes.length; i++) {
+                        value = Math.max(value, nodes[i].evaluate(x));
+                    }
+                    return value;
+                };
+            default:
+                throw new ExpressionException("Unknown function '" + call.getFunction() + "'");
+        }
+    }
+}
@@ -0,0 +1,435 @@
+package com.cosmo.backend.expression;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Symbolic partial derivatives d/dx(i) of an expression tree.
+ *
+ * Results are simplified while they are built: constants are folded, 0 and 1 are removed
+ * from sums, products and powers, signs are pulled out of products, like terms differing
+ * only in a constant factor are combined (2*a + a -> 3*a), and any subtree that
+ * does not contain a field differentiates to 0 without being visited further. Subtrees of
+ * the input are shared with the result, so literals keep their source text. Products are
+ * built left to right as Fortran evaluates them, so the emitter needs few parentheses.
+ * Parameters and potpar(k) references are constants. min and max of field-dependent
+ * arguments have no closed-form derivative; {@link #isDifferentiable(Expr)} reports them.
+ */
+public final class Differentiator {
+
+    /** Intrinsics whose double precision variant (dsin, datan2, ...) has the same derivative */
+    private static final Set<String> GENERIC = Set.of(
+        "sin", "cos", "tan", "sinh", "cosh", "tanh", "exp", "log", "sqrt", "abs", "atan2");
+
+    private static final Expr ZERO = num(0);
+    private static final Expr ONE = num(1);
+
+    private Differentiator() {
+    }
+
+    /**
+     * Whether {@link #differentiate(Expr, int)} can handle the expression (no min or max of fields)
+     */
+    public static boolean isDifferentiable(Expr expr) {
+        if (expr instanceof Expr.Neg) {
+            return isDifferentiable(((Expr.Neg) expr).getOperand());
+        }
+        if (expr instanceof Expr.Binary) {
+            Expr.Binary binary = (Expr.Binary) expr;
+            return isDifferentiable(binary.getLeft()) && isDifferentiable(binary.getRight());
+        }
+        if (expr instanceof Expr.Call) {
+            Expr.Call call = (Expr.Call) expr;
+            String function = function(call);
+            if (("min".equals(function) || "max".equals(function)) && dependsOnFields(call)) {
+                return false;
+            }
+            return call.getArgs().stream().allMatch(Differentiator::isDifferentiable);
+        }
+        return true;
+    }
+
+    /** Whether the expression contains a field x(n) */
+    public static boolean dependsOnFields(Expr expr) {
+        if (expr instanceof Expr.Ref) {
+            return ((Expr.Ref) expr).isField();
+        }
+        if (expr instanceof Expr.Neg) {
+            return dependsOnFields(((Expr.Neg) expr).getOperand());
+        }
+        if (expr instanceof Expr.Binary) {
+            Expr.Binary binary = (Expr.Binary) expr;
+            return dependsOnFields(binary.getLeft()) || dependsOnFields(binary.getRight());
+        }
+        if (expr instanceof Expr.Call) {
+            return ((Expr.Call) expr).getArgs().stream().anyMatch(Differentiator::dependsOnFields);
+        }
+        return false;
+    }
+
+    /**
+     * Partial derivative with respect to x(field).
+     *
+     * @param expr Expression tree (parameters are treated as constants)
+     * @param field Field index (1-based)
+     * @return Simplified derivative
+     * @throws IllegalArgumentException If the expression is not differentiable (see {@link #isDifferentiable(Expr)})
+     */
+    public static Expr differentiate(Expr expr, int field) {
+        if (!dependsOnFields(expr)) {
+            return ZERO;
+        }
+        if (expr instanceof Expr.Ref) {
+            return ((Expr.Ref) expr).getIndex() == field ? ONE : ZERO;
+        }
+        if (expr instanceof Expr.Neg) {
+            return neg(differentiate(((Expr.Neg) expr).getOperand(), field));
+        }
+        if (expr instanceof Expr.Binary) {
+            return differentiateBinary((Expr.Binary) expr, field);
+        }
+        if (expr instanceof Expr.Call) {
+            return differentiateCall((Expr.Call) expr, field);
+        }
+        throw new IllegalStateException("Unexpected node " + expr.getClass().getSimpleName());
+    }
+
+    private static Expr differentiateBinary(Expr.Binary binary, int field) {
+        Expr u = binary.getLeft();
+        Expr v = binary.getRight();
+        Expr du = differentiate(u, field);
+        Expr dv = differentiate(v, field);
+        switch (binary.getOp()) {
+            case '+':
+                return add(du, dv);
+            case '-':
+                return sub(du, dv);
+            case '*':
+                return add(mul(du, v), mul(u, dv));
+            case '/':
+                // u'/v - u*v'/v**2
+                return sub(div(du, v), div(mul(u, dv), pow(v, num(2))));
+            default:
+                if (!dependsOnFields(v)) {
+                    // v*u**(v-1)*u'
+                    return mul(mul(v, pow(u, sub(v, ONE))), du);
+                }
+                if (!dependsOnFields(u)) {
+                    // u**v*log(u)*v'
+                    return mul(mul(binary, call("log", u)), dv);
+                }
+                // u**v*(v'*log(u) + v*u'/u)
+                return mul(binary, add(mul(dv, call("log", u)), div(mul(v, du), u)));
+        }
+    }
+
+    private static Expr differentiateCall(Expr.Call call, int field) {
+        String function = function(call);
+        List<Expr> args = call.getArgs();
+        Expr u = args.get(0);
+        if ("atan2".equals(function)) {
+            // atan2(y,x)' = (x*y' - y*x')/(x**2 + y**2)
+            Expr x = args.get(1);
+            Expr numerator = sub(mul(x, differentiate(u, field)), mul(u, differentiate(x, field)));
+            return div(numerator, add(pow(x, num(2)), pow(u, num(2))));
+        }
+        Expr du = differentiate(u, field);
+        switch (function) {
+            case "sin":
+                return mul(call("cos", u), du);
+            case "cos":
+                return neg(mul(call("sin", u), du));
+            case "tan":
+                return div(du, pow(call("cos", u), num(2)));
+            case "sinh":
+                return mul(call("cosh", u), du);
+            case "cosh":
+                return mul(call("sinh", u), du);
+            case "tanh":
+                return mul(sub(ONE, pow(call, num(2))), du);
+            case "asin":
+                return div(du, call("sqrt", sub(ONE, pow(u, num(2)))));
+            case "acos":
+                return neg(div(du, call("sqrt", sub(ONE, pow(u, num(2))))));
+            case "atan":
+                return div(du, add(ONE, pow(u, num(2))));
+            case "exp":
+                return mul(call, du);
+            case "log":
+            case "ln":
+                return div(du, u);
+            case "log10":
+                return div(du, mul(u, call("log", num(10))));
+            case "sqrt":
+                return div(du, mul(num(2), call));
+            case "abs":
+                return mul(new Expr.Call("sign", List.of(ONE, u)), du);
+            case "sign":
+                // Piecewise constant (only produced by the derivative of abs)
+                return ZERO;
+            default:
+                throw new IllegalArgumentException("No derivative for '" + call.getFunction() + "' of a field");
+        }
+    }
+
+    /** Lower-case function name with the d prefix of double precision intrinsics removed */
+    private static String function(Expr.Call call) {
+        String name = call.getFunction().toLowerCase(Locale.ROOT);
+        if (name.length() > 1 && name.charAt(0) == 'd' && GENERIC.contains(name.substring(1))) {
+            return name.substring(1);
+        }
+        return name;
+    }
+
+    private static Expr call(String function, Expr argument) {
+        return new Expr.Call(function, List.of(argument));
+    }
+
+    /** Constant; integral values keep an integer text so they stay integer exponents when emitted */
+    static Expr num(double value) {
+        if (value == Math.rint(value) && Math.abs(value) < 1.0e9) {
+            if (value < 0) {
+                return new Expr.Neg(num(-value));
+            }
+            return new Expr.Num(value, Long.toString((long) value));
+        }
+        return new Expr.Num(value);
+    }
+
+    /** Value of a constant (number or negated number), or null */
+    private static Double constant(Expr expr) {
+        if (expr instanceof Expr.Num) {
+            return ((Expr.Num) expr).getValue();
+        }
+        if (expr instanceof Expr.Neg && ((Expr.Neg) expr).getOperand() instanceof Expr.Num) {
+            return -((Expr.Num) ((Expr.Neg) expr).getOperand()).getValue();
+        }
+        return null;
+    }
+
+    private static boolean isConstant(Expr expr, double value) {
+        Double constant = constant(expr);
+        return constant != null && constant == value;
+    }
+
+    static Expr neg(Expr a) {
+        Double c = constant(a);
+        if (c != null) {
+            return num(-c);
+        }
+        if (a instanceof Expr.Neg) {
+            return ((Expr.Neg) a).getOperand();
+        }
+        return new Expr.Neg(a);
+    }
+
+    static Expr add(Expr a, Expr b) {
+        Double ca = constant(a);
+        Double cb = constant(b);
+        if (ca != null && cb != null) {
+            return num(ca + cb);
+        }
+        if (isConstant(a, 0)) {
+            return b;
+        }
+        if (isConstant(b, 0)) {
+            return a;
+        }
+        if (b instanceof Expr.Neg) {
+            return sub(a, ((Expr.Neg) b).getOperand());
+        }
+        if (cb != null && cb < 0) {
+            return sub(a, num(-cb));
+        }
+        if (a instanceof Expr.Neg) {
+            return sub(b, ((Expr.Neg) a).getOperand());
+        }
+        Expr combined = combineLikeTerms(a, b, 1);
+        return combined != null ? combined : new Expr.Binary('+', a, b);
+    }
+
+    static Expr sub(Expr a, Expr b) {
+        Double ca = constant(a);
+        Double cb = constant(b);
+        if (ca != null && cb != null) {
+            return num(ca - cb);
+        }
+        if (isConstant(b, 0)) {
+            return a;
+        }
+        if (isConstant(a, 0)) {
+            return neg(b);
+        }
+        if (b instanceof Expr.Neg) {
+            return add(a, ((Expr.Neg) b).getOperand());
+        }
+        if (cb != null && cb < 0) {
+            return add(a, num(-cb));
+        }
+        Expr combined = combineLikeTerms(a, b, -1);
+        return combined != null ? combined : new Expr.Binary('-', a, b);
+    }
+
+    /** c1*t + sign*c2*t -> (c1 + sign*c2)*t, or null if the terms differ in more than the constant factor */
+    private static Expr combineLikeTerms(Expr a, Expr b, int sign) {
+        Scaled left = Scaled.of(a);
+        Scaled right = Scaled.of(b);
+        if (left.rest == null || right.rest == null || !same(left.rest, right.rest)) {
+            return null;
+        }
+        return mul(num(left.coefficient + sign * right.coefficient), left.rest);
+    }
+
+    /** Term split into its leading constant factor and the rest (2*a*b -> 2, a*b) */
+    private static final class Scaled {
+        final double coefficient;
+        final Expr rest;
+
+        private Scaled(double coefficient, Expr rest) {
+            this.coefficient = coefficient;
+            this.rest = rest;
+        }
+
+        static Scaled of(Expr expr) {
+            Double constant = constant(expr);
+            if (constant != null) {
+                return new Scaled(constant, null);
+            }
+            if (expr instanceof Expr.Neg) {
+                Scaled operand = of(((Expr.Neg) expr).getOperand());
+                return new Scaled(-operand.coefficient, operand.rest);
+            }
+            if (expr instanceof Expr.Binary) {
+                // Products are built left to right, so the constant is the leftmost factor
+                Expr.Binary binary = (Expr.Binary) expr;
+                if (binary.getOp() == '*' || binary.getOp() == '/') {
+                    Scaled left = of(binary.getLeft());
+                    if (left.rest == null && binary.getOp() == '*') {
+                        return new Scaled(left.coefficient, binary.getRight());
+                    }
+                    if (left.rest != null) {
+                        return new Scaled(left.coefficient, new Expr.Binary(binary.getOp(), left.rest, binary.getRight()));
+                    }
+                }
+            }
+            return new Scaled(1, expr);
+        }
+    }
+
+    /** Structural equality (literals by value, parameters and functions case-insensitively) */
+    static boolean same(Expr a, Expr b) {
+        if (a == b) {
+            return true;
+        }
+        if (a instanceof Expr.Num && b instanceof Expr.Num) {
+            return ((Expr.Num) a).getValue() == ((Expr.Num) b).getValue();
+        }
+        if (a instanceof Expr.Param && b instanceof Expr.Param) {
+            return ((Expr.Param) a).getKey().equals(((Expr.Param) b).getKey());
+        }
+        if (a instanceof Expr.Ref && b instanceof Expr.Ref) {
+            Expr.Ref ra = (Expr.Ref) a;
+            Expr.Ref rb = (Expr.Ref) b;
+            return ra.getIndex() == rb.getIndex() && ra.getArray().equalsIgnoreCase(rb.getArray());
+        }
+        if (a instanceof Expr.Neg && b instanceof Expr.Neg) {
+            return same(((Expr.Neg) a).getOperand(), ((Expr.Neg) b).getOperand());
+        }
+        if (a instanceof Expr.Binary && b instanceof Expr.Binary) {
+            Expr.Binary ba = (Expr.Binary) a;
+            Expr.Binary bb = (Expr.Binary) b;
+            return ba.getOp() == bb.getOp() && same(ba.getLeft(), bb.getLeft()) && same(ba.getRight(), bb.getRight());
+        }
+        if (a instanceof Expr.Call && b instanceof Expr.Call) {
+            Expr.Call ca = (Expr.Call) a;
+            Expr.Call cb = (Expr.Call) b;
+            if (!function(ca).equals(function(cb)) || ca.getArgs().size() != cb.getArgs().size()) {
+                return false;
+            }
+            for (int i = 0; i < ca.getArgs().size(); i++) {
+                if (!same(ca.getArgs().get(i), cb.getArgs().get(i))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+        return false;
+    }
+
+    static Expr mul(Expr a, Expr b) {
+        Double ca = constant(a);
+        Double cb = constant(b);
+        if (ca != null && cb != null) {
+            return num(ca * cb);
+        }
+        if (isConstant(a, 0) || isConstant(b, 0)) {
+            return ZERO;
+        }
+        if (isConstant(a, 1)) {
+            return b;
+        }
+        if (isConstant(b, 1)) {
+            return a;
+        }
+        if (a instanceof Expr.Neg) {
+            return neg(mul(((Expr.Neg) a).getOperand(), b));
+        }
+        if (b instanceof Expr.Neg) {
+            return neg(mul(a, ((Expr.Neg) b).getOperand()));
+        }
+        if (ca != null && ca < 0) {
+            return neg(mul(num(-ca), b));
+        }
+        if (cb != null) {
+            // Constant factor first: x*2 -> 2*x
+            return mul(b, a);
+        }
+        if (b instanceof Expr.Binary && (((Expr.Binary) b).getOp() == '*' || ((Expr.Binary) b).getOp() == '/')) {
+            // Left to right like Fortran, so no parentheses and constants meet: 2*(3*x) -> 6*x, a*(1/b) -> a/b
+            Expr.Binary right = (Expr.Binary) b;
+            Expr left = mul(a, right.getLeft());
+            return right.getOp() == '*' ? mul(left, right.getRight()) : div(left, right.getRight());
+        }
+        return new Expr.Binary('*', a, b);
+    }
+
+    static Expr div(Expr a, Expr b) {
+        Double ca = constant(a);
+        Double cb = constant(b);
+        if (ca != null && cb != null && cb != 0) {
+            return num(ca / cb);
+        }
+        if (isConstant(a, 0)) {
+            return ZERO;
+        }
+        if (isConstant(b, 1)) {
+            return a;
+        }
+        if (a instanceof Expr.Neg) {
+            return neg(div(((Expr.Neg) a).getOperand(), b));
+        }
+        if (b instanceof Expr.Neg) {
+            return neg(div(a, ((Expr.Neg) b).getOperand()));
+        }
+        return new Expr.Binary('/', a, b);
+    }
+
+    static Expr pow(Expr a, Expr b) {
+        if (isConstant(b, 0)) {
+            return ONE;
+        }
+        if (isConstant(b, 1)) {
+            return a;
+        }
+        Double ca = constant(a);
+        Double cb = constant(b);
+        if (ca != null && cb != null) {
+            double value = Math.pow(ca, cb);
+            if (Double.isFinite(value)) {
+                return num(value);
+            }
+        }
+        return new Expr.Binary('^', a, b);
+    }
+}
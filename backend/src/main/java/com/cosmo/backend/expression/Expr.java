@@ -0,0 +1,156 @@
+package com.cosmo.backend.expression;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Node of a parsed potential or metric expression.
+ *
+ * Nodes are immutable, so a parsed tree can be cached and shared between requests.
+ * Parentheses are not kept as nodes; the Fortran emitter adds them where precedence requires.
+ */
+public abstract class Expr {
+
+    /** Binding strength, used by the emitter to decide where parentheses are needed */
+    static final int ADDITIVE = 1;
+    static final int MULTIPLICATIVE = 2;
+    static final int POWER = 3;
+    static final int ATOM = 4;
+
+    abstract int precedence();
+
+    /**
+     * Numeric literal. Literals from the source keep their text (e.g. "0.1", "2.2e-12"),
+     * so the generated Fortran shows the number as the user wrote it.
+     */
+    public static final class Num extends Expr {
+        private final double value;
+        private final String text;
+
+        public Num(double value) {
+            this(value, null);
+        }
+
+        Num(double value, String text) {
+            this.value = value;
+            this.text = text;
+        }
+
+        public double getValue() { return value; }
+
+        /** Source text, or null for computed values */
+        public String getText() { return text; }
+
+        @Override
+        int precedence() {
+            // A negative value is emitted with a sign and behaves like a unary minus
+            return Double.compare(value, 0.0) < 0 ? ADDITIVE : ATOM;
+        }
+    }
+
+    /** Model parameter (e.g. m, lambda), resolved to a value or a potpar(k) reference when emitted */
+    public static final class Param extends Expr {
+        private final String name;
+
+        public Param(String name) {
+            this.name = name;
+        }
+
+        /** Name as written in the expression */
+        public String getName() { return name; }
+
+        /** Lower-case name; parameters are case-insensitive like Fortran identifiers */
+        public String getKey() { return name.toLowerCase(java.util.Locale.ROOT); }
+
+        @Override
+        int precedence() { return ATOM; }
+    }
+
+    /** Array element such as x(1) (field value) or potpar(2) (runtime parameter) */
+    public static final class Ref extends Expr {
+        private final String array;
+        private final int index;
+
+        public Ref(String array, int index) {
+            this.array = array;
+            this.index = index;
+        }
+
+        public String getArray() { return array; }
+        public int getIndex() { return index; }
+
+        public boolean isField() { return "x".equalsIgnoreCase(array); }
+
+        @Override
+        int precedence() { return ATOM; }
+    }
+
+    /** Unary minus */
+    public static final class Neg extends Expr {
+        private final Expr operand;
+
+        public Neg(Expr operand) {
+            this.operand = operand;
+        }
+
+        public Expr getOperand() { return operand; }
+
+        @Override
+        int precedence() { return ADDITIVE; }
+    }
+
+    /** Binary operation (+, -, *, /, **) */
+    public static final class Binary extends Expr {
+        private final char op;
+        private final Expr left;
+        private final Expr right;
+
+        /**
+         * @param op One of '+', '-', '*', '/' or '^' (power, emitted as **)
+         */
+        public Binary(char op, Expr left, Expr right) {
+            if ("+-*/^".indexOf(op) < 0) {
+                throw new IllegalArgumentException("Unknown operator: " + op);
+            }
+            this.op = op;
+            this.left = left;
+            this.right = right;
+        }
+
+        public char getOp() { return op; }
+        public Expr getLeft() { return left; }
+        public Expr getRight() { return right; }
+
+        @Override
+        int precedence() {
+            switch (op) {
+                case '+':
+                case '-':
+                    return ADDITIVE;
+                case '*':
+                case '/':
+                    return MULTIPLICATIVE;
+                default:
+                    return POWER;
+            }
+        }
+    }
+
+    /** Intrinsic function call such as Tanh(x(1)) or sqrt(6) */
+    public static final class Call extends Expr {
+        private final String function;
+        private final List<Expr> args;
+
+        public Call(String function, List<Expr> args) {
+            this.function = function;
+            this.args = Collections.unmodifiableList(args);
+        }
+
+        /** Function name as written in the expression */
+        public String getFunction() { return function; }
+        public List<Expr> getArgs() { return args; }
+
+        @Override
+        int precedence() { return ATOM; }
+    }
+}
@@ -0,0 +1,26 @@
+package com.cosmo.backend.expression;
+
+/**
+ * Invalid expression: syntax error, unknown function, unindexed or out-of-range field, or a
+ * parameter without value.
+ */
+public class ExpressionException extends IllegalArgumentException {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Character offset of the error in the expression, or -1 if not tied to a position */
+    private final int position;
+
+    public ExpressionException(String message) {
+        this(message, -1);
+    }
+
+    public ExpressionException(String message, int position) {
+        super(position >= 0 ? message + " (at position " + (position + 1) + ")" : message);
+        this.position = position;
+    }
+
+    public int getPosition() {
+        return position;
+    }
+}
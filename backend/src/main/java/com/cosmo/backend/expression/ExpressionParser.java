@@ -0,0 +1,284 @@
+package com.cosmo.backend.expression;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Tokenizer and recursive-descent parser for potential and metric expressions.
+ *
+ * Grammar (Fortran operator precedence, ** and ^ are both power and right associative):
+ * <pre>
+ *   expr    := signed (('+' | '-') term)*
+ *   signed  := ('-' | '+') signed | term
+ *   term    := unary (('*' | '/') unary)*
+ *   unary   := ('-' | '+') unary | power
+ *   power   := primary (('**' | '^') unary)?
+ *   primary := number | name | name '(' args ')' | 'x' '(' integer ')' | '(' expr ')'
+ * </pre>
+ * A leading sign applies to the whole term as in Fortran (-a*b is -(a*b)); a sign after an
+ * operator (a*-b, x**-2) is accepted and binds to the next operand.
+ * Numbers accept e, E, d and D exponents (2.2e-12, 1.d-3). A name followed by '(' must be
+ * a known intrinsic; any other name is a model parameter. The expression is scanned once.
+ */
+public final class ExpressionParser {
+
+    /** Intrinsics accepted in expressions: lower-case name -> {min, max} argument count */
+    private static final Map<String, int[]> FUNCTIONS = Map.ofEntries(
+        Map.entry("sin", new int[] {1, 1}), Map.entry("cos", new int[] {1, 1}), Map.entry("tan", new int[] {1, 1}),
+        Map.entry("sinh", new int[] {1, 1}), Map.entry("cosh", new int[] {1, 1}), Map.entry("tanh", new int[] {1, 1}),
+        Map.entry("asin", new int[] {1, 1}), Map.entry("acos", new int[] {1, 1}), Map.entry("atan", new int[] {1, 1}),
+        Map.entry("exp", new int[] {1, 1}), Map.entry("log", new int[] {1, 1}), Map.entry("ln", new int[] {1, 1}),
+        Map.entry("log10", new int[] {1, 1}), Map.entry("sqrt", new int[] {1, 1}), Map.entry("abs", new int[] {1, 1}),
+        Map.entry("dsin", new int[] {1, 1}), Map.entry("dcos", new int[] {1, 1}), Map.entry("dtan", new int[] {1, 1}),
+        Map.entry("dsinh", new int[] {1, 1}), Map.entry("dcosh", new int[] {1, 1}), Map.entry("dtanh", new int[] {1, 1}),
+        Map.entry("dexp", new int[] {1, 1}), Map.entry("dlog", new int[] {1, 1}), Map.entry("dsqrt", new int[] {1, 1}),
+        Map.entry("dabs", new int[] {1, 1}), Map.entry("atan2", new int[] {2, 2}), Map.entry("datan2", new int[] {2, 2}),
+        Map.entry("min", new int[] {2, Integer.MAX_VALUE}), Map.entry("max", new int[] {2, Integer.MAX_VALUE})
+    );
+
+    private final String source;
+    private int pos;
+    private final Set<String> parameters = new LinkedHashSet<>();
+    private int maxFieldIndex;
+
+    private ExpressionParser(String source) {
+        this.source = source;
+    }
+
+    /**
+     * Parse an expression.
+     *
+     * @param source Expression as entered in the frontend (e.g. "(1 - exp(-sqrt(2/3) * x(1)))**2")
+     * @return The parsed expression
+     * @throws ExpressionException If the expression is empty or invalid
+     */
+    public static ParsedExpression parse(String source) {
+        if (source == null || source.trim().isEmpty()) {
+            throw new ExpressionException("Expression is empty");
+        }
+        ExpressionParser parser = new ExpressionParser(source);
+        Expr root = parser.parseExpr();
+        parser.skipSpaces();
+        if (parser.pos < source.length()) {
+            throw new ExpressionException("Unexpected '" + source.charAt(parser.pos) + "'", parser.pos);
+        }
+        return new ParsedExpression(source, root, parser.parameters, parser.maxFieldIndex);
+    }
+
+    /** Whether the name (any case) is an accepted intrinsic function */
+    public static boolean isFunction(String name) {
+        return FUNCTIONS.containsKey(name.toLowerCase(Locale.ROOT));
+    }
+
+    private Expr parseExpr() {
+        Expr left = parseSigned();
+        while (true) {
+            char c = peek();
+            if (c != '+' && c != '-') {
+                return left;
+            }
+            pos++;
+            left = new Expr.Binary(c, left, parseTerm());
+        }
+    }
+
+    private Expr parseSigned() {
+        char c = peek();
+        if (c == '-') {
+            pos++;
+            return new Expr.Neg(parseSigned());
+        }
+        if (c == '+') {
+            pos++;
+            return parseSigned();
+        }
+        return parseTerm();
+    }
+
+    private Expr parseTerm() {
+        Expr left = parseUnary();
+        while (true) {
+            char c = peek();
+            if ((c != '*' && c != '/') || isPowerOperator()) {
+                return left;
+            }
+            pos++;
+            left = new Expr.Binary(c, left, parseUnary());
+        }
+    }
+
+    private Expr parseUnary() {
+        char c = peek();
+        if (c == '-') {
+            pos++;
+            return new Expr.Neg(parseUnary());
+        }
+        if (c == '+') {
+            pos++;
+            return parseUnary();
+        }
+        return parsePower();
+    }
+
+    private Expr parsePower() {
+        Expr base = parsePrimary();
+        if (isPowerOperator()) {
+            pos += source.charAt(pos) == '^' ? 1 : 2;
+            return new Expr.Binary('^', base, parseUnary());
+        }
+        return base;
+    }
+
+    /** At ** or ^ (after skipping spaces) */
+    private boolean isPowerOperator() {
+        char c = peek();
+        return c == '^' || (c == '*' && pos + 1 < source.length() && source.charAt(pos + 1) == '*');
+    }
+
+    private Expr parsePrimary() {
+        char c = peek();
+        int start = pos;
+        if (c == '(') {
+            pos++;
+            Expr inner = parseExpr();
+            expect(')');
+            return inner;
+        }
+        if (isDigit(c) || c == '.') {
+            return parseNumber();
+        }
+        if (isLetter(c)) {
+            String name = parseName();
+            String key = name.toLowerCase(Locale.ROOT);
+            boolean call = peek() == '(';
+            if ("x".equals(key)) {
+                if (!call) {
+                    throw new ExpressionException("Field x needs an index, e.g. x(1)", start);
+                }
+                pos++;
+                skipSpaces();
+                int indexStart = pos;
+                while (pos < source.length() && isDigit(source.charAt(pos))) {
+                    pos++;
+                }
+                if (indexStart == pos || pos - indexStart > 6) {
+                    throw new ExpressionException("Field index must be a positive integer, e.g. x(1)", indexStart);
+                }
+                int index = Integer.parseInt(source.substring(indexStart, pos));
+                if (index < 1) {
+                    throw new ExpressionException("Field index must be at least 1", indexStart);
+                }
+                expect(')');
+                maxFieldIndex = Math.max(maxFieldIndex, index);
+                return new Expr.Ref(name, index);
+            }
+            int[] arity = FUNCTIONS.get(key);
+            if (call) {
+                if (arity == null) {
+                    throw new ExpressionException("Unknown function '" + name + "'", start);
+                }
+                pos++;
+                List<Expr> args = new ArrayList<>();
+                args.add(parseExpr());
+                while (peek() == ',') {
+                    pos++;
+                    args.add(parseExpr());
+                }
+                expect(')');
+                if (args.size() < arity[0] || args.size() > arity[1]) {
+                    throw new ExpressionException("Wrong number of arguments for '" + name + "'", start);
+                }
+                return new Expr.Call(name, args);
+            }
+            if (arity != null) {
+                throw new ExpressionException("Function '" + name + "' needs an argument", start);
+            }
+            parameters.add(key);
+            return new Expr.Param(name);
+        }
+        if (pos >= source.length()) {
+            throw new ExpressionException("Unexpected end of expression", pos);
+        }
+        throw new ExpressionException("Unexpected '" + c + "'", pos);
+    }
+
+    private Expr parseNumber() {
+        int start = pos;
+        while (pos < source.length() && isDigit(source.charAt(pos))) {
+            pos++;
+        }
+        if (pos < source.length() && source.charAt(pos) == '.') {
+            pos++;
+            while (pos < source.length() && isDigit(source.charAt(pos))) {
+                pos++;
+            }
+        }
+        if (pos - start == 1 && source.charAt(start) == '.') {
+            throw new ExpressionException("Invalid number", start);
+        }
+        if (pos < source.length() && "eEdD".indexOf(source.charAt(pos)) >= 0) {
+            int exponent = pos + 1;
+            if (exponent < source.length() && (source.charAt(exponent) == '+' || source.charAt(exponent) == '-')) {
+                exponent++;
+            }
+            int digits = exponent;
+            while (digits < source.length() && isDigit(source.charAt(digits))) {
+                digits++;
+            }
+            if (digits == exponent) {
+                throw new ExpressionException("Invalid exponent in number", pos);
+            }
+            pos = digits;
+        }
+        if (pos < source.length() && (isLetter(source.charAt(pos)) || source.charAt(pos) == '_')) {
+            throw new ExpressionException("Missing operator after number", pos);
+        }
+        String text = source.substring(start, pos);
+        double value = Double.parseDouble(text.replace('d', 'e').replace('D', 'e'));
+        return new Expr.Num(value, text);
+    }
+
+    private String parseName() {
+        int start = pos;
+        while (pos < source.length()
+                && (isLetter(source.charAt(pos)) || isDigit(source.charAt(pos)) || source.charAt(pos) == '_')) {
+            pos++;
+        }
+        return source.substring(start, pos);
+    }
+
+    private void expect(char expected) {
+        if (peek() != expected) {
+            if (pos >= source.length()) {
+                throw new ExpressionException("Missing '" + expected + "'", pos);
+            }
+            throw new ExpressionException("Expected '" + expected + "' but found '" + source.charAt(pos) + "'", pos);
+        }
+        pos++;
+    }
+
+    /** Next non-space character (0 at the end); leaves pos on it */
+    private char peek() {
+        skipSpaces();
+        return pos < source.length() ? source.charAt(pos) : 0;
+    }
+
+    private void skipSpaces() {
+        while (pos < source.length() && Character.isWhitespace(source.charAt(pos))) {
+            pos++;
+        }
+    }
+
+    private static boolean isDigit(char c) {
+        return c >= '0' && c <= '9';
+    }
+
+    /** ASCII letters only: names end up in Fortran source */
+    private static boolean isLetter(char c) {
+        return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+}
@@ -0,0 +1,182 @@
+package com.cosmo.backend.expression;
+
+import java.util.Locale;
+import java.util.function.Function;
+
+/**
+ * Emits an expression tree as a Fortran 77 assignment in fixed form, in one pass over the tree.
+ *
+ * Tokens are written left to right; when the next token would pass column 72 the statement
+ * continues on a new line with '-' in column 6. Parentheses are added only where Fortran
+ * precedence requires them (including around a negative operand, e.g. a*(-b)). Numeric
+ * literals get double precision form (0.1 -> 0.1d0, 6 -> 6.d0, 2.2e-12 -> 2.2d-12); an
+ * integer literal used as exponent stays an integer (x**2, x**(-2)), which Fortran evaluates
+ * as repeated multiplication.
+ */
+public final class FortranEmitter {
+
+    /** Last column of a fixed-form statement */
+    public static final int LINE_LENGTH = 72;
+
+    /** Prefix of continuation lines: 5 spaces and '-' in column 6 */
+    public static final String CONTINUATION = "     -";
+
+    private final Function<Expr.Param, Expr> parameters;
+    private final int numFields;
+    private final StringBuilder out = new StringBuilder();
+    /** Length of the current line and whether it holds anything after the prefix */
+    private int lineLength;
+    private boolean lineEmpty = true;
+
+    private FortranEmitter(String firstLinePrefix, Function<Expr.Param, Expr> parameters, int numFields) {
+        this.parameters = parameters;
+        this.numFields = numFields;
+        out.append(firstLinePrefix);
+        lineLength = firstLinePrefix.length();
+    }
+
+    /**
+     * Emit a statement.
+     *
+     * @param firstLinePrefix Start of the first line including the assignment (e.g. "      VV=       ")
+     * @param expr Expression tree
+     * @param parameters Value (Num) or reference (e.g. potpar(k)) for each parameter; null if unknown
+     * @param numFields Number of fields; x(n) with n above it is rejected (0 = no check)
+     * @return Fortran source lines separated by '\n' (no trailing newline)
+     * @throws ExpressionException If a parameter has no binding or a field index is out of range
+     */
+    public static String emit(String firstLinePrefix, Expr expr, Function<Expr.Param, Expr> parameters, int numFields) {
+        FortranEmitter emitter = new FortranEmitter(firstLinePrefix, parameters, numFields);
+        emitter.write(expr);
+        return emitter.out.toString();
+    }
+
+    /**
+     * Fortran double precision literal with full precision (e.g. 5.000000000000000d-02)
+     */
+    public static String formatDouble(double value) {
+        return String.format(Locale.ROOT, "%.15e", value).replace('e', 'd');
+    }
+
+    private void write(Expr expr) {
+        expr = resolve(expr);
+        if (expr instanceof Expr.Num) {
+            token(number((Expr.Num) expr, false));
+        } else if (expr instanceof Expr.Ref) {
+            Expr.Ref ref = (Expr.Ref) expr;
+            if (ref.isField() && numFields > 0 && ref.getIndex() > numFields) {
+                throw new ExpressionException(ref.getArray() + "(" + ref.getIndex() + ") used but there are only "
+                    + numFields + " field(s)");
+            }
+            token(ref.getArray() + "(" + ref.getIndex() + ")");
+        } else if (expr instanceof Expr.Neg) {
+            token("-");
+            Expr operand = resolve(((Expr.Neg) expr).getOperand());
+            writeOperand(operand, operand.precedence() <= Expr.ADDITIVE);
+        } else if (expr instanceof Expr.Binary) {
+            writeBinary((Expr.Binary) expr);
+        } else if (expr instanceof Expr.Call) {
+            Expr.Call call = (Expr.Call) expr;
+            // Fortran has no ln
+            token("ln".equalsIgnoreCase(call.getFunction()) ? "log" : call.getFunction());
+            token("(");
+            for (int i = 0; i < call.getArgs().size(); i++) {
+                if (i > 0) {
+                    token(",");
+                }
+                write(call.getArgs().get(i));
+            }
+            token(")");
+        } else {
+            throw new IllegalStateException("Unexpected node " + expr.getClass().getSimpleName());
+        }
+    }
+
+    private void writeBinary(Expr.Binary binary) {
+        int precedence = binary.precedence();
+        boolean power = binary.getOp() == '^';
+        Expr left = resolve(binary.getLeft());
+        Expr right = resolve(binary.getRight());
+
+        // (a**b)**c and (-a)**2 need parentheses; -a+b does not
+        writeOperand(left, left.precedence() < precedence || (power && left.precedence() == precedence));
+        token(power ? "**" : String.valueOf(binary.getOp()));
+        if (power && right instanceof Expr.Num && isIntegerLiteral((Expr.Num) right)) {
+            token(number((Expr.Num) right, true));
+            return;
+        }
+        if (power && right instanceof Expr.Neg && ((Expr.Neg) right).getOperand() instanceof Expr.Num
+                && isIntegerLiteral((Expr.Num) ((Expr.Neg) right).getOperand())) {
+            // x**(-2) stays integer, so a negative base is valid
+            token("(");
+            token("-" + number((Expr.Num) ((Expr.Neg) right).getOperand(), true));
+            token(")");
+            return;
+        }
+        // a-(b+c), a/(b*c) and a*(-b) need parentheses; a**b**c is right associative
+        writeOperand(right, right.precedence() < precedence || (!power && right.precedence() == precedence));
+    }
+
+    private void writeOperand(Expr operand, boolean parenthesize) {
+        if (parenthesize) {
+            token("(");
+            write(operand);
+            token(")");
+        } else {
+            write(operand);
+        }
+    }
+
+    private Expr resolve(Expr expr) {
+        if (!(expr instanceof Expr.Param)) {
+            return expr;
+        }
+        Expr.Param param = (Expr.Param) expr;
+        Expr bound = parameters != null ? parameters.apply(param) : null;
+        if (bound == null || bound instanceof Expr.Param) {
+            throw new ExpressionException("No value for parameter '" + param.getName() + "'");
+        }
+        return bound;
+    }
+
+    private static boolean isIntegerLiteral(Expr.Num num) {
+        String text = num.getText();
+        if (text == null || text.isEmpty()) {
+            return false;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) < '0' || text.charAt(i) > '9') {
+                return false;
+            }
+        }
+        return text.length() <= 9;
+    }
+
+    private static String number(Expr.Num num, boolean integer) {
+        String text = num.getText();
+        if (text == null) {
+            return formatDouble(num.getValue());
+        }
+        if (integer) {
+            return text;
+        }
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (c == 'e' || c == 'E' || c == 'd' || c == 'D') {
+                return text.substring(0, i) + "d" + text.substring(i + 1);
+            }
+        }
+        return text.indexOf('.') >= 0 ? text + "d0" : text + ".d0";
+    }
+
+    /** Append a token, continuing on a new line if it would pass column 72 */
+    private void token(String token) {
+        if (!lineEmpty && lineLength + token.length() > LINE_LENGTH) {
+            out.append('\n').append(CONTINUATION);
+            lineLength = CONTINUATION.length();
+        }
+        out.append(token);
+        lineLength += token.length();
+        lineEmpty = false;
+    }
+}
@@ -0,0 +1,143 @@
+package com.cosmo.backend.expression;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Closed-form derivatives of a field-space metric g(i,j) for the geometry routines of multifix.f.
+ *
+ * Index conventions follow multifix: lld(i,j,k) = dg(i,j)/dx(k); Chris(i,j,k) =
+ * 0.5/g(k,k)*(lld(k,i,j)+lld(k,j,i)-lld(i,j,k)), the Christoffel symbol of a diagonal metric as
+ * computed by the function g; dChris(i,j,k,l) = d Chris(i,j,k)/dx(l). Only non-zero entries are
+ * kept. The Christoffel symbols are available for constant metrics (all zero) and diagonal
+ * metrics; for other metrics multifix uses the eigenvalues of the metric, which have no closed
+ * form, so only lld is analytic.
+ */
+public final class MetricDerivatives {
+
+    /** Non-zero entry of a derivative array (indices 1-based, in Fortran order) */
+    public static final class Term {
+        private final int[] index;
+        private final Expr value;
+
+        Term(Expr value, int... index) {
+            this.index = index;
+            this.value = value;
+        }
+
+        public int[] getIndex() { return index.clone(); }
+        public Expr getValue() { return value; }
+
+        /** Array element for the given array name, e.g. lld(1,2,1) */
+        public String element(String array) {
+            StringBuilder sb = new StringBuilder(array).append('(');
+            for (int i = 0; i < index.length; i++) {
+                if (i > 0) {
+                    sb.append(',');
+                }
+                sb.append(index[i]);
+            }
+            return sb.append(')').toString();
+        }
+    }
+
+    private final boolean constant;
+    private final boolean diagonal;
+    private final List<Term> metricDerivatives;
+    private final List<Term> christoffel;
+    private final List<Term> christoffelDerivatives;
+
+    private MetricDerivatives(boolean constant, boolean diagonal, List<Term> metricDerivatives,
+                              List<Term> christoffel, List<Term> christoffelDerivatives) {
+        this.constant = constant;
+        this.diagonal = diagonal;
+        this.metricDerivatives = Collections.unmodifiableList(metricDerivatives);
+        this.christoffel = christoffel == null ? null : Collections.unmodifiableList(christoffel);
+        this.christoffelDerivatives = christoffelDerivatives == null ? null
+            : Collections.unmodifiableList(christoffelDerivatives);
+    }
+
+    /**
+     * Differentiate a metric.
+     *
+     * @param metric Entries g(i,j), metric[i-1][j-1], nf x nf
+     * @return The derivatives, or null if an entry has no closed-form derivative (min or max of fields)
+     */
+    public static MetricDerivatives of(Expr[][] metric) {
+        int nf = metric.length;
+        boolean constant = true;
+        boolean diagonal = true;
+        for (int i = 0; i < nf; i++) {
+            for (int j = 0; j < nf; j++) {
+                Expr entry = metric[i][j];
+                if (!Differentiator.isDifferentiable(entry)) {
+                    return null;
+                }
+                constant &= !Differentiator.dependsOnFields(entry);
+                diagonal &= i == j || isZero(entry);
+            }
+        }
+        if (constant) {
+            return new MetricDerivatives(true, diagonal, List.of(), List.of(), List.of());
+        }
+
+        // d[i][j][k] = dg(i,j)/dx(k)
+        Expr[][][] d = new Expr[nf][nf][nf];
+        List<Term> metricDerivatives = new ArrayList<>();
+        for (int i = 0; i < nf; i++) {
+            for (int j = 0; j < nf; j++) {
+                for (int k = 0; k < nf; k++) {
+                    d[i][j][k] = Differentiator.differentiate(metric[i][j], k + 1);
+                    if (!isZero(d[i][j][k])) {
+                        metricDerivatives.add(new Term(d[i][j][k], i + 1, j + 1, k + 1));
+                    }
+                }
+            }
+        }
+        if (!diagonal) {
+            return new MetricDerivatives(false, false, metricDerivatives, null, null);
+        }
+
+        List<Term> christoffel = new ArrayList<>();
+        List<Term> christoffelDerivatives = new ArrayList<>();
+        for (int i = 0; i < nf; i++) {
+            for (int j = 0; j < nf; j++) {
+                for (int k = 0; k < nf; k++) {
+                    Expr sum = Differentiator.sub(Differentiator.add(d[k][i][j], d[k][j][i]), d[i][j][k]);
+                    if (isZero(sum)) {
+                        continue;
+                    }
+                    Expr symbol = Differentiator.div(Differentiator.mul(Differentiator.num(0.5), sum), metric[k][k]);
+                    christoffel.add(new Term(symbol, i + 1, j + 1, k + 1));
+                    for (int l = 0; l < nf; l++) {
+                        Expr derivative = Differentiator.differentiate(symbol, l + 1);
+                        if (!isZero(derivative)) {
+                            christoffelDerivatives.add(new Term(derivative, i + 1, j + 1, k + 1, l + 1));
+                        }
+                    }
+                }
+            }
+        }
+        return new MetricDerivatives(false, true, metricDerivatives, christoffel, christoffelDerivatives);
+    }
+
+    private static boolean isZero(Expr expr) {
+        return expr instanceof Expr.Num && ((Expr.Num) expr).getValue() == 0;
+    }
+
+    /** No entry depends on the fields (all derivatives and Christoffel symbols vanish) */
+    public boolean isConstant() { return constant; }
+
+    /** All off-diagonal entries are zero */
+    public boolean isDiagonal() { return diagonal; }
+
+    /** Non-zero lld(i,j,k) */
+    public List<Term> getMetricDerivatives() { return metricDerivatives; }
+
+    /** Non-zero Chris(i,j,k), or null if the metric is neither constant nor diagonal */
+    public List<Term> getChristoffel() { return christoffel; }
+
+    /** Non-zero dChris(i,j,k,l), or null if the metric is neither constant nor diagonal */
+    public List<Term> getChristoffelDerivatives() { return christoffelDerivatives; }
+}
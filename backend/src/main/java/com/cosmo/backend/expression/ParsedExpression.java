@@ -0,0 +1,33 @@
+package com.cosmo.backend.expression;
+
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * A parsed expression with what validation needs: the parameters it uses and the highest
+ * field index. Immutable, so it can be cached by source text and shared.
+ */
+public final class ParsedExpression {
+
+    private final String source;
+    private final Expr root;
+    private final Set<String> parameters;
+    private final int maxFieldIndex;
+
+    ParsedExpression(String source, Expr root, Set<String> parameters, int maxFieldIndex) {
+        this.source = source;
+        this.root = root;
+        this.parameters = Collections.unmodifiableSet(new LinkedHashSet<>(parameters));
+        this.maxFieldIndex = maxFieldIndex;
+    }
+
+    public String getSource() { return source; }
+    public Expr getRoot() { return root; }
+
+    /** Parameter names used in the expression (lower case, in order of first use) */
+    public Set<String> getParameters() { return parameters; }
+
+    /** Highest n of the x(n) used, 0 if the expression does not depend on the fields */
+    public int getMaxFieldIndex() { return maxFieldIndex; }
+}
@@ -0,0 +1,58 @@
+package com.cosmo.backend.expression;
+
+/**
+ * Closed-form gradient dV/dx(i) and Hessian d2V/dx(i)dx(j) of a potential, for fields 1..nf.
+ *
+ * The Hessian is built from the simplified gradient and only the upper triangle is stored;
+ * it is symmetric. Immutable, so it can be cached with the parsed expression.
+ */
+public final class PotentialDerivatives {
+
+    private final int numFields;
+    private final Expr[] gradient;
+    /** hessian[i][j - i] = d2V/dx(i+1)dx(j+1) for j >= i */
+    private final Expr[][] hessian;
+
+    private PotentialDerivatives(int numFields, Expr[] gradient, Expr[][] hessian) {
+        this.numFields = numFields;
+        this.gradient = gradient;
+        this.hessian = hessian;
+    }
+
+    /**
+     * Differentiate a potential.
+     *
+     * @param potential Potential expression tree
+     * @param numFields Number of fields
+     * @return The derivatives, or null if the potential has no closed-form derivative (min or max of fields)
+     */
+    public static PotentialDerivatives of(Expr potential, int numFields) {
+        if (!Differentiator.isDifferentiable(potential)) {
+            return null;
+        }
+        Expr[] gradient = new Expr[numFields];
+        Expr[][] hessian = new Expr[numFields][];
+        for (int i = 0; i < numFields; i++) {
+            gradient[i] = Differentiator.differentiate(potential, i + 1);
+        }
+        for (int i = 0; i < numFields; i++) {
+            hessian[i] = new Expr[numFields - i];
+            for (int j = i; j < numFields; j++) {
+                hessian[i][j - i] = Differentiator.differentiate(gradient[i], j + 1);
+            }
+        }
+        return new PotentialDerivatives(numFields, gradient, hessian);
+    }
+
+    public int getNumFields() { return numFields; }
+
+    /** dV/dx(i), i 1-based */
+    public Expr getGradient(int i) {
+        return gradient[i - 1];
+    }
+
+    /** d2V/dx(i)dx(j), i and j 1-based in any order */
+    public Expr getHessian(int i, int j) {
+        return i <= j ? hessian[i - 1][j - i] : hessian[j - 1][i - j];
+    }
+}
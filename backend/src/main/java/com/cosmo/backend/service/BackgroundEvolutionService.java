@@ -0,0 +1,387 @@
+package com.cosmo.backend.service;
+
+import com.cosmo.backend.dto.InitialConditionsDTO;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Background stage of multifix.f in Java, for instant previews and for rejecting calculations
+ * whose background cannot inflate before a Fortran job is queued.
+ *
+ * Same equations and integrator as the Fortran program: the fields x(i) and velocities
+ * xd(i) = dx(i)/dN are integrated in e-folds N with the adaptive Cash-Karp Runge-Kutta of
+ * odeintone (accuracy 1e-5, initial step dt) from one output time N = j*dt to the next, for at
+ * most 10000 steps, until epsilon = 0.5*g(i,j)*xd(i)*xd(j) exceeds 1. Initial velocities are
+ * the slow-roll values of xic unless cosmo.fortran.use-field-velocities is set. The metric
+ * enters through its eigenvalues (Jacobi, as in the subroutine metric) and the Christoffel
+ * symbols of the function g; potential gradient and metric derivatives are evaluated in closed
+ * form (central differences for min/max). multifix evaluates epsilon with the metric at an
+ * uninitialized point; here the current fields are used, which is the same for constant metrics.
+ */
+@Service
+public class BackgroundEvolutionService {
+
+    private static final Logger logger = LoggerFactory.getLogger(BackgroundEvolutionService.class);
+
+    /** Output times of the background (parameter timestep in multifix.f) */
+    private static final int MAX_STEPS = 10000;
+
+    /** Accuracy of odeintone (epsi in multifix.f) */
+    private static final double ACCURACY = 1.0e-5;
+
+    /** Integrator steps per output interval (MAXSTP of odeintone) */
+    private static final int MAX_INTEGRATOR_STEPS = 100000;
+
+    /** Use the user-provided fieldVelocities instead of the slow-roll initial velocities (as for multifix) */
+    @Value("${cosmo.fortran.use-field-velocities:false}")
+    private boolean useFieldVelocities;
+
+    /** Wall-clock limit of one evolution; a preview that takes longer is returned as far as it got */
+    @Value("${cosmo.preview.timeout-ms:2000}")
+    private long timeoutMillis;
+
+    /** Run the background in Java before queueing a calculation and reject those that cannot inflate */
+    @Value("${cosmo.preview.validate-calculations:true}")
+    private boolean validateCalculations;
+
+    @Autowired
+    private ExpressionService expressionService;
+
+    @Autowired
+    private MetricsService metricsService;
+
+    /** Whether /calculate runs the background check before queueing */
+    public boolean isValidationEnabled() {
+        return validateCalculations;
+    }
+
+    /**
+     * Evolve the background of a calculation.
+     *
+     * @param conditions Fields, velocities, potential, parameters, metric and dt of the request
+     * @return The trajectory up to the end of inflation (or as far as it got)
+     * @throws com.cosmo.backend.expression.ExpressionException If the potential or metric is invalid or a parameter has no value
+     */
+    public BackgroundResult evolve(InitialConditionsDTO conditions) {
+        long start = System.nanoTime();
+        FieldSpaceModel model = new FieldSpaceModel(expressionService, conditions);
+        Evolution evolution = new Evolution(model);
+        int nf = model.nf;
+        double dt = conditions.getTimeStep() != null && conditions.getTimeStep() > 0 ? conditions.getTimeStep() : 0.05;
+        long deadline = start + timeoutMillis * 1_000_000L;
+
+        double[] x0 = new double[nf];
+        for (int i = 0; i < nf; i++) {
+            x0[i] = conditions.getFieldValues().get(i);
+        }
+        BackgroundResult result = new BackgroundResult(nf);
+        result.initialPotential = model.potential(x0);
+        if (!(result.initialPotential > 0)) {
+            result.failure = "Potential is not positive at the initial field values (V = " + result.initialPotential + ")";
+            return finish(result, start);
+        }
+
+        // Initial velocities: slow roll as in xic, or the values of the request
+        double[] q = new double[2 * nf];
+        double[] metric = model.metricEigenvalues(x0);
+        double[] gradient = model.gradient(x0);
+        List<Double> velocities = conditions.getFieldVelocities();
+        for (int i = 0; i < nf; i++) {
+            q[i] = x0[i];
+            q[i + nf] = useFieldVelocities && velocities != null && i < velocities.size() && velocities.get(i) != null
+                ? velocities.get(i)
+                : -gradient[i] / metric[i] / result.initialPotential;
+        }
+        result.initialVelocities = Arrays.copyOfRange(q, nf, 2 * nf);
+        double initialEpsilon = evolution.epsilon(q);
+        if (!(initialEpsilon < 3.0)) {
+            // H^2 = V/(3-epsilon) has no solution; the Fortran evolution produces NaN from the first step
+            result.failure = String.format("Initial epsilon = %.4g is not below 3, the fields are not slow-rolling",
+                initialEpsilon);
+            return finish(result, start);
+        }
+
+        // Output times N = j*dt, j = 1..MAX_STEPS; the first interval starts at N = 0
+        int j;
+        for (j = 1; j <= MAX_STEPS; j++) {
+            String failure = evolution.integrate(q, dt * (j - 1), dt * j, dt, deadline);
+            if (failure != null) {
+                if (failure == Evolution.TIMED_OUT) {
+                    result.timedOut = true;
+                } else {
+                    result.failure = failure;
+                }
+                break;
+            }
+            double epsilon = evolution.epsilon(q);
+            double hubble = Math.sqrt(model.potential(Arrays.copyOf(q, nf)) / (3.0 - epsilon));
+            if (!Double.isFinite(epsilon) || Double.isNaN(hubble) || !allFinite(q)) {
+                result.failure = String.format("Background evolution diverged at N = %.4g", dt * j);
+                break;
+            }
+            result.add(dt * j, q, epsilon, hubble);
+            if (j > 1 && epsilon > 1.0) {
+                break;
+            }
+        }
+        // timestep2 of multifix: the last step before epsilon passed 1
+        int lastInflatingStep = Math.min(j, MAX_STEPS + 1) - 1;
+        result.inflationEnded = j <= MAX_STEPS && result.failure == null && !result.timedOut;
+        result.nEnd = result.inflationEnded || j > MAX_STEPS ? lastInflatingStep * dt : Double.NaN;
+        if (result.inflationEnded && lastInflatingStep < 2) {
+            result.failure = String.format("Inflation ends after N = %.4g e-folds, no k modes to evolve", result.nEnd);
+        }
+        return finish(result, start);
+    }
+
+    private BackgroundResult finish(BackgroundResult result, long start) {
+        result.elapsedNanos = System.nanoTime() - start;
+        metricsService.recordTime("cosmo_preview_duration", "Background evolution preview duration",
+            result.elapsedNanos, "outcome", result.failure != null ? "failed" : result.timedOut ? "timeout" : "completed");
+        logger.info("Background preview: {} steps, N_end={}, {} in {} ms", result.count, result.nEnd,
+            result.failure != null ? result.failure : result.inflationEnded ? "inflation ended" : "inflation did not end",
+            result.elapsedNanos / 1_000_000);
+        return result;
+    }
+
+    private static boolean allFinite(double[] values) {
+        for (double value : values) {
+            if (!Double.isFinite(value)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Background equations and integrator on a compiled model; one per evolution (also used for
+     * the background of the Java solver, see {@link PerturbationSolverService})
+     */
+    static final class Evolution {
+
+        static final String TIMED_OUT = "timed out";
+
+        final FieldSpaceModel model;
+        final int nf;
+
+        Evolution(FieldSpaceModel model) {
+            this.model = model;
+            this.nf = model.nf;
+        }
+
+        double epsilon(double[] q) {
+            double[] d = model.metricEigenvalues(Arrays.copyOf(q, nf));
+            double sd2 = 0;
+            for (int i = 0; i < nf; i++) {
+                sd2 += d[i] * q[i + nf] * q[i + nf];
+            }
+            return 0.5 * sd2;
+        }
+
+        /** Right-hand side of the background equations (subroutine derivs) */
+        void derivs(double[] q, double[] dqdt) {
+            double[] x = Arrays.copyOf(q, nf);
+            double[] d = model.metricEigenvalues(x);
+            double[] dV = model.gradient(x);
+            double v = model.potential(x);
+            double[][][] lld = model.metricDerivatives(x);
+            double sd2 = 0;
+            for (int i = 0; i < nf; i++) {
+                sd2 += d[i] * q[i + nf] * q[i + nf];
+            }
+            double friction = 3.0 - 0.5 * sd2;
+            for (int j = 0; j < nf; j++) {
+                dqdt[j] = q[j + nf];
+                // chris(k,l,j) = 0.5/ll(j,j)*(lld(j,k,l)+lld(j,l,k)-lld(k,l,j))
+                double a = 0;
+                if (!model.constantMetric) {
+                    for (int k = 0; k < nf; k++) {
+                        for (int l = 0; l < nf; l++) {
+                            double chris = 0.5 / d[j] * (lld[j][k][l] + lld[j][l][k] - lld[k][l][j]);
+                            a += chris * q[k + nf] * q[l + nf];
+                        }
+                    }
+                }
+                dqdt[j + nf] = -a - q[j + nf] * friction - friction * (dV[j] / d[j] / v);
+            }
+        }
+
+        /**
+         * Integrate from t1 to t2 (odeintone with rkqsone and rkckone)
+         *
+         * @return null on success, TIMED_OUT, or the reason the integration failed
+         */
+        String integrate(double[] y, double t1, double t2, double h1, long deadline) {
+            int n = y.length;
+            double t = t1;
+            double h = Math.copySign(h1, t2 - t1);
+            double[] dydt = new double[n];
+            double[] yscal = new double[n];
+            double[] step = new double[2];
+            for (int s = 0; s < MAX_INTEGRATOR_STEPS; s++) {
+                if (System.nanoTime() - deadline > 0) {
+                    return TIMED_OUT;
+                }
+                derivs(y, dydt);
+                for (int i = 0; i < n; i++) {
+                    yscal[i] = Math.abs(y[i]) + Math.abs(h * dydt[i]) + 1.0e-30;
+                }
+                if ((t + h - t2) * (t + h - t1) > 0) {
+                    h = t2 - t;
+                }
+                if (!stepAdaptive(y, dydt, t, h, yscal, step)) {
+                    return String.format("Step size underflow at N = %.4g", t);
+                }
+                t += step[0];
+                if ((t - t2) * (t2 - t1) >= 0) {
+                    return null;
+                }
+                h = step[1];
+            }
+            return String.format("Too many integration steps at N = %.4g", t);
+        }
+
+        /** rkqsone: one step with error control; step = {hdid, hnext} */
+        private boolean stepAdaptive(double[] y, double[] dydt, double t, double htry, double[] yscal, double[] step) {
+            int n = y.length;
+            double[] ytemp = new double[n];
+            double[] yerr = new double[n];
+            double h = htry;
+            while (true) {
+                cashKarp(y, dydt, t, h, ytemp, yerr);
+                double errmax = 0;
+                for (int i = 0; i < n; i++) {
+                    errmax = Math.max(errmax, Math.abs(yerr[i] / yscal[i]));
+                }
+                errmax /= ACCURACY;
+                if (Double.isNaN(errmax)) {
+                    // Not reducible by smaller steps; let the caller see the non-finite state
+                    errmax = 0;
+                }
+                if (errmax > 1.0) {
+                    double htemp = 0.9 * h * Math.pow(errmax, -0.25);
+                    h = Math.copySign(Math.max(Math.abs(htemp), 0.1 * Math.abs(h)), h);
+                    if (t + h == t) {
+                        return false;
+                    }
+                    continue;
+                }
+                step[1] = errmax > 1.89e-4 ? 0.9 * h * Math.pow(errmax, -0.2) : 5.0 * h;
+                step[0] = h;
+                System.arraycopy(ytemp, 0, y, 0, n);
+                return true;
+            }
+        }
+
+        /** rkckone: fifth-order Cash-Karp step with embedded fourth-order error estimate */
+        private void cashKarp(double[] y, double[] dydt, double t, double h, double[] yout, double[] yerr) {
+            int n = y.length;
+            double[] ak2 = new double[n];
+            double[] ak3 = new double[n];
+            double[] ak4 = new double[n];
+            double[] ak5 = new double[n];
+            double[] ak6 = new double[n];
+            double[] ytemp = new double[n];
+            for (int i = 0; i < n; i++) {
+                ytemp[i] = y[i] + 0.2 * h * dydt[i];
+            }
+            derivs(ytemp, ak2);
+            for (int i = 0; i < n; i++) {
+                ytemp[i] = y[i] + h * (3.0 / 40.0 * dydt[i] + 9.0 / 40.0 * ak2[i]);
+            }
+            derivs(ytemp, ak3);
+            for (int i = 0; i < n; i++) {
+                ytemp[i] = y[i] + h * (0.3 * dydt[i] - 0.9 * ak2[i] + 1.2 * ak3[i]);
+            }
+            derivs(ytemp, ak4);
+            for (int i = 0; i < n; i++) {
+                ytemp[i] = y[i] + h * (-11.0 / 54.0 * dydt[i] + 2.5 * ak2[i] - 70.0 / 27.0 * ak3[i] + 35.0 / 27.0 * ak4[i]);
+            }
+            derivs(ytemp, ak5);
+            for (int i = 0; i < n; i++) {
+                ytemp[i] = y[i] + h * (1631.0 / 55296.0 * dydt[i] + 175.0 / 512.0 * ak2[i] + 575.0 / 13824.0 * ak3[i]
+                    + 44275.0 / 110592.0 * ak4[i] + 253.0 / 4096.0 * ak5[i]);
+            }
+            derivs(ytemp, ak6);
+            double c1 = 37.0 / 378.0;
+            double c3 = 250.0 / 621.0;
+            double c4 = 125.0 / 594.0;
+            double c6 = 512.0 / 1771.0;
+            for (int i = 0; i < n; i++) {
+                yout[i] = y[i] + h * (c1 * dydt[i] + c3 * ak3[i] + c4 * ak4[i] + c6 * ak6[i]);
+                yerr[i] = h * ((c1 - 2825.0 / 27648.0) * dydt[i] + (c3 - 18575.0 / 48384.0) * ak3[i]
+                    + (c4 - 13525.0 / 55296.0) * ak4[i] - 277.0 / 14336.0 * ak5[i] + (c6 - 0.25) * ak6[i]);
+            }
+        }
+    }
+
+    /**
+     * Background trajectory: one row per output time N = j*dt
+     */
+    public static class BackgroundResult {
+        private final int numFields;
+        private double[] n = new double[64];
+        private double[][] fields;
+        private double[] velocities;
+        private double[] epsilon = new double[64];
+        private double[] hubble = new double[64];
+        private int count;
+        private double nEnd = Double.NaN;
+        private boolean inflationEnded;
+        private boolean timedOut;
+        private String failure;
+        private double initialPotential;
+        private double[] initialVelocities;
+        private long elapsedNanos;
+
+        BackgroundResult(int numFields) {
+            this.numFields = numFields;
+            this.fields = new double[numFields][64];
+        }
+
+        void add(double efolds, double[] q, double eps, double h) {
+            if (count == n.length) {
+                int capacity = n.length * 2;
+                n = Arrays.copyOf(n, capacity);
+                epsilon = Arrays.copyOf(epsilon, capacity);
+                hubble = Arrays.copyOf(hubble, capacity);
+                for (int i = 0; i < numFields; i++) {
+                    fields[i] = Arrays.copyOf(fields[i], capacity);
+                }
+            }
+            n[count] = efolds;
+            for (int i = 0; i < numFields; i++) {
+                fields[i][count] = q[i];
+            }
+            velocities = Arrays.copyOfRange(q, numFields, 2 * numFields);
+            epsilon[count] = eps;
+            hubble[count] = h;
+            count++;
+        }
+
+        public int getNumFields() { return numFields; }
+        /** Number of output rows */
+        public int getCount() { return count; }
+        public double getN(int row) { return n[row]; }
+        public double getField(int field, int row) { return fields[field][row]; }
+        public double getEpsilon(int row) { return epsilon[row]; }
+        public double getHubble(int row) { return hubble[row]; }
+        /** N at the end of inflation (timestep2*dt of multifix), NaN if the evolution failed or timed out */
+        public double getNEnd() { return nEnd; }
+        public boolean isInflationEnded() { return inflationEnded; }
+        public boolean isTimedOut() { return timedOut; }
+        /** Why the background cannot be evolved by multifix, or null */
+        public String getFailure() { return failure; }
+        public double getInitialPotential() { return initialPotential; }
+        public double[] getInitialVelocities() { return initialVelocities; }
+        /** Velocities dx(i)/dN at the last row */
+        public double[] getFinalVelocities() { return velocities; }
+        public long getElapsedNanos() { return elapsedNanos; }
+    }
+}
@@ -0,0 +1,196 @@
+package com.cosmo.backend.service;
+
+import com.cosmo.backend.dto.InitialConditionsDTO;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Named compiler optimization profiles for the multifix build, and what they cost.
+ *
+ * A profile is a set of flags for the GNU (gfortran) and the Intel (ifx, ifort) compiler:
+ * <ul>
+ *   <li>debug: no optimization, debug symbols and runtime checks</li>
+ *   <li>o2: -O2</li>
+ *   <li>o3-native: -O3 for the host CPU</li>
+ *   <li>fast-math: o3-native plus floating-point reassociation (results may differ in the last digits)</li>
+ *   <li>pgo: o3-native plus profile-guided optimization of the solver core, trained on a reduced
+ *       run of the first request that builds it (gfortran only; other compilers build o3-native)</li>
+ * </ul>
+ * A request chooses its profile with buildProfile, otherwise cosmo.fortran.profile applies;
+ * cosmo.fortran.flags are appended to every profile. Compile and run times are recorded per
+ * profile (cosmo_profile_compile_seconds and cosmo_profile_run_seconds, averages in
+ * {@link #getStats()}), so the profiles can be compared on the hardware at hand.
+ */
+@Service
+public class BuildProfileService {
+
+    /** Name of the profile-guided optimization profile */
+    public static final String PGO = "pgo";
+
+    /** Profiles by name: GNU flags, Intel flags */
+    private static final Map<String, String[]> PROFILES = new LinkedHashMap<>();
+
+    static {
+        PROFILES.put("debug", new String[] {"-O0 -g -fcheck=all -fbacktrace", "-O0 -g -check all -traceback"});
+        PROFILES.put("o2", new String[] {"-O2", "-O2"});
+        PROFILES.put("o3-native", new String[] {"-O3 -march=native", "-O3 -xHost"});
+        PROFILES.put("fast-math", new String[] {"-O3 -march=native -ffast-math", "-O3 -xHost -fp-model fast"});
+        PROFILES.put(PGO, new String[] {"-O3 -march=native", "-O3 -xHost"});
+    }
+
+    /** Profile of requests that do not choose one */
+    @Value("${cosmo.fortran.profile:o2}")
+    private String defaultProfile;
+
+    /** Extra compiler flags (space separated), appended to the flags of every profile */
+    @Value("${cosmo.fortran.flags:}")
+    private String extraFlags;
+
+    /**
+     * The PGO training run solves every n-th k mode (via kstride.in), which exercises the same
+     * code paths as a full run in a fraction of the time
+     */
+    @Value("${cosmo.fortran.pgo.training-stride:8}")
+    private int trainingStride;
+
+    @Autowired
+    private MetricsService metricsService;
+
+    /** Measured compile and run times by profile */
+    private final Map<String, Timing> compileTimes = new ConcurrentHashMap<>();
+    private final Map<String, Timing> runTimes = new ConcurrentHashMap<>();
+
+    /** Count and total duration of one kind of measurement */
+    private static final class Timing {
+        private final LongAdder count = new LongAdder();
+        private final LongAdder nanos = new LongAdder();
+
+        void add(long duration) {
+            count.increment();
+            nanos.add(duration);
+        }
+
+        double averageSeconds() {
+            long n = count.sum();
+            return n == 0 ? 0.0 : nanos.sum() / 1e9 / n;
+        }
+    }
+
+    /** Profile of a request: its buildProfile (case-insensitive) or the configured default */
+    public String profileOf(InitialConditionsDTO conditions) {
+        String profile = conditions.getBuildProfile();
+        return profile == null || profile.isBlank() ? getDefaultProfile() : profile.trim().toLowerCase(Locale.ROOT);
+    }
+
+    /** Profile of requests that do not choose one (cosmo.fortran.profile) */
+    public String getDefaultProfile() {
+        return defaultProfile.trim().toLowerCase(Locale.ROOT);
+    }
+
+    public boolean exists(String profile) {
+        return PROFILES.containsKey(profile);
+    }
+
+    /** Names of all profiles */
+    public List<String> getNames() {
+        return new ArrayList<>(PROFILES.keySet());
+    }
+
+    /**
+     * Flags of a profile for a compiler (without PGO instrumentation), followed by cosmo.fortran.flags
+     *
+     * @throws IllegalArgumentException If the profile does not exist
+     */
+    public List<String> flags(String profile, String compiler) {
+        String[] flags = PROFILES.get(profile);
+        if (flags == null) {
+            throw new IllegalArgumentException("Unknown build profile '" + profile + "' (expected one of " + getNames() + ")");
+        }
+        List<String> result = split(flags[isIntel(compiler) ? 1 : 0]);
+        result.addAll(split(extraFlags));
+        return result;
+    }
+
+    /** Whether the profile is built with profile-guided optimization by this compiler */
+    public boolean usesPgo(String profile, String compiler) {
+        return PGO.equals(profile) && !isIntel(compiler);
+    }
+
+    /** Flags of the instrumented build; the training run writes its profile to profileDir */
+    public List<String> instrumentationFlags(Path profileDir) {
+        return List.of("-fprofile-generate=" + profileDir);
+    }
+
+    /**
+     * Flags of the optimized build using the profile in profileDir. Objects without profile data
+     * (e.g. sources compiled to a temporary object) are built without it, silently.
+     */
+    public List<String> profileUseFlags(Path profileDir) {
+        return List.of("-fprofile-use=" + profileDir, "-fprofile-correction", "-Wno-missing-profile");
+    }
+
+    public int getTrainingStride() {
+        return Math.max(1, trainingStride);
+    }
+
+    /** Record a compilation (cache miss) of a profile */
+    public void recordCompile(String profile, String compiler, long nanos) {
+        compileTimes.computeIfAbsent(profile, p -> new Timing()).add(nanos);
+        metricsService.recordTime("cosmo_profile_compile", "Compilation time by build profile", nanos,
+            "profile", profile, "compiler", compiler);
+    }
+
+    /** Record a run of an executable built with a profile */
+    public void recordRun(String profile, long nanos) {
+        runTimes.computeIfAbsent(profile, p -> new Timing()).add(nanos);
+        metricsService.recordTime("cosmo_profile_run", "Run time by build profile", nanos, "profile", profile);
+    }
+
+    /** Profiles with their flags and average compile and run times, for the stats endpoint */
+    public Map<String, Object> getStats() {
+        Map<String, Object> profiles = new LinkedHashMap<>();
+        for (Map.Entry<String, String[]> entry : PROFILES.entrySet()) {
+            String name = entry.getKey();
+            Timing compile = compileTimes.getOrDefault(name, new Timing());
+            Timing run = runTimes.getOrDefault(name, new Timing());
+            Map<String, Object> profile = new LinkedHashMap<>();
+            profile.put("gnuFlags", entry.getValue()[0]);
+            profile.put("intelFlags", entry.getValue()[1]);
+            profile.put("compilations", compile.count.sum());
+            profile.put("averageCompileSeconds", compile.averageSeconds());
+            profile.put("runs", run.count.sum());
+            profile.put("averageRunSeconds", run.averageSeconds());
+            profiles.put(name, profile);
+        }
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("defaultProfile", getDefaultProfile());
+        stats.put("extraFlags", extraFlags);
+        stats.put("profiles", profiles);
+        return stats;
+    }
+
+    /** Intel compilers (ifx, ifort) take different flags than gfortran */
+    private static boolean isIntel(String compiler) {
+        String name = Path.of(compiler).getFileName().toString().toLowerCase(Locale.ROOT);
+        return name.startsWith("ifx") || name.startsWith("ifort");
+    }
+
+    private static List<String> split(String flags) {
+        List<String> result = new ArrayList<>();
+        if (flags != null) {
+            Arrays.stream(flags.trim().split("\\s+")).filter(flag -> !flag.isEmpty()).forEach(result::add);
+        }
+        return result;
+    }
+}
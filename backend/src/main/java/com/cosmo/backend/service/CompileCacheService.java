@@ -0,0 +1,362 @@
+package com.cosmo.backend.service;
+
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Content-addressed cache of compiled multifix executables and prebuilt solver cores.
+ *
+ * The key is a SHA-256 over everything that influences the binary: the solver source,
+ * the generated include files, nf, the compiler, the build profile and the compiler flags.
+ * Entries live on disk as {@code <cache-dir>/<key>/<exe-name>} (or the object and module
+ * files of the solver core) so the cache survives restarts; the
+ * directory modification time is used as the last-access time for LRU eviction once
+ * the total size exceeds the configured bound.
+ */
+@Service
+public class CompileCacheService {
+
+    private static final Logger logger = LoggerFactory.getLogger(CompileCacheService.class);
+
+    /** Enable/disable the cache (cosmo.fortran.compile-cache.enabled). */
+    @Value("${cosmo.fortran.compile-cache.enabled:true}")
+    private boolean enabled;
+
+    /** Directory holding cached executables. Relative paths are resolved against the working directory. */
+    @Value("${cosmo.fortran.compile-cache.dir:compile-cache}")
+    private String cacheDirSetting;
+
+    /** Upper bound for the total size of cached executables in bytes (default 512 MB). */
+    @Value("${cosmo.fortran.compile-cache.max-bytes:536870912}")
+    private long maxBytes;
+
+    private Path cacheDir;
+
+    /** Entries in LRU order (eldest first); guarded by {@code this}. */
+    private final LinkedHashMap<String, Long> entrySizes = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes = 0;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    /** Lookups of multi-file entries (the prebuilt solver core), counted apart from executables */
+    private final AtomicLong coreHits = new AtomicLong();
+    private final AtomicLong coreMisses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /** Load the existing on-disk entries so the cache survives restarts. */
+    @PostConstruct
+    public void init() {
+        cacheDir = Paths.get(cacheDirSetting).toAbsolutePath().normalize();
+        if (!enabled) {
+            logger.info("Compile cache disabled (cosmo.fortran.compile-cache.enabled=false)");
+            return;
+        }
+        try {
+            Files.createDirectories(cacheDir);
+            List<Path> entries = new ArrayList<>();
+            try (java.util.stream.Stream<Path> stream = Files.list(cacheDir)) {
+                stream.filter(Files::isDirectory).forEach(entries::add);
+            }
+            // Oldest access first so that the access-ordered map ends up in LRU order
+            entries.sort(Comparator.comparingLong(CompileCacheService::lastModifiedMillis));
+            synchronized (this) {
+                for (Path entry : entries) {
+                    // Left behind by a store interrupted before its move into place; never served
+                    if (entry.getFileName().toString().contains(".tmp-")) {
+                        deleteRecursively(entry);
+                        continue;
+                    }
+                    long size = directorySize(entry);
+                    if (size <= 0) {
+                        deleteRecursively(entry);
+                        continue;
+                    }
+                    entrySizes.put(entry.getFileName().toString(), size);
+                    totalBytes += size;
+                }
+                evictIfNeeded(null);
+            }
+            logger.info("🗄️  Compile cache at {}: {} entr{} ({} bytes, limit {} bytes)",
+                cacheDir, entrySizes.size(), entrySizes.size() == 1 ? "y" : "ies", totalBytes, maxBytes);
+        } catch (IOException e) {
+            logger.warn("Could not initialise compile cache at {}: {}. Caching disabled.", cacheDir, e.getMessage());
+            enabled = false;
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Compute the cache key for a compilation.
+     *
+     * @param sources Files that go into the build (solver source and include files), hashed by name and content
+     * @param numFields Number of fields (nf)
+     * @param compiler Compiler command
+     * @param profile Build profile (see {@link BuildProfileService})
+     * @param flags Compiler flags
+     * @return Hex-encoded SHA-256 key
+     */
+    public String computeKey(List<Path> sources, int numFields, String compiler, String profile,
+                             List<String> flags) throws IOException {
+        MessageDigest digest = newDigest();
+        for (Path source : sources) {
+            update(digest, source.getFileName().toString());
+            if (Files.exists(source)) {
+                digest.update(Files.readAllBytes(source));
+            }
+            update(digest, "\u0000");
+        }
+        update(digest, "nf=" + numFields);
+        update(digest, "compiler=" + compiler);
+        update(digest, "profile=" + profile);
+        update(digest, "flags=" + String.join(" ", flags));
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Look up a cached executable and place it at {@code target}.
+     *
+     * @return true on a cache hit (target now holds the executable), false on a miss
+     */
+    public boolean fetch(String key, String exeName, Path target) {
+        if (!enabled) {
+            return false;
+        }
+        Path entryDir = cacheDir.resolve(key);
+        Path cached = entryDir.resolve(exeName);
+        synchronized (this) {
+            if (!entrySizes.containsKey(key) || !Files.isRegularFile(cached)) {
+                misses.incrementAndGet();
+                return false;
+            }
+            entrySizes.get(key); // mark as most recently used
+        }
+        try {
+            materialize(cached, target);
+            target.toFile().setExecutable(true);
+            Files.setLastModifiedTime(entryDir, FileTime.fromMillis(System.currentTimeMillis()));
+            hits.incrementAndGet();
+            return true;
+        } catch (IOException e) {
+            logger.warn("Compile cache entry {} unusable ({}), recompiling", key, e.getMessage());
+            misses.incrementAndGet();
+            return false;
+        }
+    }
+
+    /**
+     * Store a freshly compiled executable under the given key and evict old entries if over budget.
+     */
+    public void store(String key, String exeName, Path executable) {
+        Path entryDir = storeFiles(key, Map.of(exeName, executable));
+        if (entryDir != null) {
+            entryDir.resolve(exeName).toFile().setExecutable(true);
+        }
+    }
+
+    /**
+     * Look up an entry holding several build products (e.g. the prebuilt solver core: object
+     * file and module file) and place the named files in {@code targetDir}, like {@link #fetch},
+     * so that evicting the entry cannot affect the caller. Counted as core hits/misses.
+     *
+     * @return true on a cache hit (targetDir now holds the files), false on a miss
+     */
+    public boolean fetchFiles(String key, List<String> names, Path targetDir) {
+        if (!enabled) {
+            return false;
+        }
+        Path entryDir = cacheDir.resolve(key);
+        synchronized (this) {
+            if (!entrySizes.containsKey(key) || !names.stream().allMatch(name -> Files.isRegularFile(entryDir.resolve(name)))) {
+                coreMisses.incrementAndGet();
+                return false;
+            }
+            entrySizes.get(key); // mark as most recently used
+        }
+        try {
+            Files.createDirectories(targetDir);
+            for (String name : names) {
+                materialize(entryDir.resolve(name), targetDir.resolve(name));
+            }
+            Files.setLastModifiedTime(entryDir, FileTime.fromMillis(System.currentTimeMillis()));
+            coreHits.incrementAndGet();
+            return true;
+        } catch (IOException e) {
+            // Evicted between the lookup and the link, or unreadable: rebuild
+            logger.warn("Compile cache entry {} unusable ({}), rebuilding", key, e.getMessage());
+            coreMisses.incrementAndGet();
+            return false;
+        }
+    }
+
+    /**
+     * Store build products under the given key and evict old entries if over budget.
+     *
+     * @param files Files to store by their name in the entry
+     * @return The entry directory, or null if the cache is disabled or storing failed
+     */
+    public Path storeFiles(String key, Map<String, Path> files) {
+        if (!enabled) {
+            return null;
+        }
+        Path entryDir = cacheDir.resolve(key);
+        Path tmpDir = cacheDir.resolve(key + ".tmp-" + Thread.currentThread().getId());
+        try {
+            deleteRecursively(tmpDir);
+            Files.createDirectories(tmpDir);
+            long size = 0;
+            for (Map.Entry<String, Path> file : files.entrySet()) {
+                Path tmpFile = tmpDir.resolve(file.getKey());
+                Files.copy(file.getValue(), tmpFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+                size += Files.size(tmpFile);
+            }
+            synchronized (this) {
+                if (entrySizes.containsKey(key) && Files.isDirectory(entryDir)) {
+                    // Another execution stored the same key concurrently
+                    deleteRecursively(tmpDir);
+                    return entryDir;
+                }
+                deleteRecursively(entryDir);
+                Files.move(tmpDir, entryDir, StandardCopyOption.ATOMIC_MOVE);
+                entrySizes.put(key, size);
+                totalBytes += size;
+                evictIfNeeded(key);
+            }
+            logger.info("🗄️  Stored {} in compile cache: {} ({} bytes)", String.join(", ", files.keySet()),
+                key.substring(0, Math.min(12, key.length())), size);
+            return entryDir;
+        } catch (IOException e) {
+            logger.warn("Could not store {} in compile cache: {}", String.join(", ", files.keySet()), e.getMessage());
+            try {
+                deleteRecursively(tmpDir);
+            } catch (IOException ignored) {
+                // best effort
+            }
+            return null;
+        }
+    }
+
+    /** Hit/miss counters and current size, for the stats endpoint. */
+    public synchronized Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        long h = hits.get();
+        long m = misses.get();
+        stats.put("enabled", enabled);
+        stats.put("directory", String.valueOf(cacheDir));
+        stats.put("hits", h);
+        stats.put("misses", m);
+        stats.put("hitRatio", (h + m) == 0 ? 0.0 : (double) h / (h + m));
+        long ch = coreHits.get();
+        long cm = coreMisses.get();
+        stats.put("coreHits", ch);
+        stats.put("coreMisses", cm);
+        stats.put("coreHitRatio", (ch + cm) == 0 ? 0.0 : (double) ch / (ch + cm));
+        stats.put("evictions", evictions.get());
+        stats.put("entries", entrySizes.size());
+        stats.put("totalBytes", totalBytes);
+        stats.put("maxBytes", maxBytes);
+        return stats;
+    }
+
+    /** Evict least recently used entries until the cache fits; never evicts {@code keep}. Caller holds the lock. */
+    private void evictIfNeeded(String keep) {
+        Iterator<Map.Entry<String, Long>> it = entrySizes.entrySet().iterator();
+        while (totalBytes > maxBytes && it.hasNext()) {
+            Map.Entry<String, Long> eldest = it.next();
+            if (eldest.getKey().equals(keep)) {
+                continue;
+            }
+            try {
+                deleteRecursively(cacheDir.resolve(eldest.getKey()));
+            } catch (IOException e) {
+                logger.warn("Failed to evict compile cache entry {}: {}", eldest.getKey(), e.getMessage());
+                continue;
+            }
+            totalBytes -= eldest.getValue();
+            it.remove();
+            evictions.incrementAndGet();
+            logger.info("🗑️  Evicted compile cache entry {}", eldest.getKey().substring(0, Math.min(12, eldest.getKey().length())));
+        }
+    }
+
+    /** Hard-link a cached file to the target (copy if links are not supported). */
+    private static void materialize(Path cached, Path target) throws IOException {
+        Files.deleteIfExists(target);
+        try {
+            Files.createLink(target, cached);
+        } catch (IOException | UnsupportedOperationException e) {
+            Files.copy(cached, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+        }
+    }
+
+    static long directorySize(Path dir) throws IOException {
+        try (java.util.stream.Stream<Path> stream = Files.walk(dir)) {
+            return stream.filter(Files::isRegularFile).mapToLong(p -> p.toFile().length()).sum();
+        }
+    }
+
+    static long lastModifiedMillis(Path path) {
+        try {
+            return Files.getLastModifiedTime(path).toMillis();
+        } catch (IOException e) {
+            return 0L;
+        }
+    }
+
+    static void deleteRecursively(Path path) throws IOException {
+        if (!Files.exists(path)) {
+            return;
+        }
+        try (java.util.stream.Stream<Path> stream = Files.walk(path)) {
+            List<Path> paths = new ArrayList<>();
+            stream.forEach(paths::add);
+            paths.sort(Comparator.reverseOrder());
+            for (Path p : paths) {
+                Files.deleteIfExists(p);
+            }
+        }
+    }
+
+    static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    static void update(MessageDigest digest, String value) {
+        digest.update(value.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static String toHex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(String.format("%02x", b));
+        }
+        return sb.toString();
+    }
+}
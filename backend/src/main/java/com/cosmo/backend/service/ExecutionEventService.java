@@ -0,0 +1,295 @@
+package com.cosmo.backend.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Server-Sent Events for the execution lifecycle.
+ *
+ * Each execution has a channel holding its current state. Subscribers get the current state
+ * replayed on connect, then every transition (queued, compiling, running, plotting, completed,
+ * failed, cancelled) and progress marker as it happens. Once finished, the result is read from
+ * the {@link ExecutionResultStore} (channels only keep the terminal state), pushed once and the
+ * stream is completed. At most cosmo.events.max-channels channels are kept; beyond that the
+ * least recently updated finished ones are dropped.
+ *
+ * Event names: "state", "progress" and "result".
+ */
+@Service
+public class ExecutionEventService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ExecutionEventService.class);
+
+    public static final String QUEUED = "queued";
+    public static final String COMPILING = "compiling";
+    public static final String RUNNING = "running";
+    public static final String PLOTTING = "plotting";
+    public static final String COMPLETED = "completed";
+    public static final String FAILED = "failed";
+    public static final String CANCELLED = "cancelled";
+
+    private static final Set<String> TERMINAL_STATES = Set.of(COMPLETED, FAILED, CANCELLED);
+
+    /** Maximum lifetime of one SSE connection (ms); clients reconnect or fall back to polling */
+    @Value("${cosmo.events.emitter-timeout-ms:1800000}")
+    private long emitterTimeoutMs;
+
+    /** Channels not updated for this long are dropped (minutes) */
+    @Value("${cosmo.events.retention-minutes:60}")
+    private long retentionMinutes;
+
+    /** Upper bound for the number of channels (finished ones are dropped first, oldest first) */
+    @Value("${cosmo.events.max-channels:1000}")
+    private int maxChannels;
+
+    /** Results of finished executions, sent on the "result" event */
+    @Autowired
+    private ExecutionResultStore executionResultStore;
+
+    private final Map<String, Channel> channels = new ConcurrentHashMap<>();
+
+    /**
+     * Publish a state transition. Ignored once the execution reached a terminal state.
+     */
+    public void publishState(String executionId, String state) {
+        publishState(executionId, state, null);
+    }
+
+    public void publishState(String executionId, String state, String message) {
+        if (executionId == null) {
+            return;
+        }
+        Channel channel = channels.get(executionId);
+        if (channel == null) {
+            channel = channels.computeIfAbsent(executionId, id -> new Channel());
+            dropExcessChannels();
+        }
+        Map<String, Object> event = new LinkedHashMap<>();
+        event.put("executionId", executionId);
+        event.put("state", state);
+        event.put("timestamp", System.currentTimeMillis());
+        if (message != null) {
+            event.put("message", message);
+        }
+        synchronized (channel) {
+            if (channel.isTerminal()) {
+                return;
+            }
+            channel.state = state;
+            channel.stateEvent = event;
+            channel.touch();
+        }
+        send(channel, "state", event);
+    }
+
+    /**
+     * Publish a progress marker for a running execution (not replayed to late subscribers).
+     */
+    public void publishProgress(String executionId, Map<String, Object> progress) {
+        Channel channel = executionId != null ? channels.get(executionId) : null;
+        if (channel == null || channel.emitters.isEmpty()) {
+            return;
+        }
+        Map<String, Object> event = new LinkedHashMap<>();
+        event.put("executionId", executionId);
+        event.putAll(progress);
+        synchronized (channel) {
+            if (channel.isTerminal()) {
+                return;
+            }
+            channel.touch();
+        }
+        send(channel, "progress", event);
+    }
+
+    /**
+     * Publish the terminal state and the final result, then complete all streams.
+     * Only the first terminal publication counts. The result is read from the
+     * ExecutionResultStore, so it has to be stored there first.
+     *
+     * @param state completed, failed or cancelled
+     */
+    public void publishResult(String executionId, String state) {
+        if (executionId == null) {
+            return;
+        }
+        publishState(executionId, state);
+        Channel channel = channels.get(executionId);
+        if (channel == null) {
+            return;
+        }
+        List<SseEmitter> emitters;
+        synchronized (channel) {
+            if (channel.resultPublished || !state.equals(channel.state)) {
+                return;
+            }
+            channel.resultPublished = true;
+            emitters = List.copyOf(channel.emitters);
+            channel.emitters.clear();
+        }
+        if (emitters.isEmpty()) {
+            return;
+        }
+        Map<String, Object> result = resultPayload(executionId, state);
+        for (SseEmitter emitter : emitters) {
+            try {
+                emitter.send(SseEmitter.event().name("result").data(result));
+                emitter.complete();
+            } catch (IOException | IllegalStateException e) {
+                emitter.completeWithError(e);
+            }
+        }
+    }
+
+    /** Current state of an execution, or null if unknown */
+    public String getState(String executionId) {
+        Channel channel = executionId != null ? channels.get(executionId) : null;
+        return channel != null ? channel.state : null;
+    }
+
+    /**
+     * Subscribe to an execution's events. The current state (and the result, if already
+     * finished) is sent immediately.
+     *
+     * @return The emitter, or null if the execution is unknown
+     */
+    public SseEmitter subscribe(String executionId) {
+        Channel channel = executionId != null ? channels.get(executionId) : null;
+        if (channel == null) {
+            return null;
+        }
+        SseEmitter emitter = new SseEmitter(emitterTimeoutMs);
+        Map<String, Object> stateEvent;
+        String finalState = null;
+        synchronized (channel) {
+            stateEvent = channel.stateEvent;
+            if (channel.resultPublished) {
+                finalState = channel.state;
+            } else {
+                channel.emitters.add(emitter);
+            }
+        }
+        emitter.onCompletion(() -> channel.emitters.remove(emitter));
+        emitter.onTimeout(() -> {
+            channel.emitters.remove(emitter);
+            emitter.complete();
+        });
+        emitter.onError(e -> channel.emitters.remove(emitter));
+        try {
+            if (stateEvent != null) {
+                emitter.send(SseEmitter.event().name("state").data(stateEvent));
+            }
+            if (finalState != null) {
+                emitter.send(SseEmitter.event().name("result").data(resultPayload(executionId, finalState)));
+                emitter.complete();
+            }
+        } catch (IOException | IllegalStateException e) {
+            channel.emitters.remove(emitter);
+            emitter.completeWithError(e);
+        }
+        return emitter;
+    }
+
+    /**
+     * Drop channels that have not been updated within the retention period.
+     */
+    @Scheduled(fixedDelay = 300000, initialDelay = 300000)
+    public void removeStaleChannels() {
+        long cutoff = System.currentTimeMillis() - retentionMinutes * 60_000L;
+        channels.entrySet().removeIf(entry -> {
+            Channel channel = entry.getValue();
+            synchronized (channel) {
+                if (channel.updatedAt >= cutoff) {
+                    return false;
+                }
+                channel.emitters.forEach(SseEmitter::complete);
+                channel.emitters.clear();
+                return true;
+            }
+        });
+    }
+
+    /**
+     * Result payload of the "result" event (same fields as the /status response), from the result
+     * store; only the execution ID and state if the result is not (or no longer) stored
+     */
+    private Map<String, Object> resultPayload(String executionId, String state) {
+        FortranExecutionService.FortranExecutionResult result =
+            CANCELLED.equals(state) ? null : executionResultStore.getResult(executionId);
+        Map<String, Object> payload = new HashMap<>();
+        payload.put("executionId", executionId);
+        payload.put("status", state);
+        if (result != null) {
+            payload.put("success", result.isSuccess());
+            payload.put("message", result.getMessage());
+            payload.put("output", result.getOutput());
+            payload.put("outputFiles", result.getOutputFiles());
+        }
+        return payload;
+    }
+
+    /** Drop the least recently updated finished channels while there are more than maxChannels */
+    private void dropExcessChannels() {
+        int excess = channels.size() - Math.max(1, maxChannels);
+        if (excess <= 0) {
+            return;
+        }
+        channels.entrySet().stream()
+            .filter(entry -> entry.getValue().isFinished())
+            .sorted(Comparator.comparingLong(entry -> entry.getValue().updatedAt))
+            .limit(excess)
+            .map(Map.Entry::getKey)
+            .toList()
+            .forEach(channels::remove);
+    }
+
+    private void send(Channel channel, String name, Map<String, Object> data) {
+        for (SseEmitter emitter : channel.emitters) {
+            try {
+                emitter.send(SseEmitter.event().name(name).data(data));
+            } catch (IOException | IllegalStateException e) {
+                // Client went away
+                logger.debug("Dropping SSE subscriber: {}", e.getMessage());
+                channel.emitters.remove(emitter);
+                emitter.completeWithError(e);
+            }
+        }
+    }
+
+    /** Event state of one execution. Fields guarded by the instance lock; emitters are thread-safe. */
+    private static class Channel {
+        private final List<SseEmitter> emitters = new CopyOnWriteArrayList<>();
+        private String state;
+        private Map<String, Object> stateEvent;
+        private boolean resultPublished;
+        private volatile long updatedAt = System.currentTimeMillis();
+
+        private boolean isTerminal() {
+            return state != null && TERMINAL_STATES.contains(state);
+        }
+
+        /** Result published, so no subscriber is waiting on this channel */
+        private synchronized boolean isFinished() {
+            return resultPublished;
+        }
+
+        private void touch() {
+            updatedAt = System.currentTimeMillis();
+        }
+    }
+}
@@ -0,0 +1,291 @@
+package com.cosmo.backend.service;
+
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Status and results of executions, bounded in time and memory.
+ *
+ * Finished entries expire after a TTL and are evicted least recently used once the retained
+ * weight (approximate heap size of message, output and file list) exceeds the configured
+ * bound. Queued and running executions are never evicted. Program output larger than the
+ * spill threshold is written to {@code <spill-dir>/<executionId>.log} and read back when the
+ * result is requested, so long Fortran logs do not stay on the heap.
+ */
+@Service
+public class ExecutionResultStore {
+
+    private static final Logger logger = LoggerFactory.getLogger(ExecutionResultStore.class);
+
+    public static final String QUEUED = "queued";
+    public static final String RUNNING = "running";
+    public static final String COMPLETED = "completed";
+    public static final String FAILED = "failed";
+    public static final String CANCELLED = "cancelled";
+
+    /** Finished entries are dropped after this long (minutes) */
+    @Value("${cosmo.results.ttl-minutes:120}")
+    private long ttlMinutes;
+
+    /** LRU eviction of finished entries once their retained weight exceeds this (bytes) */
+    @Value("${cosmo.results.max-bytes:67108864}")
+    private long maxBytes;
+
+    /** Program output longer than this is kept on disk instead of on the heap (characters) */
+    @Value("${cosmo.results.spill-threshold:65536}")
+    private int spillThreshold;
+
+    /** Directory for spilled program output. Relative paths are resolved against the working directory. */
+    @Value("${cosmo.results.spill-dir:result-spill}")
+    private String spillDirSetting;
+
+    private Path spillDir;
+
+    @Autowired
+    private MetricsService metricsService;
+
+    /** Entries in LRU order (eldest first); guarded by {@code this} */
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long retainedBytes = 0;
+    private long spilledBytes = 0;
+
+    private final AtomicLong ttlEvictions = new AtomicLong();
+    private final AtomicLong sizeEvictions = new AtomicLong();
+
+    private static class Entry {
+        private String status;
+        private FortranExecutionService.FortranExecutionResult result;
+        private Path spilledOutput;
+        private long spilledSize;
+        private long weight;
+        private long updatedAt = System.currentTimeMillis();
+    }
+
+    @PostConstruct
+    public void init() {
+        spillDir = Paths.get(spillDirSetting).toAbsolutePath().normalize();
+        try {
+            // Spilled output of a previous run has no entry any more
+            CompileCacheService.deleteRecursively(spillDir);
+            Files.createDirectories(spillDir);
+        } catch (IOException e) {
+            logger.warn("Could not prepare result spill directory {}: {}. Output stays in memory.", spillDir, e.getMessage());
+            spillDir = null;
+        }
+        metricsService.registerGauge("cosmo_results_entries", "Executions held in the result store",
+            () -> { synchronized (this) { return entries.size(); } });
+        metricsService.registerGauge("cosmo_results_retained_bytes", "Approximate heap retained by stored results",
+            () -> { synchronized (this) { return retainedBytes; } });
+        metricsService.registerGauge("cosmo_results_spilled_bytes", "Program output spilled to disk",
+            () -> { synchronized (this) { return spilledBytes; } });
+    }
+
+    /** Register a new execution as running */
+    public void markRunning(String executionId) {
+        setStatus(executionId, RUNNING);
+    }
+
+    /** Set the status of an execution (queued, running, completed, failed or cancelled) */
+    public synchronized void setStatus(String executionId, String status) {
+        Entry entry = entries.computeIfAbsent(executionId, id -> new Entry());
+        entry.status = status;
+        entry.updatedAt = System.currentTimeMillis();
+        evictIfNeeded();
+    }
+
+    /**
+     * Store the result of a finished execution; status becomes completed or failed.
+     */
+    public void putResult(String executionId, FortranExecutionService.FortranExecutionResult result) {
+        String output = result.getOutput();
+        Path spilled = null;
+        long spilledSize = 0;
+        if (output != null && output.length() > spillThreshold && spillDir != null) {
+            Path file = spillDir.resolve(executionId + ".log");
+            try {
+                Files.writeString(file, output, StandardCharsets.UTF_8);
+                spilled = file;
+                spilledSize = Files.size(file);
+                result = new FortranExecutionService.FortranExecutionResult(result.getExecutionId(), result.isSuccess(),
+                    result.getMessage(), null, result.getOutputFiles());
+            } catch (IOException e) {
+                logger.warn("Could not spill output of {} to disk: {}", executionId, e.getMessage());
+            }
+        }
+        synchronized (this) {
+            Entry entry = entries.computeIfAbsent(executionId, id -> new Entry());
+            if (CANCELLED.equals(entry.status)) {
+                // Cancelled while finishing: keep the cancellation
+                deleteQuietly(spilled);
+                return;
+            }
+            release(entry);
+            entry.status = result.isSuccess() ? COMPLETED : FAILED;
+            entry.result = result;
+            entry.spilledOutput = spilled;
+            entry.spilledSize = spilledSize;
+            entry.weight = weigh(result);
+            entry.updatedAt = System.currentTimeMillis();
+            retainedBytes += entry.weight;
+            spilledBytes += spilledSize;
+            evictIfNeeded();
+        }
+    }
+
+    /** Status of an execution, or null if unknown or expired */
+    public synchronized String getStatus(String executionId) {
+        Entry entry = executionId != null ? entries.get(executionId) : null;
+        return entry != null ? entry.status : null;
+    }
+
+    /**
+     * Result of a finished execution with its full output (read back from disk if spilled).
+     *
+     * @return The result, or null if the execution is unknown, expired or still running
+     */
+    public FortranExecutionService.FortranExecutionResult getResult(String executionId) {
+        FortranExecutionService.FortranExecutionResult result;
+        Path spilled;
+        synchronized (this) {
+            Entry entry = executionId != null ? entries.get(executionId) : null;
+            if (entry == null || entry.result == null) {
+                return null;
+            }
+            result = entry.result;
+            spilled = entry.spilledOutput;
+        }
+        if (spilled == null) {
+            return result;
+        }
+        String output;
+        try {
+            output = Files.readString(spilled, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            logger.warn("Spilled output of {} is no longer readable: {}", executionId, e.getMessage());
+            output = null;
+        }
+        return new FortranExecutionService.FortranExecutionResult(result.getExecutionId(), result.isSuccess(),
+            result.getMessage(), output, result.getOutputFiles());
+    }
+
+    /** Entry count and retained bytes, for the stats endpoint */
+    public synchronized Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        long queued = entries.values().stream().filter(e -> QUEUED.equals(e.status)).count();
+        long running = entries.values().stream().filter(e -> RUNNING.equals(e.status)).count();
+        long spilledEntries = entries.values().stream().filter(e -> e.spilledOutput != null).count();
+        stats.put("entries", entries.size());
+        stats.put("queued", queued);
+        stats.put("running", running);
+        stats.put("retainedBytes", retainedBytes);
+        stats.put("maxBytes", maxBytes);
+        stats.put("spilledEntries", spilledEntries);
+        stats.put("spilledBytes", spilledBytes);
+        stats.put("ttlMinutes", ttlMinutes);
+        stats.put("ttlEvictions", ttlEvictions.get());
+        stats.put("sizeEvictions", sizeEvictions.get());
+        return stats;
+    }
+
+    /**
+     * Drop finished entries older than the TTL.
+     */
+    @Scheduled(fixedDelay = 60000, initialDelay = 60000)
+    public synchronized void removeExpired() {
+        long cutoff = System.currentTimeMillis() - ttlMinutes * 60_000L;
+        Iterator<Entry> it = entries.values().iterator();
+        while (it.hasNext()) {
+            Entry entry = it.next();
+            if (!isActive(entry) && entry.updatedAt < cutoff) {
+                release(entry);
+                it.remove();
+                ttlEvictions.incrementAndGet();
+                metricsService.increment("cosmo_results_evictions", "Results dropped from the store", "reason", "ttl");
+            }
+        }
+    }
+
+    /** Evict least recently used finished entries until the retained weight fits. Caller holds the lock. */
+    private void evictIfNeeded() {
+        Iterator<Entry> it = entries.values().iterator();
+        while (retainedBytes > maxBytes && it.hasNext()) {
+            Entry entry = it.next();
+            if (isActive(entry)) {
+                continue;
+            }
+            release(entry);
+            it.remove();
+            sizeEvictions.incrementAndGet();
+            metricsService.increment("cosmo_results_evictions", "Results dropped from the store", "reason", "size");
+        }
+    }
+
+    /** Forget an execution (e.g. a submission that was rejected) */
+    public synchronized void remove(String executionId) {
+        Entry entry = entries.remove(executionId);
+        if (entry != null) {
+            release(entry);
+        }
+    }
+
+    private static boolean isActive(Entry entry) {
+        return QUEUED.equals(entry.status) || RUNNING.equals(entry.status);
+    }
+
+    /** Forget the weight and the spill file of an entry. Caller holds the lock. */
+    private void release(Entry entry) {
+        retainedBytes -= entry.weight;
+        spilledBytes -= entry.spilledSize;
+        entry.weight = 0;
+        entry.spilledSize = 0;
+        deleteQuietly(entry.spilledOutput);
+        entry.spilledOutput = null;
+    }
+
+    /** Approximate heap size of a result (2 bytes per char plus object overhead) */
+    private static long weigh(FortranExecutionService.FortranExecutionResult result) {
+        long weight = 128;
+        weight += 2L * length(result.getExecutionId());
+        weight += 2L * length(result.getMessage());
+        weight += 2L * length(result.getOutput());
+        List<String> files = result.getOutputFiles();
+        if (files != null) {
+            for (String file : files) {
+                weight += 48 + 2L * length(file);
+            }
+        }
+        return weight;
+    }
+
+    private static int length(String value) {
+        return value != null ? value.length() : 0;
+    }
+
+    private static void deleteQuietly(Path file) {
+        if (file == null) {
+            return;
+        }
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            logger.debug("Could not delete {}: {}", file, e.getMessage());
+        }
+    }
+}
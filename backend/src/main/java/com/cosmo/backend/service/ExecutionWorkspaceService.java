@@ -0,0 +1,169 @@
+package com.cosmo.backend.service;
+
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Per-execution working directories.
+ *
+ * Every execution gets its own directory {@code <executions-dir>/<executionId>} in which the
+ * include files, the prepared source, the executable and all outputs are written, so that
+ * concurrent runs cannot overwrite each other. The shared, read-only sources from the
+ * fortran directory (multifix.f, multifix_user.f) are symlinked in (copied if symlinks are not available).
+ *
+ * Finished workspaces are removed by a retention policy: older than the configured age,
+ * or beyond the configured maximum number of workspaces (oldest first).
+ */
+@Service
+public class ExecutionWorkspaceService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ExecutionWorkspaceService.class);
+
+    /** Shared, read-only files linked into every workspace */
+    private static final String[] SHARED_SOURCES = {"multifix.f", "multifix_user.f"};
+
+    /** Execution IDs are UUIDs; anything else is rejected to prevent path traversal */
+    private static final Pattern EXECUTION_ID_PATTERN = Pattern.compile("[A-Za-z0-9][A-Za-z0-9_-]{0,63}");
+
+    /** Root directory for execution workspaces. Relative paths are resolved against the working directory. */
+    @Value("${cosmo.executions.dir:executions}")
+    private String executionsDirSetting;
+
+    /** Workspaces older than this are deleted (hours) */
+    @Value("${cosmo.executions.retention-hours:24}")
+    private long retentionHours;
+
+    /** Maximum number of workspaces kept on disk; the oldest finished ones are deleted first */
+    @Value("${cosmo.executions.max-workspaces:200}")
+    private int maxWorkspaces;
+
+    private Path executionsDir;
+
+    /** Workspaces that belong to executions still in progress (never deleted by retention) */
+    private final Set<String> activeWorkspaces = ConcurrentHashMap.newKeySet();
+
+    @PostConstruct
+    public void init() throws IOException {
+        executionsDir = Paths.get(executionsDirSetting).toAbsolutePath().normalize();
+        Files.createDirectories(executionsDir);
+        logger.info("📁 Execution workspaces at {} (retention {}h, max {})", executionsDir, retentionHours, maxWorkspaces);
+    }
+
+    /**
+     * Create the workspace for an execution and link the shared sources into it.
+     *
+     * @param executionId The execution ID
+     * @param fortranDir The shared fortran directory containing multifix.f
+     * @return Path to the new workspace
+     * @throws IOException If the workspace cannot be created
+     */
+    public Path createWorkspace(String executionId, Path fortranDir) throws IOException {
+        if (!isValidExecutionId(executionId)) {
+            throw new IOException("Invalid execution ID: " + executionId);
+        }
+        Path workspace = executionsDir.resolve(executionId);
+        Files.createDirectories(workspace);
+        activeWorkspaces.add(executionId);
+
+        for (String name : SHARED_SOURCES) {
+            Path source = fortranDir.resolve(name).toAbsolutePath();
+            if (!Files.exists(source)) {
+                continue;
+            }
+            linkShared(source, workspace.resolve(name));
+        }
+        logger.info("📁 Created workspace for {}: {}", executionId, workspace);
+        return workspace;
+    }
+
+    /** Mark an execution as finished so its workspace becomes eligible for retention cleanup. */
+    public void release(String executionId) {
+        if (executionId != null) {
+            activeWorkspaces.remove(executionId);
+        }
+    }
+
+    /**
+     * Resolve the workspace of an execution.
+     *
+     * @return Workspace path, or null if the ID is invalid or no workspace exists
+     */
+    public Path getWorkspace(String executionId) {
+        if (!isValidExecutionId(executionId)) {
+            return null;
+        }
+        Path workspace = executionsDir.resolve(executionId);
+        return Files.isDirectory(workspace) ? workspace : null;
+    }
+
+    public static boolean isValidExecutionId(String executionId) {
+        return executionId != null && EXECUTION_ID_PATTERN.matcher(executionId).matches();
+    }
+
+    /**
+     * Delete expired workspaces. Runs periodically (cosmo.executions.cleanup-interval-ms).
+     */
+    @Scheduled(fixedDelayString = "${cosmo.executions.cleanup-interval-ms:600000}",
+               initialDelayString = "${cosmo.executions.cleanup-interval-ms:600000}")
+    public void applyRetentionPolicy() {
+        List<Path> finished = new ArrayList<>();
+        try (java.util.stream.Stream<Path> stream = Files.list(executionsDir)) {
+            stream.filter(Files::isDirectory)
+                .filter(path -> !activeWorkspaces.contains(path.getFileName().toString()))
+                .forEach(finished::add);
+        } catch (IOException e) {
+            logger.warn("Error listing execution workspaces: {}", e.getMessage());
+            return;
+        }
+
+        // Newest first, so everything past maxWorkspaces is the oldest
+        finished.sort(Comparator.comparingLong(CompileCacheService::lastModifiedMillis).reversed());
+        long cutoff = System.currentTimeMillis() - retentionHours * 3600_000L;
+        int kept = 0;
+        int deleted = 0;
+        for (Path workspace : finished) {
+            boolean expired = CompileCacheService.lastModifiedMillis(workspace) < cutoff;
+            boolean overLimit = kept >= Math.max(0, maxWorkspaces - activeWorkspaces.size());
+            if (expired || overLimit) {
+                try {
+                    CompileCacheService.deleteRecursively(workspace);
+                    deleted++;
+                } catch (IOException e) {
+                    logger.warn("Failed to delete workspace {}: {}", workspace, e.getMessage());
+                }
+            } else {
+                kept++;
+            }
+        }
+        if (deleted > 0) {
+            logger.info("🗑️  Retention policy removed {} workspace(s), {} kept", deleted, kept);
+        }
+    }
+
+    /** Symlink a shared file into the workspace, falling back to a copy. */
+    private static void linkShared(Path source, Path link) throws IOException {
+        Files.deleteIfExists(link);
+        try {
+            Files.createSymbolicLink(link, source);
+        } catch (IOException | UnsupportedOperationException e) {
+            Files.copy(source, link, StandardCopyOption.REPLACE_EXISTING);
+            link.toFile().setWritable(false);
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.cosmo.backend.service;
+
+import com.cosmo.backend.expression.Expr;
+import com.cosmo.backend.expression.ExpressionParser;
+import com.cosmo.backend.expression.ParsedExpression;
+import com.cosmo.backend.expression.PotentialDerivatives;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Parses potential and metric expressions once and caches the trees by expression text,
+ * so validation in the controller and code generation in the execution share one parse,
+ * and sweeps over parameter values do not parse the same potential again. The analytic
+ * derivatives of a potential are cached the same way.
+ */
+@Service
+public class ExpressionService {
+
+    /** Maximum number of parsed expressions kept in memory */
+    @Value("${cosmo.expression.cache-max-entries:512}")
+    private int cacheMaxEntries;
+
+    private final Map<String, ParsedExpression> cache = new LinkedHashMap<>(16, 0.75f, true);
+
+    /** Derivatives by nf and expression text; the Hessian needs nf*(nf+1)/2 differentiations */
+    private final Map<String, PotentialDerivatives> derivativeCache = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * Parsed expression for the given text (from the cache if it was parsed before).
+     *
+     * @throws com.cosmo.backend.expression.ExpressionException If the expression is invalid
+     */
+    public ParsedExpression parse(String expression) {
+        synchronized (cache) {
+            ParsedExpression cached = cache.get(expression);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        // Parse outside the lock; a concurrent parse of the same text is harmless
+        ParsedExpression parsed = ExpressionParser.parse(expression);
+        synchronized (cache) {
+            cache.put(expression, parsed);
+            while (cache.size() > Math.max(1, cacheMaxEntries)) {
+                cache.remove(cache.keySet().iterator().next());
+            }
+        }
+        return parsed;
+    }
+
+    /**
+     * Closed-form gradient and Hessian of a potential (cached by expression text and nf).
+     *
+     * @return The derivatives, or null if the potential has no closed-form derivative
+     * @throws com.cosmo.backend.expression.ExpressionException If the expression is invalid
+     */
+    public PotentialDerivatives derivatives(String expression, int numFields) {
+        String key = numFields + ":" + expression;
+        synchronized (derivativeCache) {
+            PotentialDerivatives cached = derivativeCache.get(key);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        PotentialDerivatives derivatives = PotentialDerivatives.of(parse(expression).getRoot(), numFields);
+        if (derivatives == null) {
+            return null;
+        }
+        synchronized (derivativeCache) {
+            derivativeCache.put(key, derivatives);
+            while (derivativeCache.size() > Math.max(1, cacheMaxEntries)) {
+                derivativeCache.remove(derivativeCache.keySet().iterator().next());
+            }
+        }
+        return derivatives;
+    }
+
+    /**
+     * Metric entries g(i,j) as expression trees: blank entries are the identity, numeric
+     * entries (also with a d exponent) constants, anything else is parsed like the potential.
+     *
+     * @param metric Metric rows from the request (may be null or smaller than nf)
+     * @param numFields Number of fields
+     * @return entries[i-1][j-1] = g(i,j)
+     * @throws com.cosmo.backend.expression.ExpressionException If an entry is invalid
+     */
+    public Expr[][] metricEntries(List<List<String>> metric, int numFields) {
+        Expr[][] entries = new Expr[numFields][numFields];
+        for (int i = 0; i < numFields; i++) {
+            List<String> row = (metric != null && i < metric.size()) ? metric.get(i) : null;
+            for (int j = 0; j < numFields; j++) {
+                String entry = (row != null && j < row.size()) ? row.get(j) : null;
+                if (entry == null || entry.trim().isEmpty()) {
+                    entries[i][j] = new Expr.Num(i == j ? 1.0 : 0.0);
+                    continue;
+                }
+                try {
+                    entries[i][j] = new Expr.Num(Double.parseDouble(entry.trim().replace('D', 'E').replace('d', 'E')));
+                } catch (NumberFormatException e) {
+                    entries[i][j] = parse(entry.trim()).getRoot();
+                }
+            }
+        }
+        return entries;
+    }
+
+    /**
+     * Parameters of the expression without a provided value (names compared case-insensitively).
+     *
+     * @param expression Potential expression
+     * @param provided Names of the parameters that have values
+     * @return Missing parameter names (lower case), empty if all are provided or the expression is blank
+     * @throws com.cosmo.backend.expression.ExpressionException If the expression is invalid
+     */
+    public List<String> findMissingParameters(String expression, Collection<String> provided) {
+        if (expression == null || expression.trim().isEmpty()) {
+            return new ArrayList<>();
+        }
+        Set<String> known = provided == null ? Set.of() : provided.stream()
+            .map(name -> name.trim().toLowerCase(Locale.ROOT))
+            .collect(Collectors.toSet());
+        List<String> missing = new ArrayList<>();
+        for (String parameter : parse(expression).getParameters()) {
+            if (!known.contains(parameter)) {
+                missing.add(parameter);
+            }
+        }
+        return missing;
+    }
+}
@@ -0,0 +1,396 @@
+package com.cosmo.backend.service;
+
+import com.cosmo.backend.dto.InitialConditionsDTO;
+import com.cosmo.backend.expression.CompiledExpression;
+import com.cosmo.backend.expression.Differentiator;
+import com.cosmo.backend.expression.Expr;
+import com.cosmo.backend.expression.MetricDerivatives;
+import com.cosmo.backend.expression.PotentialDerivatives;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * Potential, field-space metric and their derivatives of one request, compiled once for the
+ * in-process evaluations of the background preview, the slow-roll estimate and the Java solver.
+ *
+ * Derivatives are the closed-form ones of the expression package; potentials and metrics with
+ * min/max fall back to central differences. Arrays are 0-based (x[0] is x(1)). The methods taking
+ * an output array fill it without allocating (except for the central-difference fallbacks and the
+ * Jacobi decomposition of a non-diagonal metric); the model itself is immutable and thread-safe.
+ */
+final class FieldSpaceModel {
+
+    private static final Logger logger = LoggerFactory.getLogger(FieldSpaceModel.class);
+
+    /** Step of the central differences used for potentials and metrics without closed-form derivatives */
+    private static final double DIFFERENCE_STEP = 1.0e-4;
+
+    final int nf;
+    final CompiledExpression potential;
+    /** dV/dx(i), or null for central differences */
+    private final CompiledExpression[] gradient;
+    /** d2V/dx(i)dx(j) for i <= j, or null for central differences */
+    private final CompiledExpression[][] hessian;
+    private final CompiledExpression[][] metric;
+    final boolean constantMetric;
+    final boolean diagonalMetric;
+    /** Non-zero dg(i,j)/dx(k) as (i,j,k) and value, or null for central differences */
+    private final int[][] metricDerivativeIndex;
+    private final CompiledExpression[] metricDerivatives;
+    /** Non-zero Chris(i,j,k) as (i,j,k) and value, or null if computed from lld (non-diagonal metric, min/max) */
+    private final int[][] christoffelIndex;
+    private final CompiledExpression[] christoffel;
+    /** Non-zero dChris(i,j,k,l) as (i,j,k,l) and value, or null for central differences */
+    private final int[][] christoffelDerivativeIndex;
+    private final CompiledExpression[] christoffelDerivatives;
+
+    /**
+     * Compile the potential and metric of a request.
+     *
+     * @throws com.cosmo.backend.expression.ExpressionException If the potential or metric is invalid or a parameter has no value
+     */
+    FieldSpaceModel(ExpressionService expressionService, InitialConditionsDTO conditions) {
+        nf = conditions.getFieldValues().size();
+        Map<String, Double> parameterValues = conditions.getParameterValues();
+        if ((parameterValues == null || parameterValues.isEmpty()) && conditions.getParameters() != null) {
+            parameterValues = FortranExecutionService.buildParameterValuesFromArray(conditions.getParameters());
+        }
+        Function<Expr.Param, Expr> bindings = FortranExecutionService.parameterConstants(parameterValues);
+
+        String expression = conditions.getPotentialExpression() == null
+            || conditions.getPotentialExpression().trim().isEmpty()
+            ? FortranExecutionService.DEFAULT_POTENTIAL : conditions.getPotentialExpression();
+        potential = CompiledExpression.compile(expressionService.parse(expression).getRoot(), bindings);
+        PotentialDerivatives derivatives = expressionService.derivatives(expression, nf);
+        if (derivatives != null) {
+            gradient = new CompiledExpression[nf];
+            hessian = new CompiledExpression[nf][nf];
+            for (int i = 0; i < nf; i++) {
+                gradient[i] = CompiledExpression.compile(derivatives.getGradient(i + 1), bindings);
+                for (int j = i; j < nf; j++) {
+                    hessian[i][j] = CompiledExpression.compile(derivatives.getHessian(i + 1, j + 1), bindings);
+                }
+            }
+        } else {
+            gradient = null;
+            hessian = null;
+        }
+
+        Expr[][] entries = expressionService.metricEntries(conditions.getMetric(), nf);
+        metric = new CompiledExpression[nf][nf];
+        for (int i = 0; i < nf; i++) {
+            for (int k = 0; k < nf; k++) {
+                metric[i][k] = CompiledExpression.compile(entries[i][k], bindings);
+            }
+        }
+        MetricDerivatives metricDerivatives = MetricDerivatives.of(entries);
+        boolean constant = true;
+        boolean diagonal = true;
+        for (int i = 0; i < nf; i++) {
+            for (int k = 0; k < nf; k++) {
+                constant &= !Differentiator.dependsOnFields(entries[i][k]);
+                diagonal &= i == k || (entries[i][k] instanceof Expr.Num && ((Expr.Num) entries[i][k]).getValue() == 0);
+            }
+        }
+        constantMetric = constant;
+        diagonalMetric = diagonal;
+        if (metricDerivatives != null) {
+            List<MetricDerivatives.Term> terms = metricDerivatives.getMetricDerivatives();
+            metricDerivativeIndex = indices(terms);
+            this.metricDerivatives = compile(terms, bindings);
+        } else {
+            metricDerivativeIndex = null;
+            this.metricDerivatives = null;
+        }
+        if (metricDerivatives != null && metricDerivatives.getChristoffel() != null) {
+            christoffelIndex = indices(metricDerivatives.getChristoffel());
+            christoffel = compile(metricDerivatives.getChristoffel(), bindings);
+            christoffelDerivativeIndex = indices(metricDerivatives.getChristoffelDerivatives());
+            christoffelDerivatives = compile(metricDerivatives.getChristoffelDerivatives(), bindings);
+        } else {
+            christoffelIndex = null;
+            christoffel = null;
+            christoffelDerivativeIndex = null;
+            christoffelDerivatives = null;
+        }
+    }
+
+    private static int[][] indices(List<MetricDerivatives.Term> terms) {
+        int[][] result = new int[terms.size()][];
+        for (int t = 0; t < terms.size(); t++) {
+            result[t] = terms.get(t).getIndex();
+        }
+        return result;
+    }
+
+    private static CompiledExpression[] compile(List<MetricDerivatives.Term> terms, Function<Expr.Param, Expr> bindings) {
+        CompiledExpression[] result = new CompiledExpression[terms.size()];
+        for (int t = 0; t < terms.size(); t++) {
+            result[t] = CompiledExpression.compile(terms.get(t).getValue(), bindings);
+        }
+        return result;
+    }
+
+    double potential(double[] x) {
+        return potential.evaluate(x);
+    }
+
+    double[] gradient(double[] x) {
+        double[] result = new double[nf];
+        gradient(x, result);
+        return result;
+    }
+
+    void gradient(double[] x, double[] result) {
+        for (int i = 0; i < nf; i++) {
+            result[i] = gradient != null ? gradient[i].evaluate(x) : difference(potential, x, i);
+        }
+    }
+
+    /** Symmetric matrix of second derivatives of the potential */
+    double[][] hessian(double[] x) {
+        double[][] result = new double[nf][nf];
+        hessian(x, result);
+        return result;
+    }
+
+    void hessian(double[] x, double[][] result) {
+        for (int i = 0; i < nf; i++) {
+            for (int j = i; j < nf; j++) {
+                if (hessian != null) {
+                    result[i][j] = hessian[i][j].evaluate(x);
+                } else {
+                    double[] shifted = x.clone();
+                    shifted[j] = x[j] + DIFFERENCE_STEP;
+                    double plus = difference(potential, shifted, i);
+                    shifted[j] = x[j] - DIFFERENCE_STEP;
+                    result[i][j] = (plus - difference(potential, shifted, i)) / (2 * DIFFERENCE_STEP);
+                }
+                result[j][i] = result[i][j];
+            }
+        }
+    }
+
+    /** g(i,j) */
+    double[][] metric(double[] x) {
+        double[][] g = new double[nf][nf];
+        for (int i = 0; i < nf; i++) {
+            for (int k = 0; k < nf; k++) {
+                g[i][k] = metric[i][k].evaluate(x);
+            }
+        }
+        return g;
+    }
+
+    /** ll(i,i) of the subroutine metric in multifix.f: the diagonal, or the Jacobi eigenvalues of g(i,j) */
+    double[] metricEigenvalues(double[] x) {
+        double[] d = new double[nf];
+        metricEigenvalues(x, d);
+        return d;
+    }
+
+    void metricEigenvalues(double[] x, double[] d) {
+        if (diagonalMetric) {
+            for (int i = 0; i < nf; i++) {
+                d[i] = metric[i][i].evaluate(x);
+            }
+            return;
+        }
+        jacobi(metric(x), d);
+    }
+
+    /** lld[i][j][k] = dg(i,j)/dx(k) */
+    double[][][] metricDerivatives(double[] x) {
+        double[][][] lld = new double[nf][nf][nf];
+        metricDerivatives(x, lld);
+        return lld;
+    }
+
+    void metricDerivatives(double[] x, double[][][] lld) {
+        if (constantMetric || metricDerivatives != null) {
+            clear(lld);
+        }
+        if (constantMetric) {
+            return;
+        }
+        if (metricDerivatives != null) {
+            for (int t = 0; t < metricDerivatives.length; t++) {
+                int[] index = metricDerivativeIndex[t];
+                lld[index[0] - 1][index[1] - 1][index[2] - 1] = metricDerivatives[t].evaluate(x);
+            }
+            return;
+        }
+        for (int i = 0; i < nf; i++) {
+            for (int j = 0; j < nf; j++) {
+                for (int k = 0; k < nf; k++) {
+                    lld[i][j][k] = difference(metric[i][j], x, k);
+                }
+            }
+        }
+    }
+
+    /**
+     * chris[i][j][k] = Chris(i,j,k) of the subroutine christoffel: 0.5/ll(k,k)*(lld(k,i,j)+lld(k,j,i)-lld(i,j,k)),
+     * closed form for diagonal metrics, otherwise from the eigenvalues d and the derivatives lld at x.
+     */
+    void christoffel(double[] x, double[] d, double[][][] lld, double[][][] chris) {
+        clear(chris);
+        if (constantMetric) {
+            return;
+        }
+        if (christoffel != null) {
+            for (int t = 0; t < christoffel.length; t++) {
+                int[] index = christoffelIndex[t];
+                chris[index[0] - 1][index[1] - 1][index[2] - 1] = christoffel[t].evaluate(x);
+            }
+            return;
+        }
+        for (int i = 0; i < nf; i++) {
+            for (int j = 0; j < nf; j++) {
+                for (int k = 0; k < nf; k++) {
+                    chris[i][j][k] = 0.5 / d[k] * (lld[k][i][j] + lld[k][j][i] - lld[i][j][k]);
+                }
+            }
+        }
+    }
+
+    /** dchris[i][j][k][l] = dChris(i,j,k,l) = d Chris(i,j,k)/dx(l) of the subroutine dchristoffel */
+    void christoffelDerivatives(double[] x, double[][][][] dchris) {
+        if (constantMetric || christoffelDerivatives != null) {
+            for (double[][][] block : dchris) {
+                clear(block);
+            }
+        }
+        if (constantMetric) {
+            return;
+        }
+        if (christoffelDerivatives != null) {
+            for (int t = 0; t < christoffelDerivatives.length; t++) {
+                int[] index = christoffelDerivativeIndex[t];
+                dchris[index[0] - 1][index[1] - 1][index[2] - 1][index[3] - 1] = christoffelDerivatives[t].evaluate(x);
+            }
+            return;
+        }
+        double[] shifted = x.clone();
+        double[] d = new double[nf];
+        double[][][] lld = new double[nf][nf][nf];
+        double[][][] plus = new double[nf][nf][nf];
+        double[][][] minus = new double[nf][nf][nf];
+        for (int l = 0; l < nf; l++) {
+            shifted[l] = x[l] + DIFFERENCE_STEP;
+            metricEigenvalues(shifted, d);
+            metricDerivatives(shifted, lld);
+            christoffel(shifted, d, lld, plus);
+            shifted[l] = x[l] - DIFFERENCE_STEP;
+            metricEigenvalues(shifted, d);
+            metricDerivatives(shifted, lld);
+            christoffel(shifted, d, lld, minus);
+            shifted[l] = x[l];
+            for (int i = 0; i < nf; i++) {
+                for (int j = 0; j < nf; j++) {
+                    for (int k = 0; k < nf; k++) {
+                        dchris[i][j][k][l] = (plus[i][j][k] - minus[i][j][k]) / (2 * DIFFERENCE_STEP);
+                    }
+                }
+            }
+        }
+    }
+
+    private static void clear(double[][][] a) {
+        for (double[][] plane : a) {
+            for (double[] row : plane) {
+                Arrays.fill(row, 0.0);
+            }
+        }
+    }
+
+    private double difference(CompiledExpression f, double[] x, int k) {
+        double[] shifted = x.clone();
+        shifted[k] = x[k] + DIFFERENCE_STEP;
+        double plus = f.evaluate(shifted);
+        shifted[k] = x[k] - DIFFERENCE_STEP;
+        return (plus - f.evaluate(shifted)) / (2 * DIFFERENCE_STEP);
+    }
+
+    /**
+     * Eigenvalues of a symmetric matrix by cyclic Jacobi rotations (jacobi in multifix.f, same
+     * order of the eigenvalues). Only the upper triangle of a is used; it is overwritten.
+     */
+    static void jacobi(double[][] a, double[] d) {
+        int n = d.length;
+        double[] b = new double[n];
+        double[] z = new double[n];
+        for (int p = 0; p < n; p++) {
+            b[p] = a[p][p];
+            d[p] = b[p];
+        }
+        for (int sweep = 1; sweep <= 50; sweep++) {
+            double sm = 0;
+            for (int p = 0; p < n - 1; p++) {
+                for (int q = p + 1; q < n; q++) {
+                    sm += Math.abs(a[p][q]);
+                }
+            }
+            if (sm == 0) {
+                return;
+            }
+            double tresh = sweep < 4 ? 0.2 * sm / ((double) n * n) : 0;
+            for (int p = 0; p < n - 1; p++) {
+                for (int q = p + 1; q < n; q++) {
+                    double g = 100.0 * Math.abs(a[p][q]);
+                    if (sweep > 4 && Math.abs(d[p]) + g == Math.abs(d[p]) && Math.abs(d[q]) + g == Math.abs(d[q])) {
+                        a[p][q] = 0;
+                    } else if (Math.abs(a[p][q]) > tresh) {
+                        double h = d[q] - d[p];
+                        double t;
+                        if (Math.abs(h) + g == Math.abs(h)) {
+                            t = a[p][q] / h;
+                        } else {
+                            double theta = 0.5 * h / a[p][q];
+                            t = 1.0 / (Math.abs(theta) + Math.sqrt(1.0 + theta * theta));
+                            if (theta < 0) {
+                                t = -t;
+                            }
+                        }
+                        double c = 1.0 / Math.sqrt(1 + t * t);
+                        double s = t * c;
+                        double tau = s / (1.0 + c);
+                        h = t * a[p][q];
+                        z[p] -= h;
+                        z[q] += h;
+                        d[p] -= h;
+                        d[q] += h;
+                        a[p][q] = 0;
+                        for (int j = 0; j < p; j++) {
+                            rotate(a, j, p, j, q, s, tau);
+                        }
+                        for (int j = p + 1; j < q; j++) {
+                            rotate(a, p, j, j, q, s, tau);
+                        }
+                        for (int j = q + 1; j < n; j++) {
+                            rotate(a, p, j, q, j, s, tau);
+                        }
+                    }
+                }
+            }
+            for (int p = 0; p < n; p++) {
+                b[p] += z[p];
+                d[p] = b[p];
+                z[p] = 0;
+            }
+        }
+        logger.warn("Too many iterations in jacobi");
+    }
+
+    private static void rotate(double[][] a, int i, int j, int k, int l, double s, double tau) {
+        double g = a[i][j];
+        double h = a[k][l];
+        a[i][j] = g - s * (h + g * tau);
+        a[k][l] = h + s * (g - h * tau);
+    }
+}
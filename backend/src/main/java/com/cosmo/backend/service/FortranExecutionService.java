@@ -1,8 +1,16 @@
 package com.cosmo.backend.service;
 
 import com.cosmo.backend.dto.InitialConditionsDTO;
+import com.cosmo.backend.expression.Expr;
+import com.cosmo.backend.expression.ExpressionException;
+import com.cosmo.backend.expression.FortranEmitter;
+import com.cosmo.backend.expression.MetricDerivatives;
+import com.cosmo.backend.expression.PotentialDerivatives;
 import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.stereotype.Service;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -16,21 +24,24 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.UUID;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.TimeUnit;
-import java.util.regex.Pattern;
-import java.util.regex.Matcher;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
 
 /**
  * Service to execute Fortran program with initial conditions
  * 
  * WORKFLOW:
  * 1. Frontend sends potential expression and initial conditions
- * 2. Backend transforms potential to Fortran 77 format
- * 3. Backend writes potential.inc and initial_conditions.inc files
- * 4. Backend compiles multifix.f
- * 5. Backend runs the compiled executable
- * 6. Backend returns results
+ * 2. Backend creates an isolated workspace for the execution
+ * 3. Backend transforms potential to Fortran 77 format
+ * 4. Backend writes potential.inc (with its analytic gradient and Hessian) and
+ *    initial_conditions.inc files into the workspace
+ * 5. Backend compiles multifix_user.f and links it against the prebuilt solver core (multifix.f)
+ * 6. Backend runs the compiled executable inside the workspace
+ * 7. Backend returns results
  */
 @Service
 public class FortranExecutionService {
@@ -42,6 +53,45 @@ public class FortranExecutionService {
      */
     private static final long MAX_EXECUTION_TIME = 1200;
     
+    /**
+     * Maximum number of potential parameters in runtime parameter mode (size of potpar in multifix.f)
+     */
+    private static final int MAX_RUNTIME_PARAMETERS = 50;
+    
+    /**
+     * Longest generated derivative statement in lines; gfortran and ifx reject more than
+     * 255 continuation lines, so longer derivatives fall back to numerical differentiation
+     */
+    private static final int MAX_STATEMENT_LINES = 256;
+    
+    /** Potential used when none is provided */
+    static final String DEFAULT_POTENTIAL = "(0.1*Tanh(x(1)/Sqrt(6)))**2";
+    
+    /**
+     * Name prefix of the plot files (followed by the first 8 characters of the execution ID)
+     */
+    private static final String PLOT_FILE_PREFIX = "n_prz_kmode_plot_";
+    
+    /** Output (stdout and stderr) of the Fortran program, in the workspace */
+    private static final String OUTPUT_FILE = "output.txt";
+    
+    /** Value of the engine field of a request that selects the compiled multifix program (the default) */
+    static final String ENGINE_FORTRAN = "fortran";
+    
+    /** Source of the routines that include the generated .inc files, linked against the solver core */
+    private static final String USER_SOURCE = "multifix_user.f";
+    
+    /** Object and module file of the prebuilt solver core */
+    private static final String CORE_OBJECT = "multifix_core.o";
+    private static final String CORE_MODULE = "global.mod";
+    
+    /** nf parameter in module global of multifix.f */
+    private static final java.util.regex.Pattern NF_PARAMETER =
+        java.util.regex.Pattern.compile("(integer,\\s*parameter\\s*::\\s*nf\\s*=\\s*)\\d+");
+    
+    /** One lock per solver core key, so a core is compiled once when executions arrive together */
+    private final Map<String, Object> coreBuildLocks = new java.util.concurrent.ConcurrentHashMap<>();
+    
     /** Fortran compiler command (ifx or gfortran). Default ifx for Docker and local. */
     @Value("${cosmo.fortran.compiler:ifx}")
     private String fortranCompiler;
@@ -51,10 +101,102 @@ public class FortranExecutionService {
     private String fortranExeName;
     
     /**
-     * Map to track running processes by execution ID
-     * Used for cancellation support
+     * Runtime parameter mode: numeric values (fields, velocities, potential parameters, dt, kstar, cq)
+     * are read from cosmo_params.in at startup instead of being compiled in, so one binary per
+     * expression shape serves every numeric variation.
      */
-    private final Map<String, Process> runningProcesses = new ConcurrentHashMap<>();
+    @Value("${cosmo.fortran.runtime-parameters:true}")
+    private boolean runtimeParameters;
+    
+    /**
+     * Emit the closed-form gradient and Hessian of the potential for Vx1 and Vxx1, and the metric
+     * derivatives and Christoffel symbols for dmetric, christoffel and dchristoffel in multifix.f,
+     * instead of differentiating numerically (Ridders' method) on every call
+     */
+    @Value("${cosmo.fortran.analytic-derivatives:true}")
+    private boolean analyticDerivatives;
+    
+    /** Use the user-provided fieldVelocities instead of the slow-roll initial velocities computed by xic */
+    @Value("${cosmo.fortran.use-field-velocities:false}")
+    private boolean useFieldVelocities;
+    
+    /**
+     * Incremental build: the solver core (multifix.f) is compiled once per nf, compiler and profile
+     * into an object file kept in the compile cache; per request only multifix_user.f is compiled
+     * and linked. Needs the compile cache; without it both sources are compiled every time.
+     */
+    @Value("${cosmo.fortran.incremental-build:true}")
+    private boolean incrementalBuild;
+    
+    /** Engine of requests that do not choose one: "fortran" (compiled multifix) or "java" (PerturbationSolverService) */
+    @Value("${cosmo.solver.engine:fortran}")
+    private String defaultEngine;
+    
+    /** Cache of compiled executables keyed by source, includes, nf, compiler, profile and flags */
+    @Autowired
+    private CompileCacheService compileCacheService;
+    
+    /** Compiler flags per build profile, and compile and run times per profile */
+    @Autowired
+    private BuildProfileService buildProfileService;
+    
+    /** Per-execution working directories so concurrent runs do not share files */
+    @Autowired
+    private ExecutionWorkspaceService executionWorkspaceService;
+    
+    /** Lifecycle events (SSE) for the frontend */
+    @Autowired
+    private ExecutionEventService executionEventService;
+    
+    /** Live spectrum rows (SSE) while the program runs */
+    @Autowired
+    private SpectrumStreamService spectrumStreamService;
+    
+    /** Renders the spectrum plot in-process */
+    @Autowired
+    private SpectrumPlotService spectrumPlotService;
+    
+    /** Memoized results of identical calculations */
+    @Autowired
+    private ResultCacheService resultCacheService;
+    
+    /** Parsed potential and metric expressions (cached by text) */
+    @Autowired
+    private ExpressionService expressionService;
+    
+    /** Stage timings, failure and fallback counters (Prometheus) */
+    @Autowired
+    private MetricsService metricsService;
+    
+    @Autowired
+    private ProcessSupervisor processSupervisor;
+    
+    /** Long-lived multifix processes for runs, if enabled */
+    @Autowired
+    private FortranWorkerPool workerPool;
+    
+    /** The Java engine (requests with engine=java) */
+    @Autowired
+    private PerturbationSolverService perturbationSolver;
+    
+    /** Collects outputs when a process exits (the supervisor thread only tracks processes) */
+    @Autowired
+    @Qualifier("fortranExecutor")
+    private ThreadPoolTaskExecutor fortranExecutor;
+    
+    /** Also write an SVG version of the plot next to the PNG */
+    @Value("${cosmo.plot.svg:false}")
+    private boolean plotSvg;
+    
+    /** Executions currently in progress (compile or run), for the cosmo_active_executions gauge */
+    private final AtomicInteger activeExecutions = new AtomicInteger();
+    
+    @PostConstruct
+    public void registerMetrics() {
+        metricsService.registerGauge("cosmo_active_executions", "Executions compiling or running", activeExecutions::get);
+        metricsService.registerGauge("cosmo_active_processes", "Fortran processes currently running",
+            processSupervisor::getProcessCount);
+    }
 
     /** Log which Fortran compiler will be used (so you know ifx vs gfortran). */
     @PostConstruct
@@ -63,11 +205,19 @@ public class FortranExecutionService {
         String which = "ifx".equalsIgnoreCase(fortranCompiler) ? "Intel ifx" : "GNU gfortran";
         logger.info("{} Fortran compiler: {} ({}) — set COSMO_FORTRAN_COMPILER to switch; executable: {}",
             emoji, fortranCompiler, which, fortranExeName);
+        String profile = buildProfileService.getDefaultProfile();
+        if (buildProfileService.exists(profile)) {
+            logger.info("Default build profile: {} ({})", profile,
+                String.join(" ", buildProfileService.flags(profile, fortranCompiler)));
+        } else {
+            logger.warn("Unknown default build profile '{}' (expected one of {}); requests without buildProfile will fail",
+                profile, buildProfileService.getNames());
+        }
     }
     
     /**
      * Get the absolute path to the fortran directory
-     * This is where multifix.f, potential.inc, and initial_conditions.inc are located
+     * This is where the shared sources (multifix.f) are located
      */
     private Path getFortranDirectory() {
         // Get current working directory (usually backend/ when running Spring Boot)
@@ -107,7 +257,7 @@ public class FortranExecutionService {
      * Build Map&lt;String, Double&gt; from the "parameters" array [{name, value}, ...].
      * Value can be string or number in JSON.
      */
-    private Map<String, Double> buildParameterValuesFromArray(List<Map<String, Object>> parameters) {
+    static Map<String, Double> buildParameterValuesFromArray(List<Map<String, Object>> parameters) {
         if (parameters == null || parameters.isEmpty()) {
             return null;
         }
@@ -134,282 +284,81 @@ public class FortranExecutionService {
     }
 
     /**
-     * Replace parameter symbols in expression with their values
-     * Handles case-insensitive matching (e.g., "A" in map matches "a" in expression)
-     * 
-     * @param expression The potential expression with parameter symbols
-     * @param parameterValues Map of parameter names to values
-     * @return Expression with parameters replaced by values
+     * Parameter names (lower case, de-duplicated, sorted) defining the potpar(k) order
      */
-    private String replaceParameters(String expression, Map<String, Double> parameterValues) {
-        if (expression == null || expression.trim().isEmpty()) {
-            return expression;
-        }
-        
-        if (parameterValues == null || parameterValues.isEmpty()) {
-            return expression;
-        }
-        
-        String result = expression;
-        
-        // Replace each parameter with its value
-        // Sort by length (longest first) to avoid partial replacements (e.g., "lambda" before "lam")
-        List<String> sortedParams = new ArrayList<>(parameterValues.keySet());
-        sortedParams.sort((a, b) -> Integer.compare(b.length(), a.length()));
-        
-        for (String paramName : sortedParams) {
-            Double value = parameterValues.get(paramName);
-            if (value != null) {
-                // Use word boundaries to match whole parameter names only
-                // Case-insensitive replacement - matches "A", "a", "Aa", etc.
-                String pattern = "\\b" + Pattern.quote(paramName) + "\\b";
-                String replacement = String.format("%.15f", value);
-                result = result.replaceAll("(?i)" + pattern, replacement);
-                logger.info("Replaced parameter '{}' (case-insensitive) with value {}", paramName, value);
+    static List<String> buildRuntimeParameterOrder(Map<String, Double> parameterValues) {
+        java.util.TreeSet<String> names = new java.util.TreeSet<>();
+        if (parameterValues != null) {
+            for (Map.Entry<String, Double> entry : parameterValues.entrySet()) {
+                if (entry.getValue() != null) {
+                    names.add(entry.getKey().toLowerCase());
+                }
             }
         }
-        
-        logger.info("Expression after parameter replacement: {}", result);
-        return result;
+        return new ArrayList<>(names);
     }
     
     /**
-     * Transform a potential expression from frontend format to Fortran 77 format
-     * 
-     * TRANSFORMATIONS:
-     * 1. Add .d0 suffix to all numeric literals (e.g., 0.1 -> 0.1d0, 6 -> 6.d0)
-     * 2. Break long lines with continuation characters (Fortran 77 format)
-     * 3. Ensure proper Fortran 77 formatting with 6-space indentation
-     * 
-     * @param expression The potential expression from frontend (e.g., "(0.1*Tanh(x(1)/Sqrt(6)))**2")
-     * @return Fortran 77 formatted expression
+     * Look up a parameter value case-insensitively
      */
-    private String transformPotentialToFortran77(String expression) {
-        if (expression == null || expression.trim().isEmpty()) {
-            // Default potential if none provided
-            return "      VV=(0.1d0*Tanh(x(1)/Sqrt(6.d0)))**2.d0";
-        }
-        
-        logger.info("Transforming potential expression to Fortran 77 format...");
-        logger.debug("Original expression: {}", expression);
-        
-        // Step 1: Add .d0 suffix to numeric literals
-        // IMPORTANT: Do NOT transform array indices like x(1), x(2), etc.
-        // Pattern matches: numbers like 0.1, 6, 100000, -0.981, etc.
-        // But NOT already formatted numbers like 6.d0
-        // And NOT numbers inside x(...) which are array indices
-        String transformed = expression;
-        
-        // First, protect array indices by temporarily replacing them
-        // Pattern to find x(number) - these are array indices and should NOT be changed
-        Pattern arrayIndexPattern = Pattern.compile("x\\((\\d+)\\)");
-        List<String> arrayIndices = new ArrayList<>();
-        StringBuffer protectedBuffer = new StringBuffer();
-        Matcher arrayMatcher = arrayIndexPattern.matcher(transformed);
-        int index = 0;
-        
-        while (arrayMatcher.find()) {
-            arrayIndices.add(arrayMatcher.group(0)); // Store the full match like "x(1)"
-            arrayMatcher.appendReplacement(protectedBuffer, "___ARRAY_INDEX_" + index + "___");
-            index++;
-        }
-        arrayMatcher.appendTail(protectedBuffer);
-        transformed = protectedBuffer.toString();
-        
-        // Protect scientific notation (e.g. 2.2e-12, 10.e-11) before adding .d0 to other numbers.
-        // Convert to Fortran double form: mantissa + "d" + exponent (e.g. 2.2e-12 -> 2.2d-12).
-        Pattern sciNotationPattern = Pattern.compile("(-?\\d+\\.?\\d*)[eE]([+-]?\\d+)");
-        Matcher sciMatcher = sciNotationPattern.matcher(transformed);
-        List<String> sciNotationReplacements = new ArrayList<>();
-        StringBuffer sciBuffer = new StringBuffer();
-        while (sciMatcher.find()) {
-            String mantissa = sciMatcher.group(1);
-            String exponent = sciMatcher.group(2);
-            sciNotationReplacements.add(mantissa + "d" + exponent);
-            sciMatcher.appendReplacement(sciBuffer, Matcher.quoteReplacement("___SCINOT_" + (sciNotationReplacements.size() - 1) + "___"));
-        }
-        sciMatcher.appendTail(sciBuffer);
-        transformed = sciBuffer.toString();
-        
-        // Now transform numbers (array indices and scientific notation are protected)
-        // Pattern to match numbers that need .d0 suffix
-        // Matches: optional negative sign, digits, optional decimal point and digits
-        // Excludes: numbers already ending with d0, d1, etc. (like 6.d0)
-        // Also excludes numbers that are part of function names or other identifiers
-        Pattern numberPattern = Pattern.compile("(?<![a-zA-Z_])(-?\\d+\\.?\\d*)(?![a-zA-Z_0-9])");
-        Matcher matcher = numberPattern.matcher(transformed);
-        StringBuffer sb = new StringBuffer();
-        
-        while (matcher.find()) {
-            String number = matcher.group(1);
-            // Add .d0 suffix for double precision
-            // If number already has decimal point, use it; otherwise add .d0
-            String replacement;
-            if (number.contains(".")) {
-                replacement = number + "d0";
-            } else {
-                replacement = number + ".d0";
+    private static Double findParameterValue(Map<String, Double> parameterValues, String name) {
+        for (Map.Entry<String, Double> entry : parameterValues.entrySet()) {
+            if (entry.getKey().equalsIgnoreCase(name) && entry.getValue() != null) {
+                return entry.getValue();
             }
-            matcher.appendReplacement(sb, Matcher.quoteReplacement(replacement));
-        }
-        matcher.appendTail(sb);
-        transformed = sb.toString();
-        
-        // Restore scientific notation (Fortran double form: 2.2d-12, etc.)
-        for (int i = 0; i < sciNotationReplacements.size(); i++) {
-            transformed = transformed.replace("___SCINOT_" + i + "___", sciNotationReplacements.get(i));
-        }
-        
-        // Restore array indices (they should remain as x(1), x(2), etc.)
-        for (int i = 0; i < arrayIndices.size(); i++) {
-            transformed = transformed.replace("___ARRAY_INDEX_" + i + "___", arrayIndices.get(i));
         }
-        
-        // Step 2: Add VV= prefix if not present (with proper spacing)
-        transformed = transformed.trim();
-        // Remove ANY existing VV= prefix (case-insensitive, with optional spaces)
-        // This ensures we never have double VV=
-        transformed = transformed.replaceFirst("(?i)^\\s*VV\\s*=\\s*", "");
-        // Now add VV= prefix (guaranteed to be only one)
-        transformed = "VV=" + transformed;
-        
-        // Step 3: Break long lines with Fortran 77 continuation
-        // Fortran 77: lines can be up to 72 characters (columns 1-72)
-        // First 6 columns reserved: first line uses 6 spaces, continuation uses 5 spaces + '-' in column 6
-        transformed = breakLongLinesFortran77(transformed);
-        
-        logger.debug("Transformed expression:\n{}", transformed);
-        return transformed;
+        return null;
     }
     
     /**
-     * Break a long line into multiple lines with Fortran 77 continuation
-     * 
-     * FORTRAN 77 CONTINUATION RULES:
-     * - Lines can be up to 72 characters (columns 1-72)
-     * - Columns 1-6 are reserved for special purposes
-     * - First line: 6 spaces, then "VV=       " (with spacing), then expression
-     * - Continuation: 5 spaces, then '-' in column 6, then rest of expression
-     * - Break at logical points (after operators, before function calls)
-     * 
-     * @param line The line to break (without leading spaces, should start with "VV=")
-     * @return Multi-line string with proper Fortran 77 continuation
+     * Parameter bindings that inline the values (case-insensitive lookup)
      */
-    private String breakLongLinesFortran77(String line) {
-        // Remove any existing leading spaces
-        line = line.trim();
-        
-        // Remove any existing VV= prefix to avoid duplication
-        // The method will add the properly formatted VV= prefix
-        line = line.replaceFirst("(?i)^\\s*VV\\s*=\\s*", "");
-        
-        // Format first line: "      VV=       " (6 spaces + VV= + 7 spaces for alignment)
-        String firstLinePrefix = "      VV=       ";
-        int firstLineMaxContent = 72 - firstLinePrefix.length(); // Max content on first line
-        
-        // Continuation line prefix: "     -" (5 spaces + '-' in column 6)
-        String continuationPrefix = "     -";
-        int continuationMaxContent = 72 - continuationPrefix.length(); // Max content on continuation lines
-        
-        // If entire expression fits on first line, return it
-        if (line.length() <= firstLineMaxContent) {
-            return firstLinePrefix + line;
-        }
-        
-        List<String> lines = new ArrayList<>();
-        int pos = 0;
-        boolean isFirstLine = true;
-        
-        while (pos < line.length()) {
-            int maxContent;
-            String prefix;
-            
-            if (isFirstLine) {
-                maxContent = firstLineMaxContent;
-                prefix = firstLinePrefix;
-                isFirstLine = false;
-            } else {
-                maxContent = continuationMaxContent;
-                prefix = continuationPrefix;
-            }
-            
-            // Find the best break point (prefer breaking after operators or before functions)
-            int endPos = findBestBreakPoint(line, pos, Math.min(pos + maxContent, line.length()));
-            
-            String segment = line.substring(pos, endPos);
-            String formattedLine = prefix + segment;
-            
-            // Ensure line doesn't exceed 72 characters
-            if (formattedLine.length() > 72) {
-                // If too long, break at maxContent
-                endPos = pos + maxContent;
-                segment = line.substring(pos, endPos);
-                formattedLine = prefix + segment;
-            }
-            
-            lines.add(formattedLine);
-            pos = endPos;
-            
-            // Skip whitespace at the start of next line
-            while (pos < line.length() && Character.isWhitespace(line.charAt(pos))) {
-                pos++;
-            }
-        }
-        
-        return String.join("\n", lines);
+    static Function<Expr.Param, Expr> parameterConstants(Map<String, Double> parameterValues) {
+        return param -> {
+            Double value = parameterValues != null ? findParameterValue(parameterValues, param.getName()) : null;
+            return value != null ? new Expr.Num(value) : null;
+        };
     }
     
     /**
-     * Find the best break point in a Fortran expression
-     * Prefers breaking after operators (+, -, *, /) or before function calls
-     * 
-     * @param line The line to break
-     * @param start Start position
-     * @param maxEnd Maximum end position (72 characters limit)
-     * @return Best break position
+     * Parameter bindings that reference potpar(k) in the order of cosmo_params.in (runtime parameter mode)
      */
-    private int findBestBreakPoint(String line, int start, int maxEnd) {
-        if (maxEnd >= line.length()) {
-            return line.length();
-        }
-        
-        // Look for good break points (after operators, before functions)
-        // Search backwards from maxEnd to find a good break point
-        int bestPos = maxEnd;
-        
-        // Preferred break characters (after these)
-        char[] breakAfter = {'+', '-', '*', '/', '(', ','};
-        
-        // Search backwards from maxEnd
-        for (int i = maxEnd - 1; i > start + 10; i--) { // Don't break too early
-            char c = line.charAt(i);
-            for (char breakChar : breakAfter) {
-                if (c == breakChar) {
-                    // Found a good break point
-                    bestPos = i + 1;
-                    return bestPos;
-                }
-            }
-        }
-        
-        // If no good break point found, break at maxEnd
-        return maxEnd;
+    static Function<Expr.Param, Expr> parameterReferences(List<String> parameterOrder) {
+        return param -> {
+            int index = parameterOrder.indexOf(param.getKey());
+            return index >= 0 ? new Expr.Ref("potpar", index + 1) : null;
+        };
+    }
+    
+    /**
+     * Format a double as a Fortran double precision literal with full precision (e.g. 5.000000000000000d-02)
+     */
+    private static String formatFortranDouble(double value) {
+        return FortranEmitter.formatDouble(value);
     }
     
     /**
      * Write the potential expression to potential.inc file
      * This file is included by multifix.f at compile time
      * 
-     * @param fortranDir The directory containing the Fortran files
+     * @param workDir The execution workspace
      * @param potentialExpression The potential expression from frontend
+     * @param parameterBindings Value or potpar(k) reference for each parameter
+     * @param numFields Number of fields (x(n) must not exceed it)
      * @throws IOException If file writing fails
+     * @throws ExpressionException If the expression is invalid or a parameter has no value
      */
-    private void writePotentialInc(Path fortranDir, String potentialExpression) throws IOException {
-        Path potentialIncFile = fortranDir.resolve("potential.inc");
+    private void writePotentialInc(Path workDir, String potentialExpression,
+                                   Function<Expr.Param, Expr> parameterBindings, int numFields) throws IOException {
+        Path potentialIncFile = workDir.resolve("potential.inc");
         logger.info("Writing potential to: {}", potentialIncFile);
         
-        // Transform the expression to Fortran 77 format
-        String fortranExpression = transformPotentialToFortran77(potentialExpression);
+        // Parse (cached by text) and emit as a Fortran 77 statement with continuation lines
+        String expression = potentialExpression == null || potentialExpression.trim().isEmpty()
+            ? DEFAULT_POTENTIAL : potentialExpression;
+        Expr potential = expressionService.parse(expression).getRoot();
+        String fortranExpression = FortranEmitter.emit("      VV=       ", potential, parameterBindings, numFields);
+        logger.debug("Fortran potential:\n{}", fortranExpression);
         
         try (BufferedWriter writer = Files.newBufferedWriter(potentialIncFile)) {
             writer.write(fortranExpression);
@@ -420,6 +369,83 @@ public class FortranExecutionService {
         logger.info("Successfully wrote potential.inc");
     }
     
+    /**
+     * Write potential_gradient.inc and potential_hessian.inc, included by Vx1 and Vxx1 in multifix.f.
+     * 
+     * Each sets analytic=.true. and assigns Vx(i) = dV/dx(i) or Vxx(i,j) = d2V/dx(i)dx(j) in closed
+     * form, with the same parameter bindings as potential.inc. If analytic derivatives are disabled,
+     * the potential has none (min or max of fields) or a statement would be too long, the include
+     * only sets analytic=.false. and multifix differentiates VV numerically as before.
+     * 
+     * @param workDir The execution workspace
+     * @param potentialExpression The potential expression from frontend
+     * @param parameterBindings Value or potpar(k) reference for each parameter
+     * @param numFields Number of fields
+     * @throws IOException If file writing fails
+     */
+    private void writePotentialDerivativeIncs(Path workDir, String potentialExpression,
+                                              Function<Expr.Param, Expr> parameterBindings, int numFields) throws IOException {
+        String expression = potentialExpression == null || potentialExpression.trim().isEmpty()
+            ? DEFAULT_POTENTIAL : potentialExpression;
+        PotentialDerivatives derivatives = analyticDerivatives
+            ? expressionService.derivatives(expression, numFields) : null;
+        if (analyticDerivatives && derivatives == null) {
+            logger.info("Potential has no closed-form derivatives (min/max of fields), using numerical differentiation");
+        }
+        
+        List<String> gradient = null;
+        List<String> hessian = null;
+        if (derivatives != null) {
+            gradient = new ArrayList<>();
+            for (int i = 1; i <= numFields; i++) {
+                gradient.add(FortranEmitter.emit("      Vx(" + i + ")=", derivatives.getGradient(i),
+                    parameterBindings, numFields));
+            }
+            hessian = new ArrayList<>();
+            for (int i = 1; i <= numFields; i++) {
+                for (int j = i; j <= numFields; j++) {
+                    hessian.add(FortranEmitter.emit("      Vxx(" + i + "," + j + ")=", derivatives.getHessian(i, j),
+                        parameterBindings, numFields));
+                }
+            }
+            // Upper triangle only, the lower one is copied
+            for (int i = 1; i <= numFields; i++) {
+                for (int j = 1; j < i; j++) {
+                    hessian.add("      Vxx(" + i + "," + j + ")=Vxx(" + j + "," + i + ")");
+                }
+            }
+        }
+        writeDerivativeInc(workDir.resolve("potential_gradient.inc"), "dV/dx(i)", gradient);
+        writeDerivativeInc(workDir.resolve("potential_hessian.inc"), "d2V/dx(i)dx(j)", hessian);
+    }
+    
+    private void writeDerivativeInc(Path incFile, String description, List<String> statements) throws IOException {
+        if (statements != null) {
+            for (String statement : statements) {
+                if (statement.chars().filter(c -> c == '\n').count() + 1 > MAX_STATEMENT_LINES) {
+                    logger.warn("{}: derivative statement longer than {} lines, using numerical differentiation",
+                        incFile.getFileName(), MAX_STATEMENT_LINES);
+                    statements = null;
+                    break;
+                }
+            }
+        }
+        try (BufferedWriter writer = Files.newBufferedWriter(incFile)) {
+            writer.write("      ! " + incFile.getFileName() + " (overwritten each run - " + description
+                + (statements != null ? ")" : ", numerical)"));
+            writer.newLine();
+            writer.write(statements != null ? "      analytic=.true." : "      analytic=.false.");
+            writer.newLine();
+            if (statements != null) {
+                for (String statement : statements) {
+                    writer.write(statement);
+                    writer.newLine();
+                }
+            }
+        }
+        logger.info("✅Successfully wrote {} ({})", incFile.getFileName(), statements != null ? "analytic" : "numerical");
+    }
+    
     /**
      * Write initial conditions to initial_conditions.inc file
      * Format: x(1)=value, x(2)=value, etc.
@@ -427,17 +453,30 @@ public class FortranExecutionService {
      * Note: The existing format doesn't use .d0 suffix, but Fortran will interpret
      * the numbers correctly. We match the existing format for compatibility.
      * 
-     * @param fortranDir The directory containing the Fortran files
+     * In runtime parameter mode the values are read from cosmo_params.in instead,
+     * so the include only copies them from rt_x0.
+     * 
+     * @param workDir The execution workspace
      * @param conditions The initial conditions from frontend
+     * @param runtimeMode Whether values are read at runtime from cosmo_params.in
      * @throws IOException If file writing fails
      */
-    private void writeInitialConditionsInc(Path fortranDir, InitialConditionsDTO conditions) throws IOException {
-        Path initialConditionsIncFile = fortranDir.resolve("initial_conditions.inc");
+    private void writeInitialConditionsInc(Path workDir, InitialConditionsDTO conditions, boolean runtimeMode) throws IOException {
+        Path initialConditionsIncFile = workDir.resolve("initial_conditions.inc");
         logger.info("Writing initial conditions to: {}", initialConditionsIncFile);
         
         try (BufferedWriter writer = Files.newBufferedWriter(initialConditionsIncFile)) {
             List<Double> fieldValues = conditions.getFieldValues();
             
+            if (runtimeMode) {
+                // The include is inside a do i=1,nf loop; values come from cosmo_params.in
+                writer.write("      x(i)=rt_x0(i)");
+                writer.newLine();
+                writer.newLine();
+                logger.info("✅Successfully wrote initial_conditions.inc (runtime parameter mode)");
+                return;
+            }
+            
             // The include is inside a do i=1,nf loop
             // We write all field assignments: x(1)=value1, x(2)=value2, etc.
             // Even though the include is in a loop, all lines in the include file execute,
@@ -466,18 +505,127 @@ public class FortranExecutionService {
         logger.info("✅Successfully wrote initial_conditions.inc");
     }
     
+    /**
+     * Write runtime_params.inc, included at the start of multifix.f
+     * 
+     * Compile-time mode: assigns dt, kstar, cq (and optionally the initial velocities) directly.
+     * Runtime parameter mode: calls read_runtime_params, which reads them from cosmo_params.in.
+     * 
+     * @param workDir The execution workspace
+     * @param conditions The initial conditions from frontend
+     * @param runtimeMode Whether values are read at runtime from cosmo_params.in
+     * @throws IOException If file writing fails
+     */
+    private void writeRuntimeParamsInc(Path workDir, InitialConditionsDTO conditions, boolean runtimeMode) throws IOException {
+        Path runtimeParamsIncFile = workDir.resolve("runtime_params.inc");
+        logger.info("Writing runtime parameters include to: {}", runtimeParamsIncFile);
+        
+        try (BufferedWriter writer = Files.newBufferedWriter(runtimeParamsIncFile)) {
+            writer.write("      ! runtime_params.inc (overwritten each run - dt, kstar, cq)");
+            writer.newLine();
+            if (runtimeMode) {
+                writer.write("      call read_runtime_params(dt,kstar,cq)");
+                writer.newLine();
+            } else {
+                writer.write("      dt=" + formatFortranDouble(valueOrDefault(conditions.getTimeStep(), 0.05)));
+                writer.newLine();
+                writer.write("      kstar=" + formatFortranDouble(valueOrDefault(conditions.getKstar(), 0.05)));
+                writer.newLine();
+                writer.write("      cq=" + formatFortranDouble(valueOrDefault(conditions.getCq(), 100.0)));
+                writer.newLine();
+                List<Double> velocities = conditions.getFieldVelocities();
+                if (useFieldVelocities && velocities != null && !velocities.isEmpty()) {
+                    writer.write("      rt_usexd=1");
+                    writer.newLine();
+                    for (int i = 0; i < velocities.size(); i++) {
+                        writer.write("      rt_xd0(" + (i + 1) + ")=" + formatFortranDouble(valueOrDefault(velocities.get(i), 0.0)));
+                        writer.newLine();
+                    }
+                }
+            }
+            writer.newLine();
+        }
+        
+        logger.info("✅Successfully wrote runtime_params.inc");
+    }
+    
+    /**
+     * Write cosmo_params.in, read by read_runtime_params in multifix.f (runtime parameter mode)
+     * 
+     * Format (list-directed):
+     *   nf npar
+     *   x(1) ... x(nf)
+     *   xd(1) ... xd(nf)
+     *   use_velocities (1 or 0)
+     *   potpar(1) ... potpar(npar)   (only if npar &gt; 0)
+     *   dt kstar cq
+     * 
+     * @param workDir The execution workspace
+     * @param conditions The initial conditions from frontend
+     * @param parameterOrder Parameter names in potpar order
+     * @param parameterValues Parameter values by name
+     * @throws IOException If file writing fails
+     */
+    private void writeRuntimeParameterFile(Path workDir, InitialConditionsDTO conditions,
+                                           List<String> parameterOrder, Map<String, Double> parameterValues) throws IOException {
+        Path paramsFile = workDir.resolve("cosmo_params.in");
+        logger.info("Writing runtime parameter file: {}", paramsFile);
+        
+        List<Double> fieldValues = conditions.getFieldValues();
+        List<Double> velocities = conditions.getFieldVelocities();
+        int numFields = fieldValues.size();
+        
+        try (BufferedWriter writer = Files.newBufferedWriter(paramsFile)) {
+            writer.write(numFields + " " + parameterOrder.size());
+            writer.newLine();
+            StringBuilder line = new StringBuilder();
+            for (int i = 0; i < numFields; i++) {
+                line.append(i == 0 ? "" : " ").append(valueOrDefault(fieldValues.get(i), 0.0));
+            }
+            writer.write(line.toString());
+            writer.newLine();
+            line.setLength(0);
+            for (int i = 0; i < numFields; i++) {
+                double velocity = velocities != null && i < velocities.size() ? valueOrDefault(velocities.get(i), 0.0) : 0.0;
+                line.append(i == 0 ? "" : " ").append(velocity);
+            }
+            writer.write(line.toString());
+            writer.newLine();
+            writer.write(useFieldVelocities ? "1" : "0");
+            writer.newLine();
+            if (!parameterOrder.isEmpty()) {
+                line.setLength(0);
+                for (int i = 0; i < parameterOrder.size(); i++) {
+                    line.append(i == 0 ? "" : " ").append(findParameterValue(parameterValues, parameterOrder.get(i)));
+                }
+                writer.write(line.toString());
+                writer.newLine();
+            }
+            writer.write(valueOrDefault(conditions.getTimeStep(), 0.05) + " "
+                + valueOrDefault(conditions.getKstar(), 0.05) + " "
+                + valueOrDefault(conditions.getCq(), 100.0));
+            writer.newLine();
+        }
+        
+        logger.info("✅Successfully wrote cosmo_params.in ({} parameter(s))", parameterOrder.size());
+    }
+    
+    private static double valueOrDefault(Double value, double defaultValue) {
+        return value != null ? value : defaultValue;
+    }
+    
     /**
      * Write metric matrix to metric.inc file
      * Format depends on number of fields:
      * - For 1 field: metric_matrix(1,1) = value
      * - For n fields: metric_matrix(i,j) = value for each i,j
      * 
-     * @param fortranDir The directory containing the Fortran files
+     * @param workDir The execution workspace
      * @param conditions The initial conditions containing metric matrix
      * @throws IOException If file writing fails
      */
-    private void writeMetricInc(Path fortranDir, InitialConditionsDTO conditions) throws IOException {
-        Path metricIncFile = fortranDir.resolve("metric.inc");
+    private void writeMetricInc(Path workDir, InitialConditionsDTO conditions) throws IOException {
+        Path metricIncFile = workDir.resolve("metric.inc");
         logger.info("Writing metric to: {}", metricIncFile);
         
         try (BufferedWriter writer = Files.newBufferedWriter(metricIncFile)) {
@@ -531,8 +679,9 @@ public class FortranExecutionService {
      * Each entry can be a constant or an expression depending on x(1..nf).
      * Writes ALL (i,j) entries so the file is complete; missing entries get identity default (1 on diagonal, 0 off).
      */
-    private void writeMetricFunctionInc(Path fortranDir, InitialConditionsDTO conditions) throws IOException {
-        Path metricFuncIncFile = fortranDir.resolve("metric_function.inc");
+    private void writeMetricFunctionInc(Path workDir, InitialConditionsDTO conditions,
+                                        Function<Expr.Param, Expr> parameterBindings) throws IOException {
+        Path metricFuncIncFile = workDir.resolve("metric_function.inc");
         logger.info("Writing metric function to: {}", metricFuncIncFile);
 
         List<List<String>> metric = conditions.getMetric();
@@ -560,15 +709,17 @@ public class FortranExecutionService {
                     if (expr != null) expr = expr.trim();
                     boolean blank = (expr == null || expr.isEmpty());
 
-                    String fortranExpr;
+                    String statement;
                     if (blank) {
-                        fortranExpr = (i == j) ? "1.000000000000000d0" : "0.000000000000000d0";
+                        statement = "        lll=" + ((i == j) ? "1.000000000000000d0" : "0.000000000000000d0");
                     } else {
                         Double parsed = tryParseDouble(expr);
                         if (parsed != null) {
-                            fortranExpr = String.format("%.15f", parsed) + "d0";
+                            statement = "        lll=" + String.format("%.15f", parsed) + "d0";
                         } else {
-                            fortranExpr = transformMetricExpressionToFortran(expr);
+                            // Same parameters as the potential (values or potpar(k)), continued past column 72
+                            statement = FortranEmitter.emit("        lll=", expressionService.parse(expr).getRoot(),
+                                parameterBindings, numFields);
                         }
                     }
 
@@ -579,7 +730,7 @@ public class FortranExecutionService {
                         writer.write("       else if (j.eq." + (j + 1) + ") then");
                     }
                     writer.newLine();
-                    writer.write("        lll=" + fortranExpr);
+                    writer.write(statement);
                     writer.newLine();
                 }
                 if (wroteAnyJ) {
@@ -596,6 +747,73 @@ public class FortranExecutionService {
         logger.info("✅Successfully wrote metric_function.inc");
     }
 
+    /**
+     * Write the includes of the geometry routines in multifix.f, generated from the metric entries:
+     * 
+     * - metric_diagonal.inc: diagonal=.true. if all off-diagonal entries are zero, so metric skips
+     *   the Jacobi eigenvalue decomposition
+     * - metric_derivatives.inc: lld(i,j,k) = dg(i,j)/dx(k) for dmetric
+     * - christoffel.inc and dchristoffel.inc: Chris(i,j,k) and its derivatives for a constant
+     *   (all zero) or diagonal metric
+     * 
+     * Only non-zero entries are assigned after zeroing the array. An include that cannot be
+     * generated (analytic derivatives disabled, min/max of fields, non-diagonal metric for the
+     * Christoffel symbols, statement too long) sets analytic=.false. and multifix differentiates
+     * numerically as before.
+     * 
+     * @param workDir The execution workspace
+     * @param conditions Initial conditions containing the metric
+     * @param parameterBindings Value or potpar(k) reference for each parameter
+     * @throws IOException If file writing fails
+     * @throws ExpressionException If a metric entry is invalid
+     */
+    private void writeMetricDerivativeIncs(Path workDir, InitialConditionsDTO conditions,
+                                           Function<Expr.Param, Expr> parameterBindings) throws IOException {
+        int numFields = conditions.getFieldValues() != null ?
+            conditions.getFieldValues().size() : 1;
+        // Same entries as metric_function.inc: blank is identity, numbers are constants
+        Expr[][] entries = expressionService.metricEntries(conditions.getMetric(), numFields);
+        
+        MetricDerivatives derivatives = analyticDerivatives ? MetricDerivatives.of(entries) : null;
+        if (analyticDerivatives && derivatives == null) {
+            logger.info("Metric has no closed-form derivatives (min/max of fields), using numerical differentiation");
+        }
+        String kind = derivatives == null ? "" : derivatives.isConstant() ? ", constant metric"
+            : derivatives.isDiagonal() ? ", diagonal metric" : "";
+        
+        Path diagonalIncFile = workDir.resolve("metric_diagonal.inc");
+        boolean diagonal = derivatives != null && derivatives.isDiagonal();
+        try (BufferedWriter writer = Files.newBufferedWriter(diagonalIncFile)) {
+            writer.write("      ! metric_diagonal.inc (overwritten each run - " + (diagonal ? "diagonal" : "general")
+                + " metric)");
+            writer.newLine();
+            writer.write(diagonal ? "      diagonal=.true." : "      diagonal=.false.");
+            writer.newLine();
+        }
+        
+        writeDerivativeInc(workDir.resolve("metric_derivatives.inc"), "lld(i,j,k)" + kind,
+            derivatives == null ? null : termStatements("lld", derivatives.getMetricDerivatives(),
+                parameterBindings, numFields));
+        writeDerivativeInc(workDir.resolve("christoffel.inc"), "Chris(i,j,k)" + kind,
+            derivatives == null || derivatives.getChristoffel() == null ? null
+                : termStatements("Chris", derivatives.getChristoffel(), parameterBindings, numFields));
+        writeDerivativeInc(workDir.resolve("dchristoffel.inc"), "dChris(i,j,k,l)" + kind,
+            derivatives == null || derivatives.getChristoffelDerivatives() == null ? null
+                : termStatements("dChris", derivatives.getChristoffelDerivatives(), parameterBindings, numFields));
+    }
+    
+    /** Zero the array, then assign the non-zero entries */
+    private static List<String> termStatements(String array, List<MetricDerivatives.Term> terms,
+                                               Function<Expr.Param, Expr> parameterBindings, int numFields) {
+        List<String> statements = new ArrayList<>();
+        statements.add("      " + array + "=0.d0");
+        for (MetricDerivatives.Term term : terms) {
+            statements.add(FortranEmitter.emit("      " + term.element(array) + "=", term.getValue(),
+                parameterBindings, numFields));
+        }
+        return statements;
+    }
+    
     private static Double tryParseDouble(String value) {
         if (value == null) return null;
         String s = value.trim();
@@ -610,160 +828,43 @@ public class FortranExecutionService {
     }
 
     /**
-     * Add d0 to numeric literals while preserving x(1), x(2), ... indices.
-     * This mirrors the potential transformation but without adding a VV= prefix.
-     */
-    private String transformMetricExpressionToFortran(String expression) {
-        String expr = expression == null ? "" : expression.trim();
-        if (expr.isEmpty()) return "0.d0";
-
-        // Fortran double-precision exp: exp( -> dexp( to match multi.f
-        expr = expr.replaceAll("(?i)\\bexp\\s*\\(", "dexp(");
-
-        // Protect array indices like x(1)
-        Pattern arrayIndexPattern = Pattern.compile("x\\((\\d+)\\)");
-        List<String> arrayIndices = new ArrayList<>();
-        StringBuffer protectedBuffer = new StringBuffer();
-        Matcher arrayMatcher = arrayIndexPattern.matcher(expr);
-        int index = 0;
-        while (arrayMatcher.find()) {
-            arrayIndices.add(arrayMatcher.group(0));
-            arrayMatcher.appendReplacement(protectedBuffer, "___ARRAY_INDEX_" + index + "___");
-            index++;
-        }
-        arrayMatcher.appendTail(protectedBuffer);
-        String transformed = protectedBuffer.toString();
-
-        // Add d0 suffix to numeric literals not already in d0 form
-        Pattern numberPattern = Pattern.compile("(?<![a-zA-Z_])(-?\\d+\\.?\\d*)(?![a-zA-Z_0-9])");
-        Matcher matcher = numberPattern.matcher(transformed);
-        StringBuffer sb = new StringBuffer();
-        while (matcher.find()) {
-            String number = matcher.group(1);
-            String replacement = number.contains(".") ? (number + "d0") : (number + ".d0");
-            matcher.appendReplacement(sb, Matcher.quoteReplacement(replacement));
-        }
-        matcher.appendTail(sb);
-        transformed = sb.toString();
-
-        // Restore array indices
-        for (int i = 0; i < arrayIndices.size(); i++) {
-            transformed = transformed.replace("___ARRAY_INDEX_" + i + "___", arrayIndices.get(i));
-        }
-
-        return transformed.trim();
-    }
-    
-    /**
-     * Prepare multifix.f with correct number of fields (nf)
-     * Modifies the source code to set nf parameter based on number of fields
-     * 
-     * Uses sed command to preserve exact file format (line endings, encoding, etc.)
-     * This is critical for Fortran 77 which is very sensitive to file format
-     * 
-     * @param fortranDir The directory containing multifix.f
+     * Write multifix.f with the nf parameter set to the number of fields.
+     * The source is handled as ISO-8859-1 (one char per byte), so line endings and encoding are
+     * kept exactly; only the number after "nf=" changes. Fortran 77 is very sensitive to file format.
+     *
+     * @param originalSource multifix.f
+     * @param preparedSource File to write
      * @param numFields Number of fields from frontend
-     * @return Path to the prepared source file (may be original or modified copy)
      * @throws IOException If file operations fail
      */
-    private Path prepareMultifixSource(Path fortranDir, int numFields) throws IOException {
-        Path originalSource = fortranDir.resolve("multifix.f");
-        Path preparedSource = fortranDir.resolve("multifix_prepared.f");
-        
-        logger.info("Preparing multifix.f with nf={}", numFields);
-        
-        // Check if source file exists
+    private void prepareMultifixSource(Path originalSource, Path preparedSource, int numFields) throws IOException {
         if (!Files.exists(originalSource)) {
             throw new IOException("Fortran source file not found: " + originalSource);
         }
-        
-        // Try using sed to preserve exact file format
-        // sed preserves line endings and encoding exactly
-        try {
-            // sed command: replace nf=<number> with nf=<numFields>
-            // Escape special characters for sed regex
-            String sedPattern = String.format("s/\\(integer,\\s*parameter\\s*::\\s*nf\\s*=\\s*\\)[0-9]*/\\1%d/", numFields);
-            
-            ProcessBuilder sedBuilder = new ProcessBuilder(
-                "sed",
-                sedPattern,
-                originalSource.toString()
-            );
-            
-            sedBuilder.directory(fortranDir.toFile());
-            sedBuilder.redirectOutput(preparedSource.toFile());
-            sedBuilder.redirectErrorStream(true);
-            
-            logger.info("Running sed to modify nf parameter: {}", sedPattern);
-            Process sedProcess = sedBuilder.start();
-            
-            // Read any error output
-            StringBuilder sedOutput = new StringBuilder();
-            try (BufferedReader reader = new BufferedReader(
-                    new InputStreamReader(sedProcess.getInputStream()))) {
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    sedOutput.append(line).append("\n");
-                }
-            }
-            
-            int sedExitCode = sedProcess.waitFor();
-            
-            if (sedExitCode == 0 && Files.exists(preparedSource) && Files.size(preparedSource) > 0) {
-                logger.info("Successfully used sed to prepare source file");
-                return preparedSource;
-            } else {
-                logger.warn("sed command failed or produced empty file, falling back to Java method. Exit code: {}, Output: {}", 
-                    sedExitCode, sedOutput.toString());
-                // Fall through to Java method
-            }
-        } catch (Exception e) {
-            logger.warn("sed command not available or failed: {}, falling back to Java method", e.getMessage());
-            // Fall through to Java method
-        }
-        
-        // Fallback: Use Java method (may have line ending issues, but better than nothing)
-        // Read the original source file as bytes to preserve EXACT format
-        byte[] fileBytes = Files.readAllBytes(originalSource);
-        
-        // Convert to string using ISO-8859-1 (1-to-1 byte mapping) for pattern matching
-        String content = new String(fileBytes, java.nio.charset.StandardCharsets.ISO_8859_1);
-        
-        // Find and replace the nf parameter definition
-        String pattern = "(integer,\\s*parameter\\s*::\\s*nf\\s*=\\s*)\\d+";
-        java.util.regex.Pattern nfPattern = java.util.regex.Pattern.compile(pattern);
-        java.util.regex.Matcher matcher = nfPattern.matcher(content);
-        
+        String content = new String(Files.readAllBytes(originalSource), java.nio.charset.StandardCharsets.ISO_8859_1);
+        java.util.regex.Matcher matcher = NF_PARAMETER.matcher(content);
         if (!matcher.find()) {
             logger.warn("Could not find nf parameter definition, using original file");
             Files.copy(originalSource, preparedSource, java.nio.file.StandardCopyOption.REPLACE_EXISTING);
-            return preparedSource;
+            return;
         }
-        
-        // Replace only the number, preserving everything else
-        String modifiedContent = matcher.replaceFirst("$1" + numFields);
-        
-        // Convert back to bytes using ISO-8859-1
-        byte[] modifiedBytes = modifiedContent.getBytes(java.nio.charset.StandardCharsets.ISO_8859_1);
-        
-        // Write back
-        Files.write(preparedSource, modifiedBytes);
-        
-        logger.info("Prepared source file using Java method: {} (nf={})", preparedSource, numFields);
-        return preparedSource;
+        Files.write(preparedSource, matcher.replaceFirst("$1" + numFields).getBytes(java.nio.charset.StandardCharsets.ISO_8859_1));
+        logger.info("Prepared {} with nf={}", preparedSource.getFileName(), numFields);
     }
     
     /**
-     * Run a single compilation attempt with the given compiler.
+     * Run a single compiler invocation: compiler, flags, then the given arguments.
      * @return compilation output (stdout+stderr) for logging
      */
-    private String runCompilation(Path fortranDir, Path sourceFile, Path executable, String compiler) throws IOException, InterruptedException {
-        ProcessBuilder compileBuilder = new ProcessBuilder(
-            compiler,
-            "-o", executable.toString(),
-            sourceFile.toString()
-        );
-        compileBuilder.directory(fortranDir.toFile());
+    private String runCompilation(Path directory, String compiler, List<String> flags, List<String> arguments)
+            throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add(compiler);
+        command.addAll(flags);
+        command.addAll(arguments);
+        logger.info("Running: {}", String.join(" ", command));
+        ProcessBuilder compileBuilder = new ProcessBuilder(command);
+        compileBuilder.directory(directory.toFile());
         compileBuilder.redirectErrorStream(true);
         Process compileProcess = compileBuilder.start();
         StringBuilder compileOutput = new StringBuilder();
@@ -784,18 +885,22 @@ public class FortranExecutionService {
     }
 
     /**
-     * Compile the Fortran program multifix.f.
+     * Compile the Fortran program (multifix.f and multifix_user.f) with the flags of a build profile.
      * If the configured compiler is ifx and it fails (e.g. missing gcc/oneAPI), falls back to gfortran and logs it.
+     * A byte-identical build (same sources, includes, nf, compiler, profile and flags) is served from the compile cache;
+     * a gfortran fallback build is looked up and stored under the key of gfortran and its flags.
      *
-     * @param fortranDir The directory containing multifix.f
+     * @param workDir The execution workspace (the sources are linked in)
      * @param numFields Number of fields (used to prepare source with correct nf)
-     * @return Path to the compiled executable
+     * @param profile Build profile (see {@link BuildProfileService})
+     * @param executionId Execution the build belongs to (the PGO training run is cancelled with it)
+     * @return The compiled executable and its compile cache key
      * @throws IOException If compilation fails (and fallback did not apply or also failed)
      * @throws InterruptedException If compilation is interrupted
      */
-    private Path compileFortranProgram(Path fortranDir, int numFields) throws IOException, InterruptedException {
-        Path sourceFile = prepareMultifixSource(fortranDir, numFields);
-        Path executable = fortranDir.resolve(fortranExeName);
+    private CompiledProgram compileFortranProgram(Path workDir, int numFields, String profile, String executionId)
+            throws IOException, InterruptedException {
+        Path executable = workDir.resolve(fortranExeName);
 
         if (Files.exists(executable)) {
             try {
@@ -806,20 +911,32 @@ public class FortranExecutionService {
             }
         }
 
+        // Reuse a previously compiled executable if all build inputs are byte-identical
         String compilerToUse = fortranCompiler;
-        long compileStart = System.currentTimeMillis();
+        String cacheKey = compileCacheKey(workDir, numFields, compilerToUse, profile);
+        if (fetchCompiled(cacheKey, executable)) {
+            return new CompiledProgram(executable, cacheKey);
+        }
 
-        logger.info("Compiling Fortran program: {} -> {} (compiler: {})", sourceFile.getFileName(), executable.getFileName(), compilerToUse);
-        logger.info("Running: {} -o {} {}", compilerToUse, executable, sourceFile);
+        long compileStart = System.nanoTime();
+
+        logger.info("Compiling Fortran program -> {} (compiler: {}, profile: {})", executable.getFileName(), compilerToUse, profile);
 
         try {
-            runCompilation(fortranDir, sourceFile, executable, compilerToUse);
+            buildExecutable(workDir, numFields, executable, compilerToUse, profile, executionId);
         } catch (IOException e) {
             if ("ifx".equalsIgnoreCase(fortranCompiler)) {
                 logger.warn("ifx compilation failed (e.g. Intel oneAPI/gcc not set up). Falling back to gfortran. Error: {}", e.getMessage());
                 logger.info("Using gfortran for this compilation (fallback).");
+                metricsService.increment("cosmo_compile_fallbacks", "Compilations retried with another compiler",
+                    "from", "ifx", "to", "gfortran");
                 compilerToUse = "gfortran";
-                runCompilation(fortranDir, sourceFile, executable, compilerToUse);
+                // The gfortran build has its own key (compiler and flags differ), never the ifx one
+                cacheKey = compileCacheKey(workDir, numFields, compilerToUse, profile);
+                if (fetchCompiled(cacheKey, executable)) {
+                    return new CompiledProgram(executable, cacheKey);
+                }
+                buildExecutable(workDir, numFields, executable, compilerToUse, profile, executionId);
             } else {
                 throw e;
             }
@@ -829,15 +946,218 @@ public class FortranExecutionService {
             throw new IOException("Compilation succeeded but executable not found: " + executable);
         }
 
-        double compileSec = (System.currentTimeMillis() - compileStart) / 1000.0;
-        logger.info("Fortran compilation successful in {}s (compiler: {}). Executable: {}", String.format("%.1f", compileSec), compilerToUse, executable);
-        return executable;
+        long compileTime = System.nanoTime() - compileStart;
+        double compileSec = compileTime / 1e9;
+        logger.info("Fortran compilation successful in {}s (compiler: {}, profile: {}). Executable: {}",
+            String.format("%.1f", compileSec), compilerToUse, profile, executable);
+        buildProfileService.recordCompile(profile, compilerToUse, compileTime);
+        if (cacheKey != null) {
+            compileCacheService.store(cacheKey, fortranExeName, executable);
+        }
+        return new CompiledProgram(executable, cacheKey);
     }
-    
+
     /**
-     * Execute Fortran program with given initial conditions
-     * 
-     * WORKFLOW:
+     * Compile cache key of the executable built from the workspace with one compiler and its
+     * profile flags, or null if the compile cache is disabled
+     */
+    private String compileCacheKey(Path workDir, int numFields, String compiler, String profile) throws IOException {
+        if (!compileCacheService.isEnabled()) {
+            return null;
+        }
+        List<Path> buildInputs = List.of(
+            workDir.resolve("multifix.f"),
+            workDir.resolve(USER_SOURCE),
+            workDir.resolve("potential.inc"),
+            workDir.resolve("potential_gradient.inc"),
+            workDir.resolve("potential_hessian.inc"),
+            workDir.resolve("initial_conditions.inc"),
+            workDir.resolve("metric.inc"),
+            workDir.resolve("metric_function.inc"),
+            workDir.resolve("metric_diagonal.inc"),
+            workDir.resolve("metric_derivatives.inc"),
+            workDir.resolve("christoffel.inc"),
+            workDir.resolve("dchristoffel.inc"),
+            workDir.resolve("runtime_params.inc")
+        );
+        return compileCacheService.computeKey(buildInputs, numFields, compiler, profile,
+            buildProfileService.flags(profile, compiler));
+    }
+
+    /**
+     * Materialize the cached executable for the key into the workspace
+     *
+     * @return true on a cache hit; false on a miss or if the key is null
+     */
+    private boolean fetchCompiled(String cacheKey, Path executable) {
+        if (cacheKey == null) {
+            return false;
+        }
+        if (compileCacheService.fetch(cacheKey, fortranExeName, executable)) {
+            logger.info("⚡ Compile cache hit ({}), skipping compilation. Executable: {}", cacheKey.substring(0, 12), executable);
+            metricsService.increment("cosmo_compile_cache_lookups", "Compile cache lookups", "result", "hit");
+            return true;
+        }
+        logger.info("Compile cache miss ({}), compiling", cacheKey.substring(0, 12));
+        metricsService.increment("cosmo_compile_cache_lookups", "Compile cache lookups", "result", "miss");
+        return false;
+    }
+
+    /**
+     * A compiled executable and its compile cache key (null if the cache is disabled). The key
+     * identifies the binary, e.g. to pool workers, without hashing the executable again.
+     */
+    private static final class CompiledProgram {
+        final Path executable;
+        final String cacheKey;
+
+        CompiledProgram(Path executable, String cacheKey) {
+            this.executable = executable;
+            this.cacheKey = cacheKey;
+        }
+    }
+
+    /**
+     * Build the executable with one compiler. Incrementally, only multifix_user.f (everything that
+     * includes the generated .inc files) is compiled and linked against the prebuilt solver core;
+     * otherwise both sources are compiled.
+     */
+    private void buildExecutable(Path workDir, int numFields, Path executable, String compiler, String profile,
+                                 String executionId) throws IOException, InterruptedException {
+        List<String> flags = buildProfileService.flags(profile, compiler);
+        if (incrementalBuild && compileCacheService.isEnabled()) {
+            Path coreDir = prebuiltCore(workDir, numFields, compiler, profile, executionId);
+            long stageStart = System.nanoTime();
+            // -I: global.mod of the core, needed by "use global" in multifix_user.f
+            runCompilation(workDir, compiler, flags, List.of("-I", coreDir.toString(), "-o", executable.toString(),
+                USER_SOURCE, coreDir.resolve(CORE_OBJECT).toString()));
+            metricsService.recordStage("compilation", System.nanoTime() - stageStart);
+            return;
+        }
+        if (buildProfileService.usesPgo(profile, compiler)) {
+            logger.warn("Profile-guided optimization needs the incremental build and the compile cache; building without it");
+        }
+        long stageStart = System.nanoTime();
+        Path preparedSource = workDir.resolve("multifix_prepared.f");
+        prepareMultifixSource(workDir.resolve("multifix.f"), preparedSource, numFields);
+        metricsService.recordStage("source_preparation", System.nanoTime() - stageStart);
+        stageStart = System.nanoTime();
+        // The core first: it defines module global used by multifix_user.f
+        runCompilation(workDir, compiler, flags, List.of("-o", executable.toString(), preparedSource.getFileName().toString(), USER_SOURCE));
+        metricsService.recordStage("compilation", System.nanoTime() - stageStart);
+    }
+
+    /**
+     * Object file and module file of the solver core (multifix.f with nf set), compiled once per
+     * source, nf, compiler and profile and kept in the compile cache. Concurrent executions needing
+     * the same core wait for one compilation.
+     *
+     * With profile-guided optimization the core is first built with instrumentation, linked with
+     * the multifix_user.f of this execution and trained on every n-th k mode of it (see
+     * {@link #trainCore}); the core is then rebuilt at the same path (gfortran names the profile
+     * data after the object file) using the recorded profile. The output of the training run is
+     * kept next to the core as pgo_training.txt.
+     *
+     * A cached core is linked (or copied) into workDir/core, so it stays usable for this
+     * execution even if the cache entry is evicted meanwhile.
+     *
+     * @return Directory in the workspace holding multifix_core.o and global.mod
+     */
+    private Path prebuiltCore(Path workDir, int numFields, String compiler, String profile, String executionId)
+            throws IOException, InterruptedException {
+        Path source = workDir.resolve("multifix.f");
+        List<String> flags = buildProfileService.flags(profile, compiler);
+        String key = "core-" + compileCacheService.computeKey(List.of(source), numFields, compiler, profile, flags);
+        synchronized (coreBuildLocks.computeIfAbsent(key, k -> new Object())) {
+            Path coreDir = workDir.resolve("core");
+            if (compileCacheService.fetchFiles(key, List.of(CORE_OBJECT, CORE_MODULE), coreDir)) {
+                metricsService.increment("cosmo_core_cache_lookups", "Solver core cache lookups", "result", "hit");
+                return coreDir;
+            }
+            metricsService.increment("cosmo_core_cache_lookups", "Solver core cache lookups", "result", "miss");
+            logger.info("Building solver core for nf={} (compiler: {}, profile: {})", numFields, compiler, profile);
+
+            long stageStart = System.nanoTime();
+            Path buildDir = workDir.resolve("core-build");
+            Files.createDirectories(buildDir);
+            Path preparedSource = buildDir.resolve("multifix_core.f");
+            prepareMultifixSource(source, preparedSource, numFields);
+            metricsService.recordStage("source_preparation", System.nanoTime() - stageStart);
+
+            Map<String, Path> products = new HashMap<>();
+            List<String> coreFlags = flags;
+            if (buildProfileService.usesPgo(profile, compiler)) {
+                Path profileDir = buildDir.resolve("pgo-profile");
+                Files.createDirectories(profileDir);
+                List<String> instrumented = new ArrayList<>(flags);
+                instrumented.addAll(buildProfileService.instrumentationFlags(profileDir));
+                stageStart = System.nanoTime();
+                runCompilation(buildDir, compiler, instrumented, List.of("-c", "-o", CORE_OBJECT, preparedSource.getFileName().toString()));
+                metricsService.recordStage("core_compilation", System.nanoTime() - stageStart);
+                products.put("pgo_training.txt", trainCore(workDir, buildDir, compiler, instrumented, executionId));
+                coreFlags = new ArrayList<>(flags);
+                coreFlags.addAll(buildProfileService.profileUseFlags(profileDir));
+            }
+
+            stageStart = System.nanoTime();
+            runCompilation(buildDir, compiler, coreFlags, List.of("-c", "-o", CORE_OBJECT, preparedSource.getFileName().toString()));
+            if (!Files.exists(buildDir.resolve(CORE_MODULE))) {
+                throw new IOException("Core compilation succeeded but " + CORE_MODULE + " not found in " + buildDir);
+            }
+            metricsService.recordStage("core_compilation", System.nanoTime() - stageStart);
+
+            products.put(CORE_OBJECT, buildDir.resolve(CORE_OBJECT));
+            products.put(CORE_MODULE, buildDir.resolve(CORE_MODULE));
+            compileCacheService.storeFiles(key, products);
+            return buildDir;
+        }
+    }
+
+    /**
+     * PGO training run: link the instrumented core with multifix_user.f of the execution and solve
+     * every n-th k mode (kstride.in) in buildDir/pgo-training. The profile is written when it exits.
+     *
+     * @return The output of the training run
+     * @throws IOException If the training run fails, times out or is cancelled
+     */
+    private Path trainCore(Path workDir, Path buildDir, String compiler, List<String> instrumentedFlags,
+                           String executionId) throws IOException, InterruptedException {
+        long stageStart = System.nanoTime();
+        Path trainingExecutable = buildDir.resolve("multifix_training");
+        runCompilation(workDir, compiler, instrumentedFlags, List.of("-I", buildDir.toString(), "-o",
+            trainingExecutable.toString(), USER_SOURCE, buildDir.resolve(CORE_OBJECT).toString()));
+
+        Path trainingDir = buildDir.resolve("pgo-training");
+        Files.createDirectories(trainingDir);
+        int stride = buildProfileService.getTrainingStride();
+        Files.writeString(trainingDir.resolve("kstride.in"), stride + "\n");
+        Path params = workDir.resolve("cosmo_params.in");
+        if (Files.exists(params)) {
+            Files.copy(params, trainingDir.resolve("cosmo_params.in"), java.nio.file.StandardCopyOption.REPLACE_EXISTING);
+        }
+        logger.info("🎯 PGO training run of the solver core (every {}th k mode)", stride);
+        ProcessBuilder processBuilder = new ProcessBuilder(trainingExecutable.toString());
+        processBuilder.directory(trainingDir.toFile());
+        Path outputFile = trainingDir.resolve(OUTPUT_FILE);
+        ProcessSupervisor.Exit exit;
+        try {
+            exit = processSupervisor.start(executionId, processBuilder, outputFile, MAX_EXECUTION_TIME, null).getExit().get();
+        } catch (java.util.concurrent.ExecutionException e) {
+            throw new IOException("PGO training run failed: " + e.getCause().getMessage(), e.getCause());
+        }
+        if (exit.isTimedOut() || exit.isCancelled() || exit.getExitCode() != 0) {
+            String reason = exit.isTimedOut() ? "timed out" : exit.isCancelled() ? "was cancelled" : "exited with code " + exit.getExitCode();
+            throw new IOException("PGO training run " + reason + "\nTraining output:\n"
+                + (Files.exists(outputFile) ? Files.readString(outputFile) : ""));
+        }
+        metricsService.recordStage("pgo_training", System.nanoTime() - stageStart);
+        return outputFile;
+    }
+    
+    /**
+     * Execute Fortran program with given initial conditions
+     * 
+     * WORKFLOW:
      * 1. Get fortran directory
      * 2. Write potential.inc (transformed to Fortran 77 format)
      * 3. Write initial_conditions.inc
@@ -868,454 +1188,615 @@ public class FortranExecutionService {
      * @return Execution result containing output files and status
      */
     public FortranExecutionResult executeFortran(InitialConditionsDTO initialConditions, String providedExecutionId) {
+        return executeFortranAsync(initialConditions, providedExecutionId).join();
+    }
+    
+    /**
+     * Execute Fortran program with given initial conditions and execution ID, without holding a
+     * thread while the program runs: inputs are generated and compiled on the calling thread, the
+     * process is tracked by the ProcessSupervisor, and the outputs are collected on the fortranExecutor.
+     * 
+     * @param initialConditions Initial conditions from frontend
+     * @param providedExecutionId Optional execution ID (if null, will generate one)
+     * @return Future completed with the execution result (failures are results, not exceptions)
+     */
+    public CompletableFuture<FortranExecutionResult> executeFortranAsync(InitialConditionsDTO initialConditions,
+                                                                         String providedExecutionId) {
         String executionId = providedExecutionId != null ? providedExecutionId : UUID.randomUUID().toString();
         long executionStartTime = System.currentTimeMillis();
+        long turnaroundStart = System.nanoTime();
+        AtomicReference<String> outcome = new AtomicReference<>("failed");
+        activeExecutions.incrementAndGet();
         
         logger.info("========================================");
         logger.info("Starting Fortran execution with ID: {}", executionId);
         logger.info("Execution start time: {}", new java.util.Date(executionStartTime));
         logger.info("========================================");
         
+        CompletableFuture<FortranExecutionResult> future;
         try {
-            // Step 1: Get fortran directory
-            Path fortranDir = getFortranDirectory();
-            
-            if (!Files.exists(fortranDir) || !Files.isDirectory(fortranDir)) {
-                String errorMsg = "Fortran directory does not exist: " + fortranDir;
-                logger.error(errorMsg);
-                return new FortranExecutionResult(
-                    executionId,
-                    false,
-                    errorMsg,
-                    null,
-                    null
-                );
-            }
-            
-            logger.info("Using fortran directory: {}", fortranDir);
-            
-            // Step 1.5: Clean up previous output files to ensure fresh data
-            // Delete old n_prz_kmode.txt to ensure we get fresh data for plotting
-            cleanupOldDataFiles(fortranDir);
-            
-            // Step 1.6: Clean up previous plot files
-            cleanupOldPlots(fortranDir);
-            
-            // Step 2: Replace parameters in potential expression
-            String potentialExpression = initialConditions.getPotentialExpression();
-            Map<String, Double> parameterValues = initialConditions.getParameterValues();
-            // Fallback: build parameterValues from "parameters" array if map is empty (e.g. JSON key mismatch)
-            if ((parameterValues == null || parameterValues.isEmpty()) && initialConditions.getParameters() != null) {
-                parameterValues = buildParameterValuesFromArray(initialConditions.getParameters());
-                if (parameterValues != null && !parameterValues.isEmpty()) {
-                    logger.info("Built parameterValues from parameters array: {}", parameterValues);
-                }
+            future = startExecution(initialConditions, executionId, executionStartTime, outcome);
+        } catch (Exception e) {
+            future = CompletableFuture.failedFuture(e);
+        }
+        return future
+            .exceptionally(e -> failedExecution(executionId, e))
+            .whenComplete((result, error) -> {
+                activeExecutions.decrementAndGet();
+                metricsService.recordTime("cosmo_execution_turnaround", "Execution time from start to result",
+                    System.nanoTime() - turnaroundStart, "outcome", outcome.get());
+                spectrumStreamService.finish(executionId);
+                // The workspace stays on disk for /files but becomes eligible for retention cleanup
+                executionWorkspaceService.release(executionId);
+            });
+    }
+    
+    /**
+     * Steps up to starting the executable
+     * 
+     * @return Future of the result; completed already if the execution ends before running Fortran
+     */
+    private CompletableFuture<FortranExecutionResult> startExecution(InitialConditionsDTO initialConditions,
+            String executionId, long executionStartTime, AtomicReference<String> outcome) throws IOException {
+        // Step 1: Get fortran directory
+        Path fortranDir = getFortranDirectory();
+        
+        if (!Files.exists(fortranDir) || !Files.isDirectory(fortranDir)) {
+            String errorMsg = "Fortran directory does not exist: " + fortranDir;
+            logger.error(errorMsg);
+            recordFailure("setup");
+            return CompletableFuture.completedFuture(new FortranExecutionResult(
+                executionId,
+                false,
+                errorMsg,
+                null,
+                null
+            ));
+        }
+        
+        logger.info("Using fortran directory: {}", fortranDir);
+        
+        // Step 1.1: Choose the engine and, for Fortran, the build profile
+        String engine = engineOf(initialConditions);
+        if (!ENGINE_FORTRAN.equals(engine) && !PerturbationSolverService.ENGINE.equals(engine)) {
+            recordFailure("setup");
+            return CompletableFuture.completedFuture(new FortranExecutionResult(
+                executionId,
+                false,
+                "Unknown engine '" + engine + "' (expected " + ENGINE_FORTRAN + " or " + PerturbationSolverService.ENGINE + ")",
+                null,
+                null
+            ));
+        }
+        String profile = buildProfileService.profileOf(initialConditions);
+        if (ENGINE_FORTRAN.equals(engine) && !buildProfileService.exists(profile)) {
+            recordFailure("setup");
+            return CompletableFuture.completedFuture(new FortranExecutionResult(
+                executionId,
+                false,
+                "Unknown build profile '" + profile + "' (expected one of " + buildProfileService.getNames() + ")",
+                null,
+                null
+            ));
+        }
+        
+        // Step 1.2: Reuse the result of an identical earlier calculation (unless bypassed)
+        String resultKey = computeResultKey(initialConditions, fortranDir);
+        if (resultKey != null && !Boolean.TRUE.equals(initialConditions.getBypassCache())) {
+            FortranExecutionResult cached = replayCachedResult(resultKey, executionId, fortranDir);
+            if (cached != null) {
+                outcome.set("cached");
+                return CompletableFuture.completedFuture(cached);
             }
+        }
+        
+        // Step 1.5: Create an isolated workspace for this execution
+        // All generated inputs and outputs live there, so concurrent runs cannot interfere
+        long stageStart = System.nanoTime();
+        Path workDir = executionWorkspaceService.createWorkspace(executionId, fortranDir);
+        metricsService.recordStage("workspace", System.nanoTime() - stageStart);
+        stageStart = System.nanoTime();
+        
+        // Step 1.6: Determine number of fields from initial conditions
+        int numFields = initialConditions.getFieldValues() != null ? 
+            initialConditions.getFieldValues().size() : 1;
+        logger.info("Number of fields (nf): {}", numFields);
+        
+        // Step 1.7: The Java engine solves in-process, without includes and compilation
+        if (PerturbationSolverService.ENGINE.equals(engine)) {
+            logger.info("Solving with the Java engine");
+            Path outputFile = workDir.resolve(OUTPUT_FILE);
+            CompletableFuture<ProcessSupervisor.Exit> exitFuture = perturbationSolver.run(executionId, initialConditions,
+                workDir, outputFile, MAX_EXECUTION_TIME);
+            spectrumStreamService.start(executionId, List.of(workDir.resolve(SpectrumStreamService.PROGRESS_FILE)));
+            executionEventService.publishState(executionId, ExecutionEventService.RUNNING);
+            long runStart = System.nanoTime();
+            return exitFuture.thenApplyAsync(exit -> finishRun(exit, workDir, outputFile, executionId,
+                executionStartTime, runStart, null, resultKey, outcome), fortranExecutor);
+        }
+        
+        // Step 2: Bind the parameters of the potential (and metric) expressions
+        String potentialExpression = initialConditions.getPotentialExpression();
+        Map<String, Double> parameterValues = initialConditions.getParameterValues();
+        // Fallback: build parameterValues from "parameters" array if map is empty (e.g. JSON key mismatch)
+        if ((parameterValues == null || parameterValues.isEmpty()) && initialConditions.getParameters() != null) {
+            parameterValues = buildParameterValuesFromArray(initialConditions.getParameters());
             if (parameterValues != null && !parameterValues.isEmpty()) {
-                logger.info("Replacing parameters in potential expression. parameterValues={}", parameterValues);
-                potentialExpression = replaceParameters(potentialExpression, parameterValues);
-                logger.info("Potential expression after parameter replacement: {}", potentialExpression);
+                logger.info("Built parameterValues from parameters array: {}", parameterValues);
             }
-            
-            // Step 3: Write potential.inc file
-            writePotentialInc(fortranDir, potentialExpression);
-            
-            // Step 4: Write initial_conditions.inc file
-            writeInitialConditionsInc(fortranDir, initialConditions);
-            
-            // Step 4.5: Write metric.inc file
-            writeMetricInc(fortranDir, initialConditions);
-            // Step 4.6: Write metric_function.inc file (used inside lll(i,j,x))
-            writeMetricFunctionInc(fortranDir, initialConditions);
-            
-            // Step 5: Determine number of fields from initial conditions
-            int numFields = initialConditions.getFieldValues() != null ? 
-                initialConditions.getFieldValues().size() : 1;
-            logger.info("Number of fields (nf): {}", numFields);
-            
-            // Step 6: Compile multifix.f with correct nf value
-            Path executable;
+        }
+        
+        // Runtime parameter mode: numeric values go to cosmo_params.in, the binary only depends on the expression shape
+        List<String> parameterOrder = buildRuntimeParameterOrder(parameterValues);
+        boolean runtimeMode = runtimeParameters
+            && initialConditions.getFieldValues() != null && !initialConditions.getFieldValues().isEmpty()
+            && parameterOrder.size() <= MAX_RUNTIME_PARAMETERS;
+        if (runtimeParameters && !runtimeMode) {
+            logger.warn("Runtime parameter mode not applicable ({} parameters, max {}); compiling values in",
+                parameterOrder.size(), MAX_RUNTIME_PARAMETERS);
+        }
+        
+        // Values are inlined, or in runtime mode referenced as potpar(k) in cosmo_params.in order
+        logger.info("Binding potential parameters ({}): {}", runtimeMode ? "runtime" : "inlined", parameterValues);
+        Function<Expr.Param, Expr> parameterBindings = runtimeMode
+            ? parameterReferences(parameterOrder)
+            : parameterConstants(parameterValues);
+        
+        // Step 3: Write potential.inc file
+        writePotentialInc(workDir, potentialExpression, parameterBindings, numFields);
+        // Step 3.1: Write potential_gradient.inc and potential_hessian.inc
+        writePotentialDerivativeIncs(workDir, potentialExpression, parameterBindings, numFields);
+        
+        // Step 4: Write initial_conditions.inc file
+        writeInitialConditionsInc(workDir, initialConditions, runtimeMode);
+        
+        // Step 4.1: Write runtime_params.inc (dt, kstar, cq) and, in runtime mode, cosmo_params.in
+        writeRuntimeParamsInc(workDir, initialConditions, runtimeMode);
+        if (runtimeMode) {
+            writeRuntimeParameterFile(workDir, initialConditions, parameterOrder, parameterValues);
+        }
+        
+        // Step 4.5: Write metric.inc file
+        writeMetricInc(workDir, initialConditions);
+        // Step 4.6: Write metric_function.inc file (used inside lll(i,j,x))
+        writeMetricFunctionInc(workDir, initialConditions, parameterBindings);
+        // Step 4.7: Write the metric derivative and Christoffel includes (dmetric, christoffel, dchristoffel)
+        writeMetricDerivativeIncs(workDir, initialConditions, parameterBindings);
+        metricsService.recordStage("include_generation", System.nanoTime() - stageStart);
+        
+        // Step 6: Compile multifix.f with correct nf value and the flags of the build profile
+        executionEventService.publishState(executionId, ExecutionEventService.COMPILING);
+        CompiledProgram compiled;
+        try {
+            compiled = compileFortranProgram(workDir, numFields, profile, executionId);
+        } catch (IOException | InterruptedException e) {
+            logger.error("Compilation failed: ", e);
+            recordFailure("compile");
+            return CompletableFuture.completedFuture(new FortranExecutionResult(
+                executionId,
+                false,
+                "Compilation failed: " + e.getMessage(),
+                e.getClass().getSimpleName() + ": " + e.getMessage(),
+                null
+            ));
+        }
+        Path executable = compiled.executable;
+        
+        // Step 7: Run the compiled executable
+        // The Fortran program runs without command-line arguments (or as a pooled worker, see FortranWorkerPool)
+        // It uses potential.inc and initial_conditions.inc at compile time
+        // and, in runtime parameter mode, reads cosmo_params.in from the workspace
+        logger.info("Executing: {}", executable);
+        spectrumStreamService.start(executionId, List.of(workDir.resolve(SpectrumStreamService.PROGRESS_FILE)));
+        executionEventService.publishState(executionId, ExecutionEventService.RUNNING);
+        long runStart = System.nanoTime();
+        
+        // The output goes to output.txt; the supervisor passes new lines to the listener
+        // and completes the exit future, so no thread waits for the process
+        logger.info("========================================");
+        logger.info("Fortran program output ({}):", fortranExeName);
+        logger.info("========================================");
+        int[] outputLines = {0};
+        long[] lastProgress = {0};
+        java.util.function.Consumer<String> outputListener = line -> {
+            outputLines[0]++;
+            // Progress marker at most once per second
+            long now = System.currentTimeMillis();
+            if (now - lastProgress[0] >= 1000) {
+                lastProgress[0] = now;
+                Map<String, Object> progress = new HashMap<>();
+                progress.put("outputLines", outputLines[0]);
+                progress.put("elapsedMs", now - executionStartTime);
+                executionEventService.publishProgress(executionId, progress);
+            }
+            // Log at INFO level so developers can see the output in terminal
+            logger.info("{}: {}", fortranExeName, line);
+        };
+        Path outputFile = workDir.resolve(OUTPUT_FILE);
+        CompletableFuture<ProcessSupervisor.Exit> exitFuture = null;
+        if (workerPool.isEnabled()) {
+            // A pooled worker of this binary runs the job in the workspace (no process start-up)
             try {
-                executable = compileFortranProgram(fortranDir, numFields);
-            } catch (IOException | InterruptedException e) {
-                logger.error("Compilation failed: ", e);
-                return new FortranExecutionResult(
-                    executionId,
-                    false,
-                    "Compilation failed: " + e.getMessage(),
-                    e.getClass().getSimpleName() + ": " + e.getMessage(),
-                    null
-                );
+                exitFuture = workerPool.run(executionId, executable, compiled.cacheKey, workDir, outputFile,
+                    MAX_EXECUTION_TIME, outputListener);
+            } catch (IOException e) {
+                logger.warn("No Fortran worker available ({}), starting a process", e.getMessage());
             }
-            
-            // Step 7: Run the compiled executable
-            // The Fortran program runs without command-line arguments
-            // It reads from potential.inc and initial_conditions.inc at compile time
+        }
+        if (exitFuture == null) {
             ProcessBuilder processBuilder = new ProcessBuilder(
                 executable.toString()
             );
-            
-            processBuilder.directory(fortranDir.toFile());
-            processBuilder.redirectErrorStream(true);
-            
-            logger.info("Executing: {}", executable);
-            Process process = processBuilder.start();
-            
-            // Store process for cancellation support
-            runningProcesses.put(executionId, process);
-            
-            try {
-                // Read output from the Fortran program
-                logger.info("========================================");
-                logger.info("Fortran program output ({}):", fortranExeName);
-                logger.info("========================================");
-                StringBuilder output = new StringBuilder();
-                try (BufferedReader reader = new BufferedReader(
-                        new InputStreamReader(process.getInputStream()))) {
-                    String line;
-                    while ((line = reader.readLine()) != null) {
-                        // Check if process was cancelled
-                        if (!process.isAlive()) {
-                            break;
-                        }
-                        output.append(line).append("\n");
-                        // Log at INFO level so developers can see the output in terminal
-                        logger.info("{}: {}", fortranExeName, line);
-                    }
-                }
-                logger.info("========================================");
-                logger.info("End of Fortran program output");
-                logger.info("========================================");
-                
-                // Wait for process with timeout
-                boolean finished = process.waitFor(MAX_EXECUTION_TIME, TimeUnit.SECONDS);
-                
-                if (!finished) {
-                    process.destroyForcibly();
-                    return new FortranExecutionResult(
-                        executionId,
-                        false,
-                        "Execution timeout after " + MAX_EXECUTION_TIME + " seconds",
-                        output.toString(),
-                        null
-                    );
-                }
-                
-                int exitCode = process.exitValue();
-                
-                // Step 8: Wait a moment to ensure all files are fully written and flushed to disk
-                // This is important because Fortran may have written the files but they might not be
-                // fully flushed to disk yet
-                try {
-                    Thread.sleep(500); // Wait 500ms for file system to sync
-                    logger.debug("Waited 500ms for file system sync");
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                    logger.warn("Interrupted while waiting for file sync");
-                }
-                
-                // Step 9: Collect output files (text files only, no plots)
-                // The Fortran program writes various output files to the fortran directory
-                List<String> outputFiles = collectOutputFiles(fortranDir);
-                
-                // Step 10: Generate plot from final n_prz_kmode.txt if calculation was successful
-                // The Python script (plot_results.py) will read n_prz_kmode.txt and create a PNG plot
-                // IMPORTANT: Clean up old plots AFTER generating new one, so we always have the latest plot
-                if (exitCode == 0) {
-                    try {
-                        logger.info("========================================");
-                        logger.info("Running Python script to generate plot from final n_prz_kmode.txt...");
-                        logger.info("========================================");
-                        String plotFile = generatePlot(fortranDir, executionId, executionStartTime);
-                        if (plotFile != null) {
-                            // Only add the newly generated plot (not any old ones)
-                            outputFiles.add(plotFile);
-                            logger.info("✅ Plot generated successfully: {} (will be sent to frontend)", plotFile);
-                            
-                            // Clean up OLD plot files AFTER generating new one
-                            // Keep only the latest plot file, delete all others
-                            logger.info("Cleaning up old plot files, keeping only: {}", plotFile);
-                            cleanupOldPlotsExcept(fortranDir, plotFile);
-                        } else {
-                            logger.error("❌ Plot generation returned null - plot will not be sent to frontend");
-                            logger.error("Check Python script output above for errors");
-                        }
-                    } catch (Exception e) {
-                        logger.error("❌ Failed to generate plot: {}", e.getMessage(), e);
-                        // Don't fail the entire execution if plotting fails, but log the error
-                    }
-                } else {
-                    logger.warn("Fortran execution failed (exit code {}), skipping plot generation", exitCode);
-                }
-                
-                if (exitCode == 0) {
-                    double totalSec = (System.currentTimeMillis() - executionStartTime) / 1000.0;
-                    logger.info("Fortran execution total: {}s (compile + run)", String.format("%.1f", totalSec));
-                    String successMessage = String.format(
-                        "Calculation completed successfully! Generated %d output file(s). Execution ID: %s",
-                        outputFiles.size(),
-                        executionId.substring(0, 8) + "..."
-                    );
-                    logger.info("✅ {}", successMessage);
-                    return new FortranExecutionResult(
-                        executionId,
-                        true,
-                        successMessage,
-                        output.toString(),
-                        outputFiles
-                    );
-                } else {
-                    double totalSec = (System.currentTimeMillis() - executionStartTime) / 1000.0;
-                    logger.info("Fortran execution total: {}s (compile + run) before exit code {}", String.format("%.1f", totalSec), exitCode);
-                    String errorMsg = "Fortran program exited with error code " + exitCode + ". Check output for details.";
-                    logger.error("❌ {}", errorMsg);
-                    return new FortranExecutionResult(
-                        executionId,
-                        false,
-                        errorMsg,
-                        output.toString(),
-                        outputFiles
-                    );
-                }
-            } finally {
-                // Always remove process from tracking map when done
-                runningProcesses.remove(executionId);
-                logger.debug("Removed execution {} from tracking map", executionId);
-            }
-            
+            processBuilder.directory(workDir.toFile());
+            exitFuture = processSupervisor.start(executionId, processBuilder, outputFile, MAX_EXECUTION_TIME,
+                outputListener).getExit();
+        }
+        
+        // Collect the outputs and render the plot on the fortranExecutor, not the supervisor thread
+        return exitFuture.thenApplyAsync(exit -> finishRun(exit, workDir, outputFile, executionId,
+            executionStartTime, runStart, profile, resultKey, outcome), fortranExecutor);
+    }
+    
+    /**
+     * Outputs and result of a run once the program (or the Java engine) has ended
+     * 
+     * @param profile Build profile of the executable, null for the Java engine
+     */
+    private FortranExecutionResult finishRun(ProcessSupervisor.Exit exit, Path workDir, Path outputFile, String executionId,
+                                             long executionStartTime, long runStart, String profile, String resultKey,
+                                             AtomicReference<String> outcome) {
+        logger.info("========================================");
+        logger.info("End of Fortran program output");
+        logger.info("========================================");
+        String output;
+        try {
+            output = Files.exists(outputFile) ? Files.readString(outputFile, java.nio.charset.StandardCharsets.UTF_8) : "";
         } catch (IOException e) {
-            logger.error("IO Error executing Fortran: ", e);
+            logger.warn("Could not read program output {}: {}", outputFile, e.getMessage());
+            output = "";
+        }
+        if (exit.isTimedOut()) {
+            recordFailure("timeout");
             return new FortranExecutionResult(
                 executionId,
                 false,
-                "IO Error: " + e.getMessage() + ". Check if files exist and have permissions.",
-                e.getClass().getSimpleName() + ": " + e.getMessage(),
+                "Execution timeout after " + MAX_EXECUTION_TIME + " seconds",
+                output,
                 null
             );
-        } catch (InterruptedException e) {
-            logger.error("Interrupted while executing Fortran: ", e);
-            Thread.currentThread().interrupt();
-            // Clean up process if still running
-            Process process = runningProcesses.remove(executionId);
-            if (process != null && process.isAlive()) {
-                process.destroyForcibly();
-            }
+        }
+        long runTime = System.nanoTime() - runStart;
+        metricsService.recordStage("run", runTime);
+        if (profile != null && exit.getExitCode() == 0 && !exit.isCancelled()) {
+            buildProfileService.recordRun(profile, runTime);
+        }
+        
+        FortranExecutionResult result;
+        try {
+            result = rememberResult(resultKey, workDir,
+                completeExecution(workDir, executionId, executionStartTime, exit.getExitCode(), output));
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        outcome.set(result.isSuccess() ? "completed" : "failed");
+        return result;
+    }
+    
+    /**
+     * Result for an execution that failed with an exception (kills its processes if still running)
+     */
+    private FortranExecutionResult failedExecution(String executionId, Throwable error) {
+        Throwable e = error;
+        while ((e instanceof CompletionException || e instanceof UncheckedIOException) && e.getCause() != null) {
+            e = e.getCause();
+        }
+        processSupervisor.cancel(executionId);
+        workerPool.cancel(executionId);
+        perturbationSolver.cancel(executionId);
+        if (e instanceof ExpressionException) {
+            logger.warn("Invalid expression: {}", e.getMessage());
+            recordFailure("invalid_expression");
             return new FortranExecutionResult(
                 executionId,
                 false,
-                "Execution interrupted: " + e.getMessage(),
+                "Invalid expression: " + e.getMessage(),
                 null,
                 null
             );
-        } catch (Exception e) {
-            // Clean up process if still running
-            Process process = runningProcesses.remove(executionId);
-            if (process != null && process.isAlive()) {
-                process.destroyForcibly();
-            }
-            logger.error("Unexpected error executing Fortran: ", e);
-            String errorDetails = e.getClass().getSimpleName() + ": " + e.getMessage();
-            if (e.getCause() != null) {
-                errorDetails += " (Caused by: " + e.getCause().getMessage() + ")";
-            }
+        }
+        if (e instanceof IOException) {
+            logger.error("IO Error executing Fortran: ", e);
+            recordFailure("io");
             return new FortranExecutionResult(
                 executionId,
                 false,
-                "Error: " + e.getMessage(),
-                errorDetails,
+                "IO Error: " + e.getMessage() + ". Check if files exist and have permissions.",
+                e.getClass().getSimpleName() + ": " + e.getMessage(),
                 null
             );
         }
+        logger.error("Unexpected error executing Fortran: ", e);
+        recordFailure("error");
+        String errorDetails = e.getClass().getSimpleName() + ": " + e.getMessage();
+        if (e.getCause() != null) {
+            errorDetails += " (Caused by: " + e.getCause().getMessage() + ")";
+        }
+        return new FortranExecutionResult(
+            executionId,
+            false,
+            "Error: " + e.getMessage(),
+            errorDetails,
+            null
+        );
     }
     
     /**
-     * Cancel a running Fortran execution by execution ID
+     * Return the memoized result of an identical calculation, if there is one.
+     * Used to answer a repeated submission without queueing it.
      * 
-     * @param executionId The execution ID to cancel
-     * @return true if the execution was found and cancelled, false otherwise
+     * @param initialConditions Initial conditions from frontend
+     * @param executionId New execution ID the result is materialized under
+     * @return The result (new workspace holding the stored outputs), or null on a miss or if bypassCache is set
      */
-    public boolean cancelExecution(String executionId) {
-        if (executionId == null || executionId.trim().isEmpty()) {
-            logger.warn("Attempted to cancel execution with null or empty execution ID");
-            return false;
+    public FortranExecutionResult replayCachedResult(InitialConditionsDTO initialConditions, String executionId) {
+        if (!resultCacheService.isEnabled() || Boolean.TRUE.equals(initialConditions.getBypassCache())) {
+            return null;
         }
-        
-        Process process = runningProcesses.get(executionId);
-        if (process == null) {
-            logger.warn("Execution {} not found in running processes", executionId);
-            return false;
+        Path fortranDir = getFortranDirectory();
+        String resultKey = computeResultKey(initialConditions, fortranDir);
+        return resultKey != null ? replayCachedResult(resultKey, executionId, fortranDir) : null;
+    }
+    
+    private FortranExecutionResult replayCachedResult(String resultKey, String executionId, Path fortranDir) {
+        if (!resultCacheService.contains(resultKey)) {
+            return null;
         }
-        
-        if (!process.isAlive()) {
-            logger.info("Execution {} already finished", executionId);
-            runningProcesses.remove(executionId);
-            return false;
+        try {
+            Path workDir = executionWorkspaceService.createWorkspace(executionId, fortranDir);
+            ResultCacheService.CachedResult cached = resultCacheService.fetch(resultKey, workDir);
+            if (cached == null) {
+                return null;
+            }
+            // Plot files carry the execution ID prefix
+            List<String> outputFiles = new ArrayList<>();
+            for (String file : cached.getOutputFiles()) {
+                String name = file;
+                if (file.startsWith(PLOT_FILE_PREFIX)) {
+                    name = PLOT_FILE_PREFIX + executionId.substring(0, 8) + file.substring(file.lastIndexOf('.'));
+                    Files.move(workDir.resolve(file), workDir.resolve(name), java.nio.file.StandardCopyOption.REPLACE_EXISTING);
+                }
+                outputFiles.add(name);
+            }
+            logger.info("♻️  Identical calculation found in result cache ({}), returning stored outputs for {}",
+                resultKey.substring(0, 12), executionId);
+            return new FortranExecutionResult(
+                executionId,
+                true,
+                String.format("Calculation completed successfully (cached result)! %d output file(s). Execution ID: %s",
+                    outputFiles.size(), executionId.substring(0, 8) + "..."),
+                cached.getOutput(),
+                outputFiles
+            );
+        } catch (IOException e) {
+            logger.warn("Could not materialize cached result {}: {}", resultKey.substring(0, 12), e.getMessage());
+            return null;
+        } finally {
+            executionWorkspaceService.release(executionId);
         }
-        
-        logger.info("Cancelling execution {}", executionId);
-        process.destroyForcibly();
-        runningProcesses.remove(executionId);
-        logger.info("Successfully cancelled execution {}", executionId);
-        return true;
     }
     
     /**
-     * Check if an execution is currently running
+     * Canonical hash of a calculation: the request plus the solver source and the settings that change its outputs
      * 
-     * @param executionId The execution ID to check
-     * @return true if the execution is running, false otherwise
+     * @return The key, or null if the result cache is disabled or the key cannot be computed
      */
-    public boolean isExecutionRunning(String executionId) {
-        if (executionId == null || executionId.trim().isEmpty()) {
-            return false;
+    private String computeResultKey(InitialConditionsDTO initialConditions, Path fortranDir) {
+        if (!resultCacheService.isEnabled()) {
+            return null;
+        }
+        Map<String, Double> parameterValues = initialConditions.getParameterValues();
+        if ((parameterValues == null || parameterValues.isEmpty()) && initialConditions.getParameters() != null) {
+            parameterValues = buildParameterValuesFromArray(initialConditions.getParameters());
+        }
+        // The build profile only applies to the Fortran engine; unknown profiles are rejected before running
+        boolean fortran = ENGINE_FORTRAN.equals(engineOf(initialConditions));
+        String profile = fortran ? buildProfileService.profileOf(initialConditions) : "none";
+        if (fortran && !buildProfileService.exists(profile)) {
+            return null;
+        }
+        try {
+            // multifix_user.f holds VV, the metric and the initial conditions, so it is part of the solver
+            byte[] userSource = Files.readAllBytes(fortranDir.resolve(USER_SOURCE));
+            List<String> environment = List.of(
+                "engine=" + engineOf(initialConditions),
+                "compiler=" + fortranCompiler,
+                "profile=" + profile,
+                "flags=" + (fortran ? String.join(" ", buildProfileService.flags(profile, fortranCompiler)) : ""),
+                "runtimeParameters=" + runtimeParameters,
+                "useFieldVelocities=" + useFieldVelocities,
+                "analyticDerivatives=" + analyticDerivatives,
+                "userSource=" + CompileCacheService.toHex(CompileCacheService.newDigest().digest(userSource))
+            );
+            return resultCacheService.computeKey(initialConditions, parameterValues,
+                fortranDir.resolve("multifix.f"), environment);
+        } catch (IOException e) {
+            logger.warn("Could not compute result cache key: {}", e.getMessage());
+            return null;
         }
-        
-        Process process = runningProcesses.get(executionId);
-        return process != null && process.isAlive();
     }
     
     /**
-     * Clean up old data files that might contain stale data
-     * Deletes n_prz_kmode.txt to ensure fresh data for each calculation
-     * 
-     * @param fortranDir The directory containing the data files
+     * Engine of a request: its engine field, or cosmo.solver.engine
      */
-    private void cleanupOldDataFiles(Path fortranDir) {
+    private String engineOf(InitialConditionsDTO initialConditions) {
+        String engine = initialConditions.getEngine() != null && !initialConditions.getEngine().trim().isEmpty()
+            ? initialConditions.getEngine() : defaultEngine;
+        return engine.trim().toLowerCase(java.util.Locale.ROOT);
+    }
+    
+    /**
+     * Store a successful result in the result cache
+     */
+    private FortranExecutionResult rememberResult(String resultKey, Path workDir, FortranExecutionResult result) {
+        if (resultKey != null && result.isSuccess() && result.getOutputFiles() != null) {
+            resultCacheService.store(resultKey, workDir, result.getOutputFiles(), result.getOutput());
+        }
+        return result;
+    }
+    
+    private void recordFailure(String cause) {
+        metricsService.increment("cosmo_execution_failures", "Failed executions (and failed plots) by cause", "cause", cause);
+    }
+    
+    /**
+     * Parse a Fortran list-directed real (also handles 1.0D-05 and 1.0-100 without exponent letter)
+     */
+    static double parseFortranDouble(String text) {
+        String value = text.trim().replace('D', 'E').replace('d', 'e');
         try {
-            // Delete n_prz_kmode.txt to ensure we get fresh data
-            Path dataFile = fortranDir.resolve("n_prz_kmode.txt");
-            if (Files.exists(dataFile)) {
-                try {
-                    Files.delete(dataFile);
-                    logger.info("🗑️  Deleted old n_prz_kmode.txt to ensure fresh data");
-                } catch (IOException e) {
-                    logger.warn("Failed to delete old n_prz_kmode.txt {}: {}", dataFile, e.getMessage());
-                }
-            } else {
-                logger.debug("n_prz_kmode.txt does not exist (first run or already cleaned)");
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            if (!value.matches(".*[0-9.][+-]\\d{3}$")) {
+                throw e;
             }
-            
-            // Also delete other output files that might contain stale data
-            // This ensures each calculation starts with a clean slate
-            String[] outputFilesToClean = {
-                "information.txt", "fields.txt", "n_epsilon_hubble.txt", 
-                "kmode.txt", "bardeen_initial.txt", "prslow.txt", "gw2.txt",
-                "n_ps_kmode.txt", "m_o_k_ps.txt", "m_o_k_pt.txt"
-            };
-            
-            for (String filename : outputFilesToClean) {
-                Path file = fortranDir.resolve(filename);
-                if (Files.exists(file)) {
-                    try {
-                        Files.delete(file);
-                        logger.debug("Deleted old output file: {}", filename);
-                    } catch (IOException e) {
-                        logger.warn("Failed to delete old output file {}: {}", filename, e.getMessage());
+            return Double.parseDouble(value.substring(0, value.length() - 4) + "E" + value.substring(value.length() - 4));
+        }
+    }
+    
+    /**
+     * Collect outputs, generate the plot and build the result once the Fortran program has exited
+     * 
+     * @param workDir The execution workspace
+     * @param executionId The execution ID
+     * @param executionStartTime Timestamp when execution started
+     * @param exitCode Exit code of the Fortran program
+     * @param output Program output
+     * @return Execution result
+     */
+    private FortranExecutionResult completeExecution(Path workDir, String executionId, long executionStartTime,
+                                                     int exitCode, String output) throws IOException {
+        // Step 8: Collect output files (text files only, no plots)
+        // No settle delay needed: the Fortran runtime closes (flushes) all units when the process exits
+        // The Fortran program writes various output files to the workspace
+        long stageStart = System.nanoTime();
+        List<String> outputFiles = collectOutputFiles(workDir);
+        metricsService.recordStage("output_collection", System.nanoTime() - stageStart);
+        
+        // Step 9: Generate plot from final n_prz_kmode.txt if calculation was successful
+        // SpectrumPlotService reads n_prz_kmode.txt and renders a PNG plot
+        if (exitCode == 0) {
+            try {
+                logger.info("========================================");
+                logger.info("Generating plot from final n_prz_kmode.txt...");
+                logger.info("========================================");
+                executionEventService.publishState(executionId, ExecutionEventService.PLOTTING);
+                stageStart = System.nanoTime();
+                String plotFile = generatePlot(workDir, executionId, executionStartTime);
+                metricsService.recordStage("plot", System.nanoTime() - stageStart);
+                if (plotFile != null) {
+                    outputFiles.add(plotFile);
+                    logger.info("✅ Plot generated successfully: {} (will be sent to frontend)", plotFile);
+                    String svgFile = plotFile.replaceFirst("\\.png$", ".svg");
+                    if (plotSvg && Files.exists(workDir.resolve(svgFile))) {
+                        outputFiles.add(svgFile);
                     }
+                } else {
+                    logger.error("❌ Plot generation returned null - plot will not be sent to frontend");
+                    logger.error("Check the plot generation log above for errors");
                 }
+            } catch (Exception e) {
+                logger.error("❌ Failed to generate plot: {}", e.getMessage(), e);
+                recordFailure("plot");
+                // Don't fail the entire execution if plotting fails, but log the error
             }
-        } catch (Exception e) {
-            logger.warn("Error cleaning up old data files: {}", e.getMessage());
-            // Don't fail the execution if cleanup fails
+        } else {
+            logger.warn("Fortran execution failed (exit code {}), skipping plot generation", exitCode);
+        }
+        
+        if (exitCode == 0) {
+            double totalSec = (System.currentTimeMillis() - executionStartTime) / 1000.0;
+            logger.info("Fortran execution total: {}s (compile + run)", String.format("%.1f", totalSec));
+            String successMessage = String.format(
+                "Calculation completed successfully! Generated %d output file(s). Execution ID: %s",
+                outputFiles.size(),
+                executionId.substring(0, 8) + "..."
+            );
+            logger.info("✅ {}", successMessage);
+            return new FortranExecutionResult(
+                executionId,
+                true,
+                successMessage,
+                output,
+                outputFiles
+            );
+        } else {
+            double totalSec = (System.currentTimeMillis() - executionStartTime) / 1000.0;
+            logger.info("Fortran execution total: {}s (compile + run) before exit code {}", String.format("%.1f", totalSec), exitCode);
+            String errorMsg = "Fortran program exited with error code " + exitCode + ". Check output for details.";
+            logger.error("❌ {}", errorMsg);
+            recordFailure("exit_code");
+            return new FortranExecutionResult(
+                executionId,
+                false,
+                errorMsg,
+                output,
+                outputFiles
+            );
         }
     }
     
     /**
-     * Clean up previous plot files from the fortran directory
-     * Deletes all files matching the pattern n_prz_kmode_plot_*.png
+     * Cancel a running Fortran execution by execution ID
      * 
-     * @param fortranDir The directory containing the plot files
+     * @param executionId The execution ID to cancel
+     * @return true if the execution was found and cancelled, false otherwise
      */
-    private void cleanupOldPlots(Path fortranDir) {
-        try {
-            // Find all plot files matching the pattern
-            try (java.util.stream.Stream<Path> stream = Files.list(fortranDir)) {
-                long deletedCount = stream
-                    .filter(Files::isRegularFile)
-                    .filter(path -> {
-                        String filename = path.getFileName().toString();
-                        return filename.startsWith("n_prz_kmode_plot_") && filename.endsWith(".png");
-                    })
-                    .peek(path -> {
-                        try {
-                            Files.delete(path);
-                            logger.info("🗑️  Deleted old plot file: {}", path.getFileName());
-                        } catch (IOException e) {
-                            logger.warn("Failed to delete old plot file {}: {}", path.getFileName(), e.getMessage());
-                        }
-                    })
-                    .count();
-                
-                if (deletedCount > 0) {
-                    logger.info("Cleaned up {} old plot file(s)", deletedCount);
-                }
-            }
-        } catch (IOException e) {
-            logger.warn("Error cleaning up old plots: {}", e.getMessage());
-            // Don't fail the execution if cleanup fails
+    public boolean cancelExecution(String executionId) {
+        if (executionId == null || executionId.trim().isEmpty()) {
+            logger.warn("Attempted to cancel execution with null or empty execution ID");
+            return false;
+        }
+        
+        if (!processSupervisor.cancel(executionId) && !workerPool.cancel(executionId)
+                && !perturbationSolver.cancel(executionId)) {
+            logger.warn("Execution {} not found in running processes", executionId);
+            return false;
         }
+        logger.info("Successfully cancelled execution {}", executionId);
+        return true;
     }
     
     /**
-     * Clean up old plot files except for the one to keep
-     * Deletes all plot files matching the pattern n_prz_kmode_plot_*.png
-     * except for the specified file
+     * Check if an execution is currently running
      * 
-     * @param fortranDir The directory containing the plot files
-     * @param plotFileToKeep The plot file to keep (e.g., "n_prz_kmode_plot_abc12345.png")
+     * @param executionId The execution ID to check
+     * @return true if the execution is running, false otherwise
      */
-    private void cleanupOldPlotsExcept(Path fortranDir, String plotFileToKeep) {
-        try {
-            // Find all plot files matching the pattern, except the one to keep
-            try (java.util.stream.Stream<Path> stream = Files.list(fortranDir)) {
-                long deletedCount = stream
-                    .filter(Files::isRegularFile)
-                    .filter(path -> {
-                        String filename = path.getFileName().toString();
-                        // Match plot files but exclude the one we want to keep
-                        return filename.startsWith("n_prz_kmode_plot_") 
-                            && filename.endsWith(".png")
-                            && !filename.equals(plotFileToKeep);
-                    })
-                    .peek(path -> {
-                        try {
-                            Files.delete(path);
-                            logger.info("🗑️  Deleted old plot file: {}", path.getFileName());
-                        } catch (IOException e) {
-                            logger.warn("Failed to delete old plot file {}: {}", path.getFileName(), e.getMessage());
-                        }
-                    })
-                    .count();
-                
-                if (deletedCount > 0) {
-                    logger.info("Cleaned up {} old plot file(s), keeping: {}", deletedCount, plotFileToKeep);
-                }
-            }
-        } catch (IOException e) {
-            logger.warn("Error cleaning up old plots: {}", e.getMessage());
-            // Don't fail the execution if cleanup fails
+    public boolean isExecutionRunning(String executionId) {
+        if (executionId == null || executionId.trim().isEmpty()) {
+            return false;
         }
+        
+        return processSupervisor.isRunning(executionId) || workerPool.isRunning(executionId)
+            || perturbationSolver.isRunning(executionId);
     }
     
     /**
-     * Generate plot from n_prz_kmode.txt using Python script
-     * Creates a log-scale plot and saves it as PNG
+     * Generate plot from n_prz_kmode.txt
+     * Creates a log-scale plot and saves it as PNG (plus SVG if cosmo.plot.svg is set)
      * 
-     * @param fortranDir The directory containing the data file and plot script
+     * @param workDir The execution workspace containing the data file
      * @param executionId Execution ID for unique plot filename
      * @param executionStartTime Timestamp when execution started (to verify file is fresh)
      * @return Name of the generated plot file, or null if generation failed
      * @throws IOException If plot generation fails
-     * @throws InterruptedException If plot generation is interrupted
      */
-    private String generatePlot(Path fortranDir, String executionId, long executionStartTime) throws IOException, InterruptedException {
-        Path dataFile = fortranDir.resolve("n_prz_kmode.txt");
-        Path plotScript = fortranDir.resolve("plot_results.py");
-        String plotFileName = "n_prz_kmode_plot_" + executionId.substring(0, 8) + ".png";
-        Path plotFile = fortranDir.resolve(plotFileName);
+    private String generatePlot(Path workDir, String executionId, long executionStartTime) throws IOException {
+        Path dataFile = workDir.resolve("n_prz_kmode.txt");
+        String plotFileName = PLOT_FILE_PREFIX + executionId.substring(0, 8) + ".png";
+        Path plotFile = workDir.resolve(plotFileName);
         
         logger.info("Plot generation - Data file path: {}", dataFile.toAbsolutePath());
-        logger.info("Plot generation - Plot script path: {}", plotScript.toAbsolutePath());
         logger.info("Plot generation - Output plot path: {}", plotFile.toAbsolutePath());
         
         // Delete the plot file if it already exists (shouldn't happen after cleanup, but safety check)
@@ -1365,33 +1846,12 @@ public class FortranExecutionService {
             long fileSize = Files.size(dataFile);
             logger.info("Data file size: {} bytes", fileSize);
             
-            // If file is empty, wait a bit and retry (file might still be writing)
+            // The program has exited, so the file is complete; an empty file means nothing was written
             if (fileSize == 0) {
-                logger.warn("Data file is empty, waiting for Fortran to finish writing...");
-                // Wait up to 5 seconds for file to be written
-                for (int retry = 0; retry < 10; retry++) {
-                    try {
-                        Thread.sleep(500); // Wait 500ms
-                        fileSize = Files.size(dataFile);
-                        if (fileSize > 0) {
-                            logger.info("Data file now has content: {} bytes (after {} retries)", fileSize, retry + 1);
-                            break;
-                        }
-                    } catch (InterruptedException e) {
-                        Thread.currentThread().interrupt();
-                        logger.warn("Interrupted while waiting for data file");
-                        break;
-                    } catch (IOException e) {
-                        logger.warn("Error checking file size during retry: {}", e.getMessage());
-                    }
-                }
-                
-                if (fileSize == 0) {
-                    logger.error("Data file is still empty after retries: {}", dataFile);
-                    logger.error("This may indicate the Fortran program did not write to n_prz_kmode.txt");
-                    logger.error("Check if the calculation completed successfully and if the write(93,*) statement executed");
-                    return null;
-                }
+                logger.error("Data file is empty: {}", dataFile);
+                logger.error("This may indicate the Fortran program did not write to n_prz_kmode.txt");
+                logger.error("Check if the calculation completed successfully and if the write(93,*) statement executed");
+                return null;
             }
             
             // Read first few lines to verify it's the right file
@@ -1405,179 +1865,31 @@ public class FortranExecutionService {
             logger.warn("Could not check data file metadata: {}", e.getMessage());
         }
         
-        // Check if plot script exists
-        if (!Files.exists(plotScript)) {
-            logger.warn("Plot script not found: {}", plotScript);
-            return null;
-        }
-        
         logger.info("========================================");
-        logger.info("Generating plot using Python script");
-        logger.info("Input data file: {} (will read N(efold) from col 0, P_R from col 1)", dataFile);
+        logger.info("Rendering plot (N(efold) from col 0, P_R from col 1)");
+        logger.info("Input data file: {}", dataFile);
         logger.info("Output plot file: {}", plotFile);
-        logger.info("Plot script: {}", plotScript);
         logger.info("========================================");
         
-        // Run Python script to generate plot from the final n_prz_kmode.txt
-        // This will create a PNG plot that will be sent to the frontend
-        ProcessBuilder plotBuilder = new ProcessBuilder(
-            "python3",
-            plotScript.toString(),
-            dataFile.toString(),
-            plotFile.toString()
-        );
-        
-        // Try python if python3 doesn't work
-        plotBuilder.directory(fortranDir.toFile());
-        // Don't redirect error stream - we want to capture both stdout and stderr separately
-        // Python script writes debug info to stderr
-        
-        try {
-            final Process plotProcess = plotBuilder.start();
-            
-            // Read output from both stdout and stderr
-            // Python script writes debug info to stderr, success messages to stdout
-            final StringBuilder plotOutput = new StringBuilder();
-            final StringBuilder plotErrors = new StringBuilder();
-            
-            // Read stdout in a separate thread to avoid blocking
-            Thread stdoutThread = new Thread(() -> {
-                try (BufferedReader reader = new BufferedReader(
-                        new InputStreamReader(plotProcess.getInputStream()))) {
-                    String line;
-                    while ((line = reader.readLine()) != null) {
-                        plotOutput.append(line).append("\n");
-                        logger.info("Python stdout: {}", line);
-                    }
-                } catch (IOException e) {
-                    logger.warn("Error reading Python stdout: {}", e.getMessage());
-                }
-            });
-            
-            // Read stderr in a separate thread
-            Thread stderrThread = new Thread(() -> {
-                try (BufferedReader reader = new BufferedReader(
-                        new InputStreamReader(plotProcess.getErrorStream()))) {
-                    String line;
-                    while ((line = reader.readLine()) != null) {
-                        plotErrors.append(line).append("\n");
-                        logger.info("Python stderr: {}", line);
-                    }
-                } catch (IOException e) {
-                    logger.warn("Error reading Python stderr: {}", e.getMessage());
-                }
-            });
-            
-            stdoutThread.start();
-            stderrThread.start();
-            
-            // Wait for both threads to finish
-            stdoutThread.join();
-            stderrThread.join();
-            
-            int plotExitCode = plotProcess.waitFor();
-            
-            logger.info("Python script exit code: {}", plotExitCode);
-            if (plotExitCode != 0) {
-                logger.error("Python script failed with exit code: {}", plotExitCode);
-                logger.error("Python output: {}", plotOutput.toString());
-                logger.error("Python errors: {}", plotErrors.toString());
-            }
-            
-            if (plotExitCode == 0 && Files.exists(plotFile) && Files.size(plotFile) > 0) {
-                // Verify the plot file was just created (within last minute)
-                try {
-                    long plotFileModifiedTime = Files.getLastModifiedTime(plotFile).toMillis();
-                    long currentTime = System.currentTimeMillis();
-                    long ageSeconds = (currentTime - plotFileModifiedTime) / 1000;
-                    
-                    if (ageSeconds > 60) {
-                        logger.warn("Plot file {} is {} seconds old - may not be from current execution!", 
-                            plotFileName, ageSeconds);
-                    } else {
-                        logger.info("Plot file {} was created {} seconds ago (fresh)", plotFileName, ageSeconds);
-                    }
-                    
-                    long plotFileSize = Files.size(plotFile);
-                    logger.info("Plot file size: {} bytes", plotFileSize);
-                } catch (IOException e) {
-                    logger.warn("Could not verify plot file metadata: {}", e.getMessage());
-                }
-                
-                logger.info("✅ Plot generated successfully: {}", plotFileName);
-                logger.info("Plot file path: {}", plotFile.toAbsolutePath());
-                return plotFileName;
-            } else {
-                // Try with 'python' instead of 'python3'
-                logger.info("Trying with 'python' instead of 'python3'");
-                ProcessBuilder plotBuilder2 = new ProcessBuilder(
-                    "python",
-                    plotScript.toString(),
-                    dataFile.toString(),
-                    plotFile.toString()
-                );
-                plotBuilder2.directory(fortranDir.toFile());
-                // Don't redirect error stream
-                
-                Process plotProcess2 = plotBuilder2.start();
-                final StringBuilder plotOutput2 = new StringBuilder();
-                final StringBuilder plotErrors2 = new StringBuilder();
-                
-                // Read stdout and stderr in separate threads
-                Thread stdoutThread2 = new Thread(() -> {
-                    try (BufferedReader reader = new BufferedReader(
-                            new InputStreamReader(plotProcess2.getInputStream()))) {
-                        String line;
-                        while ((line = reader.readLine()) != null) {
-                            plotOutput2.append(line).append("\n");
-                            logger.info("Python stdout (retry): {}", line);
-                        }
-                    } catch (IOException e) {
-                        logger.warn("Error reading Python stdout: {}", e.getMessage());
-                    }
-                });
-                
-                Thread stderrThread2 = new Thread(() -> {
-                    try (BufferedReader reader = new BufferedReader(
-                            new InputStreamReader(plotProcess2.getErrorStream()))) {
-                        String line;
-                        while ((line = reader.readLine()) != null) {
-                            plotErrors2.append(line).append("\n");
-                            logger.info("Python stderr (retry): {}", line);
-                        }
-                    } catch (IOException e) {
-                        logger.warn("Error reading Python stderr: {}", e.getMessage());
-                    }
-                });
-                
-                stdoutThread2.start();
-                stderrThread2.start();
-                stdoutThread2.join();
-                stderrThread2.join();
-                
-                plotExitCode = plotProcess2.waitFor();
-                
-                logger.info("Python script exit code (retry): {}", plotExitCode);
-                
-                if (plotExitCode == 0 && Files.exists(plotFile) && Files.size(plotFile) > 0) {
-                    logger.info("✅ Plot generated successfully: {}", plotFileName);
-                    return plotFileName;
-                } else {
-                    logger.error("Plot generation failed. Exit code: {}", plotExitCode);
-                    logger.error("Python output: {}", plotOutput2.toString());
-                    logger.error("Python errors: {}", plotErrors2.toString());
-                    if (Files.exists(plotFile)) {
-                        logger.error("Plot file exists but size is: {} bytes", Files.size(plotFile));
-                    } else {
-                        logger.error("Plot file does not exist: {}", plotFile);
-                    }
-                    return null;
-                }
-            }
-        } catch (Exception e) {
-            logger.error("Error generating plot: ", e);
+        // Render in-process (Java2D), no python/matplotlib subprocess
+        long renderStart = System.currentTimeMillis();
+        List<double[]> points = SpectrumPlotService.readSpectrum(dataFile);
+        if (points.isEmpty()) {
+            logger.error("No positive P_R values in {} - nothing to plot", dataFile);
             return null;
         }
+        spectrumPlotService.renderPng(points, plotFile);
+        if (plotSvg) {
+            String svgFileName = plotFileName.substring(0, plotFileName.length() - 4) + ".svg";
+            try {
+                spectrumPlotService.renderSvg(points, workDir.resolve(svgFileName));
+            } catch (IOException e) {
+                logger.warn("Could not write SVG plot {}: {}", svgFileName, e.getMessage());
+            }
+        }
+        logger.info("✅ Plot rendered: {} ({} points, {} bytes, {} ms)", plotFileName, points.size(),
+            Files.size(plotFile), System.currentTimeMillis() - renderStart);
+        return plotFileName;
     }
     
     /**
@@ -1586,13 +1898,13 @@ public class FortranExecutionService {
      * NOTE: This method only collects .txt files, NOT plot files (.png)
      * Plot files are handled separately in generatePlot()
      * 
-     * @param fortranDir The directory containing output files
+     * @param workDir The execution workspace containing output files
      * @return List of output file names (text files only)
      * @throws IOException If file collection fails
      */
-    private List<String> collectOutputFiles(Path fortranDir) throws IOException {
-        if (!Files.exists(fortranDir)) {
-            logger.warn("Fortran directory does not exist: {}", fortranDir);
+    private List<String> collectOutputFiles(Path workDir) throws IOException {
+        if (!Files.exists(workDir)) {
+            logger.warn("Workspace does not exist: {}", workDir);
             return new ArrayList<>();
         }
         
@@ -1613,7 +1925,7 @@ public class FortranExecutionService {
         
         // Check which expected files exist
         for (String fileName : expectedOutputFiles) {
-            Path filePath = fortranDir.resolve(fileName);
+            Path filePath = workDir.resolve(fileName);
             if (Files.exists(filePath) && Files.isRegularFile(filePath)) {
                 files.add(fileName);
                 logger.debug("Found output file: {}", fileName);
@@ -0,0 +1,432 @@
+package com.cosmo.backend.service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Long-lived multifix processes that run one calculation after another.
+ *
+ * A worker is started as {@code multifix --worker} and reads job directories from its standard
+ * input, one per line. It reads the inputs of a job (cosmo_params.in) from that directory, writes
+ * the output files there and prints {@value #JOB_DONE} when the job is finished. Workers are pooled
+ * per executable (by compile cache key, or content hash without the cache), so repeated runs of one binary (runtime parameter mode,
+ * sweeps) skip process start-up. A worker serves at most max-jobs jobs before it is replaced;
+ * a worker that exits or exceeds the timeout of its job is not reused.
+ *
+ * Workers run under the {@link ProcessSupervisor} with their own ID; their output goes to a log
+ * file in the worker directory and is split into the output files of the jobs at the markers.
+ * The log is tailed every output-poll-ms (much more often than the output of other processes),
+ * since a job only counts as finished once its marker has been read.
+ */
+@Service
+public class FortranWorkerPool {
+
+    private static final Logger logger = LoggerFactory.getLogger(FortranWorkerPool.class);
+
+    /** Line printed by multifix after each job in worker mode */
+    static final String JOB_DONE = "@@multifix-job-done";
+
+    /** Length of rt_dir in multifix.f */
+    private static final int MAX_JOB_PATH = 512;
+
+    /** Time a retired worker gets to exit after its input was closed */
+    private static final long RETIRE_GRACE_SECONDS = 10;
+
+    /** Run calculations on pooled worker processes instead of starting a process per run */
+    @Value("${cosmo.fortran.workers.enabled:false}")
+    private boolean enabled;
+
+    /** Jobs a worker runs before it is replaced by a fresh process */
+    @Value("${cosmo.fortran.workers.max-jobs:50}")
+    private int maxJobs;
+
+    /** Idle workers kept in total (all binaries); the longest idle are stopped first */
+    @Value("${cosmo.fortran.workers.max-idle:4}")
+    private int maxIdle;
+
+    /** Idle workers started ahead per binary when a job takes the last idle one */
+    @Value("${cosmo.fortran.workers.spare:1}")
+    private int spare;
+
+    /** Idle workers older than this are stopped */
+    @Value("${cosmo.fortran.workers.idle-timeout-seconds:600}")
+    private long idleTimeoutSeconds;
+
+    /** How often the worker logs are read for new lines (and so for the end of a job) */
+    @Value("${cosmo.fortran.workers.output-poll-ms:20}")
+    private long outputPollMillis;
+
+    /** Directory holding the worker binaries and logs. Relative paths are resolved against the working directory. */
+    @Value("${cosmo.fortran.workers.dir:workers}")
+    private String workersDirSetting;
+
+    @Autowired
+    private ProcessSupervisor processSupervisor;
+
+    @Autowired
+    private MetricsService metricsService;
+
+    private Path workersDir;
+
+    private final AtomicLong workerIds = new AtomicLong();
+
+    /** Idle workers, longest idle first; guarded by {@code this} */
+    private final Deque<Worker> idle = new ArrayDeque<>();
+
+    /** Started workers per binary, to remove the binary with the last worker; guarded by {@code this} */
+    private final Map<String, Integer> workersPerBinary = new HashMap<>();
+
+    /** Busy workers by execution ID */
+    private final Map<String, Worker> busy = new ConcurrentHashMap<>();
+
+    /**
+     * A worker process
+     */
+    private static final class Worker {
+        final String id;
+        final String binary;
+        final Path log;
+        ProcessSupervisor.Supervised process;
+        int jobs;
+        long idleSince;
+        /** Job running on the worker, null while idle */
+        volatile Job job;
+
+        Worker(String id, String binary, Path log) {
+            this.id = id;
+            this.binary = binary;
+            this.log = log;
+        }
+    }
+
+    /**
+     * A job running on a worker
+     */
+    private static final class Job {
+        final String executionId;
+        final Path outputFile;
+        final Consumer<String> lineListener;
+        final StringBuilder output = new StringBuilder();
+        final CompletableFuture<ProcessSupervisor.Exit> done = new CompletableFuture<>();
+        volatile boolean timedOut;
+        volatile boolean cancelled;
+
+        Job(String executionId, Path outputFile, Consumer<String> lineListener) {
+            this.executionId = executionId;
+            this.outputFile = outputFile;
+            this.lineListener = lineListener;
+        }
+    }
+
+    /** Remove binaries and logs of a previous run */
+    @PostConstruct
+    public void init() {
+        workersDir = Paths.get(workersDirSetting).toAbsolutePath().normalize();
+        if (!enabled) {
+            return;
+        }
+        try {
+            CompileCacheService.deleteRecursively(workersDir);
+            Files.createDirectories(workersDir);
+        } catch (IOException e) {
+            logger.warn("Could not initialise worker directory {}: {}. Workers disabled.", workersDir, e.getMessage());
+            enabled = false;
+            return;
+        }
+        metricsService.registerGauge("cosmo_idle_workers", "Idle Fortran worker processes", this::getIdleCount);
+        metricsService.registerGauge("cosmo_busy_workers", "Fortran worker processes running a job", busy::size);
+        logger.info("👷 Fortran workers enabled ({} jobs per worker, up to {} idle)", maxJobs, maxIdle);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Run a calculation on a worker of the given executable (a new worker if none is idle).
+     *
+     * @param executionId Execution the job belongs to (for cancellation)
+     * @param executable Compiled multifix; workers of the same binary are reused
+     * @param binaryKey Compile cache key of the executable; null to identify it by its content hash
+     * @param jobDir Directory with the inputs of the job; receives the output files
+     * @param outputFile File receiving the standard output of the job
+     * @param timeoutSeconds Kill the worker if the job runs longer (0 = no timeout)
+     * @param lineListener Receives each output line of the job, on the supervisor thread; may be null
+     * @return Completed when the job has finished, like the exit of a process started for it
+     * @throws IOException If no worker could be started or the job could not be passed to it
+     */
+    public CompletableFuture<ProcessSupervisor.Exit> run(String executionId, Path executable, String binaryKey, Path jobDir,
+                                                         Path outputFile, long timeoutSeconds,
+                                                         Consumer<String> lineListener) throws IOException {
+        String jobPath = jobDir.toAbsolutePath() + File.separator;
+        if (jobPath.length() > MAX_JOB_PATH) {
+            throw new IOException("Job directory path longer than " + MAX_JOB_PATH + " characters: " + jobPath);
+        }
+        String binary = binaryKey != null ? binaryKey : contentHash(executable);
+        Worker worker = acquire(binary, executable);
+        Job job = new Job(executionId, outputFile, lineListener);
+        worker.job = job;
+        worker.jobs++;
+        busy.put(executionId, worker);
+        try {
+            worker.process.send(jobPath);
+        } catch (IOException e) {
+            // The worker died while idle
+            worker.job = null;
+            busy.remove(executionId, worker);
+            processSupervisor.cancel(worker.id);
+            throw new IOException("Worker " + worker.id + " is not accepting jobs: " + e.getMessage(), e);
+        }
+        logger.info("Job {} runs on {} (job {} of the worker)", executionId, worker.id, worker.jobs);
+        if (timeoutSeconds > 0) {
+            CompletableFuture.delayedExecutor(timeoutSeconds, TimeUnit.SECONDS).execute(() -> {
+                if (worker.job == job) {
+                    logger.warn("Job {} on {} exceeded {} s, killing the worker", executionId, worker.id, timeoutSeconds);
+                    job.timedOut = true;
+                    processSupervisor.cancel(worker.id);
+                }
+            });
+        }
+        prestart(binary, executable);
+        return job.done;
+    }
+
+    /**
+     * Kill the worker running the job of an execution.
+     *
+     * @return true if a running job was cancelled
+     */
+    public boolean cancel(String executionId) {
+        Worker worker = busy.get(executionId);
+        Job job = worker == null ? null : worker.job;
+        if (job == null || !job.executionId.equals(executionId)) {
+            return false;
+        }
+        job.cancelled = true;
+        return processSupervisor.cancel(worker.id);
+    }
+
+    public boolean isRunning(String executionId) {
+        return busy.containsKey(executionId);
+    }
+
+    public synchronized int getIdleCount() {
+        return idle.size();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        List<Worker> workers;
+        synchronized (this) {
+            workers = new ArrayList<>(idle);
+            idle.clear();
+        }
+        workers.addAll(busy.values());
+        for (Worker worker : workers) {
+            processSupervisor.cancel(worker.id);
+        }
+    }
+
+    /** An idle worker of the binary, or a new one */
+    private Worker acquire(String binary, Path executable) throws IOException {
+        synchronized (this) {
+            pruneIdle();
+            for (Iterator<Worker> it = idle.iterator(); it.hasNext(); ) {
+                Worker worker = it.next();
+                if (worker.binary.equals(binary) && worker.process.isAlive()) {
+                    it.remove();
+                    metricsService.increment("cosmo_worker_jobs", "Jobs dispatched to Fortran workers", "worker", "reused");
+                    return worker;
+                }
+            }
+        }
+        metricsService.increment("cosmo_worker_jobs", "Jobs dispatched to Fortran workers", "worker", "new");
+        return startWorker(binary, executable);
+    }
+
+    /** Start spare workers of the binary in the background if none is idle */
+    private void prestart(String binary, Path executable) {
+        int missing;
+        synchronized (this) {
+            long idleOfBinary = idle.stream().filter(worker -> worker.binary.equals(binary)).count();
+            missing = (int) Math.min(spare - idleOfBinary, maxIdle - idle.size());
+        }
+        for (int i = 0; i < missing; i++) {
+            try {
+                Worker worker = startWorker(binary, executable);
+                release(worker);
+            } catch (IOException e) {
+                logger.warn("Could not start a spare worker: {}", e.getMessage());
+                return;
+            }
+        }
+    }
+
+    private Worker startWorker(String binary, Path executable) throws IOException {
+        synchronized (this) {
+            workersPerBinary.merge(binary, 1, Integer::sum);
+        }
+        Path binaryDir = workersDir.resolve(binary);
+        String id = "worker-" + workerIds.incrementAndGet();
+        Worker worker = new Worker(id, binary, binaryDir.resolve(id + ".log"));
+        try {
+            // Own copy of the binary: the workspace of the compiling execution is removed later
+            Path workerExecutable = binaryDir.resolve(executable.getFileName());
+            if (!Files.exists(workerExecutable)) {
+                Files.createDirectories(binaryDir);
+                Path tmp = binaryDir.resolve(executable.getFileName() + ".tmp-" + id);
+                try {
+                    Files.createLink(tmp, executable);
+                } catch (IOException | UnsupportedOperationException e) {
+                    Files.copy(executable, tmp, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+                }
+                tmp.toFile().setExecutable(true);
+                Files.move(tmp, workerExecutable, StandardCopyOption.REPLACE_EXISTING);
+            }
+            ProcessBuilder builder = new ProcessBuilder(workerExecutable.toString(), "--worker");
+            builder.directory(binaryDir.toFile());
+            worker.process = processSupervisor.start(id, builder, worker.log, 0, outputPollMillis,
+                line -> onLine(worker, line));
+        } catch (IOException e) {
+            removed(worker);
+            throw e;
+        }
+        worker.process.getExit().thenAccept(exit -> exited(worker, exit));
+        logger.info("👷 Started {} for binary {}", id, binary.substring(0, 12));
+        return worker;
+    }
+
+    /** Output line of a worker (supervisor thread) */
+    private void onLine(Worker worker, String line) {
+        Job job = worker.job;
+        if (job == null) {
+            logger.debug("{}: {}", worker.id, line);
+            return;
+        }
+        if (JOB_DONE.equals(line.trim())) {
+            if (job.timedOut || job.cancelled) {
+                return; // being killed; the exit of the worker ends the job
+            }
+            finish(worker, job, new ProcessSupervisor.Exit(0, false, false));
+            if (worker.process.isAlive()) {
+                release(worker);
+            }
+            return;
+        }
+        job.output.append(line).append('\n');
+        if (job.lineListener != null) {
+            job.lineListener.accept(line);
+        }
+    }
+
+    private void finish(Worker worker, Job job, ProcessSupervisor.Exit exit) {
+        worker.job = null;
+        busy.remove(job.executionId, worker);
+        try {
+            Files.writeString(job.outputFile, job.output, StandardCharsets.UTF_8);
+        } catch (IOException e) {
+            logger.warn("Could not write output of job {}: {}", job.executionId, e.getMessage());
+        }
+        job.done.complete(exit);
+    }
+
+    /** Return a worker to the idle workers, or retire it after max-jobs jobs */
+    private void release(Worker worker) {
+        List<Worker> retired = new ArrayList<>();
+        synchronized (this) {
+            if (worker.jobs >= maxJobs) {
+                retired.add(worker);
+            } else {
+                worker.idleSince = System.currentTimeMillis();
+                idle.addLast(worker);
+            }
+            while (idle.size() > Math.max(0, maxIdle)) {
+                retired.add(idle.removeFirst());
+            }
+        }
+        retired.forEach(this::retire);
+    }
+
+    /** Stop idle workers beyond the idle timeout; caller holds the lock */
+    private void pruneIdle() {
+        long limit = System.currentTimeMillis() - TimeUnit.SECONDS.toMillis(idleTimeoutSeconds);
+        while (!idle.isEmpty() && idle.peekFirst().idleSince < limit) {
+            retire(idle.removeFirst());
+        }
+    }
+
+    /** Close the input of a worker (it exits at the end of input); kill it if it does not */
+    private void retire(Worker worker) {
+        logger.info("👷 Retiring {} after {} job(s)", worker.id, worker.jobs);
+        worker.process.closeInput();
+        CompletableFuture.delayedExecutor(RETIRE_GRACE_SECONDS, TimeUnit.SECONDS).execute(() -> {
+            if (worker.process.isAlive()) {
+                processSupervisor.cancel(worker.id);
+            }
+        });
+    }
+
+    /** A worker process ended: fail its job (crash, stop, timeout or cancellation) and clean up */
+    private void exited(Worker worker, ProcessSupervisor.Exit exit) {
+        Job job = worker.job;
+        if (job != null) {
+            logger.warn("{} exited with code {} during job {}", worker.id, exit.getExitCode(), job.executionId);
+            finish(worker, job, new ProcessSupervisor.Exit(exit.getExitCode(), job.timedOut, job.cancelled));
+        }
+        synchronized (this) {
+            idle.remove(worker);
+        }
+        removed(worker);
+    }
+
+    /** Delete the log of a worker, and the binary with its last worker */
+    private synchronized void removed(Worker worker) {
+        try {
+            Files.deleteIfExists(worker.log);
+            if (workersPerBinary.merge(worker.binary, -1, Integer::sum) <= 0) {
+                workersPerBinary.remove(worker.binary);
+                CompileCacheService.deleteRecursively(workersDir.resolve(worker.binary));
+            }
+        } catch (IOException e) {
+            logger.debug("Could not clean up {}: {}", worker.id, e.getMessage());
+        }
+    }
+
+    /** SHA-256 of the executable */
+    private static String contentHash(Path executable) throws IOException {
+        MessageDigest digest = CompileCacheService.newDigest();
+        try (InputStream input = new DigestInputStream(Files.newInputStream(executable), digest)) {
+            input.transferTo(OutputStream.nullOutputStream());
+        }
+        return CompileCacheService.toHex(digest.digest());
+    }
+}
@@ -0,0 +1,340 @@
+package com.cosmo.backend.service;
+
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Supplier;
+
+/**
+ * Admission-controlled scheduler for Fortran executions.
+ *
+ * Jobs wait in per-client FIFO queues and are dispatched round-robin across clients, so one
+ * client's sweep cannot starve another client's interactive runs (a sweep is its own client).
+ * At most cosmo.scheduler.max-concurrent jobs run at a time (default: the available cores).
+ * Asynchronous jobs hold their slot until their future completes, not for as long as they
+ * occupy a fortranExecutor thread, so a running Fortran process does not pin a thread.
+ * Submissions beyond cosmo.scheduler.max-queue queued jobs are rejected with a suggested
+ * retry delay derived from the average job duration.
+ */
+@Service
+public class JobScheduler {
+
+    private static final Logger logger = LoggerFactory.getLogger(JobScheduler.class);
+
+    /** Maximum number of queued (not yet running) interactive jobs before submissions are rejected */
+    @Value("${cosmo.scheduler.max-queue:20}")
+    private int maxQueue;
+
+    /** Initial estimate of one job's duration, until real durations are measured (seconds) */
+    @Value("${cosmo.scheduler.initial-job-seconds:60}")
+    private double initialJobSeconds;
+
+    /** Jobs running at the same time (0 = number of available cores) */
+    @Value("${cosmo.scheduler.max-concurrent:0}")
+    private int maxConcurrent;
+
+    @Autowired
+    @Qualifier("fortranExecutor")
+    private ThreadPoolTaskExecutor fortranExecutor;
+
+    @Autowired
+    private ExecutionEventService executionEventService;
+
+    @Autowired
+    private MetricsService metricsService;
+
+    /** Queues per client in round-robin order; guarded by {@code this} */
+    private final LinkedHashMap<String, ArrayDeque<Job>> queues = new LinkedHashMap<>();
+    private final Map<String, Job> queuedJobs = new HashMap<>();
+    private int queuedLimited = 0;
+    private int running = 0;
+    /** Exponential moving average of job durations (ms) */
+    private double averageJobMs = -1;
+    private long completedJobs = 0;
+    private long rejectedJobs = 0;
+
+    /**
+     * Thrown when the queue is full.
+     */
+    public static class QueueFullException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        private final long retryAfterSeconds;
+
+        public QueueFullException(String message, long retryAfterSeconds) {
+            super(message);
+            this.retryAfterSeconds = retryAfterSeconds;
+        }
+
+        public long getRetryAfterSeconds() {
+            return retryAfterSeconds;
+        }
+    }
+
+    private static class Job {
+        private final String id;
+        private final String client;
+        private final boolean limited;
+        private final Supplier<? extends CompletionStage<?>> task;
+        private final CompletableFuture<Object> future = new CompletableFuture<>();
+        private final long queuedAt = System.nanoTime();
+
+        Job(String id, String client, boolean limited, Supplier<? extends CompletionStage<?>> task) {
+            this.id = id;
+            this.client = client;
+            this.limited = limited;
+            this.task = task;
+        }
+    }
+
+    @PostConstruct
+    public void registerMetrics() {
+        metricsService.registerGauge("cosmo_scheduler_queued_jobs", "Executions waiting for a free slot",
+            () -> { synchronized (this) { return queuedJobs.size(); } });
+        metricsService.registerGauge("cosmo_scheduler_running_jobs", "Executions currently running",
+            () -> { synchronized (this) { return running; } });
+        metricsService.registerGauge("cosmo_scheduler_max_concurrent", "Execution slots",
+            this::getSlots);
+    }
+
+    /**
+     * Queue a job.
+     *
+     * @param jobId Execution ID (used for queue positions and cancellation)
+     * @param client Fair-share key (client address, or a sweep ID)
+     * @param limited Whether the job counts against cosmo.scheduler.max-queue (sweeps bound themselves)
+     * @param task The work to run
+     * @return Future completed with the task's result
+     * @throws QueueFullException If a limited job is submitted while the queue is full
+     */
+    public <T> CompletableFuture<T> submit(String jobId, String client, boolean limited, Supplier<T> task) {
+        return submitAsync(jobId, client, limited, () -> CompletableFuture.completedFuture(task.get()));
+    }
+
+    /**
+     * Queue a job whose work continues after the task returns (e.g. waiting for a process).
+     * The task runs on a fortranExecutor thread; the job keeps its slot until the returned
+     * stage completes.
+     *
+     * @param jobId Execution ID (used for queue positions and cancellation)
+     * @param client Fair-share key (client address, or a sweep ID)
+     * @param limited Whether the job counts against cosmo.scheduler.max-queue (sweeps bound themselves)
+     * @param task Starts the work and returns its completion
+     * @return Future completed with the task's result
+     * @throws QueueFullException If a limited job is submitted while the queue is full
+     */
+    @SuppressWarnings("unchecked")
+    public <T> CompletableFuture<T> submitAsync(String jobId, String client, boolean limited,
+                                                Supplier<? extends CompletionStage<T>> task) {
+        Job job = new Job(jobId, client, limited, task);
+        synchronized (this) {
+            if (limited && queuedLimited >= maxQueue) {
+                rejectedJobs++;
+                metricsService.increment("cosmo_scheduler_rejected", "Submissions rejected because the queue was full");
+                long retryAfter = estimateWaitSeconds(queuedJobs.size() + 1);
+                throw new QueueFullException("Server busy: " + queuedJobs.size() + " calculation(s) waiting. Try again in "
+                    + retryAfter + " s.", retryAfter);
+            }
+            queues.computeIfAbsent(client, c -> new ArrayDeque<>()).addLast(job);
+            queuedJobs.put(jobId, job);
+            if (limited) {
+                queuedLimited++;
+            }
+        }
+        dispatch();
+        return (CompletableFuture<T>) job.future;
+    }
+
+    /**
+     * Remove a job that has not started yet.
+     *
+     * @return true if the job was queued and is now cancelled
+     */
+    public boolean cancel(String jobId) {
+        Job job;
+        synchronized (this) {
+            job = queuedJobs.remove(jobId);
+            if (job == null) {
+                return false;
+            }
+            ArrayDeque<Job> queue = queues.get(job.client);
+            if (queue != null) {
+                queue.remove(job);
+                if (queue.isEmpty()) {
+                    queues.remove(job.client);
+                }
+            }
+            if (job.limited) {
+                queuedLimited--;
+            }
+        }
+        job.future.cancel(false);
+        publishQueuePositions();
+        return true;
+    }
+
+    /**
+     * Position of a queued job (1 = next to start), following the round-robin dispatch order.
+     *
+     * @return The position, or 0 if the job is not queued
+     */
+    public synchronized int getQueuePosition(String jobId) {
+        if (!queuedJobs.containsKey(jobId)) {
+            return 0;
+        }
+        List<ArrayDeque<Job>> snapshot = new ArrayList<>();
+        for (ArrayDeque<Job> queue : queues.values()) {
+            snapshot.add(new ArrayDeque<>(queue));
+        }
+        int position = 0;
+        boolean remaining = true;
+        while (remaining) {
+            remaining = false;
+            for (ArrayDeque<Job> queue : snapshot) {
+                Job next = queue.pollFirst();
+                if (next == null) {
+                    continue;
+                }
+                remaining = true;
+                position++;
+                if (next.id.equals(jobId)) {
+                    return position;
+                }
+            }
+        }
+        return 0;
+    }
+
+    public synchronized boolean isQueued(String jobId) {
+        return queuedJobs.containsKey(jobId);
+    }
+
+    /** Queue and throughput figures, for the stats endpoint */
+    public synchronized Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        stats.put("queued", queuedJobs.size());
+        stats.put("running", running);
+        stats.put("maxConcurrent", getSlots());
+        stats.put("maxQueue", maxQueue);
+        stats.put("clients", queues.size());
+        stats.put("completed", completedJobs);
+        stats.put("rejected", rejectedJobs);
+        stats.put("averageJobSeconds", averageJobMs < 0 ? initialJobSeconds : averageJobMs / 1000.0);
+        return stats;
+    }
+
+    /** Number of jobs that may run at the same time */
+    public int getSlots() {
+        return maxConcurrent > 0 ? maxConcurrent : Runtime.getRuntime().availableProcessors();
+    }
+
+    /** Suggested wait until a job at the given queue position would start (seconds, 1..3600) */
+    private long estimateWaitSeconds(int position) {
+        double jobSeconds = averageJobMs < 0 ? initialJobSeconds : averageJobMs / 1000.0;
+        int slots = getSlots();
+        double seconds = Math.ceil((double) position / slots) * jobSeconds;
+        return Math.max(1, Math.min(3600, (long) Math.ceil(seconds)));
+    }
+
+    /** Start queued jobs while there are free slots, taking one job per client in turn. */
+    private void dispatch() {
+        List<Job> toStart = new ArrayList<>();
+        synchronized (this) {
+            while (running < getSlots() && !queues.isEmpty()) {
+                // Take the head of the first client, then move that client to the back
+                Map.Entry<String, ArrayDeque<Job>> first = queues.entrySet().iterator().next();
+                String client = first.getKey();
+                ArrayDeque<Job> queue = queues.remove(client);
+                Job job = queue.pollFirst();
+                if (!queue.isEmpty()) {
+                    queues.put(client, queue);
+                }
+                queuedJobs.remove(job.id);
+                if (job.limited) {
+                    queuedLimited--;
+                }
+                running++;
+                toStart.add(job);
+            }
+        }
+        for (Job job : toStart) {
+            start(job);
+        }
+        if (!toStart.isEmpty()) {
+            publishQueuePositions();
+        }
+    }
+
+    private void start(Job job) {
+        long startedAt = System.currentTimeMillis();
+        metricsService.recordTime("cosmo_scheduler_queue_wait", "Time executions spent queued before starting",
+            System.nanoTime() - job.queuedAt);
+        try {
+            fortranExecutor.execute(() -> {
+                CompletionStage<?> stage;
+                try {
+                    stage = job.task.get();
+                } catch (Throwable t) {
+                    stage = CompletableFuture.failedFuture(t);
+                }
+                stage.whenComplete((result, error) -> {
+                    try {
+                        if (error != null) {
+                            job.future.completeExceptionally(error);
+                        } else {
+                            job.future.complete(result);
+                        }
+                    } finally {
+                        finished(System.currentTimeMillis() - startedAt);
+                    }
+                });
+            });
+        } catch (RejectedExecutionException e) {
+            logger.error("Executor rejected job {}: {}", job.id, e.getMessage());
+            job.future.completeExceptionally(e);
+            synchronized (this) {
+                running--;
+            }
+        }
+    }
+
+    private void finished(long durationMs) {
+        synchronized (this) {
+            running--;
+            completedJobs++;
+            averageJobMs = averageJobMs < 0 ? durationMs : 0.8 * averageJobMs + 0.2 * durationMs;
+        }
+        dispatch();
+    }
+
+    /** Push the new queue positions to subscribers of the queued executions. */
+    private void publishQueuePositions() {
+        List<String> ids;
+        synchronized (this) {
+            ids = new ArrayList<>(queuedJobs.keySet());
+        }
+        for (String id : ids) {
+            int position = getQueuePosition(id);
+            if (position > 0) {
+                Map<String, Object> progress = new HashMap<>();
+                progress.put("queuePosition", position);
+                executionEventService.publishProgress(id, progress);
+            }
+        }
+    }
+}
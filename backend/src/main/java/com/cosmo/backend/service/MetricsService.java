@@ -0,0 +1,239 @@
+package com.cosmo.backend.service;
+
+import org.springframework.stereotype.Service;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Metrics of the execution pipeline in the Prometheus text format (version 0.0.4).
+ *
+ * Timers are histograms with fixed buckets in seconds (count, sum and cumulative buckets,
+ * so p95 can be computed with histogram_quantile), counters are monotonic and gauges are
+ * sampled from suppliers registered by the owning services when the metrics are scraped.
+ * Names and labels follow the Micrometer/Prometheus conventions (snake_case, _seconds,
+ * _total), so the series stay the same if the metrics move to a Micrometer registry.
+ */
+@Service
+public class MetricsService {
+
+    /** Histogram buckets (seconds): from include generation (ms) up to long integrations (1 h) */
+    private static final double[] BUCKETS = {
+        0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60, 120, 300, 600, 1200, 1800, 3600
+    };
+
+    private final Map<String, Metric> metrics = new ConcurrentHashMap<>();
+
+    /**
+     * Record a duration in a histogram.
+     *
+     * @param name Metric name without the _seconds suffix (e.g. "cosmo_stage")
+     * @param help Description
+     * @param nanos Duration in nanoseconds
+     * @param labels Label name/value pairs
+     */
+    public void recordTime(String name, String help, long nanos, String... labels) {
+        Histogram histogram = (Histogram) metrics.computeIfAbsent(name + "_seconds", n -> new Histogram(n, help));
+        histogram.child(labels).observe(nanos / 1e9);
+    }
+
+    /**
+     * Record the duration of one pipeline stage (cosmo_stage_seconds{stage=...}).
+     */
+    public void recordStage(String stage, long nanos) {
+        recordTime("cosmo_stage", "Duration of execution pipeline stages", nanos, "stage", stage);
+    }
+
+    /**
+     * Increment a counter.
+     *
+     * @param name Metric name without the _total suffix
+     * @param help Description
+     * @param labels Label name/value pairs
+     */
+    public void increment(String name, String help, String... labels) {
+        Counter counter = (Counter) metrics.computeIfAbsent(name + "_total", n -> new Counter(n, help));
+        counter.child(labels).increment();
+    }
+
+    /**
+     * Register a gauge sampled on every scrape (re-registering replaces the supplier).
+     */
+    public void registerGauge(String name, String help, Supplier<Number> value) {
+        metrics.put(name, new Gauge(name, help, value));
+    }
+
+    /**
+     * All metrics in the Prometheus text exposition format.
+     */
+    public String scrape() {
+        StringBuilder out = new StringBuilder();
+        new TreeMap<>(metrics).values().forEach(metric -> metric.write(out));
+        return out.toString();
+    }
+
+    private abstract static class Metric {
+        protected final String name;
+        protected final String help;
+
+        Metric(String name, String help) {
+            this.name = name;
+            this.help = help;
+        }
+
+        void header(StringBuilder out, String type) {
+            out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+            out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+        }
+
+        abstract void write(StringBuilder out);
+    }
+
+    /** Metric with one child per label set */
+    private abstract static class Labelled<C> extends Metric {
+        private final Map<String, C> children = new ConcurrentHashMap<>();
+
+        Labelled(String name, String help) {
+            super(name, help);
+        }
+
+        C child(String... labels) {
+            return children.computeIfAbsent(formatLabels(labels), l -> newChild());
+        }
+
+        abstract C newChild();
+
+        Map<String, C> sortedChildren() {
+            return new TreeMap<>(children);
+        }
+    }
+
+    private static final class Counter extends Labelled<LongAdder> {
+        Counter(String name, String help) {
+            super(name, help);
+        }
+
+        @Override
+        LongAdder newChild() {
+            return new LongAdder();
+        }
+
+        @Override
+        void write(StringBuilder out) {
+            header(out, "counter");
+            sortedChildren().forEach((labels, value) ->
+                out.append(name).append(braces(labels)).append(' ').append(value.sum()).append('\n'));
+        }
+    }
+
+    private static final class Histogram extends Labelled<Histogram.Child> {
+        static final class Child {
+            private final LongAdder[] buckets = new LongAdder[BUCKETS.length];
+            private final LongAdder count = new LongAdder();
+            private final DoubleAdder sum = new DoubleAdder();
+
+            Child() {
+                for (int i = 0; i < buckets.length; i++) {
+                    buckets[i] = new LongAdder();
+                }
+            }
+
+            void observe(double seconds) {
+                for (int i = 0; i < BUCKETS.length; i++) {
+                    if (seconds <= BUCKETS[i]) {
+                        buckets[i].increment();
+                        break;
+                    }
+                }
+                count.increment();
+                sum.add(seconds);
+            }
+        }
+
+        Histogram(String name, String help) {
+            super(name, help);
+        }
+
+        @Override
+        Child newChild() {
+            return new Child();
+        }
+
+        @Override
+        void write(StringBuilder out) {
+            header(out, "histogram");
+            sortedChildren().forEach((labels, child) -> {
+                String prefix = labels.isEmpty() ? "" : labels + ",";
+                long cumulative = 0;
+                for (int i = 0; i < BUCKETS.length; i++) {
+                    cumulative += child.buckets[i].sum();
+                    out.append(name).append("_bucket{").append(prefix).append("le=\"")
+                        .append(formatDouble(BUCKETS[i])).append("\"} ").append(cumulative).append('\n');
+                }
+                long count = child.count.sum();
+                out.append(name).append("_bucket{").append(prefix).append("le=\"+Inf\"} ").append(count).append('\n');
+                out.append(name).append("_count").append(braces(labels)).append(' ').append(count).append('\n');
+                out.append(name).append("_sum").append(braces(labels)).append(' ')
+                    .append(formatDouble(child.sum.sum())).append('\n');
+            });
+        }
+    }
+
+    private static final class Gauge extends Metric {
+        private final Supplier<Number> value;
+
+        Gauge(String name, String help, Supplier<Number> value) {
+            super(name, help);
+            this.value = value;
+        }
+
+        @Override
+        void write(StringBuilder out) {
+            Number current;
+            try {
+                current = value.get();
+            } catch (RuntimeException e) {
+                return;
+            }
+            header(out, "gauge");
+            out.append(name).append(' ').append(formatDouble(current.doubleValue())).append('\n');
+        }
+    }
+
+    /** name="value" pairs, sorted by name, escaped */
+    private static String formatLabels(String... labels) {
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels must be name/value pairs");
+        }
+        Map<String, String> sorted = new TreeMap<>();
+        for (int i = 0; i < labels.length; i += 2) {
+            sorted.put(labels[i], labels[i + 1] != null ? labels[i + 1] : "");
+        }
+        StringBuilder sb = new StringBuilder();
+        sorted.forEach((key, value) -> {
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+            sb.append(key).append("=\"")
+                .append(value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n"))
+                .append('"');
+        });
+        return sb.toString();
+    }
+
+    private static String braces(String labels) {
+        return labels.isEmpty() ? "" : "{" + labels + "}";
+    }
+
+    private static String formatDouble(double value) {
+        if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+            return String.valueOf((long) value);
+        }
+        return String.format(Locale.ROOT, "%s", value);
+    }
+}
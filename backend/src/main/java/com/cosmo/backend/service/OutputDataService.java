@@ -0,0 +1,398 @@
+package com.cosmo.backend.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Typed access to the text output files of an execution (fields.txt, n_epsilon_hubble.txt,
+ * kmode.txt, n_prz_kmode.txt, ...).
+ *
+ * A file is parsed once into columnar double arrays and cached (keyed by path, size and
+ * modification time, LRU bounded). If multifix wrote a binary twin of the file (fields.bin,
+ * n_epsilon_hubble.bin, n_prz_kmode.bin), the twin is memory-mapped instead of parsing the
+ * text: the values stay off-heap and a column is copied out only when it is used.
+ * Selected columns are served as JSON arrays or as
+ * little-endian float64, optionally downsampled to a target point count with LTTB
+ * (Largest-Triangle-Three-Buckets, shape preserving) or min/max per bucket (keeps spikes).
+ */
+@Service
+public class OutputDataService {
+
+    private static final Logger logger = LoggerFactory.getLogger(OutputDataService.class);
+
+    /** Maximum number of parsed files kept in memory */
+    @Value("${cosmo.data.cache-max-entries:64}")
+    private int cacheMaxEntries;
+
+    /** Files larger than this are not parsed (bytes) */
+    @Value("${cosmo.data.max-file-bytes:268435456}")
+    private long maxFileBytes;
+
+    private final Map<Path, ColumnarData> cache = new LinkedHashMap<>(16, 0.75f, true);
+
+    /** Extension of the binary twin of a text output (fields.txt -> fields.bin) */
+    static final String BINARY_EXTENSION = ".bin";
+
+    /** Header of a binary output: rows and columns as 4-byte integers */
+    private static final int BINARY_HEADER_BYTES = 2 * Integer.BYTES;
+
+    /**
+     * Parsed file, one array per column.
+     */
+    public static class ColumnarData {
+        private final double[][] columns;
+        /** Columns of a mapped binary output (null for parsed text); copied to columns on first use */
+        private final DoubleBuffer[] mapped;
+        private final int rows;
+        private final long size;
+        private final long lastModified;
+
+        ColumnarData(double[][] columns, int rows, long size, long lastModified) {
+            this.columns = columns;
+            this.mapped = null;
+            this.rows = rows;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        ColumnarData(DoubleBuffer[] mapped, int rows, long size, long lastModified) {
+            this.columns = new double[mapped.length][];
+            this.mapped = mapped;
+            this.rows = rows;
+            this.size = size;
+            this.lastModified = lastModified;
+        }
+
+        public int getColumnCount() {
+            return columns.length;
+        }
+
+        public int getRowCount() {
+            return rows;
+        }
+
+        public synchronized double[] getColumn(int index) {
+            if (columns[index] == null) {
+                columns[index] = new double[rows];
+                mapped[index].duplicate().get(columns[index]);
+            }
+            return columns[index];
+        }
+
+        /** Single value without copying the column */
+        public double get(int column, int row) {
+            return mapped != null ? mapped[column].get(row) : columns[column][row];
+        }
+    }
+
+    /**
+     * Load a file as columnar data, from the cache if the file did not change.
+     *
+     * @param file Output file (Fortran list-directed text)
+     * @return Parsed data
+     * @throws IOException If the file cannot be read or is too large
+     */
+    public ColumnarData load(Path file) throws IOException {
+        long size = Files.size(file);
+        long lastModified = Files.getLastModifiedTime(file).toMillis();
+        synchronized (cache) {
+            ColumnarData cached = cache.get(file);
+            if (cached != null && cached.size == size && cached.lastModified == lastModified) {
+                return cached;
+            }
+        }
+        if (size > maxFileBytes) {
+            throw new IOException("File too large to parse: " + size + " bytes");
+        }
+        long start = System.currentTimeMillis();
+        ColumnarData data = loadBinaryTwin(file, size, lastModified);
+        if (data == null) {
+            data = parse(file, size, lastModified);
+        }
+        logger.debug("Loaded {} ({} rows x {} columns, {}) in {} ms", file.getFileName(), data.rows,
+            data.columns.length, data.mapped != null ? "binary" : "text", System.currentTimeMillis() - start);
+        synchronized (cache) {
+            cache.put(file, data);
+            while (cache.size() > Math.max(1, cacheMaxEntries)) {
+                Path eldest = cache.keySet().iterator().next();
+                cache.remove(eldest);
+            }
+        }
+        return data;
+    }
+
+    /**
+     * Mapped binary twin of a text output, if multifix wrote one after the text file.
+     *
+     * @param textFile Text output (e.g. n_prz_kmode.txt)
+     * @return The data, or null if there is no current twin or it is unreadable
+     */
+    public static ColumnarData loadBinaryTwin(Path textFile) {
+        try {
+            return loadBinaryTwin(textFile, Files.size(textFile), Files.getLastModifiedTime(textFile).toMillis());
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private static ColumnarData loadBinaryTwin(Path textFile, long size, long lastModified) {
+        Path twin = binaryTwin(textFile);
+        try {
+            if (!Files.isRegularFile(twin) || Files.getLastModifiedTime(twin).toMillis() < lastModified) {
+                return null;
+            }
+            return mapBinary(twin, size, lastModified);
+        } catch (IOException e) {
+            logger.warn("Ignoring binary output {}: {}", twin.getFileName(), e.getMessage());
+            return null;
+        }
+    }
+
+    /** fields.txt -> fields.bin */
+    static Path binaryTwin(Path textFile) {
+        String name = textFile.getFileName().toString();
+        int dot = name.lastIndexOf('.');
+        return textFile.resolveSibling((dot > 0 ? name.substring(0, dot) : name) + BINARY_EXTENSION);
+    }
+
+    /**
+     * Map a binary output (write_columns in multifix.f): rows and columns as 4-byte integers,
+     * then the columns one after the other as 8-byte reals, all in native byte order.
+     */
+    private static ColumnarData mapBinary(Path file, long size, long lastModified) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long length = channel.size();
+            if (length < BINARY_HEADER_BYTES) {
+                throw new IOException("truncated header");
+            }
+            ByteBuffer header = ByteBuffer.allocate(BINARY_HEADER_BYTES).order(ByteOrder.nativeOrder());
+            channel.read(header, 0);
+            int rows = header.getInt(0);
+            int columnCount = header.getInt(Integer.BYTES);
+            if (rows < 0 || columnCount < 0 || length != BINARY_HEADER_BYTES + (long) rows * columnCount * Double.BYTES) {
+                throw new IOException("size does not match " + rows + " rows x " + columnCount + " columns");
+            }
+            // The mapping stays valid after the channel is closed
+            MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            map.order(ByteOrder.nativeOrder());
+            DoubleBuffer[] columns = new DoubleBuffer[columnCount];
+            for (int c = 0; c < columnCount; c++) {
+                int offset = BINARY_HEADER_BYTES + c * rows * Double.BYTES;
+                columns[c] = map.slice(offset, rows * Double.BYTES).order(ByteOrder.nativeOrder()).asDoubleBuffer();
+            }
+            return new ColumnarData(columns, rows, size, lastModified);
+        }
+    }
+
+    /**
+     * Write columns in the binary output format of multifix (see mapBinary), for outputs the
+     * backend writes itself (the outputs of the Java engine).
+     */
+    static void writeBinary(Path file, double[][] columns, int rows) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(BINARY_HEADER_BYTES + columns.length * rows * Double.BYTES)
+            .order(ByteOrder.nativeOrder());
+        buffer.putInt(rows).putInt(columns.length);
+        for (double[] column : columns) {
+            buffer.asDoubleBuffer().put(column, 0, rows);
+            buffer.position(buffer.position() + rows * Double.BYTES);
+        }
+        Files.write(file, buffer.array());
+    }
+
+    /**
+     * Parse whitespace separated numeric rows. The column count is taken from the first
+     * numeric row; header lines and rows with a different column count are skipped.
+     */
+    private static ColumnarData parse(Path file, long size, long lastModified) throws IOException {
+        int columnCount = -1;
+        double[][] columns = new double[0][];
+        int rows = 0;
+        try (BufferedReader reader = Files.newBufferedReader(file)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String trimmed = line.trim();
+                if (trimmed.isEmpty()) {
+                    continue;
+                }
+                String[] tokens = trimmed.split("[\\s,]+");
+                if (columnCount >= 0 && tokens.length != columnCount) {
+                    continue;
+                }
+                double[] values = new double[tokens.length];
+                try {
+                    for (int i = 0; i < tokens.length; i++) {
+                        values[i] = FortranExecutionService.parseFortranDouble(tokens[i]);
+                    }
+                } catch (NumberFormatException e) {
+                    // Header or text line
+                    continue;
+                }
+                if (columnCount < 0) {
+                    columnCount = tokens.length;
+                    // Rough capacity guess from the file size, grown on demand
+                    int capacity = (int) Math.max(16, Math.min(Integer.MAX_VALUE - 8, size / Math.max(1, line.length() + 1)));
+                    columns = new double[columnCount][capacity];
+                }
+                if (rows == columns[0].length) {
+                    for (int c = 0; c < columnCount; c++) {
+                        columns[c] = Arrays.copyOf(columns[c], rows * 2);
+                    }
+                }
+                for (int c = 0; c < columnCount; c++) {
+                    columns[c][rows] = values[c];
+                }
+                rows++;
+            }
+        }
+        for (int c = 0; c < columns.length; c++) {
+            columns[c] = Arrays.copyOf(columns[c], rows);
+        }
+        return new ColumnarData(columns, rows, size, lastModified);
+    }
+
+    /**
+     * Row indices to keep when downsampling.
+     *
+     * @param x X column (must be monotonic for LTTB to be meaningful)
+     * @param y Y column used to select the points
+     * @param points Target number of points (&lt;= 0 or &gt;= rows: all rows)
+     * @param method "lttb", "minmax" or "none"
+     * @return Ascending row indices
+     */
+    public static int[] selectRows(double[] x, double[] y, int points, String method) {
+        String name = method != null ? method.toLowerCase() : "none";
+        if (!name.equals("lttb") && !name.equals("minmax") && !name.equals("none")) {
+            throw new IllegalArgumentException("Unknown downsampling method: " + method + " (use lttb, minmax or none)");
+        }
+        int rows = y.length;
+        if (points <= 0 || points >= rows || name.equals("none")) {
+            int[] all = new int[rows];
+            for (int i = 0; i < rows; i++) {
+                all[i] = i;
+            }
+            return all;
+        }
+        return name.equals("lttb") ? lttb(x, y, Math.max(3, points)) : minMax(y, Math.max(2, points));
+    }
+
+    /**
+     * Largest-Triangle-Three-Buckets: first and last row are kept, every bucket in between
+     * contributes the row forming the largest triangle with the previous pick and the
+     * average of the next bucket.
+     */
+    private static int[] lttb(double[] x, double[] y, int threshold) {
+        int rows = y.length;
+        int[] selected = new int[threshold];
+        double bucketSize = (double) (rows - 2) / (threshold - 2);
+        int a = 0;
+        selected[0] = 0;
+        for (int i = 0; i < threshold - 2; i++) {
+            int nextStart = (int) Math.floor((i + 1) * bucketSize) + 1;
+            int nextEnd = Math.min((int) Math.floor((i + 2) * bucketSize) + 1, rows);
+            double avgX = 0;
+            double avgY = 0;
+            for (int j = nextStart; j < nextEnd; j++) {
+                avgX += x[j];
+                avgY += y[j];
+            }
+            int nextCount = Math.max(1, nextEnd - nextStart);
+            avgX /= nextCount;
+            avgY /= nextCount;
+
+            int start = (int) Math.floor(i * bucketSize) + 1;
+            int end = (int) Math.floor((i + 1) * bucketSize) + 1;
+            double maxArea = -1;
+            int pick = start;
+            for (int j = start; j < end; j++) {
+                double area = Math.abs((x[a] - avgX) * (y[j] - y[a]) - (x[a] - x[j]) * (avgY - y[a]));
+                if (area > maxArea) {
+                    maxArea = area;
+                    pick = j;
+                }
+            }
+            selected[i + 1] = pick;
+            a = pick;
+        }
+        selected[threshold - 1] = rows - 1;
+        return selected;
+    }
+
+    /**
+     * Min/max per bucket: points/2 buckets, each contributing its minimum and maximum row
+     * (in row order), so peaks survive downsampling.
+     */
+    private static int[] minMax(double[] y, int points) {
+        int rows = y.length;
+        int buckets = Math.max(1, points / 2);
+        List<Integer> selected = new ArrayList<>(buckets * 2);
+        for (int b = 0; b < buckets; b++) {
+            int start = (int) ((long) b * rows / buckets);
+            int end = (int) ((long) (b + 1) * rows / buckets);
+            if (start >= end) {
+                continue;
+            }
+            int min = start;
+            int max = start;
+            for (int j = start + 1; j < end; j++) {
+                if (y[j] < y[min]) {
+                    min = j;
+                }
+                if (y[j] > y[max]) {
+                    max = j;
+                }
+            }
+            selected.add(Math.min(min, max));
+            if (min != max) {
+                selected.add(Math.max(min, max));
+            }
+        }
+        return selected.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * Extract the selected rows of the selected columns.
+     *
+     * @return One array per requested column
+     */
+    public static double[][] extract(ColumnarData data, int[] columns, int[] rows) {
+        double[][] result = new double[columns.length][rows.length];
+        for (int c = 0; c < columns.length; c++) {
+            double[] source = data.getColumn(columns[c]);
+            for (int r = 0; r < rows.length; r++) {
+                result[c][r] = source[rows[r]];
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Encode columns as little-endian float64, column after column.
+     */
+    public static byte[] toLittleEndianFloat64(double[][] columns) {
+        int rows = columns.length > 0 ? columns[0].length : 0;
+        ByteBuffer buffer = ByteBuffer.allocate(columns.length * rows * Double.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        for (double[] column : columns) {
+            buffer.asDoubleBuffer().put(column);
+            buffer.position(buffer.position() + column.length * Double.BYTES);
+        }
+        return buffer.array();
+    }
+}
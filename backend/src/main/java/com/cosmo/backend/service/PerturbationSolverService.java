@@ -0,0 +1,881 @@
+package com.cosmo.backend.service;
+
+import com.cosmo.backend.dto.InitialConditionsDTO;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * The complete multifix calculation in Java: an alternative engine to the compiled Fortran
+ * program, selected per request with engine=java (or by cosmo.solver.engine).
+ *
+ * Same equations, integrator and outputs as multifix.f with FLAG=1: the background is evolved
+ * with odeintone (see {@link BackgroundEvolutionService}) until epsilon exceeds 1, the k modes are
+ * built as in kic, their Bardeen initial conditions as in bardeednic, and every k mode (every
+ * second background step) is integrated with derivstwo and the adaptive Cash-Karp odeint from its
+ * horizon crossing until P_R changes by less than 1e-5 percent per step. The spectrum is
+ * normalised by the first mode to 1.8e-9 as in the Fortran program. The output files
+ * (information.txt, fields.txt, n_epsilon_hubble.txt, epsilon.txt, prslow.txt, kmode.txt,
+ * n_prz_kmode.txt, n_ps_kmode.txt, kmode_progress.txt and the binary twins) have the same rows,
+ * so everything downstream reads them unchanged.
+ *
+ * The k modes are solved in parallel on a fork-join pool shared by all runs; every mode integrates
+ * primitive double[] state vectors in a workspace of its own, so the steps do not allocate. No
+ * compiler is involved, so a run starts in milliseconds. The one coupling between modes in
+ * multifix, the convergence test of the first step of mode k against pr(k-1) as left by the modes
+ * before it, is replayed in k order once the modes are solved (see {@link Run#resolve}).
+ *
+ * Experimental: the engine is checked against a multifix run (Starobinsky potential, x = 5) by
+ * PerturbationSolverServiceTest; until that test runs in the build, use engine=fortran for results
+ * that matter.
+ */
+@Service
+public class PerturbationSolverService {
+
+    private static final Logger logger = LoggerFactory.getLogger(PerturbationSolverService.class);
+
+    /** Value of the engine field of a request that selects this solver */
+    public static final String ENGINE = "java";
+
+    /** Output times of the background (parameter timestep in multifix.f) */
+    private static final int MAX_STEPS = 10000;
+
+    /** Accuracy of odeint and odeintone (epsi in multifix.f) */
+    private static final double ACCURACY = 1.0e-5;
+
+    /** Integrator steps per output interval (MAXSTP of odeint) */
+    private static final int MAX_INTEGRATOR_STEPS = 100000;
+
+    /** Background steps between k modes (k_step in multifix.f) */
+    private static final int K_STEP = 2;
+
+    /** A mode is solved once P_R changes by less than this many percent per step (dpr in multifix.f) */
+    private static final double CONVERGENCE_PERCENT = 0.00001;
+
+    /** P_R of the first mode after normalisation (norma_back in multifix.f) */
+    private static final double NORMA_BACK = 1.8e-9;
+
+    /** Modes within this many steps of the end of inflation are left out of n_prz_kmode.txt */
+    private static final int SPECTRUM_MARGIN = 100;
+
+    /** Exit code of a run that failed (the reason is in the output) */
+    private static final int FAILED = 1;
+
+    /** Use the user-provided fieldVelocities instead of the slow-roll initial velocities (as for multifix) */
+    @Value("${cosmo.fortran.use-field-velocities:false}")
+    private boolean useFieldVelocities;
+
+    /** Threads solving k modes, shared by all runs; 0 = number of cores */
+    @Value("${cosmo.solver.java.parallelism:0}")
+    private int parallelism;
+
+    @Autowired
+    private ExpressionService expressionService;
+
+    @Autowired
+    private MetricsService metricsService;
+
+    private ForkJoinPool pool;
+
+    /** Runs in progress by execution ID */
+    private final Map<String, Run> running = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void init() {
+        int threads = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+        pool = new ForkJoinPool(threads, forkJoinPool -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(forkJoinPool);
+            thread.setName("java-solver-" + thread.getPoolIndex());
+            return thread;
+        }, null, false);
+        metricsService.registerGauge("cosmo_java_solver_runs", "Calculations running on the Java solver", running::size);
+        logger.info("☕ Java solver (engine=java) is experimental: check its results against engine=fortran");
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        running.values().forEach(run -> run.cancelled = true);
+        pool.shutdownNow();
+    }
+
+    /**
+     * Run a calculation in the workspace.
+     *
+     * The potential and metric are compiled on the calling thread, the calculation runs on the pool.
+     *
+     * @param executionId The execution ID (for cancellation)
+     * @param conditions The request
+     * @param workDir Workspace receiving the output files
+     * @param outputFile File receiving the program output (what multifix prints)
+     * @param timeoutSeconds Stop the calculation after this long (0 = no timeout)
+     * @return Future completed when the calculation has ended, with exit code 0 on success
+     * @throws com.cosmo.backend.expression.ExpressionException If the potential or metric is invalid or a parameter has no value
+     */
+    public CompletableFuture<ProcessSupervisor.Exit> run(String executionId, InitialConditionsDTO conditions,
+                                                         Path workDir, Path outputFile, long timeoutSeconds) {
+        FieldSpaceModel model = new FieldSpaceModel(expressionService, conditions);
+        long start = System.nanoTime();
+        long deadline = start + (timeoutSeconds > 0 ? timeoutSeconds * 1_000_000_000L : Long.MAX_VALUE / 2);
+        Run run = new Run(model, conditions, workDir, deadline);
+        running.put(executionId, run);
+        return CompletableFuture.supplyAsync(() -> execute(run, outputFile), pool)
+            .whenComplete((exit, error) -> {
+                running.remove(executionId, run);
+                String outcome = exit == null ? "failed" : exit.isTimedOut() ? "timeout"
+                    : exit.isCancelled() ? "cancelled" : exit.getExitCode() == 0 ? "completed" : "failed";
+                metricsService.recordTime("cosmo_java_solver_duration", "Calculation time on the Java solver",
+                    System.nanoTime() - start, "outcome", outcome);
+                logger.info("☕ Java solver {} for {}: {} k modes in {} ms", outcome, executionId, run.modeCount,
+                    (System.nanoTime() - start) / 1_000_000);
+            });
+    }
+
+    /**
+     * Stop a running calculation
+     *
+     * @return true if a calculation of the execution was running
+     */
+    public boolean cancel(String executionId) {
+        Run run = running.get(executionId);
+        if (run == null) {
+            return false;
+        }
+        run.cancelled = true;
+        return true;
+    }
+
+    public boolean isRunning(String executionId) {
+        return running.containsKey(executionId);
+    }
+
+    private ProcessSupervisor.Exit execute(Run run, Path outputFile) {
+        try (BufferedWriter output = Files.newBufferedWriter(outputFile, StandardCharsets.UTF_8)) {
+            run.output = output;
+            try {
+                run.solve();
+                return new ProcessSupervisor.Exit(0, false, false);
+            } catch (Stop | SolverException e) {
+                if (e instanceof SolverException && run.failure == null) {
+                    run.failure = e.getMessage();
+                }
+                // A failed mode stops the other modes, so a Stop may arrive instead of the failure
+                if (run.failure != null) {
+                    logger.warn("Java solver failed: {}", run.failure);
+                    run.print("Error: " + run.failure);
+                    return new ProcessSupervisor.Exit(FAILED, false, false);
+                }
+                run.print(run.timedOut ? "Stopped: timeout" : "Stopped: cancelled");
+                return new ProcessSupervisor.Exit(FAILED, run.timedOut, !run.timedOut);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /** Thrown out of the integration when a run is cancelled or timed out */
+    private static final class Stop extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        Stop() {
+            super(null, null, false, false);
+        }
+    }
+
+    /** The calculation cannot continue (the reason goes to the output) */
+    private static final class SolverException extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+
+        SolverException(String message) {
+            super(message);
+        }
+    }
+
+    /**
+     * One calculation: the background (1-based like multifix, index j is N = j*dt) and the k modes
+     */
+    private final class Run {
+        final FieldSpaceModel model;
+        final InitialConditionsDTO conditions;
+        final Path workDir;
+        final long deadline;
+        final int nf;
+        volatile boolean cancelled;
+        volatile boolean timedOut;
+        /** Why a k mode failed; stops the other modes */
+        volatile String failure;
+        BufferedWriter output;
+        BufferedWriter progress;
+
+        double dt;
+        double kstar;
+        double cq;
+        /** Last background step before epsilon exceeded 1 (timestep2 in multifix.f) */
+        int timestep2;
+        /** q = (x(i), xd(i)) per background step */
+        double[][] background;
+        double[] epsilon;
+        double[] hubble;
+        double[] ks;
+        /** P_R and isocurvature power of mode k (index k); raw until the spectrum is normalised */
+        double[] prk;
+        double[] prkIsocurvature;
+        /** P_R and isocurvature power by step (pr and p_isocurv in multifix.f), shared by the modes */
+        double[] pr;
+        double[] prIsocurvature;
+        /** Solved modes waiting for the modes before them (index mode), and the next mode to resolve */
+        ModeSolution[] solved;
+        int resolved;
+        int modeCount;
+
+        Run(FieldSpaceModel model, InitialConditionsDTO conditions, Path workDir, long deadline) {
+            this.model = model;
+            this.conditions = conditions;
+            this.workDir = workDir;
+            this.deadline = deadline;
+            this.nf = model.nf;
+        }
+
+        void checkStop() {
+            if (cancelled || failure != null) {
+                throw new Stop();
+            }
+            if (System.nanoTime() - deadline > 0) {
+                timedOut = true;
+                throw new Stop();
+            }
+        }
+
+        synchronized void print(String line) {
+            try {
+                output.write(line);
+                output.newLine();
+                output.flush();
+            } catch (IOException e) {
+                logger.debug("Could not write solver output: {}", e.getMessage());
+            }
+        }
+
+        void solve() throws IOException {
+            dt = valueOrDefault(conditions.getTimeStep(), 0.05);
+            kstar = valueOrDefault(conditions.getKstar(), 0.05);
+            cq = valueOrDefault(conditions.getCq(), 100.0);
+            evolveBackground();
+            double nBack = cq * kstar;
+            writeBackground();
+
+            // k modes (kic); ks(j) = cq*exp(N)*H, the mode leaving the horizon (times cq) at step j
+            ks = new double[timestep2 + 1];
+            for (int j = 1; j <= timestep2; j++) {
+                ks[j] = cq * Math.exp(time(j)) * hubble[j];
+            }
+            try (BufferedWriter kmodes = Files.newBufferedWriter(workDir.resolve("kmode.txt"))) {
+                for (int j = 1; j <= timestep2; j++) {
+                    kmodes.write(row(time(j), ks[j]));
+                }
+            }
+
+            // Perturbations of every K_STEP-th mode, in parallel; raw P_R goes to kmode_progress.txt per mode
+            prk = new double[timestep2 + 1];
+            prkIsocurvature = new double[timestep2 + 1];
+            pr = new double[timestep2 + 1];
+            prIsocurvature = new double[timestep2 + 1];
+            modeCount = (timestep2 - 2) / K_STEP + 1;
+            solved = new ModeSolution[modeCount];
+            try (BufferedWriter progressFile = Files.newBufferedWriter(workDir.resolve(SpectrumStreamService.PROGRESS_FILE))) {
+                progress = progressFile;
+                progressFile.write(row(NORMA_BACK));
+                progressFile.flush();
+                pool.invoke(new ModeRange(this, 0, modeCount));
+            }
+
+            // Normalise by the first mode and write the spectrum up to timestep2-SPECTRUM_MARGIN;
+            // the modes after it keep their raw P_R (and count for the peak), as in multifix
+            double norma = prk[2];
+            double[][] spectrum = new double[3][modeCount + 1];
+            int rows = 0;
+            int k = 2;
+            try (BufferedWriter prz = Files.newBufferedWriter(workDir.resolve("n_prz_kmode.txt"));
+                 BufferedWriter ps = Files.newBufferedWriter(workDir.resolve("n_ps_kmode.txt"))) {
+                prz.write(row(0.0, 2.1e-9, 5.0e-2));
+                rows = addRow(spectrum, rows, 0.0, 2.1e-9, 5.0e-2);
+                for (; k <= timestep2 - SPECTRUM_MARGIN; k += K_STEP) {
+                    prk[k] = prk[k] * NORMA_BACK / norma;
+                    double ksNorm = kstar * cq * ks[k] / ks[1];
+                    prz.write(row(time(k) + nBack, prk[k], ksNorm));
+                    rows = addRow(spectrum, rows, time(k) + nBack, prk[k], ksNorm);
+                    prkIsocurvature[k] = prkIsocurvature[k] * NORMA_BACK / norma;
+                    ps.write(row(time(k) + nBack, prkIsocurvature[k], ksNorm));
+                }
+            }
+            OutputDataService.writeBinary(workDir.resolve("n_prz_kmode.bin"), spectrum, rows);
+            // MAXVAL(prk): unsolved steps hold 0, NaN is skipped
+            double peak = 0.0;
+            for (double value : prk) {
+                if (value > peak) {
+                    peak = value;
+                }
+            }
+
+            try (BufferedWriter information = Files.newBufferedWriter(workDir.resolve("information.txt"))) {
+                information.write(String.format(Locale.ROOT, " %20s %20.15f%n", "N_End of Inflation:", time(timestep2)));
+                information.write(String.format(Locale.ROOT, " %20s %20.1f%n", "C_q used:", cq));
+                information.write(String.format(Locale.ROOT, " %20s %20.15f%n", "P_R (peak):", peak));
+            }
+            // kfinal of multifix: the loop index after the normalisation loop, in k steps
+            print("Iterations=" + k / K_STEP);
+            // prk[2] is normalised by now (unless inflation is too short for any spectrum row)
+            print("P_R(peak)= " + peak + " Enchancment= " + peak / prk[2]);
+        }
+
+        /** Background up to the end of inflation, as in the main program of multifix.f */
+        private void evolveBackground() {
+            BackgroundEvolutionService.Evolution evolution = new BackgroundEvolutionService.Evolution(model);
+            double[] x0 = new double[nf];
+            for (int i = 0; i < nf; i++) {
+                x0[i] = conditions.getFieldValues().get(i);
+            }
+            double v0 = model.potential(x0);
+            if (!(v0 > 0)) {
+                throw new SolverException("Potential is not positive at the initial field values (V = " + v0 + ")");
+            }
+            // Initial velocities: slow roll as in xic, or the values of the request
+            double[] q = new double[2 * nf];
+            double[] metric = model.metricEigenvalues(x0);
+            double[] gradient = model.gradient(x0);
+            List<Double> velocities = conditions.getFieldVelocities();
+            for (int i = 0; i < nf; i++) {
+                q[i] = x0[i];
+                q[i + nf] = useFieldVelocities && velocities != null && i < velocities.size() && velocities.get(i) != null
+                    ? velocities.get(i)
+                    : -gradient[i] / metric[i] / v0;
+            }
+
+            background = new double[MAX_STEPS + 1][];
+            epsilon = new double[MAX_STEPS + 1];
+            hubble = new double[MAX_STEPS + 1];
+            int j;
+            for (j = 1; j <= MAX_STEPS; j++) {
+                String failure = evolution.integrate(q, j == 1 ? 0.0 : time(j - 1), time(j), dt, deadline);
+                if (failure == BackgroundEvolutionService.Evolution.TIMED_OUT) {
+                    timedOut = true;
+                    throw new Stop();
+                }
+                if (failure != null) {
+                    throw new SolverException("Background: " + failure);
+                }
+                checkStop();
+                background[j] = q.clone();
+                epsilon[j] = evolution.epsilon(q);
+                hubble[j] = Math.sqrt(model.potential(q) / (3.0 - epsilon[j]));
+                if (j > 1 && epsilon[j] > 1.0) {
+                    break;
+                }
+            }
+            timestep2 = j - 1;
+            print("N_End of Inflation= " + timestep2 * dt);
+            if (timestep2 < 2) {
+                throw new SolverException(String.format(Locale.ROOT,
+                    "Inflation ends after N = %.4g e-folds, no k modes to evolve", timestep2 * dt));
+            }
+        }
+
+        /** fields.txt, n_epsilon_hubble.txt, epsilon.txt and prslow.txt: steps 2 to the one where epsilon passed 1 */
+        private void writeBackground() throws IOException {
+            int last = Math.min(timestep2 + 1, MAX_STEPS);
+            int rows = last - 1;
+            double[][] fields = new double[nf + 1][rows];
+            double[][] epsilonHubble = new double[3][rows];
+            try (BufferedWriter fieldsFile = Files.newBufferedWriter(workDir.resolve("fields.txt"));
+                 BufferedWriter epsilonFile = Files.newBufferedWriter(workDir.resolve("n_epsilon_hubble.txt"));
+                 BufferedWriter etaFile = Files.newBufferedWriter(workDir.resolve("epsilon.txt"));
+                 BufferedWriter slowRollFile = Files.newBufferedWriter(workDir.resolve("prslow.txt"))) {
+                for (int j = 2; j <= last; j++) {
+                    double[] q = background[j];
+                    double[] fieldRow = new double[nf + 1];
+                    fieldRow[0] = time(j);
+                    System.arraycopy(q, 0, fieldRow, 1, nf);
+                    fieldsFile.write(row(fieldRow));
+                    epsilonFile.write(row(time(j), epsilon[j], hubble[j]));
+                    // hta = |epsilon - dqdt(2)/q(2)|; multifix never computes dqdt, which stays 0
+                    etaFile.write(row(time(j), epsilon[j], Math.abs(epsilon[j] - 0.0 / q[1])));
+                    double prslow = model.potential(q) / (8 * Math.PI * Math.PI * (3 - epsilon[j]) * epsilon[j]);
+                    slowRollFile.write(row(time(j), prslow));
+                    for (int c = 0; c <= nf; c++) {
+                        fields[c][j - 2] = fieldRow[c];
+                    }
+                    epsilonHubble[0][j - 2] = time(j);
+                    epsilonHubble[1][j - 2] = epsilon[j];
+                    epsilonHubble[2][j - 2] = hubble[j];
+                }
+            }
+            // Binary twins after the text files, so they are never older
+            OutputDataService.writeBinary(workDir.resolve("fields.bin"), fields, rows);
+            OutputDataService.writeBinary(workDir.resolve("n_epsilon_hubble.bin"), epsilonHubble, rows);
+        }
+
+        double time(int j) {
+            return dt * j;
+        }
+
+        /**
+         * Solve mode k from step k to convergence or the end of inflation. Whether multifix stops
+         * after the first step depends on pr(k-1) of the modes before, so the mode is solved as if
+         * it does not (the later steps only depend on the mode itself) and {@link #resolve} decides.
+         */
+        void solveMode(int mode) {
+            int k = 2 + K_STEP * mode;
+            Perturbation perturbation = new Perturbation(this, ks[k]);
+            double[] real = new double[perturbation.size];
+            double[] imaginary = new double[perturbation.size];
+            perturbation.initialConditions(k, real, imaginary);
+
+            ModeSolution solution = new ModeSolution(k, perturbation.power(real, imaginary, false),
+                perturbation.power(real, imaginary, true), timestep2 - k);
+            try {
+                for (int j = k; j < timestep2; j++) {
+                    perturbation.integrate(real, time(j), time(j + 1));
+                    perturbation.integrate(imaginary, time(j), time(j + 1));
+                    solution.add(perturbation.power(real, imaginary, false), perturbation.power(real, imaginary, true));
+                    if (j > k && converged(solution.power[j - k], solution.power[j - k - 1])) {
+                        break;
+                    }
+                }
+            } catch (SolverException e) {
+                if (failure == null) {
+                    failure = e.getMessage();
+                }
+                throw e;
+            }
+            synchronized (this) {
+                solved[mode] = solution;
+                while (resolved < modeCount && solved[resolved] != null) {
+                    resolve(solved[resolved]);
+                    solved[resolved++] = null;
+                }
+            }
+        }
+
+        /**
+         * The loop over the steps of a mode in multifix, on the solved steps: store them in pr,
+         * stop at convergence (the first step compared with pr(k-1) as left by the modes before)
+         * and take pr(j-1) as P_R of the mode. Called in k order; caller holds the lock.
+         */
+        private void resolve(ModeSolution solution) {
+            int k = solution.k;
+            pr[k] = solution.initialPower;
+            prIsocurvature[k] = solution.initialIsocurvature;
+            int j = k;
+            for (int step = 0; step < solution.steps; step++, j++) {
+                pr[j] = solution.power[step];
+                prIsocurvature[j] = solution.isocurvature[step];
+                if (converged(pr[j], pr[j - 1])) {
+                    break;
+                }
+            }
+            prk[k] = pr[j - 1];
+            prkIsocurvature[k] = prIsocurvature[j - 1];
+            print((j - k) + " " + prk[k]);
+            try {
+                progress.write(String.format(Locale.ROOT, "%12d%26.16E%26.16E%26.16E%n", k,
+                    time(k) + cq * kstar, prk[k], kstar * cq * ks[k] / ks[1]));
+                progress.flush();
+            } catch (IOException e) {
+                logger.debug("Could not write k mode progress: {}", e.getMessage());
+            }
+        }
+    }
+
+    /** P_R and isocurvature power of a mode at its start and after each step it was solved for */
+    private static final class ModeSolution {
+        final int k;
+        final double initialPower;
+        final double initialIsocurvature;
+        final double[] power;
+        final double[] isocurvature;
+        int steps;
+
+        ModeSolution(int k, double initialPower, double initialIsocurvature, int maxSteps) {
+            this.k = k;
+            this.initialPower = initialPower;
+            this.initialIsocurvature = initialIsocurvature;
+            this.power = new double[maxSteps];
+            this.isocurvature = new double[maxSteps];
+        }
+
+        void add(double pr, double isocurvature) {
+            power[steps] = pr;
+            this.isocurvature[steps++] = isocurvature;
+        }
+    }
+
+    /**
+     * Modes from..to-1 (counted from the first, k = 2 + K_STEP*mode), split in halves until single modes,
+     * so idle threads steal the remaining modes of a busy one
+     */
+    private static final class ModeRange extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final transient Run run;
+        private final int from;
+        private final int to;
+
+        ModeRange(Run run, int from, int to) {
+            this.run = run;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                run.solveMode(from);
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new ModeRange(run, from, middle), new ModeRange(run, middle, to));
+        }
+    }
+
+    /**
+     * Perturbation equations of one k mode (derivstwo) and their integrator (odeint, rkqs, rkck)
+     * with preallocated scratch arrays.
+     *
+     * State p (0-based, m = 4*nf+2): x(i), dx(i) (field perturbations), psi (Bardeen potential),
+     * xd(i), d dx(i)/dN, d psi/dN; the first 2*nf+1 entries are integrated from the last 2*nf+1.
+     */
+    private static final class Perturbation {
+        final Run run;
+        final FieldSpaceModel model;
+        final int nf;
+        final int size;
+        final double kmode;
+        final double[] x;
+        final double[] xd;
+        final double[] xl;
+        final double[] dxl;
+        final double[] dV;
+        final double[][] ddV;
+        final double[] d;
+        final double[][][] lld;
+        final double[][][] chris;
+        final double[][][][] dchris;
+        final double[] dydt;
+        final double[] yscal;
+        final double[] ytemp;
+        final double[] yout;
+        final double[] yerr;
+        final double[] ak2;
+        final double[] ak3;
+        final double[] ak4;
+        final double[] ak5;
+        final double[] ak6;
+
+        Perturbation(Run run, double kmode) {
+            this.run = run;
+            this.model = run.model;
+            this.nf = run.nf;
+            this.size = 4 * nf + 2;
+            this.kmode = kmode;
+            x = new double[nf];
+            xd = new double[nf];
+            xl = new double[nf];
+            dxl = new double[nf];
+            dV = new double[nf];
+            ddV = new double[nf][nf];
+            d = new double[nf];
+            lld = new double[nf][nf][nf];
+            chris = new double[nf][nf][nf];
+            dchris = new double[nf][nf][nf][nf];
+            dydt = new double[size];
+            yscal = new double[size];
+            ytemp = new double[size];
+            yout = new double[size];
+            yerr = new double[size];
+            ak2 = new double[size];
+            ak3 = new double[size];
+            ak4 = new double[size];
+            ak5 = new double[size];
+            ak6 = new double[size];
+        }
+
+        /**
+         * Bunch-Davies vacuum of the first field perturbation at step k (kic) and the Bardeen potential
+         * it sources (bardeednic), real and imaginary part
+         */
+        void initialConditions(int k, double[] real, double[] imaginary) {
+            double[] q = run.background[k];
+            System.arraycopy(q, 0, x, 0, nf);
+            System.arraycopy(q, nf, xd, 0, nf);
+            model.metricEigenvalues(x, d);
+            model.metricDerivatives(x, lld);
+            model.gradient(x, dV);
+            double t = run.time(k);
+            double hubble = run.hubble[k];
+            double laa = Math.abs(d[0]);
+            double laad = Math.abs(lld[0][0][0]) * xd[0];
+            double temp = Math.sqrt(0.5) / (Math.sqrt(laa * kmode) * Math.exp(t));
+            double[] lxReal = new double[nf];
+            double[] dlxReal = new double[nf];
+            double[] lxImaginary = new double[nf];
+            double[] dlxImaginary = new double[nf];
+            lxReal[0] = temp;
+            dlxReal[0] = -temp * (1.0 + laad / (2.0 * laa));
+            dlxImaginary[0] = -temp * (kmode / (Math.exp(t) * hubble));
+            fill(real, lxReal, dlxReal, k);
+            fill(imaginary, lxImaginary, dlxImaginary, k);
+        }
+
+        private void fill(double[] p, double[] lx, double[] dlx, int k) {
+            double hubble = run.hubble[k];
+            double crossing = kmode / (Math.exp(run.time(k)) * hubble);
+            double sd0 = 0;
+            double ds0 = 0;
+            double sd1 = 0;
+            double sd2 = 0;
+            double sd3 = 0;
+            for (int a = 0; a < nf; a++) {
+                sd0 += d[a] * xd[a] * dlx[a];
+                ds0 += d[a] * xd[a] * lx[a];
+                sd2 += 3.0 * d[a] * xd[a] * lx[a];
+                sd3 += dV[a] * lx[a] / (hubble * hubble);
+                for (int b = 0; b < nf; b++) {
+                    for (int c = 0; c < nf; c++) {
+                        sd1 += 0.5 * lld[a][b][c] * xd[a] * xd[b] * lx[c];
+                    }
+                }
+            }
+            double psi = 1.0 / (2.0 * (run.epsilon[k] - crossing * crossing)) * (sd0 + sd1 + sd2 + sd3);
+            for (int i = 0; i < nf; i++) {
+                p[i] = x[i];
+                p[nf + i] = lx[i];
+                p[2 * nf + 1 + i] = xd[i];
+                p[3 * nf + 1 + i] = dlx[i];
+            }
+            p[2 * nf] = psi;
+            p[4 * nf + 1] = ds0 / 2.0 - psi;
+        }
+
+        /** k^3/(2 pi^2) |zeta|^2 (function zeta), or the same of the isocurvature perturbation (function isocurv) */
+        double power(double[] real, double[] imaginary, boolean isocurvature) {
+            double r = isocurvature ? isocurvature(real) : zeta(real);
+            double i = isocurvature ? isocurvature(imaginary) : zeta(imaginary);
+            return kmode * kmode * kmode * (r * r + i * i) / (2.0 * Math.PI * Math.PI);
+        }
+
+        private double zeta(double[] p) {
+            unpack(p);
+            model.metricEigenvalues(x, d);
+            double sd = 0;
+            double ds = 0;
+            for (int a = 0; a < nf; a++) {
+                sd += d[a] * xd[a] * xd[a];
+                ds += d[a] * xd[a] * xl[a];
+            }
+            return p[2 * nf] + ds / sd;
+        }
+
+        private double isocurvature(double[] p) {
+            if (nf != 2) {
+                return 0.0;
+            }
+            unpack(p);
+            model.metricEigenvalues(x, d);
+            double sd = Math.sqrt(d[0] * xd[0] * xd[0]) + Math.sqrt(d[1] * xd[1] * xd[1]);
+            double product = d[0] * d[1];
+            double psi = p[2 * nf];
+            return (xd[1] * product * (xl[0] + xd[0] * psi) / sd + xd[0] * product * (xl[1] + xd[1] * psi) / sd) / sd;
+        }
+
+        private void unpack(double[] p) {
+            for (int i = 0; i < nf; i++) {
+                x[i] = p[i];
+                xl[i] = p[nf + i];
+                xd[i] = p[2 * nf + 1 + i];
+                dxl[i] = p[3 * nf + 1 + i];
+            }
+        }
+
+        /** Right-hand side of the background and perturbation equations (subroutine derivstwo) */
+        void derivs(double t, double[] p, double[] dpdt) {
+            unpack(p);
+            double psi = p[2 * nf];
+            double dpsi = p[4 * nf + 1];
+            System.arraycopy(p, 2 * nf + 1, dpdt, 0, 2 * nf + 1);
+            model.gradient(x, dV);
+            model.hessian(x, ddV);
+            model.metricEigenvalues(x, d);
+            if (!model.constantMetric) {
+                model.metricDerivatives(x, lld);
+                model.christoffel(x, d, lld, chris);
+                model.christoffelDerivatives(x, dchris);
+            }
+            double v = model.potential(x);
+            double sd2 = 0;
+            double bardeen = 0;
+            for (int a = 0; a < nf; a++) {
+                sd2 += d[a] * xd[a] * xd[a];
+                bardeen += dV[a] * xl[a];
+            }
+            double friction = 3.0 - 0.5 * sd2;
+            // H^2 and (k/aH)^2 with a = exp(N)
+            double h2 = v / friction;
+            double scale = kmode * kmode / (Math.exp(t) * Math.exp(t) * h2);
+            for (int c = 0; c < nf; c++) {
+                double ch = 0;
+                double ch1 = 0;
+                double first = 0;
+                double third = 0;
+                if (!model.constantMetric) {
+                    for (int a = 0; a < nf; a++) {
+                        for (int b = 0; b < nf; b++) {
+                            ch += chris[a][b][c] * xd[a] * xd[b];
+                            ch1 += chris[a][b][c] * xd[a] * dxl[b];
+                            for (int e = 0; e < nf; e++) {
+                                first += dchris[a][b][c][e] * xd[a] * xd[b] * xl[e];
+                            }
+                        }
+                    }
+                    // ll_inv is diagonal: ll_inv(c,a)*lld(a,b,e)*dV(f)*ll_inv(f,b) reduces to a = c, f = b
+                    for (int b = 0; b < nf; b++) {
+                        for (int e = 0; e < nf; e++) {
+                            third += lld[c][b][e] * dV[b] / d[b] * xl[e];
+                        }
+                    }
+                    third /= d[c] * h2;
+                }
+                double second = 0;
+                for (int e = 0; e < nf; e++) {
+                    second += ddV[c][e] * xl[e];
+                }
+                second /= d[c] * h2;
+                double d2 = dV[c] / d[c];
+                dpdt[2 * nf + 1 + c] = -ch - xd[c] * friction - friction * (d2 / v);
+                dpdt[3 * nf + 1 + c] = -friction * dxl[c] - 2.0 * ch1 - (first + second - third)
+                    - scale * xl[c] + 4.0 * dpsi * xd[c] - 2.0 * psi * (d2 / h2);
+            }
+            dpdt[4 * nf + 1] = -(7.0 - 0.5 * sd2) * dpsi - (2.0 * v / h2) * psi - scale * psi - bardeen / h2;
+        }
+
+        /** Integrate from t1 to t2 (odeint), starting with step dt */
+        void integrate(double[] y, double t1, double t2) {
+            double t = t1;
+            double h = Math.copySign(run.dt, t2 - t1);
+            for (int s = 0; s < MAX_INTEGRATOR_STEPS; s++) {
+                run.checkStop();
+                derivs(t, y, dydt);
+                for (int i = 0; i < size; i++) {
+                    yscal[i] = Math.abs(y[i]) + Math.abs(h * dydt[i]) + 1.0e-30;
+                }
+                if ((t + h - t2) * (t + h - t1) > 0) {
+                    h = t2 - t;
+                }
+                // rkqs: shrink the step until the error is below the accuracy
+                double errmax;
+                while (true) {
+                    cashKarp(y, t, h);
+                    errmax = 0;
+                    for (int i = 0; i < size; i++) {
+                        errmax = Math.max(errmax, Math.abs(yerr[i] / yscal[i]));
+                    }
+                    errmax /= ACCURACY;
+                    if (!(errmax > 1.0)) {
+                        break;
+                    }
+                    double htemp = 0.9 * h * Math.pow(errmax, -0.25);
+                    h = Math.copySign(Math.max(Math.abs(htemp), 0.1 * Math.abs(h)), h);
+                    if (t + h == t) {
+                        throw new SolverException(String.format(Locale.ROOT,
+                            "Step size underflow at N = %.4g (k = %.4g)", t, kmode));
+                    }
+                }
+                double hnext = errmax > 1.89e-4 ? 0.9 * h * Math.pow(errmax, -0.2) : 5.0 * h;
+                t += h;
+                System.arraycopy(yout, 0, y, 0, size);
+                if ((t - t2) * (t2 - t1) >= 0) {
+                    return;
+                }
+                h = hnext;
+            }
+            throw new SolverException(String.format(Locale.ROOT,
+                "Too many integration steps at N = %.4g (k = %.4g)", t, kmode));
+        }
+
+        /** rkck: fifth-order Cash-Karp step from (t, y) with derivatives dydt into yout, error estimate into yerr */
+        private void cashKarp(double[] y, double t, double h) {
+            for (int i = 0; i < size; i++) {
+                ytemp[i] = y[i] + 0.2 * h * dydt[i];
+            }
+            derivs(t + 0.2 * h, ytemp, ak2);
+            for (int i = 0; i < size; i++) {
+                ytemp[i] = y[i] + h * (3.0 / 40.0 * dydt[i] + 9.0 / 40.0 * ak2[i]);
+            }
+            derivs(t + 0.3 * h, ytemp, ak3);
+            for (int i = 0; i < size; i++) {
+                ytemp[i] = y[i] + h * (0.3 * dydt[i] - 0.9 * ak2[i] + 1.2 * ak3[i]);
+            }
+            derivs(t + 0.6 * h, ytemp, ak4);
+            for (int i = 0; i < size; i++) {
+                ytemp[i] = y[i] + h * (-11.0 / 54.0 * dydt[i] + 2.5 * ak2[i] - 70.0 / 27.0 * ak3[i] + 35.0 / 27.0 * ak4[i]);
+            }
+            derivs(t + h, ytemp, ak5);
+            for (int i = 0; i < size; i++) {
+                ytemp[i] = y[i] + h * (1631.0 / 55296.0 * dydt[i] + 175.0 / 512.0 * ak2[i] + 575.0 / 13824.0 * ak3[i]
+                    + 44275.0 / 110592.0 * ak4[i] + 253.0 / 4096.0 * ak5[i]);
+            }
+            derivs(t + 0.875 * h, ytemp, ak6);
+            double c1 = 37.0 / 378.0;
+            double c3 = 250.0 / 621.0;
+            double c4 = 125.0 / 594.0;
+            double c6 = 512.0 / 1771.0;
+            for (int i = 0; i < size; i++) {
+                yout[i] = y[i] + h * (c1 * dydt[i] + c3 * ak3[i] + c4 * ak4[i] + c6 * ak6[i]);
+                yerr[i] = h * ((c1 - 2825.0 / 27648.0) * dydt[i] + (c3 - 18575.0 / 48384.0) * ak3[i]
+                    + (c4 - 13525.0 / 55296.0) * ak4[i] - 277.0 / 14336.0 * ak5[i] + (c6 - 0.25) * ak6[i]);
+            }
+        }
+    }
+
+    /** Convergence test of multifix (temp_pr < dpr); false if the previous value is 0 */
+    private static boolean converged(double pr, double last) {
+        return 100.0 * Math.abs((pr - last) / last) < CONVERGENCE_PERCENT;
+    }
+
+    private static double valueOrDefault(Double value, double defaultValue) {
+        return value != null && value > 0 ? value : defaultValue;
+    }
+
+    private static int addRow(double[][] columns, int row, double... values) {
+        for (int c = 0; c < values.length; c++) {
+            columns[c][row] = values[c];
+        }
+        return row + 1;
+    }
+
+    /** One row of a text output file, in E26.16 columns (readable by every parser of the outputs) */
+    private static String row(double... values) {
+        StringBuilder sb = new StringBuilder();
+        for (double value : values) {
+            sb.append(String.format(Locale.ROOT, "%26.16E", value));
+        }
+        return sb.append(System.lineSeparator()).toString();
+    }
+}
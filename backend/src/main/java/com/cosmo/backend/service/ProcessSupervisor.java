@@ -0,0 +1,281 @@
+package com.cosmo.backend.service;
+
+import jakarta.annotation.PreDestroy;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Supervises child processes without a thread per process.
+ *
+ * Output (stdout and stderr) is redirected to a file instead of a pipe, so nothing has to be
+ * read while the process runs; exits are observed through {@link Process#onExit()} (the JDK's
+ * shared process reaper). One scheduler thread enforces the timeouts and tails the output files
+ * to pass new lines to the listeners (logging and progress events). Processes are tracked by
+ * execution ID, so cancellation of an execution kills all of its processes in one place.
+ */
+@Service
+public class ProcessSupervisor {
+
+    private static final Logger logger = LoggerFactory.getLogger(ProcessSupervisor.class);
+
+    /** How often the output files of running processes are read for new lines */
+    @Value("${cosmo.process.output-poll-ms:500}")
+    private long outputPollMillis;
+
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "process-supervisor");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /** Supervised processes by execution ID */
+    private final Map<String, List<Supervised>> processes = new ConcurrentHashMap<>();
+
+    /**
+     * How a supervised process ended
+     */
+    public static class Exit {
+        private final int exitCode;
+        private final boolean timedOut;
+        private final boolean cancelled;
+
+        Exit(int exitCode, boolean timedOut, boolean cancelled) {
+            this.exitCode = exitCode;
+            this.timedOut = timedOut;
+            this.cancelled = cancelled;
+        }
+
+        public int getExitCode() { return exitCode; }
+        /** Killed because it ran longer than its timeout */
+        public boolean isTimedOut() { return timedOut; }
+        /** Killed by {@link #cancel(String)} */
+        public boolean isCancelled() { return cancelled; }
+    }
+
+    /**
+     * A running (or finished) child process
+     */
+    public final class Supervised {
+        private final String executionId;
+        private final Process process;
+        private final Path outputFile;
+        private final Consumer<String> lineListener;
+        private final CompletableFuture<Exit> exit = new CompletableFuture<>();
+        private volatile boolean timedOut;
+        private volatile boolean cancelled;
+        private ScheduledFuture<?> timeout;
+        private ScheduledFuture<?> tail;
+        /** Tail position and incomplete last line; only touched under the lock of this object */
+        private long outputOffset;
+        private final StringBuilder partialLine = new StringBuilder();
+
+        private Supervised(String executionId, Process process, Path outputFile, Consumer<String> lineListener) {
+            this.executionId = executionId;
+            this.process = process;
+            this.outputFile = outputFile;
+            this.lineListener = lineListener;
+        }
+
+        /** Completed when the process has exited and its output has been passed to the listener */
+        public CompletableFuture<Exit> getExit() { return exit; }
+
+        public Path getOutputFile() { return outputFile; }
+
+        /** Everything the process wrote (stdout and stderr) */
+        public String readOutput() {
+            try {
+                return Files.exists(outputFile) ? Files.readString(outputFile, StandardCharsets.UTF_8) : "";
+            } catch (IOException e) {
+                logger.warn("Could not read process output {}: {}", outputFile, e.getMessage());
+                return "";
+            }
+        }
+
+        public boolean isAlive() { return process.isAlive(); }
+
+        /** Write one line to the standard input of the process */
+        public void send(String line) throws IOException {
+            OutputStream input = process.getOutputStream();
+            input.write((line + "\n").getBytes(StandardCharsets.UTF_8));
+            input.flush();
+        }
+
+        /** Close the standard input (end of input for the process) */
+        public void closeInput() {
+            try {
+                process.getOutputStream().close();
+            } catch (IOException e) {
+                logger.debug("Could not close input of process {}: {}", process.pid(), e.getMessage());
+            }
+        }
+
+        private void kill() {
+            process.descendants().forEach(ProcessHandle::destroyForcibly);
+            process.destroyForcibly();
+        }
+
+        /** Pass lines written since the last call to the listener */
+        private synchronized void drain(boolean last) {
+            if (lineListener == null) {
+                return;
+            }
+            try (RandomAccessFile file = new RandomAccessFile(outputFile.toFile(), "r")) {
+                long length = file.length();
+                if (length > outputOffset) {
+                    byte[] bytes = new byte[(int) Math.min(length - outputOffset, Integer.MAX_VALUE)];
+                    file.seek(outputOffset);
+                    file.readFully(bytes);
+                    outputOffset += bytes.length;
+                    partialLine.append(new String(bytes, StandardCharsets.UTF_8));
+                }
+            } catch (IOException e) {
+                logger.debug("Could not tail {}: {}", outputFile, e.getMessage());
+                return;
+            }
+            int newline;
+            while ((newline = partialLine.indexOf("\n")) >= 0) {
+                lineListener.accept(stripCarriageReturn(partialLine.substring(0, newline)));
+                partialLine.delete(0, newline + 1);
+            }
+            if (last && partialLine.length() > 0) {
+                lineListener.accept(stripCarriageReturn(partialLine.toString()));
+                partialLine.setLength(0);
+            }
+        }
+
+        private void exited(int exitCode) {
+            if (timeout != null) {
+                timeout.cancel(false);
+            }
+            if (tail != null) {
+                tail.cancel(false);
+            }
+            try {
+                drain(true);
+            } catch (RuntimeException e) {
+                logger.warn("Output listener failed for {}: {}", executionId, e.getMessage());
+            }
+            List<Supervised> list = processes.get(executionId);
+            if (list != null) {
+                list.remove(this);
+                processes.remove(executionId, List.of());
+            }
+            exit.complete(new Exit(exitCode, timedOut, cancelled));
+        }
+    }
+
+    /**
+     * Start a process under supervision.
+     *
+     * @param executionId Execution the process belongs to (for cancellation; several processes may share it)
+     * @param builder The process to start; its output is redirected to outputFile (stderr merged)
+     * @param outputFile File receiving the output
+     * @param timeoutSeconds Kill the process after this long (0 = no timeout)
+     * @param lineListener Receives each output line, on the supervisor thread; null to only keep the file
+     * @return The supervised process
+     * @throws IOException If the process cannot be started
+     */
+    public Supervised start(String executionId, ProcessBuilder builder, Path outputFile,
+                            long timeoutSeconds, Consumer<String> lineListener) throws IOException {
+        return start(executionId, builder, outputFile, timeoutSeconds, outputPollMillis, lineListener);
+    }
+
+    /**
+     * Start a process under supervision, reading its output every pollMillis (at least 10 ms)
+     * instead of every cosmo.process.output-poll-ms; for processes whose output has to be seen
+     * promptly, such as the job markers of pooled workers.
+     *
+     * @see #start(String, ProcessBuilder, Path, long, Consumer)
+     */
+    public Supervised start(String executionId, ProcessBuilder builder, Path outputFile,
+                            long timeoutSeconds, long pollMillis, Consumer<String> lineListener) throws IOException {
+        builder.redirectErrorStream(true);
+        builder.redirectOutput(outputFile.toFile());
+        Process process = builder.start();
+        Supervised supervised = new Supervised(executionId, process, outputFile, lineListener);
+        processes.computeIfAbsent(executionId, id -> new CopyOnWriteArrayList<>()).add(supervised);
+        if (timeoutSeconds > 0) {
+            supervised.timeout = scheduler.schedule(() -> {
+                if (process.isAlive()) {
+                    logger.warn("Process {} of execution {} exceeded {} s, killing it", process.pid(), executionId, timeoutSeconds);
+                    supervised.timedOut = true;
+                    supervised.kill();
+                }
+            }, timeoutSeconds, TimeUnit.SECONDS);
+        }
+        if (lineListener != null) {
+            long period = Math.max(10, pollMillis);
+            supervised.tail = scheduler.scheduleWithFixedDelay(() -> {
+                try {
+                    supervised.drain(false);
+                } catch (RuntimeException e) {
+                    logger.warn("Output listener failed for {}: {}", executionId, e.getMessage());
+                }
+            }, period, period, TimeUnit.MILLISECONDS);
+        }
+        process.onExit().whenCompleteAsync((p, error) -> supervised.exited(process.exitValue()), scheduler);
+        return supervised;
+    }
+
+    /**
+     * Kill all processes of an execution (including their child processes).
+     *
+     * @return true if a running process was killed
+     */
+    public boolean cancel(String executionId) {
+        List<Supervised> list = processes.get(executionId);
+        boolean killed = false;
+        if (list != null) {
+            for (Supervised supervised : new ArrayList<>(list)) {
+                if (supervised.isAlive()) {
+                    supervised.cancelled = true;
+                    supervised.kill();
+                    killed = true;
+                }
+            }
+        }
+        return killed;
+    }
+
+    public boolean isRunning(String executionId) {
+        List<Supervised> list = processes.get(executionId);
+        return list != null && list.stream().anyMatch(Supervised::isAlive);
+    }
+
+    /** Number of supervised processes that have not exited yet */
+    public int getProcessCount() {
+        return processes.values().stream().mapToInt(List::size).sum();
+    }
+
+    @PreDestroy
+    public void shutdown() {
+        for (String executionId : new ArrayList<>(processes.keySet())) {
+            cancel(executionId);
+        }
+        scheduler.shutdownNow();
+    }
+
+    private static String stripCarriageReturn(String line) {
+        return line.endsWith("\r") ? line.substring(0, line.length() - 1) : line;
+    }
+}
@@ -0,0 +1,369 @@
+package com.cosmo.backend.service;
+
+import com.cosmo.backend.dto.InitialConditionsDTO;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Memo of completed calculations, keyed by a canonical hash of the request.
+ *
+ * The key covers everything that determines the outputs: the potential expression (whitespace
+ * removed), the parameter values (sorted by name), field values and velocities, time step,
+ * kstar, cq, the metric, plus the solver source and the compiler settings. Numbers are
+ * formatted canonically so 1, 1.0 and 1.00 hash alike. Entries live on disk as
+ * {@code <cache-dir>/<key>/} (output files, program output and a manifest) and are evicted
+ * LRU once the total size exceeds the configured bound, like {@link CompileCacheService}.
+ */
+@Service
+public class ResultCacheService {
+
+    private static final Logger logger = LoggerFactory.getLogger(ResultCacheService.class);
+
+    private static final String MANIFEST = "manifest.properties";
+    private static final String PROGRAM_OUTPUT = "program-output.log";
+
+    /** Enable/disable the memo (cosmo.result-cache.enabled). */
+    @Value("${cosmo.result-cache.enabled:true}")
+    private boolean enabled;
+
+    /** Directory holding memoized results. Relative paths are resolved against the working directory. */
+    @Value("${cosmo.result-cache.dir:result-cache}")
+    private String cacheDirSetting;
+
+    /** Upper bound for the total size of memoized results in bytes (default 1 GB). */
+    @Value("${cosmo.result-cache.max-bytes:1073741824}")
+    private long maxBytes;
+
+    private Path cacheDir;
+
+    /** Entries in LRU order (eldest first); guarded by {@code this}. */
+    private final LinkedHashMap<String, Long> entrySizes = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes = 0;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * A memoized result, materialized into a new workspace.
+     */
+    public static class CachedResult {
+        private final List<String> outputFiles;
+        private final String output;
+
+        CachedResult(List<String> outputFiles, String output) {
+            this.outputFiles = outputFiles;
+            this.output = output;
+        }
+
+        public List<String> getOutputFiles() {
+            return outputFiles;
+        }
+
+        public String getOutput() {
+            return output;
+        }
+    }
+
+    /** Load the existing on-disk entries so the memo survives restarts. */
+    @PostConstruct
+    public void init() {
+        cacheDir = Paths.get(cacheDirSetting).toAbsolutePath().normalize();
+        if (!enabled) {
+            logger.info("Result cache disabled (cosmo.result-cache.enabled=false)");
+            return;
+        }
+        try {
+            Files.createDirectories(cacheDir);
+            List<Path> entries = new ArrayList<>();
+            try (java.util.stream.Stream<Path> stream = Files.list(cacheDir)) {
+                stream.filter(Files::isDirectory).forEach(entries::add);
+            }
+            entries.sort(Comparator.comparingLong(CompileCacheService::lastModifiedMillis));
+            synchronized (this) {
+                for (Path entry : entries) {
+                    if (entry.getFileName().toString().contains(".tmp-") || !Files.isRegularFile(entry.resolve(MANIFEST))) {
+                        CompileCacheService.deleteRecursively(entry);
+                        continue;
+                    }
+                    long size = CompileCacheService.directorySize(entry);
+                    entrySizes.put(entry.getFileName().toString(), size);
+                    totalBytes += size;
+                }
+                evictIfNeeded(null);
+            }
+            logger.info("🗄️  Result cache at {}: {} entr{} ({} bytes, limit {} bytes)",
+                cacheDir, entrySizes.size(), entrySizes.size() == 1 ? "y" : "ies", totalBytes, maxBytes);
+        } catch (IOException e) {
+            logger.warn("Could not initialise result cache at {}: {}. Caching disabled.", cacheDir, e.getMessage());
+            enabled = false;
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Compute the canonical key of a calculation.
+     *
+     * @param conditions The request
+     * @param parameterValues Effective parameter values (after the parameters-array fallback)
+     * @param solverSource multifix.f
+     * @param environment Settings that change the result (compiler, flags, parameter modes)
+     * @return Hex-encoded SHA-256 key
+     */
+    public String computeKey(InitialConditionsDTO conditions, Map<String, Double> parameterValues,
+                             Path solverSource, List<String> environment) throws IOException {
+        StringBuilder canonical = new StringBuilder();
+        canonical.append("expression=").append(stripWhitespace(conditions.getPotentialExpression())).append('\n');
+        canonical.append("parameters=");
+        Map<String, Double> sorted = new TreeMap<>();
+        if (parameterValues != null) {
+            parameterValues.forEach((name, value) -> sorted.put(name.trim(), value));
+        }
+        sorted.forEach((name, value) -> canonical.append(name).append(':').append(canonicalNumber(value)).append(';'));
+        canonical.append('\n');
+        canonical.append("fieldValues=").append(canonicalNumbers(conditions.getFieldValues())).append('\n');
+        canonical.append("fieldVelocities=").append(canonicalNumbers(conditions.getFieldVelocities())).append('\n');
+        canonical.append("initialTime=").append(canonicalNumber(conditions.getInitialTime())).append('\n');
+        canonical.append("timeStep=").append(canonicalNumber(conditions.getTimeStep())).append('\n');
+        canonical.append("kstar=").append(canonicalNumber(conditions.getKstar())).append('\n');
+        canonical.append("cq=").append(canonicalNumber(conditions.getCq())).append('\n');
+        canonical.append("metric=");
+        if (conditions.getMetric() != null) {
+            for (List<String> row : conditions.getMetric()) {
+                canonical.append('[');
+                if (row != null) {
+                    for (String cell : row) {
+                        canonical.append(canonicalCell(cell)).append(',');
+                    }
+                }
+                canonical.append(']');
+            }
+        }
+        canonical.append('\n');
+        for (String setting : environment) {
+            canonical.append(setting).append('\n');
+        }
+
+        MessageDigest digest = CompileCacheService.newDigest();
+        CompileCacheService.update(digest, canonical.toString());
+        if (Files.exists(solverSource)) {
+            digest.update(Files.readAllBytes(solverSource));
+        }
+        return CompileCacheService.toHex(digest.digest());
+    }
+
+    /** Whether a result is memoized under the key (no side effects on the statistics). */
+    public synchronized boolean contains(String key) {
+        return enabled && key != null && entrySizes.containsKey(key);
+    }
+
+    /**
+     * Look up a memoized result and place its files in the workspace.
+     *
+     * @return The result files on a hit, null on a miss
+     */
+    public CachedResult fetch(String key, Path workDir) {
+        if (!enabled || key == null) {
+            return null;
+        }
+        Path entryDir = cacheDir.resolve(key);
+        synchronized (this) {
+            if (!entrySizes.containsKey(key)) {
+                misses.incrementAndGet();
+                return null;
+            }
+            entrySizes.get(key); // mark as most recently used
+        }
+        try {
+            Properties manifest = new Properties();
+            try (Reader reader = Files.newBufferedReader(entryDir.resolve(MANIFEST), StandardCharsets.UTF_8)) {
+                manifest.load(reader);
+            }
+            List<String> files = new ArrayList<>();
+            String list = manifest.getProperty("files", "");
+            if (!list.isEmpty()) {
+                files.addAll(Arrays.asList(list.split("/")));
+            }
+            for (String file : files) {
+                link(entryDir.resolve(file), workDir.resolve(file));
+            }
+            Path outputFile = entryDir.resolve(PROGRAM_OUTPUT);
+            String output = Files.exists(outputFile) ? Files.readString(outputFile, StandardCharsets.UTF_8) : null;
+            Files.setLastModifiedTime(entryDir, FileTime.fromMillis(System.currentTimeMillis()));
+            hits.incrementAndGet();
+            return new CachedResult(files, output);
+        } catch (IOException e) {
+            logger.warn("Result cache entry {} unusable ({}), running the calculation", key, e.getMessage());
+            misses.incrementAndGet();
+            return null;
+        }
+    }
+
+    /**
+     * Store the outputs of a successful calculation under the given key and evict old entries if over budget.
+     *
+     * @param key Key from {@link #computeKey}
+     * @param workDir Workspace holding the output files
+     * @param outputFiles Names of the output files (relative to the workspace)
+     * @param output Program output
+     */
+    public void store(String key, Path workDir, List<String> outputFiles, String output) {
+        if (!enabled || key == null) {
+            return;
+        }
+        Path entryDir = cacheDir.resolve(key);
+        Path tmpDir = cacheDir.resolve(key + ".tmp-" + Thread.currentThread().getId());
+        try {
+            CompileCacheService.deleteRecursively(tmpDir);
+            Files.createDirectories(tmpDir);
+            List<String> stored = new ArrayList<>();
+            for (String file : outputFiles) {
+                Path source = workDir.resolve(file);
+                if (file.contains("/") || !Files.isRegularFile(source)) {
+                    continue;
+                }
+                link(source, tmpDir.resolve(file));
+                stored.add(file);
+            }
+            if (output != null) {
+                Files.writeString(tmpDir.resolve(PROGRAM_OUTPUT), output, StandardCharsets.UTF_8);
+            }
+            Properties manifest = new Properties();
+            manifest.setProperty("files", String.join("/", stored));
+            manifest.setProperty("storedAt", String.valueOf(System.currentTimeMillis()));
+            try (Writer writer = Files.newBufferedWriter(tmpDir.resolve(MANIFEST), StandardCharsets.UTF_8)) {
+                manifest.store(writer, "Memoized calculation " + key);
+            }
+            long size = CompileCacheService.directorySize(tmpDir);
+            synchronized (this) {
+                if (entrySizes.containsKey(key) && Files.isDirectory(entryDir)) {
+                    // Same calculation finished twice concurrently
+                    CompileCacheService.deleteRecursively(tmpDir);
+                    return;
+                }
+                CompileCacheService.deleteRecursively(entryDir);
+                Files.move(tmpDir, entryDir, StandardCopyOption.ATOMIC_MOVE);
+                entrySizes.put(key, size);
+                totalBytes += size;
+                evictIfNeeded(key);
+            }
+            logger.info("🗄️  Stored result in result cache: {} ({} files, {} bytes)", key.substring(0, 12), stored.size(), size);
+        } catch (IOException e) {
+            logger.warn("Could not store result in result cache: {}", e.getMessage());
+            try {
+                CompileCacheService.deleteRecursively(tmpDir);
+            } catch (IOException ignored) {
+                // best effort
+            }
+        }
+    }
+
+    /** Hit/miss counters and current size, for the stats endpoint. */
+    public synchronized Map<String, Object> getStats() {
+        Map<String, Object> stats = new HashMap<>();
+        long h = hits.get();
+        long m = misses.get();
+        stats.put("enabled", enabled);
+        stats.put("directory", String.valueOf(cacheDir));
+        stats.put("hits", h);
+        stats.put("misses", m);
+        stats.put("hitRatio", (h + m) == 0 ? 0.0 : (double) h / (h + m));
+        stats.put("evictions", evictions.get());
+        stats.put("entries", entrySizes.size());
+        stats.put("totalBytes", totalBytes);
+        stats.put("maxBytes", maxBytes);
+        return stats;
+    }
+
+    /** Evict least recently used entries until the memo fits; never evicts {@code keep}. Caller holds the lock. */
+    private void evictIfNeeded(String keep) {
+        Iterator<Map.Entry<String, Long>> it = entrySizes.entrySet().iterator();
+        while (totalBytes > maxBytes && it.hasNext()) {
+            Map.Entry<String, Long> eldest = it.next();
+            if (eldest.getKey().equals(keep)) {
+                continue;
+            }
+            try {
+                CompileCacheService.deleteRecursively(cacheDir.resolve(eldest.getKey()));
+            } catch (IOException e) {
+                logger.warn("Failed to evict result cache entry {}: {}", eldest.getKey(), e.getMessage());
+                continue;
+            }
+            totalBytes -= eldest.getValue();
+            it.remove();
+            evictions.incrementAndGet();
+            logger.info("🗑️  Evicted result cache entry {}", eldest.getKey().substring(0, Math.min(12, eldest.getKey().length())));
+        }
+    }
+
+    /** Hard-link a file (copy if links are not supported); output files are never modified in place. */
+    private static void link(Path source, Path target) throws IOException {
+        Files.deleteIfExists(target);
+        try {
+            Files.createLink(target, source);
+        } catch (IOException | UnsupportedOperationException e) {
+            Files.copy(source, target, StandardCopyOption.REPLACE_EXISTING);
+        }
+    }
+
+    private static String stripWhitespace(String value) {
+        return value == null ? "" : value.replaceAll("\\s+", "");
+    }
+
+    /** Numbers as cells of the metric are canonicalized too ("1" and "1.0" hash alike) */
+    private static String canonicalCell(String cell) {
+        String stripped = stripWhitespace(cell);
+        try {
+            return canonicalNumber(Double.parseDouble(stripped.replace('d', 'e').replace('D', 'E')));
+        } catch (NumberFormatException e) {
+            return stripped;
+        }
+    }
+
+    private static String canonicalNumbers(List<Double> values) {
+        if (values == null) {
+            return "null";
+        }
+        StringBuilder sb = new StringBuilder();
+        for (Double value : values) {
+            sb.append(canonicalNumber(value)).append(',');
+        }
+        return sb.toString();
+    }
+
+    /** Shortest round-trip representation; -0.0 and 0.0 are the same */
+    private static String canonicalNumber(Double value) {
+        if (value == null) {
+            return "null";
+        }
+        return value == 0.0 ? "0" : Double.toString(value);
+    }
+}
@@ -0,0 +1,340 @@
+package com.cosmo.backend.service;
+
+import com.cosmo.backend.dto.InitialConditionsDTO;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Slow-roll estimates of the observables at the pivot scale, computed from the potential and
+ * its derivatives in a few milliseconds (cheap enough to call on every edit of the potential).
+ *
+ * The fields follow the slow-roll attractor dx(i)/dN = -g^(ij) V_j / V from the initial field
+ * values until epsilon_V = 0.5 g^(ij) V_i V_j / V^2 reaches 1; the pivot lies N_* e-folds before
+ * that point. There the single-field formulas are applied along the adiabatic (gradient)
+ * direction: n_s = 1 - 6 epsilon_V + 2 eta_V, r = 16 epsilon_V, A_s = V / (24 pi^2 epsilon_V)
+ * (reduced Planck units), with eta_V the covariant Hessian projected on the gradient direction.
+ * Isocurvature feeding of multi-field models is not included; the full calculation gives it.
+ */
+@Service
+public class SlowRollEstimatorService {
+
+    private static final Logger logger = LoggerFactory.getLogger(SlowRollEstimatorService.class);
+
+    /** Largest slow-roll step in e-folds; steps shrink as 0.05/epsilon_V towards the end of inflation */
+    private static final double MAX_STEP = 0.5;
+
+    /** E-folds followed before giving up on the end of inflation */
+    private static final double MAX_EFOLDS = 10000;
+
+    @Autowired
+    private ExpressionService expressionService;
+
+    @Autowired
+    private MetricsService metricsService;
+
+    /**
+     * Estimate the observables N_* e-folds before the end of inflation.
+     *
+     * @param conditions Fields, potential, parameters and metric of the request
+     * @param efoldsBeforeEnd Values of N_*, e.g. 50 and 60
+     * @return The end of slow roll and the observables at each pivot
+     * @throws com.cosmo.backend.expression.ExpressionException If the potential or metric is invalid or a parameter has no value
+     */
+    public Estimate estimate(InitialConditionsDTO conditions, List<Double> efoldsBeforeEnd) {
+        long start = System.nanoTime();
+        FieldSpaceModel model = new FieldSpaceModel(expressionService, conditions);
+        int nf = model.nf;
+        Estimate estimate = new Estimate();
+
+        double[] x = new double[nf];
+        for (int i = 0; i < nf; i++) {
+            x[i] = conditions.getFieldValues().get(i);
+        }
+        double v = model.potential(x);
+        if (!(v > 0)) {
+            estimate.failure = "Potential is not positive at the initial field values (V = " + v + ")";
+            return finish(estimate, start);
+        }
+
+        // Slow-roll trajectory, kept to place the pivots afterwards
+        List<double[]> trajectory = new ArrayList<>();
+        List<Double> efolds = new ArrayList<>();
+        double n = 0;
+        double epsilon = epsilon(model, x);
+        if (Double.isNaN(epsilon)) {
+            estimate.failure = "Field-space metric is singular at the initial field values";
+            return finish(estimate, start);
+        }
+        trajectory.add(x.clone());
+        efolds.add(n);
+        while (epsilon < 1.0) {
+            if (n > MAX_EFOLDS) {
+                estimate.failure = String.format("Slow roll does not end within %.0f e-folds", MAX_EFOLDS);
+                return finish(estimate, start);
+            }
+            double h = Math.min(MAX_STEP, 0.05 / epsilon);
+            double[] next = step(model, x, h);
+            double nextEpsilon = next != null ? epsilon(model, next) : Double.NaN;
+            if (Double.isNaN(nextEpsilon)) {
+                estimate.failure = String.format("Slow-roll trajectory leaves the domain of the potential at N = %.4g", n);
+                return finish(estimate, start);
+            }
+            if (nextEpsilon >= 1.0) {
+                // End of slow roll between the two points, linear in epsilon_V
+                h *= (1.0 - epsilon) / (nextEpsilon - epsilon);
+                next = step(model, x, h);
+                nextEpsilon = 1.0;
+            }
+            x = next;
+            n += h;
+            epsilon = nextEpsilon;
+            trajectory.add(x.clone());
+            efolds.add(n);
+        }
+        estimate.nEnd = n;
+        estimate.fieldsAtEnd = x;
+
+        for (Double nStar : efoldsBeforeEnd) {
+            double nPivot = n - nStar;
+            if (nPivot < 0) {
+                estimate.failure = String.format(
+                    "Only %.4g e-folds of slow roll from the initial field values, less than N_* = %.4g", n, nStar);
+                continue;
+            }
+            // Last stored point before the pivot, then one step onto it
+            int k = 0;
+            while (k + 1 < efolds.size() && efolds.get(k + 1) <= nPivot) {
+                k++;
+            }
+            double[] pivot = nPivot > efolds.get(k) ? step(model, trajectory.get(k), nPivot - efolds.get(k))
+                : trajectory.get(k).clone();
+            estimate.pivots.add(observables(model, pivot, nStar));
+        }
+        return finish(estimate, start);
+    }
+
+    private Estimate finish(Estimate estimate, long start) {
+        estimate.elapsedNanos = System.nanoTime() - start;
+        metricsService.recordTime("cosmo_estimate_duration", "Slow-roll estimate duration", estimate.elapsedNanos);
+        logger.debug("Slow-roll estimate: N_end={}, {} pivot(s), {} in {} us", estimate.nEnd, estimate.pivots.size(),
+            estimate.failure != null ? estimate.failure : "ok", estimate.elapsedNanos / 1000);
+        return estimate;
+    }
+
+    /** dx(i)/dN = -g^(ij) V_j / V, or null where the metric is singular */
+    private static double[] velocity(FieldSpaceModel model, double[] x) {
+        double[][] inverse = invert(model.metric(x));
+        if (inverse == null) {
+            return null;
+        }
+        double[] gradient = model.gradient(x);
+        double v = model.potential(x);
+        double[] velocity = new double[model.nf];
+        for (int i = 0; i < model.nf; i++) {
+            for (int j = 0; j < model.nf; j++) {
+                velocity[i] -= inverse[i][j] * gradient[j] / v;
+            }
+        }
+        return velocity;
+    }
+
+    /** Classical Runge-Kutta step of the slow-roll flow, or null if it leaves the domain */
+    private static double[] step(FieldSpaceModel model, double[] x, double h) {
+        int nf = model.nf;
+        double[] k1 = velocity(model, x);
+        double[] k2 = k1 == null ? null : velocity(model, shifted(x, k1, 0.5 * h));
+        double[] k3 = k2 == null ? null : velocity(model, shifted(x, k2, 0.5 * h));
+        double[] k4 = k3 == null ? null : velocity(model, shifted(x, k3, h));
+        if (k4 == null) {
+            return null;
+        }
+        double[] next = new double[nf];
+        for (int i = 0; i < nf; i++) {
+            next[i] = x[i] + h / 6.0 * (k1[i] + 2 * k2[i] + 2 * k3[i] + k4[i]);
+        }
+        return next;
+    }
+
+    private static double[] shifted(double[] x, double[] direction, double h) {
+        double[] result = new double[x.length];
+        for (int i = 0; i < x.length; i++) {
+            result[i] = x[i] + h * direction[i];
+        }
+        return result;
+    }
+
+    /** epsilon_V = 0.5 g^(ij) V_i V_j / V^2; NaN outside the domain (V <= 0 or singular metric) */
+    private static double epsilon(FieldSpaceModel model, double[] x) {
+        double v = model.potential(x);
+        double[][] inverse = invert(model.metric(x));
+        if (!(v > 0) || inverse == null) {
+            return Double.NaN;
+        }
+        double[] gradient = model.gradient(x);
+        return 0.5 * quadratic(inverse, gradient, gradient) / (v * v);
+    }
+
+    private static Pivot observables(FieldSpaceModel model, double[] x, double nStar) {
+        int nf = model.nf;
+        double v = model.potential(x);
+        double[] gradient = model.gradient(x);
+        double[][] hessian = model.hessian(x);
+        double[][] inverse = invert(model.metric(x));
+        double[][][] lld = model.metricDerivatives(x);
+
+        // Covariant Hessian V_;ij = V_ij - Gamma^k_ij V_k
+        double[] raised = new double[nf];
+        for (int k = 0; k < nf; k++) {
+            for (int l = 0; l < nf; l++) {
+                raised[k] += inverse[k][l] * gradient[l];
+            }
+        }
+        if (!model.constantMetric) {
+            for (int i = 0; i < nf; i++) {
+                for (int j = 0; j < nf; j++) {
+                    // Gamma^k_ij V_k = 0.5 (g^(kl) V_k) (d_i g_lj + d_j g_li - d_l g_ij)
+                    double contraction = 0;
+                    for (int l = 0; l < nf; l++) {
+                        contraction += 0.5 * raised[l] * (lld[l][j][i] + lld[l][i][j] - lld[i][j][l]);
+                    }
+                    hessian[i][j] -= contraction;
+                }
+            }
+        }
+
+        // Adiabatic direction e^i = g^(ij) V_j / |grad V|
+        double gradientSquared = quadratic(inverse, gradient, gradient);
+        double epsilon = 0.5 * gradientSquared / (v * v);
+        double eta = quadratic(hessian, raised, raised) / gradientSquared / v;
+
+        Pivot pivot = new Pivot();
+        pivot.efoldsBeforeEnd = nStar;
+        pivot.fields = x;
+        pivot.potential = v;
+        pivot.epsilon = epsilon;
+        pivot.eta = eta;
+        pivot.spectralIndex = 1.0 - 6.0 * epsilon + 2.0 * eta;
+        pivot.tensorToScalar = 16.0 * epsilon;
+        pivot.tensorIndex = -2.0 * epsilon;
+        pivot.amplitude = v / (24.0 * Math.PI * Math.PI * epsilon);
+        pivot.hubble = Math.sqrt(v / 3.0);
+        return pivot;
+    }
+
+    private static double quadratic(double[][] matrix, double[] a, double[] b) {
+        double sum = 0;
+        for (int i = 0; i < a.length; i++) {
+            for (int j = 0; j < b.length; j++) {
+                sum += a[i] * matrix[i][j] * b[j];
+            }
+        }
+        return sum;
+    }
+
+    /** Inverse by Gauss-Jordan elimination with partial pivoting, or null if singular or not finite */
+    static double[][] invert(double[][] matrix) {
+        int n = matrix.length;
+        if (n == 1) {
+            double inverse = 1.0 / matrix[0][0];
+            return Double.isFinite(inverse) ? new double[][] {{inverse}} : null;
+        }
+        double[][] a = new double[n][];
+        double[][] inverse = new double[n][n];
+        for (int i = 0; i < n; i++) {
+            a[i] = matrix[i].clone();
+            inverse[i][i] = 1.0;
+        }
+        for (int col = 0; col < n; col++) {
+            int pivot = col;
+            for (int row = col + 1; row < n; row++) {
+                if (Math.abs(a[row][col]) > Math.abs(a[pivot][col])) {
+                    pivot = row;
+                }
+            }
+            if (!(Math.abs(a[pivot][col]) > 0) || !Double.isFinite(a[pivot][col])) {
+                return null;
+            }
+            double[] swap = a[col];
+            a[col] = a[pivot];
+            a[pivot] = swap;
+            swap = inverse[col];
+            inverse[col] = inverse[pivot];
+            inverse[pivot] = swap;
+            double scale = 1.0 / a[col][col];
+            for (int j = 0; j < n; j++) {
+                a[col][j] *= scale;
+                inverse[col][j] *= scale;
+            }
+            for (int row = 0; row < n; row++) {
+                double factor = a[row][col];
+                if (row == col || factor == 0) {
+                    continue;
+                }
+                for (int j = 0; j < n; j++) {
+                    a[row][j] -= factor * a[col][j];
+                    inverse[row][j] -= factor * inverse[col][j];
+                }
+            }
+        }
+        return inverse;
+    }
+
+    /**
+     * Slow-roll observables at one pivot
+     */
+    public static class Pivot {
+        private double efoldsBeforeEnd;
+        private double[] fields;
+        private double potential;
+        private double epsilon;
+        private double eta;
+        private double spectralIndex;
+        private double tensorToScalar;
+        private double tensorIndex;
+        private double amplitude;
+        private double hubble;
+
+        /** N_* */
+        public double getEfoldsBeforeEnd() { return efoldsBeforeEnd; }
+        /** Field values at the pivot */
+        public double[] getFields() { return fields; }
+        public double getPotential() { return potential; }
+        public double getEpsilon() { return epsilon; }
+        public double getEta() { return eta; }
+        /** n_s */
+        public double getSpectralIndex() { return spectralIndex; }
+        /** r */
+        public double getTensorToScalar() { return tensorToScalar; }
+        /** n_t */
+        public double getTensorIndex() { return tensorIndex; }
+        /** A_s of the scalar power spectrum */
+        public double getAmplitude() { return amplitude; }
+        public double getHubble() { return hubble; }
+    }
+
+    /**
+     * End of slow roll and the observables at the requested pivots
+     */
+    public static class Estimate {
+        private double nEnd = Double.NaN;
+        private double[] fieldsAtEnd;
+        private final List<Pivot> pivots = new ArrayList<>();
+        private String failure;
+        private long elapsedNanos;
+
+        /** E-folds from the initial field values to epsilon_V = 1 (NaN if slow roll does not end) */
+        public double getNEnd() { return nEnd; }
+        public double[] getFieldsAtEnd() { return fieldsAtEnd == null ? null : Arrays.copyOf(fieldsAtEnd, fieldsAtEnd.length); }
+        /** Observables for each N_* that lies on the trajectory */
+        public List<Pivot> getPivots() { return pivots; }
+        /** Why (some) estimates are missing, or null */
+        public String getFailure() { return failure; }
+        public long getElapsedNanos() { return elapsedNanos; }
+    }
+}
@@ -0,0 +1,456 @@
+package com.cosmo.backend.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.stereotype.Service;
+
+import javax.imageio.ImageIO;
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Path2D;
+import java.awt.image.BufferedImage;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Renders the power spectrum plot (P_R vs N, logarithmic y axis) in-process with Java2D,
+ * replacing the former python3/matplotlib subprocess (plot_results.py).
+ *
+ * The layout follows the old matplotlib figure: 8x5 inches at 150 dpi, teal line,
+ * dashed grid on major and minor ticks, "Power Spectrum" title. The same drawing code
+ * writes PNG (Java2D) and SVG (text), so both outputs look alike. Rendering is stateless
+ * and can run concurrently for many executions.
+ */
+@Service
+public class SpectrumPlotService {
+
+    private static final Logger logger = LoggerFactory.getLogger(SpectrumPlotService.class);
+
+    /** Image size of the old matplotlib figure (8x5 in at 150 dpi) */
+    private static final int WIDTH = 1200;
+    private static final int HEIGHT = 750;
+
+    private static final int MARGIN_LEFT = 130;
+    private static final int MARGIN_RIGHT = 40;
+    private static final int MARGIN_TOP = 70;
+    private static final int MARGIN_BOTTOM = 95;
+
+    private static final Color LINE_COLOR = new Color(0x00, 0x80, 0x80); // matplotlib 'teal'
+    private static final Color GRID_COLOR = new Color(0xb0, 0xb0, 0xb0);
+    private static final Color TEXT_COLOR = Color.BLACK;
+
+    /**
+     * Read (N, P_R) from n_prz_kmode.txt (columns 0 and 1), dropping non-positive and non-finite values.
+     * The binary twin n_prz_kmode.bin is used instead of the text when multifix wrote one.
+     */
+    public static List<double[]> readSpectrum(Path dataFile) throws IOException {
+        List<double[]> points = new ArrayList<>();
+        OutputDataService.ColumnarData binary = OutputDataService.loadBinaryTwin(dataFile);
+        if (binary != null && binary.getColumnCount() >= 2) {
+            for (int row = 0; row < binary.getRowCount(); row++) {
+                double x = binary.get(0, row);
+                double y = binary.get(1, row);
+                if (y > 0 && Double.isFinite(x) && Double.isFinite(y)) {
+                    points.add(new double[] {x, y});
+                }
+            }
+            return points;
+        }
+        try (BufferedReader reader = Files.newBufferedReader(dataFile)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] columns = line.trim().split("\\s+");
+                if (columns.length < 2) {
+                    continue;
+                }
+                try {
+                    double x = FortranExecutionService.parseFortranDouble(columns[0]);
+                    double y = FortranExecutionService.parseFortranDouble(columns[1]);
+                    if (y > 0 && Double.isFinite(x) && Double.isFinite(y)) {
+                        points.add(new double[] {x, y});
+                    }
+                } catch (NumberFormatException e) {
+                    // Not a data row
+                }
+            }
+        }
+        return points;
+    }
+
+    /**
+     * Render the spectrum as PNG. The file is written atomically (temp file + move).
+     *
+     * @param points (N, P_R) pairs, P_R &gt; 0
+     * @param outputFile Target PNG file
+     */
+    public void renderPng(List<double[]> points, Path outputFile) throws IOException {
+        BufferedImage image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+            g.setRenderingHint(RenderingHints.KEY_STROKE_CONTROL, RenderingHints.VALUE_STROKE_PURE);
+            draw(points, new Graphics2DCanvas(g));
+        } finally {
+            g.dispose();
+        }
+        Path tmp = outputFile.resolveSibling(outputFile.getFileName() + ".tmp");
+        try (OutputStream out = Files.newOutputStream(tmp)) {
+            if (!ImageIO.write(image, "png", out)) {
+                throw new IOException("No PNG writer available");
+            }
+        }
+        Files.move(tmp, outputFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        logger.debug("Rendered {} points to {}", points.size(), outputFile);
+    }
+
+    /**
+     * Render the spectrum as SVG (same layout as the PNG).
+     *
+     * @param points (N, P_R) pairs, P_R &gt; 0
+     * @param outputFile Target SVG file
+     */
+    public void renderSvg(List<double[]> points, Path outputFile) throws IOException {
+        SvgCanvas canvas = new SvgCanvas();
+        draw(points, canvas);
+        Path tmp = outputFile.resolveSibling(outputFile.getFileName() + ".tmp");
+        Files.writeString(tmp, canvas.toSvg(), StandardCharsets.UTF_8);
+        Files.move(tmp, outputFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static void draw(List<double[]> points, Canvas canvas) {
+        canvas.fillBackground(Color.WHITE);
+
+        double xMin = Double.POSITIVE_INFINITY;
+        double xMax = Double.NEGATIVE_INFINITY;
+        double yMin = Double.POSITIVE_INFINITY;
+        double yMax = Double.NEGATIVE_INFINITY;
+        for (double[] p : points) {
+            xMin = Math.min(xMin, p[0]);
+            xMax = Math.max(xMax, p[0]);
+            double ly = Math.log10(p[1]);
+            yMin = Math.min(yMin, ly);
+            yMax = Math.max(yMax, ly);
+        }
+        if (points.isEmpty()) {
+            xMin = 0;
+            xMax = 1;
+            yMin = -10;
+            yMax = -8;
+        }
+        // 5% margins like matplotlib; y in whole decades so major ticks are always labelled
+        double xPad = (xMax - xMin) > 0 ? 0.05 * (xMax - xMin) : 0.5;
+        xMin -= xPad;
+        xMax += xPad;
+        int decadeMin = (int) Math.floor(yMin);
+        int decadeMax = (int) Math.ceil(yMax);
+        if (decadeMax == decadeMin) {
+            decadeMax++;
+        }
+
+        double left = MARGIN_LEFT;
+        double right = WIDTH - MARGIN_RIGHT;
+        double top = MARGIN_TOP;
+        double bottom = HEIGHT - MARGIN_BOTTOM;
+        Axis x = new Axis(xMin, xMax, left, right);
+        Axis y = new Axis(decadeMin, decadeMax, bottom, top);
+
+        // Grid and ticks: y decades (major) and 2..9 x 10^n (minor)
+        int decadeStep = Math.max(1, (int) Math.ceil((decadeMax - decadeMin) / 10.0));
+        for (int d = decadeMin; d <= decadeMax; d++) {
+            double py = y.map(d);
+            if ((d - decadeMin) % decadeStep == 0) {
+                canvas.line(left, py, right, py, GRID_COLOR, 1.2, true);
+                canvas.line(left - 10, py, left, py, TEXT_COLOR, 1.5, false);
+                canvas.powerOfTen(left - 16, py + 8, d, 20);
+            }
+            if (d < decadeMax && decadeStep == 1) {
+                for (int m = 2; m <= 9; m++) {
+                    double pm = y.map(d + Math.log10(m));
+                    canvas.line(left, pm, right, pm, GRID_COLOR, 0.6, true);
+                    canvas.line(left - 5, pm, left, pm, TEXT_COLOR, 1.0, false);
+                }
+            }
+        }
+        double xStep = niceStep((xMax - xMin) / 7.0);
+        for (double t = Math.ceil(xMin / xStep) * xStep; t <= xMax + 1e-9 * xStep; t += xStep) {
+            double px = x.map(t);
+            canvas.line(px, top, px, bottom, GRID_COLOR, 1.2, true);
+            canvas.line(px, bottom, px, bottom + 10, TEXT_COLOR, 1.5, false);
+            canvas.text(px, bottom + 36, formatTick(t, xStep), 20, false, Anchor.MIDDLE);
+        }
+
+        // Data
+        if (!points.isEmpty()) {
+            double[] xs = new double[points.size()];
+            double[] ys = new double[points.size()];
+            for (int i = 0; i < points.size(); i++) {
+                xs[i] = x.map(points.get(i)[0]);
+                ys[i] = y.map(Math.log10(points.get(i)[1]));
+            }
+            canvas.polyline(xs, ys, LINE_COLOR, 3.0, left, top, right - left, bottom - top);
+        }
+
+        // Frame and labels
+        canvas.rect(left, top, right - left, bottom - top, TEXT_COLOR, 1.5);
+        canvas.text((left + right) / 2, top - 24, "Power Spectrum", 26, true, Anchor.MIDDLE);
+        canvas.text((left + right) / 2, HEIGHT - 22, "N(efold)", 22, true, Anchor.MIDDLE);
+        canvas.subscript(38, (top + bottom) / 2, "P", "R", 22);
+    }
+
+    /** 1, 2, 2.5 or 5 times a power of ten, at least the given raw step */
+    private static double niceStep(double raw) {
+        if (!(raw > 0) || !Double.isFinite(raw)) {
+            return 1.0;
+        }
+        double magnitude = Math.pow(10, Math.floor(Math.log10(raw)));
+        double fraction = raw / magnitude;
+        double nice = fraction <= 1 ? 1 : fraction <= 2 ? 2 : fraction <= 2.5 ? 2.5 : fraction <= 5 ? 5 : 10;
+        return nice * magnitude;
+    }
+
+    private static String formatTick(double value, double step) {
+        // Just enough decimals to show the step exactly (0.25 -> 2, 0.5 -> 1, 5 -> 0)
+        int decimals = 0;
+        while (decimals < 6) {
+            double scaled = step * Math.pow(10, decimals);
+            if (Math.abs(scaled - Math.rint(scaled)) < 1e-9 * Math.max(1.0, scaled)) {
+                break;
+            }
+            decimals++;
+        }
+        if (Math.abs(value) < step * 1e-6) {
+            value = 0.0;
+        }
+        return String.format(Locale.ROOT, "%." + decimals + "f", value);
+    }
+
+    /** Linear map from data range to pixel range */
+    private static final class Axis {
+        private final double min;
+        private final double max;
+        private final double from;
+        private final double to;
+
+        Axis(double min, double max, double from, double to) {
+            this.min = min;
+            this.max = max;
+            this.from = from;
+            this.to = to;
+        }
+
+        double map(double value) {
+            return from + (value - min) / (max - min) * (to - from);
+        }
+    }
+
+    private enum Anchor { START, MIDDLE, END }
+
+    /** Drawing operations shared by the PNG and SVG outputs */
+    private interface Canvas {
+        void fillBackground(Color color);
+        void line(double x1, double y1, double x2, double y2, Color color, double width, boolean dashed);
+        void rect(double x, double y, double w, double h, Color color, double width);
+        void polyline(double[] xs, double[] ys, Color color, double width, double clipX, double clipY, double clipW, double clipH);
+        void text(double x, double y, String text, int size, boolean bold, Anchor anchor);
+        /** "10" with a superscript exponent, right-aligned at x */
+        void powerOfTen(double x, double y, int exponent, int size);
+        /** Base text with a subscript, rotated vertically, centred at (x, y) */
+        void subscript(double x, double y, String base, String sub, int size);
+    }
+
+    private static final class Graphics2DCanvas implements Canvas {
+        private static final float[] DASH = {6f, 4f};
+        private final Graphics2D g;
+
+        Graphics2DCanvas(Graphics2D g) {
+            this.g = g;
+        }
+
+        @Override
+        public void fillBackground(Color color) {
+            g.setColor(color);
+            g.fillRect(0, 0, WIDTH, HEIGHT);
+        }
+
+        @Override
+        public void line(double x1, double y1, double x2, double y2, Color color, double width, boolean dashed) {
+            g.setColor(color);
+            g.setStroke(dashed
+                ? new BasicStroke((float) width, BasicStroke.CAP_BUTT, BasicStroke.JOIN_MITER, 10f, DASH, 0f)
+                : new BasicStroke((float) width));
+            g.draw(new java.awt.geom.Line2D.Double(x1, y1, x2, y2));
+        }
+
+        @Override
+        public void rect(double x, double y, double w, double h, Color color, double width) {
+            g.setColor(color);
+            g.setStroke(new BasicStroke((float) width));
+            g.draw(new java.awt.geom.Rectangle2D.Double(x, y, w, h));
+        }
+
+        @Override
+        public void polyline(double[] xs, double[] ys, Color color, double width,
+                             double clipX, double clipY, double clipW, double clipH) {
+            Path2D.Double path = new Path2D.Double();
+            path.moveTo(xs[0], ys[0]);
+            for (int i = 1; i < xs.length; i++) {
+                path.lineTo(xs[i], ys[i]);
+            }
+            java.awt.Shape oldClip = g.getClip();
+            g.clip(new java.awt.geom.Rectangle2D.Double(clipX, clipY, clipW, clipH));
+            g.setColor(color);
+            g.setStroke(new BasicStroke((float) width, BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+            g.draw(path);
+            g.setClip(oldClip);
+        }
+
+        @Override
+        public void text(double x, double y, String text, int size, boolean bold, Anchor anchor) {
+            g.setColor(TEXT_COLOR);
+            g.setFont(new Font(Font.SANS_SERIF, bold ? Font.BOLD : Font.PLAIN, size));
+            FontMetrics metrics = g.getFontMetrics();
+            int width = metrics.stringWidth(text);
+            double dx = anchor == Anchor.START ? 0 : anchor == Anchor.MIDDLE ? -width / 2.0 : -width;
+            g.drawString(text, (float) (x + dx), (float) y);
+        }
+
+        @Override
+        public void powerOfTen(double x, double y, int exponent, int size) {
+            g.setColor(TEXT_COLOR);
+            Font base = new Font(Font.SANS_SERIF, Font.PLAIN, size);
+            Font sup = new Font(Font.SANS_SERIF, Font.PLAIN, (int) Math.round(size * 0.7));
+            String exp = Integer.toString(exponent).replace('-', '−');
+            int baseWidth = g.getFontMetrics(base).stringWidth("10");
+            int expWidth = g.getFontMetrics(sup).stringWidth(exp);
+            double start = x - baseWidth - expWidth;
+            g.setFont(base);
+            g.drawString("10", (float) start, (float) y);
+            g.setFont(sup);
+            g.drawString(exp, (float) (start + baseWidth), (float) (y - size * 0.45));
+        }
+
+        @Override
+        public void subscript(double x, double y, String base, String sub, int size) {
+            AffineTransform old = g.getTransform();
+            g.translate(x, y);
+            g.rotate(-Math.PI / 2);
+            Font baseFont = new Font(Font.SANS_SERIF, Font.BOLD | Font.ITALIC, size);
+            Font subFont = new Font(Font.SANS_SERIF, Font.BOLD | Font.ITALIC, (int) Math.round(size * 0.7));
+            int baseWidth = g.getFontMetrics(baseFont).stringWidth(base);
+            int subWidth = g.getFontMetrics(subFont).stringWidth(sub);
+            double start = -(baseWidth + subWidth) / 2.0;
+            g.setColor(TEXT_COLOR);
+            g.setFont(baseFont);
+            g.drawString(base, (float) start, 0f);
+            g.setFont(subFont);
+            g.drawString(sub, (float) (start + baseWidth), (float) (size * 0.25));
+            g.setTransform(old);
+        }
+    }
+
+    private static final class SvgCanvas implements Canvas {
+        private final StringBuilder body = new StringBuilder();
+
+        String toSvg() {
+            return "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<svg xmlns=\"http://www.w3.org/2000/svg\" width=\"" + WIDTH + "\" height=\"" + HEIGHT
+                + "\" viewBox=\"0 0 " + WIDTH + " " + HEIGHT + "\" font-family=\"sans-serif\">\n"
+                + "<defs><clipPath id=\"plot-area\"><rect x=\"" + MARGIN_LEFT + "\" y=\"" + MARGIN_TOP
+                + "\" width=\"" + (WIDTH - MARGIN_LEFT - MARGIN_RIGHT) + "\" height=\""
+                + (HEIGHT - MARGIN_TOP - MARGIN_BOTTOM) + "\"/></clipPath></defs>\n"
+                + body + "</svg>\n";
+        }
+
+        @Override
+        public void fillBackground(Color color) {
+            body.append("<rect width=\"100%\" height=\"100%\" fill=\"").append(hex(color)).append("\"/>\n");
+        }
+
+        @Override
+        public void line(double x1, double y1, double x2, double y2, Color color, double width, boolean dashed) {
+            body.append("<line x1=\"").append(f(x1)).append("\" y1=\"").append(f(y1))
+                .append("\" x2=\"").append(f(x2)).append("\" y2=\"").append(f(y2))
+                .append("\" stroke=\"").append(hex(color)).append("\" stroke-width=\"").append(f(width)).append('"');
+            if (dashed) {
+                body.append(" stroke-dasharray=\"6 4\"");
+            }
+            body.append("/>\n");
+        }
+
+        @Override
+        public void rect(double x, double y, double w, double h, Color color, double width) {
+            body.append("<rect x=\"").append(f(x)).append("\" y=\"").append(f(y))
+                .append("\" width=\"").append(f(w)).append("\" height=\"").append(f(h))
+                .append("\" fill=\"none\" stroke=\"").append(hex(color))
+                .append("\" stroke-width=\"").append(f(width)).append("\"/>\n");
+        }
+
+        @Override
+        public void polyline(double[] xs, double[] ys, Color color, double width,
+                             double clipX, double clipY, double clipW, double clipH) {
+            body.append("<polyline clip-path=\"url(#plot-area)\" fill=\"none\" stroke=\"").append(hex(color))
+                .append("\" stroke-width=\"").append(f(width))
+                .append("\" stroke-linejoin=\"round\" stroke-linecap=\"round\" points=\"");
+            for (int i = 0; i < xs.length; i++) {
+                if (i > 0) {
+                    body.append(' ');
+                }
+                body.append(f(xs[i])).append(',').append(f(ys[i]));
+            }
+            body.append("\"/>\n");
+        }
+
+        @Override
+        public void text(double x, double y, String text, int size, boolean bold, Anchor anchor) {
+            body.append("<text x=\"").append(f(x)).append("\" y=\"").append(f(y))
+                .append("\" font-size=\"").append(size).append('"')
+                .append(bold ? " font-weight=\"bold\"" : "")
+                .append(" text-anchor=\"").append(anchor.name().toLowerCase(Locale.ROOT)).append('"')
+                .append('>').append(escape(text)).append("</text>\n");
+        }
+
+        @Override
+        public void powerOfTen(double x, double y, int exponent, int size) {
+            body.append("<text x=\"").append(f(x)).append("\" y=\"").append(f(y))
+                .append("\" font-size=\"").append(size).append("\" text-anchor=\"end\">10<tspan dy=\"")
+                .append(f(-size * 0.45)).append("\" font-size=\"").append(Math.round(size * 0.7)).append("\">")
+                .append(Integer.toString(exponent).replace("-", "−")).append("</tspan></text>\n");
+        }
+
+        @Override
+        public void subscript(double x, double y, String base, String sub, int size) {
+            body.append("<text x=\"").append(f(x)).append("\" y=\"").append(f(y))
+                .append("\" font-size=\"").append(size)
+                .append("\" font-weight=\"bold\" font-style=\"italic\" text-anchor=\"middle\" transform=\"rotate(-90 ")
+                .append(f(x)).append(' ').append(f(y)).append(")\">").append(escape(base))
+                .append("<tspan dy=\"").append(f(size * 0.25)).append("\" font-size=\"")
+                .append(Math.round(size * 0.7)).append("\">").append(escape(sub)).append("</tspan></text>\n");
+        }
+
+        private static String f(double value) {
+            return String.format(Locale.ROOT, "%.2f", value);
+        }
+
+        private static String hex(Color color) {
+            return String.format("#%02x%02x%02x", color.getRed(), color.getGreen(), color.getBlue());
+        }
+
+        private static String escape(String text) {
+            return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+        }
+    }
+}
@@ -0,0 +1,270 @@
+package com.cosmo.backend.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Live power spectrum while the Fortran program is running.
+ *
+ * multifix appends the raw P_R of every finished k mode to kmode_progress.txt (one file
+ * per process, flushed per mode). This service tails those files, normalises the rows the
+ * same way the final spectrum is normalised (by the k=2 mode, to norma_back) and pushes
+ * the new (N, P_R, k) rows to SSE subscribers. Late subscribers get all rows so far.
+ *
+ * The streamed rows are a preview: the final n_prz_kmode.txt (sent with the result) only
+ * contains the modes up to timestep2-100.
+ */
+@Service
+public class SpectrumStreamService {
+
+    private static final Logger logger = LoggerFactory.getLogger(SpectrumStreamService.class);
+
+    /** Name of the per-process progress file written by multifix.f */
+    public static final String PROGRESS_FILE = "kmode_progress.txt";
+
+    /** Maximum lifetime of one SSE connection (ms) */
+    @Value("${cosmo.events.emitter-timeout-ms:1800000}")
+    private long emitterTimeoutMs;
+
+    /** Finished streams are dropped after this long (minutes) */
+    @Value("${cosmo.events.retention-minutes:60}")
+    private long retentionMinutes;
+
+    private final Map<String, Stream> streams = new ConcurrentHashMap<>();
+
+    /**
+     * Start tailing the progress files of an execution.
+     *
+     * @param executionId The execution ID
+     * @param progressFiles kmode_progress.txt of every process of the execution
+     */
+    public void start(String executionId, List<Path> progressFiles) {
+        Stream stream = new Stream();
+        for (Path file : progressFiles) {
+            stream.files.add(new TailedFile(file));
+        }
+        streams.put(executionId, stream);
+    }
+
+    /**
+     * Read what is left in the files and complete all subscribers.
+     */
+    public void finish(String executionId) {
+        Stream stream = executionId != null ? streams.get(executionId) : null;
+        if (stream == null) {
+            return;
+        }
+        poll(stream);
+        synchronized (stream) {
+            stream.finished = true;
+            stream.finishedAt = System.currentTimeMillis();
+        }
+        for (SseEmitter emitter : stream.emitters) {
+            try {
+                emitter.send(SseEmitter.event().name("done").data(Map.of("rows", stream.rowCount())));
+                emitter.complete();
+            } catch (IOException | IllegalStateException e) {
+                emitter.completeWithError(e);
+            }
+        }
+        stream.emitters.clear();
+    }
+
+    /**
+     * Subscribe to the spectrum rows of an execution: all rows so far are sent immediately
+     * (event "rows"), then new rows as they are written, then "done".
+     *
+     * @return The emitter, or null if the execution is unknown
+     */
+    public SseEmitter subscribe(String executionId) {
+        Stream stream = executionId != null ? streams.get(executionId) : null;
+        if (stream == null) {
+            return null;
+        }
+        SseEmitter emitter = new SseEmitter(emitterTimeoutMs);
+        List<double[]> snapshot;
+        boolean finished;
+        synchronized (stream) {
+            snapshot = new ArrayList<>(stream.rows);
+            finished = stream.finished;
+            if (!finished) {
+                stream.emitters.add(emitter);
+            }
+        }
+        emitter.onCompletion(() -> stream.emitters.remove(emitter));
+        emitter.onTimeout(() -> {
+            stream.emitters.remove(emitter);
+            emitter.complete();
+        });
+        emitter.onError(e -> stream.emitters.remove(emitter));
+        try {
+            if (!snapshot.isEmpty()) {
+                emitter.send(SseEmitter.event().name("rows").data(Map.of("rows", snapshot)));
+            }
+            if (finished) {
+                emitter.send(SseEmitter.event().name("done").data(Map.of("rows", snapshot.size())));
+                emitter.complete();
+            }
+        } catch (IOException | IllegalStateException e) {
+            stream.emitters.remove(emitter);
+            emitter.completeWithError(e);
+        }
+        return emitter;
+    }
+
+    /**
+     * Tail the progress files of all running executions and push new rows.
+     */
+    @Scheduled(fixedDelayString = "${cosmo.spectrum-stream.poll-ms:250}")
+    public void pollAll() {
+        long cutoff = System.currentTimeMillis() - retentionMinutes * 60_000L;
+        streams.entrySet().removeIf(entry -> entry.getValue().finished && entry.getValue().finishedAt < cutoff);
+        for (Stream stream : streams.values()) {
+            if (!stream.finished) {
+                poll(stream);
+            }
+        }
+    }
+
+    private void poll(Stream stream) {
+        List<double[]> fresh = new ArrayList<>();
+        synchronized (stream) {
+            if (stream.finished) {
+                return;
+            }
+            for (TailedFile file : stream.files) {
+                for (String line : file.readNewLines()) {
+                    String[] columns = line.trim().split("\\s+");
+                    if (!file.headerRead) {
+                        // First line: norma_back
+                        file.headerRead = true;
+                        try {
+                            stream.normaBack = FortranExecutionService.parseFortranDouble(columns[0]);
+                        } catch (NumberFormatException e) {
+                            logger.debug("Unreadable progress header '{}', keeping {}", line, stream.normaBack);
+                        }
+                        continue;
+                    }
+                    if (columns.length < 4) {
+                        continue;
+                    }
+                    double k;
+                    double[] raw;
+                    try {
+                        k = FortranExecutionService.parseFortranDouble(columns[0]);
+                        raw = new double[] {FortranExecutionService.parseFortranDouble(columns[1]),
+                            FortranExecutionService.parseFortranDouble(columns[2]),
+                            FortranExecutionService.parseFortranDouble(columns[3])};
+                    } catch (NumberFormatException e) {
+                        continue;
+                    }
+                    if (Double.isNaN(k) || Double.isNaN(raw[1])) {
+                        continue;
+                    }
+                    if ((int) k == 2) {
+                        stream.norma = raw[1];
+                    }
+                    stream.pending.add(raw);
+                }
+            }
+            // Rows can only be normalised once the k=2 mode is known
+            if (stream.norma != 0.0 && !Double.isNaN(stream.norma) && !stream.pending.isEmpty()) {
+                double factor = stream.normaBack / stream.norma;
+                for (double[] raw : stream.pending) {
+                    fresh.add(new double[] {raw[0], raw[1] * factor, raw[2]});
+                }
+                stream.pending.clear();
+                stream.rows.addAll(fresh);
+            }
+        }
+        if (fresh.isEmpty()) {
+            return;
+        }
+        for (SseEmitter emitter : stream.emitters) {
+            try {
+                emitter.send(SseEmitter.event().name("rows").data(Map.of("rows", fresh)));
+            } catch (IOException | IllegalStateException e) {
+                logger.debug("Dropping spectrum subscriber: {}", e.getMessage());
+                stream.emitters.remove(emitter);
+                emitter.completeWithError(e);
+            }
+        }
+    }
+
+    /** Rows and subscribers of one execution. Fields guarded by the instance lock. */
+    private static class Stream {
+        private final List<TailedFile> files = new ArrayList<>();
+        private final List<double[]> rows = new ArrayList<>();
+        private final List<double[]> pending = new ArrayList<>();
+        private final List<SseEmitter> emitters = new CopyOnWriteArrayList<>();
+        private double normaBack = 1.8e-9;
+        private double norma = 0.0;
+        private volatile boolean finished;
+        private volatile long finishedAt;
+
+        private synchronized int rowCount() {
+            return rows.size();
+        }
+    }
+
+    /** A file read incrementally; only complete lines are returned. */
+    private static class TailedFile {
+        private final Path path;
+        private long offset;
+        private final StringBuilder partial = new StringBuilder();
+        private boolean headerRead;
+
+        TailedFile(Path path) {
+            this.path = path;
+        }
+
+        List<String> readNewLines() {
+            List<String> lines = new ArrayList<>();
+            if (!Files.exists(path)) {
+                return lines;
+            }
+            try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "r")) {
+                long length = file.length();
+                if (length < offset) {
+                    // File was recreated
+                    offset = 0;
+                    partial.setLength(0);
+                }
+                if (length == offset) {
+                    return lines;
+                }
+                byte[] buffer = new byte[(int) Math.min(length - offset, 1 << 20)];
+                file.seek(offset);
+                file.readFully(buffer);
+                offset += buffer.length;
+                partial.append(new String(buffer, StandardCharsets.US_ASCII));
+            } catch (IOException e) {
+                return lines;
+            }
+            int newline;
+            while ((newline = partial.indexOf("\n")) >= 0) {
+                String line = partial.substring(0, newline).trim();
+                partial.delete(0, newline + 1);
+                if (!line.isEmpty()) {
+                    lines.add(line);
+                }
+            }
+            return lines;
+        }
+    }
+}
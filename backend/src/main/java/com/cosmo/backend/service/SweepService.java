@@ -0,0 +1,722 @@
+package com.cosmo.backend.service;
+
+import com.cosmo.backend.dto.InitialConditionsDTO;
+import com.cosmo.backend.dto.SweepRequestDTO;
+import com.cosmo.backend.dto.SweepRequestDTO.SweepAxis;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Parameter sweeps: one base calculation evaluated over many points.
+ *
+ * The points are generated from the sweep axes (Cartesian grid, zipped lists, random or
+ * Latin-hypercube samples) and scheduled on the JobScheduler with a bounded number in
+ * flight. The first point runs alone so that its compiled executable lands in the compile
+ * cache before the others start; with runtime parameters the remaining points then reuse it.
+ *
+ * Each finished point contributes one row to the sweep's result table: the axis values plus
+ * summary observables read from information.txt and the peak of n_prz_kmode.txt.
+ */
+@Service
+public class SweepService {
+
+    private static final Logger logger = LoggerFactory.getLogger(SweepService.class);
+
+    private static final Pattern FIELD_TARGET_PATTERN = Pattern.compile("(fieldValues|fieldVelocities)\\[(\\d+)\\]");
+    private static final Pattern PARAMETER_TARGET_PATTERN = Pattern.compile("[A-Za-z][A-Za-z0-9_]*");
+
+    /** Upper bound for the number of points in one sweep */
+    @Value("${cosmo.sweep.max-points:1000}")
+    private int maxPoints;
+
+    /** Upper bound for the points of one sweep running at the same time */
+    @Value("${cosmo.sweep.max-concurrency:2}")
+    private int maxConcurrency;
+
+    /** Finished sweeps kept for status queries (oldest removed first) */
+    @Value("${cosmo.sweep.max-retained:50}")
+    private int maxRetained;
+
+    @Autowired
+    private FortranExecutionService fortranExecutionService;
+
+    @Autowired
+    private ExecutionWorkspaceService executionWorkspaceService;
+
+    @Autowired
+    private ExecutionEventService executionEventService;
+
+    @Autowired
+    private JobScheduler jobScheduler;
+
+    private final Map<String, Sweep> sweeps = new ConcurrentHashMap<>();
+
+    /**
+     * Validate the request, generate the points and start executing them.
+     *
+     * @param request Base conditions and sweep axes
+     * @return The started sweep
+     * @throws IllegalArgumentException If the request is invalid
+     */
+    public Sweep startSweep(SweepRequestDTO request) {
+        InitialConditionsDTO base = request.getBase();
+        List<SweepAxis> axes = request.getAxes();
+        if (base == null) {
+            throw new IllegalArgumentException("base is required");
+        }
+        if (axes == null || axes.isEmpty()) {
+            throw new IllegalArgumentException("at least one sweep axis is required");
+        }
+        for (SweepAxis axis : axes) {
+            validateTarget(axis.getTarget(), base);
+        }
+
+        String mode = request.getMode() != null ? request.getMode().trim().toLowerCase(Locale.ROOT) : "grid";
+        List<double[]> points = generatePoints(axes, mode, request.getSamples(), request.getSeed(), maxPoints);
+        if (points.isEmpty()) {
+            throw new IllegalArgumentException("sweep has no points");
+        }
+
+        int concurrency = request.getConcurrency() != null ? request.getConcurrency() : maxConcurrency;
+        concurrency = Math.max(1, Math.min(concurrency, maxConcurrency));
+
+        List<String> targets = new ArrayList<>();
+        for (SweepAxis axis : axes) {
+            targets.add(axis.getTarget().trim());
+        }
+
+        pruneFinishedSweeps();
+        Sweep sweep = new Sweep(UUID.randomUUID().toString(), mode, targets, base, points, concurrency);
+        sweeps.put(sweep.id, sweep);
+        logger.info("🧹 Starting sweep {}: {} point(s), mode {}, concurrency {}", sweep.id, points.size(), mode, concurrency);
+        fillSlots(sweep);
+        return sweep;
+    }
+
+    public Sweep getSweep(String sweepId) {
+        return sweepId != null ? sweeps.get(sweepId) : null;
+    }
+
+    /**
+     * Cancel a sweep: pending points are not started, running points are killed.
+     *
+     * @return false if the sweep does not exist or already finished
+     */
+    public boolean cancelSweep(String sweepId) {
+        Sweep sweep = getSweep(sweepId);
+        if (sweep == null) {
+            return false;
+        }
+        List<String> running = new ArrayList<>();
+        synchronized (sweep) {
+            if (sweep.isFinished()) {
+                return false;
+            }
+            sweep.cancelled = true;
+            for (PointResult point : sweep.rows) {
+                if ("pending".equals(point.status)) {
+                    point.status = "cancelled";
+                    sweep.finishedCount++;
+                } else if ("running".equals(point.status) && point.executionId != null) {
+                    running.add(point.executionId);
+                }
+            }
+            sweep.updateFinishTime();
+        }
+        for (String executionId : running) {
+            if (!jobScheduler.cancel(executionId)) {
+                fortranExecutionService.cancelExecution(executionId);
+            }
+        }
+        logger.info("Sweep {} cancelled ({} running point(s) stopped)", sweepId, running.size());
+        return true;
+    }
+
+    /** Whether a target names a potential parameter (as opposed to a field, velocity or integration setting) */
+    public static boolean isParameterTarget(String target) {
+        if (target == null) {
+            return false;
+        }
+        String t = target.trim();
+        return PARAMETER_TARGET_PATTERN.matcher(t).matches()
+            && !"timeStep".equalsIgnoreCase(t) && !"kstar".equalsIgnoreCase(t) && !"cq".equalsIgnoreCase(t);
+    }
+
+    private static void validateTarget(String target, InitialConditionsDTO base) {
+        if (target == null || target.trim().isEmpty()) {
+            throw new IllegalArgumentException("sweep axis target is required");
+        }
+        String t = target.trim();
+        Matcher matcher = FIELD_TARGET_PATTERN.matcher(t);
+        if (matcher.matches()) {
+            List<Double> list = "fieldValues".equals(matcher.group(1)) ? base.getFieldValues() : base.getFieldVelocities();
+            int index = Integer.parseInt(matcher.group(2));
+            if (list == null || index >= list.size()) {
+                throw new IllegalArgumentException("sweep axis target out of range: " + t);
+            }
+            return;
+        }
+        if (!PARAMETER_TARGET_PATTERN.matcher(t).matches()) {
+            throw new IllegalArgumentException("invalid sweep axis target: " + t);
+        }
+    }
+
+    /**
+     * Generate the sweep points; each point holds one value per axis.
+     *
+     * @param maxPoints Largest number of points accepted; checked before any point is generated
+     * @throws IllegalArgumentException If the axes are invalid or there would be more than maxPoints points
+     */
+    static List<double[]> generatePoints(List<SweepAxis> axes, String mode, Integer samples, Long seed, int maxPoints) {
+        int dims = axes.size();
+        List<double[]> points = new ArrayList<>();
+        switch (mode) {
+            case "grid": {
+                long total = 1;
+                for (SweepAxis axis : axes) {
+                    total *= axisSize(axis);
+                    if (total > maxPoints) {
+                        throw new IllegalArgumentException("sweep has more than " + maxPoints + " points");
+                    }
+                }
+                List<List<Double>> values = new ArrayList<>();
+                for (SweepAxis axis : axes) {
+                    values.add(axisValues(axis));
+                }
+                int[] counter = new int[dims];
+                for (long n = 0; n < total; n++) {
+                    double[] point = new double[dims];
+                    for (int d = 0; d < dims; d++) {
+                        point[d] = values.get(d).get(counter[d]);
+                    }
+                    points.add(point);
+                    // Last axis varies fastest
+                    for (int d = dims - 1; d >= 0; d--) {
+                        if (++counter[d] < values.get(d).size()) {
+                            break;
+                        }
+                        counter[d] = 0;
+                    }
+                }
+                break;
+            }
+            case "list": {
+                int length = axisSize(axes.get(0));
+                for (SweepAxis axis : axes) {
+                    if (axisSize(axis) != length) {
+                        throw new IllegalArgumentException("list mode requires all axes to have the same number of values");
+                    }
+                }
+                requireAtMost(length, maxPoints);
+                List<List<Double>> values = new ArrayList<>();
+                for (SweepAxis axis : axes) {
+                    values.add(axisValues(axis));
+                }
+                for (int n = 0; n < length; n++) {
+                    double[] point = new double[dims];
+                    for (int d = 0; d < dims; d++) {
+                        point[d] = values.get(d).get(n);
+                    }
+                    points.add(point);
+                }
+                break;
+            }
+            case "random":
+            case "lhs": {
+                if (samples == null || samples <= 0) {
+                    throw new IllegalArgumentException(mode + " mode requires samples > 0");
+                }
+                requireAtMost(samples, maxPoints);
+                for (SweepAxis axis : axes) {
+                    requireRange(axis);
+                }
+                Random random = seed != null ? new Random(seed) : new Random();
+                double[][] unit = new double[samples][dims];
+                for (int d = 0; d < dims; d++) {
+                    if ("lhs".equals(mode)) {
+                        // One sample per stratum, strata shuffled independently per axis
+                        int[] strata = new int[samples];
+                        for (int i = 0; i < samples; i++) {
+                            strata[i] = i;
+                        }
+                        for (int i = samples - 1; i > 0; i--) {
+                            int j = random.nextInt(i + 1);
+                            int tmp = strata[i];
+                            strata[i] = strata[j];
+                            strata[j] = tmp;
+                        }
+                        for (int i = 0; i < samples; i++) {
+                            unit[i][d] = (strata[i] + random.nextDouble()) / samples;
+                        }
+                    } else {
+                        for (int i = 0; i < samples; i++) {
+                            unit[i][d] = random.nextDouble();
+                        }
+                    }
+                }
+                for (int i = 0; i < samples; i++) {
+                    double[] point = new double[dims];
+                    for (int d = 0; d < dims; d++) {
+                        point[d] = scale(axes.get(d), unit[i][d]);
+                    }
+                    points.add(point);
+                }
+                break;
+            }
+            default:
+                throw new IllegalArgumentException("unknown sweep mode: " + mode + " (grid, list, random, lhs)");
+        }
+        return points;
+    }
+
+    private static void requireAtMost(long points, int maxPoints) {
+        if (points > maxPoints) {
+            throw new IllegalArgumentException("sweep has " + points + " points, maximum is " + maxPoints);
+        }
+    }
+
+    /** Number of values of the axis (explicit values or steps), validated without generating them */
+    private static int axisSize(SweepAxis axis) {
+        if (axis.getValues() != null && !axis.getValues().isEmpty()) {
+            for (Double value : axis.getValues()) {
+                if (value == null || !Double.isFinite(value)) {
+                    throw new IllegalArgumentException("invalid value for sweep axis " + axis.getTarget());
+                }
+            }
+            return axis.getValues().size();
+        }
+        requireRange(axis);
+        int steps = axis.getSteps() != null ? axis.getSteps() : 0;
+        if (steps < 1) {
+            throw new IllegalArgumentException("sweep axis " + axis.getTarget() + " needs values or min/max/steps");
+        }
+        return steps;
+    }
+
+    /** Explicit values, or steps points spanning [min, max] (linear or logarithmic) */
+    private static List<Double> axisValues(SweepAxis axis) {
+        int steps = axisSize(axis);
+        if (axis.getValues() != null && !axis.getValues().isEmpty()) {
+            return axis.getValues();
+        }
+        List<Double> values = new ArrayList<>(steps);
+        for (int i = 0; i < steps; i++) {
+            values.add(scale(axis, steps == 1 ? 0.0 : (double) i / (steps - 1)));
+        }
+        return values;
+    }
+
+    private static void requireRange(SweepAxis axis) {
+        if (axis.getMin() == null || axis.getMax() == null
+                || !Double.isFinite(axis.getMin()) || !Double.isFinite(axis.getMax())) {
+            throw new IllegalArgumentException("sweep axis " + axis.getTarget() + " needs min and max");
+        }
+        if (axis.isLogScale() && (axis.getMin() <= 0 || axis.getMax() <= 0)) {
+            throw new IllegalArgumentException("log-scale sweep axis " + axis.getTarget() + " needs positive min and max");
+        }
+    }
+
+    /** Map u in [0, 1] onto the axis range */
+    private static double scale(SweepAxis axis, double u) {
+        double min = axis.getMin();
+        double max = axis.getMax();
+        if (axis.isLogScale()) {
+            return Math.exp(Math.log(min) + u * (Math.log(max) - Math.log(min)));
+        }
+        return min + u * (max - min);
+    }
+
+    /**
+     * Start points until the sweep's concurrency is reached. Only one point runs until the
+     * first one finished, so the executable is compiled once and then served from the cache.
+     */
+    private void fillSlots(Sweep sweep) {
+        List<PointResult> toStart = new ArrayList<>();
+        synchronized (sweep) {
+            int limit = sweep.warmedUp ? sweep.concurrency : 1;
+            while (!sweep.cancelled && sweep.runningCount < limit && sweep.nextIndex < sweep.rows.size()) {
+                PointResult point = sweep.rows.get(sweep.nextIndex++);
+                if (!"pending".equals(point.status)) {
+                    continue;
+                }
+                point.status = "running";
+                point.executionId = UUID.randomUUID().toString();
+                point.startedAt = System.currentTimeMillis();
+                sweep.runningCount++;
+                toStart.add(point);
+            }
+        }
+        for (PointResult point : toStart) {
+            // Each sweep is its own fair-share client, so it cannot starve interactive runs;
+            // it is not subject to the queue limit since it bounds its own concurrency
+            jobScheduler.submitAsync(point.executionId, "sweep:" + sweep.id, false, () -> runPoint(sweep, point))
+                .whenComplete((result, error) -> onPointFinished(sweep, point, result, error));
+        }
+    }
+
+    private CompletableFuture<FortranExecutionService.FortranExecutionResult> runPoint(Sweep sweep, PointResult point) {
+        if (sweep.cancelled) {
+            return CompletableFuture.completedFuture(new FortranExecutionService.FortranExecutionResult(
+                point.executionId, false, "Sweep cancelled", null, null));
+        }
+        InitialConditionsDTO conditions = applyPoint(sweep.base, sweep.targets, sweep.points.get(point.index));
+        return fortranExecutionService.executeFortranAsync(conditions, point.executionId);
+    }
+
+    private void onPointFinished(Sweep sweep, PointResult point,
+                                 FortranExecutionService.FortranExecutionResult result, Throwable error) {
+        Map<String, Double> summary = null;
+        if (error == null && result != null && result.isSuccess()) {
+            Path workspace = executionWorkspaceService.getWorkspace(point.executionId);
+            if (workspace != null) {
+                summary = readSummary(workspace);
+            }
+        }
+        synchronized (sweep) {
+            point.durationMs = point.startedAt > 0 ? System.currentTimeMillis() - point.startedAt : 0;
+            if (sweep.cancelled && (error != null || result == null || !result.isSuccess())) {
+                point.status = "cancelled";
+            } else if (error != null) {
+                point.status = "failed";
+                point.message = error.getMessage();
+            } else {
+                point.status = result != null && result.isSuccess() ? "completed" : "failed";
+                point.message = result != null ? result.getMessage() : null;
+            }
+            if (summary != null) {
+                point.summary = summary;
+            }
+            if (point.executionId != null) {
+                String state = "completed".equals(point.status) ? ExecutionEventService.COMPLETED
+                    : "cancelled".equals(point.status) ? ExecutionEventService.CANCELLED : ExecutionEventService.FAILED;
+                executionEventService.publishResult(point.executionId, state);
+            }
+            sweep.runningCount--;
+            sweep.finishedCount++;
+            sweep.warmedUp = true;
+            sweep.updateFinishTime();
+        }
+        if (sweep.isFinished()) {
+            logger.info("🧹 Sweep {} finished: {} completed, {} failed, {} cancelled", sweep.id,
+                sweep.countStatus("completed"), sweep.countStatus("failed"), sweep.countStatus("cancelled"));
+        }
+        fillSlots(sweep);
+    }
+
+    /** Copy of the base conditions with the point's values applied */
+    private static InitialConditionsDTO applyPoint(InitialConditionsDTO base, List<String> targets, double[] values) {
+        InitialConditionsDTO copy = new InitialConditionsDTO();
+        copy.setFieldValues(base.getFieldValues() != null ? new ArrayList<>(base.getFieldValues()) : null);
+        copy.setFieldVelocities(base.getFieldVelocities() != null ? new ArrayList<>(base.getFieldVelocities()) : null);
+        copy.setInitialTime(base.getInitialTime());
+        copy.setTimeStep(base.getTimeStep());
+        copy.setKstar(base.getKstar());
+        copy.setCq(base.getCq());
+        copy.setPotentialType(base.getPotentialType());
+        copy.setPotentialParameters(base.getPotentialParameters());
+        copy.setPotentialExpression(base.getPotentialExpression());
+        copy.setMetric(base.getMetric());
+        copy.setParameters(base.getParameters());
+        copy.setBypassCache(base.getBypassCache());
+        copy.setEngine(base.getEngine());
+        copy.setBuildProfile(base.getBuildProfile());
+
+        Map<String, Double> parameterValues = base.getParameterValues();
+        if ((parameterValues == null || parameterValues.isEmpty()) && base.getParameters() != null) {
+            parameterValues = FortranExecutionService.buildParameterValuesFromArray(base.getParameters());
+        }
+        parameterValues = parameterValues != null ? new HashMap<>(parameterValues) : new HashMap<>();
+
+        for (int d = 0; d < targets.size(); d++) {
+            String target = targets.get(d);
+            double value = values[d];
+            Matcher matcher = FIELD_TARGET_PATTERN.matcher(target);
+            if (matcher.matches()) {
+                List<Double> list = "fieldValues".equals(matcher.group(1)) ? copy.getFieldValues() : copy.getFieldVelocities();
+                list.set(Integer.parseInt(matcher.group(2)), value);
+            } else if ("timeStep".equalsIgnoreCase(target)) {
+                copy.setTimeStep(value);
+            } else if ("kstar".equalsIgnoreCase(target)) {
+                copy.setKstar(value);
+            } else if ("cq".equalsIgnoreCase(target)) {
+                copy.setCq(value);
+            } else {
+                // Replace case-insensitively so "M" on the axis overrides "m" in the base
+                parameterValues.keySet().removeIf(name -> name.equalsIgnoreCase(target));
+                parameterValues.put(target, value);
+            }
+        }
+        copy.setParameterValues(parameterValues);
+        return copy;
+    }
+
+    /**
+     * Summary observables of one finished point: every "label: number" line of information.txt
+     * plus the peak of the power spectrum in n_prz_kmode.txt (N, P_R, k columns).
+     */
+    static Map<String, Double> readSummary(Path workDir) {
+        Map<String, Double> summary = new LinkedHashMap<>();
+        Path information = workDir.resolve("information.txt");
+        if (Files.exists(information)) {
+            try {
+                for (String line : Files.readAllLines(information)) {
+                    int colon = line.lastIndexOf(':');
+                    if (colon <= 0) {
+                        continue;
+                    }
+                    String label = line.substring(0, colon).trim();
+                    try {
+                        double value = FortranExecutionService.parseFortranDouble(line.substring(colon + 1));
+                        if (!label.isEmpty()) {
+                            summary.put(label, value);
+                        }
+                    } catch (NumberFormatException e) {
+                        // Not a numeric line (e.g. a section heading)
+                    }
+                }
+            } catch (IOException e) {
+                logger.warn("Could not read {}: {}", information, e.getMessage());
+            }
+        }
+
+        Path spectrum = workDir.resolve("n_prz_kmode.txt");
+        OutputDataService.ColumnarData binary = Files.exists(spectrum) ? OutputDataService.loadBinaryTwin(spectrum) : null;
+        if (binary != null && binary.getColumnCount() >= 3) {
+            // Row 0 is the reference row, as in the text file
+            int peakRow = -1;
+            for (int row = 1; row < binary.getRowCount(); row++) {
+                if (peakRow < 0 || binary.get(1, row) > binary.get(1, peakRow)) {
+                    peakRow = row;
+                }
+            }
+            if (peakRow > 0) {
+                summary.put("peak_P_R", binary.get(1, peakRow));
+                summary.put("peak_N", binary.get(0, peakRow));
+                summary.put("peak_k", binary.get(2, peakRow));
+            }
+        } else if (Files.exists(spectrum)) {
+            try (BufferedReader reader = Files.newBufferedReader(spectrum)) {
+                double peak = Double.NEGATIVE_INFINITY;
+                double peakN = Double.NaN;
+                double peakK = Double.NaN;
+                String line;
+                boolean first = true;
+                while ((line = reader.readLine()) != null) {
+                    String[] columns = line.trim().split("\\s+");
+                    if (first) {
+                        // Reference row (N=0, CMB normalisation), not part of the spectrum
+                        first = false;
+                        continue;
+                    }
+                    if (columns.length < 3) {
+                        continue;
+                    }
+                    try {
+                        double pr = FortranExecutionService.parseFortranDouble(columns[1]);
+                        if (pr > peak) {
+                            peak = pr;
+                            peakN = FortranExecutionService.parseFortranDouble(columns[0]);
+                            peakK = FortranExecutionService.parseFortranDouble(columns[2]);
+                        }
+                    } catch (NumberFormatException e) {
+                        // Not a data row
+                    }
+                }
+                if (peak > Double.NEGATIVE_INFINITY) {
+                    summary.put("peak_P_R", peak);
+                    summary.put("peak_N", peakN);
+                    summary.put("peak_k", peakK);
+                }
+            } catch (IOException e) {
+                logger.warn("Could not read {}: {}", spectrum, e.getMessage());
+            }
+        }
+        return summary;
+    }
+
+    /** Remove the oldest finished sweeps beyond the retention limit */
+    private void pruneFinishedSweeps() {
+        List<Sweep> finished = new ArrayList<>();
+        for (Sweep sweep : sweeps.values()) {
+            if (sweep.isFinished()) {
+                finished.add(sweep);
+            }
+        }
+        int excess = finished.size() - Math.max(0, maxRetained - 1);
+        if (excess <= 0) {
+            return;
+        }
+        finished.sort(Comparator.comparingLong(s -> s.createdAt));
+        for (int i = 0; i < excess; i++) {
+            sweeps.remove(finished.get(i).id);
+        }
+    }
+
+    /**
+     * State of one sweep. Mutable fields are guarded by the instance lock.
+     */
+    public static class Sweep {
+        private final String id;
+        private final String mode;
+        private final List<String> targets;
+        private final InitialConditionsDTO base;
+        private final List<double[]> points;
+        private final List<PointResult> rows;
+        private final int concurrency;
+        private final long createdAt = System.currentTimeMillis();
+        private long finishedAt;
+        private int nextIndex;
+        private int runningCount;
+        private int finishedCount;
+        private boolean warmedUp;
+        private volatile boolean cancelled;
+
+        Sweep(String id, String mode, List<String> targets, InitialConditionsDTO base,
+              List<double[]> points, int concurrency) {
+            this.id = id;
+            this.mode = mode;
+            this.targets = targets;
+            this.base = base;
+            this.points = points;
+            this.concurrency = concurrency;
+            this.rows = new ArrayList<>(points.size());
+            for (int i = 0; i < points.size(); i++) {
+                rows.add(new PointResult(i));
+            }
+        }
+
+        public String getId() { return id; }
+        public int getTotalPoints() { return points.size(); }
+
+        public synchronized boolean isFinished() {
+            return finishedCount >= points.size();
+        }
+
+        public synchronized String getStatus() {
+            if (isFinished()) {
+                return cancelled ? "cancelled" : "completed";
+            }
+            return cancelled ? "cancelling" : "running";
+        }
+
+        private synchronized int countStatus(String status) {
+            int count = 0;
+            for (PointResult row : rows) {
+                if (status.equals(row.status)) {
+                    count++;
+                }
+            }
+            return count;
+        }
+
+        private synchronized void updateFinishTime() {
+            if (isFinished() && finishedAt == 0) {
+                finishedAt = System.currentTimeMillis();
+            }
+        }
+
+        /** Aggregate progress (counts per point status, elapsed time) */
+        public synchronized Map<String, Object> getProgress() {
+            Map<String, Object> progress = new LinkedHashMap<>();
+            progress.put("sweepId", id);
+            progress.put("status", getStatus());
+            progress.put("mode", mode);
+            progress.put("totalPoints", points.size());
+            progress.put("completed", countStatus("completed"));
+            progress.put("failed", countStatus("failed"));
+            progress.put("cancelled", countStatus("cancelled"));
+            progress.put("running", countStatus("running"));
+            progress.put("pending", countStatus("pending"));
+            progress.put("progress", points.isEmpty() ? 1.0 : (double) finishedCount / points.size());
+            progress.put("concurrency", concurrency);
+            long end = finishedAt > 0 ? finishedAt : System.currentTimeMillis();
+            progress.put("elapsedMs", end - createdAt);
+            return progress;
+        }
+
+        /**
+         * Consolidated result table: one row per point with the axis values, the point's status
+         * and execution ID (for /files), and its summary observables.
+         */
+        public synchronized Map<String, Object> getTable() {
+            Set<String> observables = new LinkedHashSet<>();
+            for (PointResult row : rows) {
+                if (row.summary != null) {
+                    observables.addAll(row.summary.keySet());
+                }
+            }
+            List<String> columns = new ArrayList<>();
+            columns.add("index");
+            columns.addAll(targets);
+            columns.add("status");
+            columns.add("executionId");
+            columns.add("durationMs");
+            columns.addAll(observables);
+
+            List<Map<String, Object>> tableRows = new ArrayList<>();
+            for (PointResult row : rows) {
+                Map<String, Object> values = new LinkedHashMap<>();
+                values.put("index", row.index);
+                double[] point = points.get(row.index);
+                for (int d = 0; d < targets.size(); d++) {
+                    values.put(targets.get(d), point[d]);
+                }
+                values.put("status", row.status);
+                values.put("executionId", row.executionId);
+                values.put("durationMs", row.durationMs);
+                for (String observable : observables) {
+                    Double value = row.summary != null ? row.summary.get(observable) : null;
+                    // NaN/Infinity are not valid JSON numbers
+                    values.put(observable, value != null && Double.isFinite(value) ? value : null);
+                }
+                if (row.message != null && "failed".equals(row.status)) {
+                    values.put("message", row.message);
+                }
+                tableRows.add(values);
+            }
+
+            Map<String, Object> table = new LinkedHashMap<>();
+            table.put("columns", columns);
+            table.put("rows", tableRows);
+            return table;
+        }
+    }
+
+    /** One sweep point. Guarded by the owning sweep's lock. */
+    private static class PointResult {
+        private final int index;
+        private String status = "pending";
+        private String executionId;
+        private String message;
+        private long startedAt;
+        private long durationMs;
+        private Map<String, Double> summary;
+
+        PointResult(int index) {
+            this.index = index;
+        }
+    }
+}
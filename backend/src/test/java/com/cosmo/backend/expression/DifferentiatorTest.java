@@ -0,0 +1,85 @@
+package com.cosmo.backend.expression;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Closed-form derivatives of potentials, checked against central differences.
+ */
+class DifferentiatorTest {
+
+    private static final double H = 1e-5;
+
+    private static final double[][] POINTS = {{0.3, 1.2}, {5.0, -0.7}, {-1.5, 2.5}};
+
+    private static Expr parse(String expression) {
+        return ExpressionParser.parse(expression).getRoot();
+    }
+
+    private static double value(Expr expr, double[] x) {
+        return CompiledExpression.compile(expr, param -> new Expr.Num(0.7)).evaluate(x);
+    }
+
+    /** Central difference of expr with respect to x(field) */
+    private static double numeric(Expr expr, int field, double[] x) {
+        double[] plus = x.clone();
+        double[] minus = x.clone();
+        plus[field - 1] += H;
+        minus[field - 1] -= H;
+        return (value(expr, plus) - value(expr, minus)) / (2 * H);
+    }
+
+    private static String fortran(Expr expr) {
+        return FortranEmitter.emit("", expr, param -> new Expr.Ref("potpar", 1), 2);
+    }
+
+    @Test
+    void gradientAndHessianMatchFiniteDifferences() {
+        String[] potentials = {
+            "(1 - exp(-sqrt(2/3) * x(1)))**2 + 0.5*m*x(2)**2",
+            "x(1)**2*x(2) + sin(x(1))*exp(x(2)) - cos(x(2))/2",
+            "tanh(x(1)/sqrt(6))**2*(1 + x(2)**4) + log(1 + x(1)**2)*atan(x(2))",
+            "m**2*x(1)**3/x(2)**2 + sqrt(1 + x(1)**2 + x(2)**2) - abs(x(2))**1.5",
+        };
+        for (String potential : potentials) {
+            Expr root = parse(potential);
+            PotentialDerivatives derivatives = PotentialDerivatives.of(root, 2);
+            assertNotNull(derivatives, potential);
+            for (double[] x : POINTS) {
+                for (int i = 1; i <= 2; i++) {
+                    double expected = numeric(root, i, x);
+                    assertEquals(expected, value(derivatives.getGradient(i), x), 1e-6 * Math.max(1, Math.abs(expected)),
+                        potential + ": dV/dx(" + i + ")");
+                    for (int j = 1; j <= 2; j++) {
+                        double second = numeric(derivatives.getGradient(i), j, x);
+                        assertEquals(second, value(derivatives.getHessian(i, j), x), 1e-5 * Math.max(1, Math.abs(second)),
+                            potential + ": d2V/dx(" + i + ")dx(" + j + ")");
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    void simplifiesDerivatives() {
+        assertEquals("2.d0*x(1)", fortran(Differentiator.differentiate(parse("x(1)**2"), 1)));
+        assertEquals("0.d0", fortran(Differentiator.differentiate(parse("x(1)**2 + m"), 2)));
+        assertEquals("2.d0*x(1)*x(2)+cos(x(1))*exp(x(2))",
+            fortran(Differentiator.differentiate(parse("x(1)**2*x(2) + sin(x(1))*exp(x(2))"), 1)));
+    }
+
+    @Test
+    void treatsParametersAsConstants() {
+        Expr derivative = Differentiator.differentiate(parse("m*x(1)**3 + m**2"), 1);
+        assertEquals(3 * 0.7 * 4.0, value(derivative, new double[] {2.0, 0.0}), 1e-12);
+    }
+
+    @Test
+    void leavesMinAndMaxOfFieldsToFiniteDifferences() {
+        assertNull(PotentialDerivatives.of(parse("min(x(1), x(2))"), 2));
+        assertNotNull(PotentialDerivatives.of(parse("max(m, 1)*x(1)"), 2));
+    }
+}
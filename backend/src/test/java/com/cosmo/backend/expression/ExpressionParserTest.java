@@ -0,0 +1,62 @@
+package com.cosmo.backend.expression;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ExpressionParserTest {
+
+    private static double evaluate(String expression, Map<String, Double> parameters, double... x) {
+        Expr root = ExpressionParser.parse(expression).getRoot();
+        return CompiledExpression.compile(root, param -> {
+            Double value = parameters.get(param.getKey());
+            return value == null ? null : new Expr.Num(value);
+        }).evaluate(x);
+    }
+
+    private static double evaluate(String expression, double... x) {
+        return evaluate(expression, Map.of(), x);
+    }
+
+    @Test
+    void collectsParametersAndFields() {
+        ParsedExpression parsed = ExpressionParser.parse("Lambda*x(1)**4 + m*x(3) + lambda");
+        assertEquals(List.of("lambda", "m"), List.copyOf(parsed.getParameters()));
+        assertEquals(3, parsed.getMaxFieldIndex());
+        assertEquals(0, ExpressionParser.parse("2*pi").getMaxFieldIndex());
+    }
+
+    @Test
+    void followsFortranPrecedence() {
+        // A leading sign applies to the whole term, a sign after an operator to the next operand
+        assertEquals(-4.0, evaluate("-2**2"), 0.0);
+        assertEquals(0.5, evaluate("2**-1"), 0.0);
+        assertEquals(-6.0, evaluate("2*-3"), 0.0);
+        // Power is right associative
+        assertEquals(512.0, evaluate("2^3^2"), 0.0);
+        assertEquals(7.0, evaluate("1 + 2*3"), 0.0);
+        assertEquals(1.0, evaluate("8/4/2"), 0.0);
+    }
+
+    @Test
+    void evaluatesFunctionsFieldsAndParameters() {
+        double x = 5.0;
+        double expected = Math.pow(1 - Math.exp(-Math.sqrt(2.0 / 3.0) * x), 2);
+        assertEquals(expected, evaluate("(1 - exp(-sqrt(2/3) * x(1)))**2", x), 1e-15);
+        assertEquals(Math.log(2.0), evaluate("ln(x(1))", 2.0), 0.0);
+        assertEquals(3.0, evaluate("max(x(1), x(2), 3)", 1.0, 2.0), 0.0);
+        assertEquals(1.0e-3 * 4.0, evaluate("1.d-3*m**2", Map.of("m", 2.0)), 1e-18);
+    }
+
+    @Test
+    void rejectsInvalidExpressions() {
+        for (String expression : new String[] {"", "  ", "1 +", "x(1", "(x(1)", "x(1))", "foo(x(1))", "sin(1, 2)",
+                "2 $ 3", "min(1)"}) {
+            assertThrows(ExpressionException.class, () -> ExpressionParser.parse(expression), expression);
+        }
+    }
+}
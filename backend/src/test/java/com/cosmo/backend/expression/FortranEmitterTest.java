@@ -0,0 +1,75 @@
+package com.cosmo.backend.expression;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Fortran emitted for parsed potentials (what goes into potential.inc and the other includes).
+ */
+class FortranEmitterTest {
+
+    private static final String PREFIX = "      VV=";
+
+    private static String emit(String expression, Function<Expr.Param, Expr> parameters, int numFields) {
+        return FortranEmitter.emit(PREFIX, ExpressionParser.parse(expression).getRoot(), parameters, numFields);
+    }
+
+    private static String emit(String expression) {
+        return emit(expression, null, 2);
+    }
+
+    @Test
+    void writesDoublePrecisionLiterals() {
+        assertEquals("      VV=(1.d0-exp(-sqrt(2.d0/3.d0)*x(1)))**2", emit("(1 - exp(-sqrt(2/3) * x(1)))**2"));
+        assertEquals("      VV=2.2d-12*x(1)+1.d-3", emit("2.2e-12*x(1) + 1.D-3"));
+        assertEquals("      VV=0.5d0*x(1)", emit("0.5*x(1)"));
+    }
+
+    @Test
+    void keepsIntegerExponents() {
+        assertEquals("      VV=x(1)**2", emit("x(1)^2"));
+        assertEquals("      VV=x(1)**(-2)", emit("x(1)**-2"));
+        assertEquals("      VV=x(1)**2.5d0", emit("x(1)**2.5"));
+    }
+
+    @Test
+    void parenthesizesOnlyWherePrecedenceRequires() {
+        assertEquals("      VV=(x(1)**2)**3", emit("(x(1)**2)**3"));
+        assertEquals("      VV=x(1)**x(2)**2", emit("x(1)^x(2)^2"));
+        assertEquals("      VV=x(1)*(-x(2))", emit("x(1)*-x(2)"));
+        assertEquals("      VV=log(x(1))-(x(1)-x(2))", emit("ln(x(1)) - (x(1) - x(2))"));
+        assertEquals("      VV=x(1)-x(2)+x(1)", emit("((x(1) - x(2)) + x(1))"));
+    }
+
+    @Test
+    void continuesLongStatementsInColumnSix() {
+        String fortran = emit("lambda*x(1)**4/4 + m**2*x(1)**2/2 + 0.5*x(2)**2*(1+tanh(x(1)/Sqrt(6)))",
+            param -> new Expr.Num(2.0), 2);
+        String[] lines = fortran.split("\n");
+        assertEquals(2, lines.length);
+        for (String line : lines) {
+            assertTrue(line.length() <= FortranEmitter.LINE_LENGTH, line);
+        }
+        assertTrue(lines[1].startsWith(FortranEmitter.CONTINUATION));
+        assertEquals("      VV=2.000000000000000d+00*x(1)**4/4.d0+2.000000000000000d+00**2*"
+            + "x(1)**2/2.d0+0.5d0*x(2)**2*(1.d0+tanh(x(1)/Sqrt(6.d0)))",
+            lines[0] + lines[1].substring(FortranEmitter.CONTINUATION.length()));
+    }
+
+    @Test
+    void bindsParameters() {
+        assertEquals("      VV=potpar(1)*x(1)**2", emit("m2*x(1)**2", param -> new Expr.Ref("potpar", 1), 1));
+        assertEquals("      VV=5.000000000000000d-02*x(1)", emit("c*x(1)", param -> new Expr.Num(0.05), 1));
+    }
+
+    @Test
+    void rejectsUnboundParametersAndMissingFields() {
+        assertThrows(ExpressionException.class, () -> emit("m*x(1)"));
+        assertThrows(ExpressionException.class, () -> emit("x(3)"));
+    }
+}
@@ -0,0 +1,54 @@
+package com.cosmo.backend.expression;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Closed-form metric derivatives and Christoffel symbols.
+ */
+class MetricDerivativesTest {
+
+    private static Expr parse(String expression) {
+        return ExpressionParser.parse(expression).getRoot();
+    }
+
+    private static double value(Expr expr, double[] x) {
+        return CompiledExpression.compile(expr, param -> new Expr.Num(0.7)).evaluate(x);
+    }
+
+    @Test
+    void christoffelSymbolsOfADiagonalMetric() {
+        // g = diag(1, exp(2 x(1))): Chris(2,2,1) = -exp(2 x(1)), Chris(1,2,2) = Chris(2,1,2) = 1
+        Expr[][] metric = {{parse("1"), parse("0")}, {parse("0"), parse("exp(2*x(1))")}};
+        MetricDerivatives derivatives = MetricDerivatives.of(metric);
+        assertNotNull(derivatives);
+        assertTrue(derivatives.isDiagonal());
+        double[] x = {0.4, 1.0};
+        assertEquals(-Math.exp(0.8), value(term(derivatives.getChristoffel(), 2, 2, 1), x), 1e-12);
+        assertEquals(1.0, value(term(derivatives.getChristoffel(), 1, 2, 2), x), 1e-12);
+        assertEquals(1.0, value(term(derivatives.getChristoffel(), 2, 1, 2), x), 1e-12);
+        assertEquals(3, derivatives.getChristoffel().size());
+        assertEquals(2 * Math.exp(0.8), value(term(derivatives.getMetricDerivatives(), 2, 2, 1), x), 1e-12);
+        assertEquals(-2 * Math.exp(0.8), value(term(derivatives.getChristoffelDerivatives(), 2, 2, 1, 1), x), 1e-12);
+
+        MetricDerivatives flat = MetricDerivatives.of(new Expr[][] {{parse("1"), parse("0")}, {parse("0"), parse("2")}});
+        assertNotNull(flat);
+        assertTrue(flat.isConstant());
+        assertTrue(flat.getChristoffel().isEmpty());
+    }
+
+    private static Expr term(List<MetricDerivatives.Term> terms, int... index) {
+        for (MetricDerivatives.Term term : terms) {
+            if (Arrays.equals(term.getIndex(), index)) {
+                return term.getValue();
+            }
+        }
+        throw new AssertionError("No term " + Arrays.toString(index));
+    }
+}
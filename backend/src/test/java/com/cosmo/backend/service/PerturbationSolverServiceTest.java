@@ -0,0 +1,124 @@
+package com.cosmo.backend.service;
+
+import com.cosmo.backend.dto.InitialConditionsDTO;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The Java engine against a multifix run of the same model (src/test/resources/reference/starobinsky).
+ */
+class PerturbationSolverServiceTest {
+
+    private static final String REFERENCE = "/reference/starobinsky/";
+
+    private PerturbationSolverService solver;
+
+    @TempDir
+    Path workDir;
+
+    @BeforeEach
+    void setUp() {
+        ExpressionService expressionService = new ExpressionService();
+        ReflectionTestUtils.setField(expressionService, "cacheMaxEntries", 512);
+        solver = new PerturbationSolverService();
+        ReflectionTestUtils.setField(solver, "expressionService", expressionService);
+        ReflectionTestUtils.setField(solver, "metricsService", new MetricsService());
+        solver.init();
+    }
+
+    @AfterEach
+    void tearDown() {
+        solver.shutdown();
+    }
+
+    @Test
+    void reproducesTheFortranSpectrum() throws Exception {
+        InitialConditionsDTO conditions = new InitialConditionsDTO();
+        conditions.setFieldValues(List.of(5.0));
+        conditions.setPotentialExpression("(1 - exp(-sqrt(2/3)*x(1)))**2");
+        conditions.setTimeStep(0.05);
+        conditions.setKstar(0.05);
+        conditions.setCq(100.0);
+
+        ProcessSupervisor.Exit exit = solver.run("reference", conditions, workDir, workDir.resolve("output.txt"), 0)
+            .get(5, TimeUnit.MINUTES);
+        assertEquals(0, exit.getExitCode(), () -> read(workDir.resolve("output.txt")));
+
+        assertColumnsClose("n_epsilon_hubble.txt", 1e-6);
+        assertColumnsClose("epsilon.txt", 1e-6);
+        // Same modes and the same convergence steps; the values differ by the rounding of the integrators
+        assertColumnsClose("n_prz_kmode.txt", 1e-5);
+
+        List<double[]> information = parse(Files.readString(workDir.resolve("information.txt")));
+        List<double[]> expected = parse(reference("information.txt"));
+        assertEquals(expected.get(0)[0], information.get(0)[0], 1e-12, "N_End of Inflation");
+        assertEquals(expected.get(2)[0], information.get(2)[0], 1e-6 * expected.get(2)[0], "P_R (peak)");
+        assertTrue(read(workDir.resolve("output.txt")).contains("Iterations=368"));
+    }
+
+    /** Same rows as the reference file, every value within the relative tolerance */
+    private void assertColumnsClose(String name, double tolerance) throws IOException {
+        List<double[]> expected = parse(reference(name));
+        List<double[]> actual = parse(Files.readString(workDir.resolve(name)));
+        assertEquals(expected.size(), actual.size(), name + ": rows");
+        for (int row = 0; row < expected.size(); row++) {
+            assertEquals(expected.get(row).length, actual.get(row).length, name + ": columns of row " + (row + 1));
+            for (int column = 0; column < expected.get(row).length; column++) {
+                double e = expected.get(row)[column];
+                double a = actual.get(row)[column];
+                assertEquals(e, a, tolerance * Math.abs(e),
+                    name + ": row " + (row + 1) + ", column " + (column + 1));
+            }
+        }
+    }
+
+    /** Numbers of each line (labels such as "N_End of Inflation:" are skipped) */
+    private static List<double[]> parse(String text) {
+        List<double[]> rows = new ArrayList<>();
+        for (String line : text.split("\\R")) {
+            List<Double> values = new ArrayList<>();
+            for (String token : line.trim().split("\\s+")) {
+                try {
+                    values.add(FortranExecutionService.parseFortranDouble(token));
+                } catch (NumberFormatException e) {
+                    // label
+                }
+            }
+            if (!values.isEmpty()) {
+                rows.add(values.stream().mapToDouble(Double::doubleValue).toArray());
+            }
+        }
+        return rows;
+    }
+
+    private static String reference(String name) throws IOException {
+        try (InputStream input = PerturbationSolverServiceTest.class.getResourceAsStream(REFERENCE + name)) {
+            assertNotNull(input, "Missing reference file " + name);
+            return new String(input.readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    private static String read(Path file) {
+        try {
+            return Files.readString(file);
+        } catch (IOException e) {
+            return e.getMessage();
+        }
+    }
+}
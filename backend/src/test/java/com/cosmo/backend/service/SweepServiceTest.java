@@ -0,0 +1,142 @@
+package com.cosmo.backend.service;
+
+import com.cosmo.backend.dto.SweepRequestDTO.SweepAxis;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Points generated for the sweep modes (grid, list, random, lhs).
+ */
+class SweepServiceTest {
+
+    private static final int MAX_POINTS = 1000;
+
+    private static SweepAxis values(String target, Double... values) {
+        SweepAxis axis = new SweepAxis();
+        axis.setTarget(target);
+        axis.setValues(List.of(values));
+        return axis;
+    }
+
+    private static SweepAxis range(String target, double min, double max, Integer steps, boolean logScale) {
+        SweepAxis axis = new SweepAxis();
+        axis.setTarget(target);
+        axis.setMin(min);
+        axis.setMax(max);
+        axis.setSteps(steps);
+        axis.setLogScale(logScale);
+        return axis;
+    }
+
+    @Test
+    void gridVariesTheLastAxisFastest() {
+        List<double[]> points = SweepService.generatePoints(
+            List.of(values("fieldValues[0]", 5.0, 6.0), range("kstar", 0.0, 1.0, 3, false)), "grid", null, null, MAX_POINTS);
+        assertEquals(6, points.size());
+        double[][] expected = {{5.0, 0.0}, {5.0, 0.5}, {5.0, 1.0}, {6.0, 0.0}, {6.0, 0.5}, {6.0, 1.0}};
+        for (int i = 0; i < expected.length; i++) {
+            assertArrayEquals(expected[i], points.get(i), 0.0);
+        }
+    }
+
+    @Test
+    void logScaleStepsAreGeometric() {
+        List<double[]> points = SweepService.generatePoints(
+            List.of(range("cq", 1.0, 1000.0, 4, true)), "grid", null, null, MAX_POINTS);
+        double[] expected = {1.0, 10.0, 100.0, 1000.0};
+        assertEquals(expected.length, points.size());
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], points.get(i)[0], 1e-9 * expected[i]);
+        }
+        assertEquals(2.0, SweepService.generatePoints(
+            List.of(range("cq", 2.0, 8.0, 1, true)), "grid", null, null, MAX_POINTS).get(0)[0], 1e-12);
+    }
+
+    @Test
+    void listPairsTheValuesOfAllAxes() {
+        List<double[]> points = SweepService.generatePoints(
+            List.of(values("a", 1.0, 2.0, 3.0), values("b", 10.0, 20.0, 30.0)), "list", null, null, MAX_POINTS);
+        assertEquals(3, points.size());
+        assertArrayEquals(new double[] {2.0, 20.0}, points.get(1), 0.0);
+        assertThrows(IllegalArgumentException.class, () -> SweepService.generatePoints(
+            List.of(values("a", 1.0, 2.0), values("b", 10.0)), "list", null, null, MAX_POINTS));
+    }
+
+    @Test
+    void latinHypercubeHasOneSamplePerStratum() {
+        int samples = 10;
+        List<SweepAxis> axes = List.of(range("a", 0.0, 1.0, null, false), range("b", -5.0, 5.0, null, false));
+        List<double[]> points = SweepService.generatePoints(axes, "lhs", samples, 42L, MAX_POINTS);
+        assertEquals(samples, points.size());
+        for (int d = 0; d < axes.size(); d++) {
+            double min = axes.get(d).getMin();
+            double width = (axes.get(d).getMax() - min) / samples;
+            Set<Integer> strata = new HashSet<>();
+            for (double[] point : points) {
+                strata.add((int) Math.floor((point[d] - min) / width));
+            }
+            assertEquals(samples, strata.size(), "strata of axis " + d);
+        }
+    }
+
+    @Test
+    void randomSamplesAreReproducibleWithASeed() {
+        List<SweepAxis> axes = List.of(range("a", 1e-3, 1e3, null, true));
+        List<double[]> first = SweepService.generatePoints(axes, "random", 20, 7L, MAX_POINTS);
+        List<double[]> second = SweepService.generatePoints(axes, "random", 20, 7L, MAX_POINTS);
+        assertEquals(20, first.size());
+        List<Double> values = new ArrayList<>();
+        for (int i = 0; i < first.size(); i++) {
+            assertArrayEquals(first.get(i), second.get(i), 0.0);
+            values.add(first.get(i)[0]);
+        }
+        assertTrue(values.stream().allMatch(v -> v >= 1e-3 && v <= 1e3));
+    }
+
+    @Test
+    void rejectsIncompleteAxes() {
+        assertThrows(IllegalArgumentException.class, () -> SweepService.generatePoints(
+            List.of(range("a", 0.0, 1.0, null, false)), "random", null, 1L, MAX_POINTS));
+        assertThrows(IllegalArgumentException.class, () -> SweepService.generatePoints(
+            List.of(values("a", 1.0)), "lhs", 5, 1L, MAX_POINTS));
+        assertThrows(IllegalArgumentException.class, () -> SweepService.generatePoints(
+            List.of(range("a", 0.0, 1.0, 3, true)), "grid", null, null, MAX_POINTS));
+        assertThrows(IllegalArgumentException.class, () -> SweepService.generatePoints(
+            List.of(range("a", 0.0, 1.0, 0, false)), "grid", null, null, MAX_POINTS));
+        assertThrows(IllegalArgumentException.class, () -> SweepService.generatePoints(
+            List.of(values("a", 1.0)), "sobol", null, null, MAX_POINTS));
+    }
+
+    @Test
+    void rejectsSweepsAboveTheLimitBeforeGeneratingThem() {
+        // 1e9 grid points, 2e9 samples: rejected from the axis sizes, without allocating the points
+        List<SweepAxis> grid = List.of(range("a", 0.0, 1.0, 1000, false), range("b", 0.0, 1.0, 1000, false),
+            range("c", 0.0, 1.0, 1000, false));
+        assertThrows(IllegalArgumentException.class,
+            () -> SweepService.generatePoints(grid, "grid", null, null, MAX_POINTS));
+        assertThrows(IllegalArgumentException.class, () -> SweepService.generatePoints(
+            List.of(range("a", 0.0, 1.0, Integer.MAX_VALUE, false)), "grid", null, null, MAX_POINTS));
+        for (String mode : new String[] {"random", "lhs"}) {
+            assertThrows(IllegalArgumentException.class, () -> SweepService.generatePoints(
+                List.of(range("a", 0.0, 1.0, null, false)), mode, 2_000_000_000, 1L, MAX_POINTS));
+        }
+        assertThrows(IllegalArgumentException.class, () -> SweepService.generatePoints(
+            List.of(range("a", 0.0, 1.0, MAX_POINTS + 1, false), range("b", 0.0, 1.0, MAX_POINTS + 1, false)),
+            "list", null, null, MAX_POINTS));
+
+        assertEquals(MAX_POINTS, SweepService.generatePoints(
+            List.of(range("a", 0.0, 1.0, 10, false), range("b", 0.0, 1.0, 100, false)), "grid", null, null, MAX_POINTS)
+            .size());
+        assertEquals(MAX_POINTS, SweepService.generatePoints(
+            List.of(range("a", 0.0, 1.0, null, false)), "lhs", MAX_POINTS, 1L, MAX_POINTS).size());
+    }
+}
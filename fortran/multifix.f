@@ -17,14 +17,60 @@
 !      real(8) ll(nf,nf),G(nf,nf,nf),x(nf),xd(nf)
       real*8 parameters(20)!,ccc!,b2!phi3,phi2!
       real*8 metric_matrix(nf,nf)!,ccc!,b2!phi3,phi2!
+!     Values read at startup from cosmo_params.in (runtime parameter mode):
+!     potpar = potential parameters, rt_x0/rt_xd0 = initial fields/velocities
+      real*8 potpar(50),rt_x0(nf),rt_xd0(nf)
+      integer rt_usexd
+!     k-mode stride (kstride.in, PGO training runs): solve every
+!     rt_kstride-th mode only; rt_kstride=1 solves all modes
+      integer rt_kstride
+!     Worker mode: directory of the current job (with trailing /); empty
+!     (rt_ldir=0) when the program runs once in its working directory
+      character*512 rt_dir
+      integer rt_ldir
+      contains
+      character*512 function jobfile(name)
+!     Path of a file of the current job
+      character*(*) name
+      jobfile=rt_dir(1:rt_ldir)//name
+      end function jobfile
       end module global
       
       
       PROGRAM MULTIFIELD_GRAVITATIONAL_WAVES_ABUNDANCEPBH 
+      use global
+      implicit none
+      character*16 arg
+      integer ios
+!     Without arguments: one run in the working directory. With --worker:
+!     read job directories from stdin, one per line, run each job and
+!     write @@multifix-job-done after it, until stdin is closed
+      rt_ldir=0
+      arg=' '
+      if (command_argument_count().ge.1) then
+       call get_command_argument(1,arg)
+      endif
+      if (arg.ne.'--worker') then
+       call multifix_run
+       stop
+      endif
+ 10   read(*,'(a)',iostat=ios) rt_dir
+      if (ios.ne.0) stop
+      rt_ldir=len_trim(rt_dir)
+      call multifix_run
+      write(*,'(a)') '@@multifix-job-done'
+      flush(6)
+      goto 10
+      END
+
+
+      subroutine multifix_run
+!     One complete calculation; files are read and written in the job
+!     directory (see jobfile)
       use global
       implicit none
       integer i,j,timestep,nf2,timestep2,m,k,jj,iii,k_step2,kfinal
-      integer jjj,kkk,jj2,FLAG
+      integer jjj,kkk,jj2,FLAG,iunit
       integer j_bardeen,j_dbardeen,it,k_step,i_norm,timestep_back
      +,g_lenght
       parameter(timestep=10000,nf2=2*nf,m=4*nf+2)
@@ -59,8 +105,12 @@
       real*8 ps0_i_plus(timestep),dps0_i_plus(timestep)
       real*8 prk_plus(timestep), ks_norm_plus
       real*8 prk_min(timestep), ks_norm_min,norma_p,norma_m
-      parameter(t0=0,dt=0.05D0,kstar=0.05d0,
-     +dpr=0.00001,cq=100.d0,dc=0.45d0
+!     Binary twins of fields.txt, n_epsilon_hubble.txt and n_prz_kmode.txt
+!     (see write_columns), read by the backend instead of the text files
+      integer nbg,nspec
+      real*8 fcols(timestep,nf+1),ecols(timestep,3),scols(timestep,3)
+      parameter(t0=0,
+     +dpr=0.00001,dc=0.45d0
      +,k_step=2,epsi=1.d-5)
       !real*8 pot(200),yy
       real*8 pi,opbh_ps,mpeak_ps,ppeak
@@ -87,35 +137,49 @@
       parameter(cg=0.4d0)
       parameter(omr=5.4d-5)
       character*100 char1,fmt1!,filename
+!     Static like the variables of a main program: the arrays are too large
+!     for the stack, and worker mode calls this once per job
+      save
       
       pi=dacos(-1.d0)
       
-      open(unit=99,file="information.txt",status="unknown")
-      open(unit=98,file="fields.txt",status="unknown")
-      open(unit=97,file="n_epsilon_hubble.txt",status="unknown")
-      open(unit=96,file="kmode.txt",status="unknown")
-      open(unit=95,file="bardeen_initial.txt",status="unknown")
+!     Time step, pivot scale and C_q: defaults, overridden by runtime_params.inc
+!     (either assignments or a call to read_runtime_params)
+      dt=0.05d0
+      kstar=0.05d0
+      cq=100.d0
+      rt_usexd=0
+      call user_runtime_params(dt,kstar,cq)
+      call read_kstride
+      
+      open(unit=99,file=jobfile("information.txt"),status="unknown")
+      open(unit=98,file=jobfile("fields.txt"),status="unknown")
+      open(unit=97,file=jobfile("n_epsilon_hubble.txt"),
+     +status="unknown")
+      open(unit=96,file=jobfile("kmode.txt"),status="unknown")
+      open(unit=95,file=jobfile("bardeen_initial.txt"),status="unknown")
       !open(unit=94,file="n_qabs.txt",status="unknown")
-      open(unit=93,file="n_prz_kmode.txt",status="unknown")
-      open (unit=92,file="m_o_k_ps.txt",status="unknown")
-      open (unit=91,file="m_o_k_pt.txt",status="unknown")
-      open(unit=90, file="prslow.txt",status="unknown")
-      open(unit=89,file="gw2.txt",status="unknown") 
-      open(unit=88,file="epsilon.txt",status="unknown")
-      open(unit=87,file="n_ps_kmode.txt",status="unknown")
+      open(unit=93,file=jobfile("n_prz_kmode.txt"),status="unknown")
+      open (unit=92,file=jobfile("m_o_k_ps.txt"),status="unknown")
+      open (unit=91,file=jobfile("m_o_k_pt.txt"),status="unknown")
+      open(unit=90, file=jobfile("prslow.txt"),status="unknown")
+      open(unit=89,file=jobfile("gw2.txt"),status="unknown") 
+      open(unit=88,file=jobfile("epsilon.txt"),status="unknown")
+      open(unit=87,file=jobfile("n_ps_kmode.txt"),status="unknown")
 
 
-       open (unit=70,file="vxy.txt",status="unknown")
-       open (unit=69,file="v2xy.txt",status="unknown")
+       open (unit=70,file=jobfile("vxy.txt"),status="unknown")
+       open (unit=69,file=jobfile("v2xy.txt"),status="unknown")
 
        
-      open (unit=60,file="testkpm.txt",status="unknown")
-      open(unit=59,file="bardeen_intial_pm.txt",status="unknown")
-      open(unit=58, file="prplus.txt",status="unknown")
-      open(unit=57, file="prmin.txt",status="unknown")
-      open(unit=56, file="fun.txt",status="unknown")
-
-      open(unit=55, file="testt.txt",status="unknown")
+      open (unit=60,file=jobfile("testkpm.txt"),status="unknown")
+      open(unit=59,file=jobfile("bardeen_intial_pm.txt"),
+     +status="unknown")
+      open(unit=58, file=jobfile("prplus.txt"),status="unknown")
+      open(unit=57, file=jobfile("prmin.txt"),status="unknown")
+      open(unit=56, file=jobfile("fun.txt"),status="unknown")
+
+      open(unit=55, file=jobfile("testt.txt"),status="unknown")
   !    open(unit=54, file="testa.txt",status="unknown")
    !   open(unit=53, file="testb.txt",status="unknown")
       
@@ -127,6 +191,11 @@
       do j=1,timestep
       t(j)=t0+dt*(j)
       pr(j)=0.d0
+!     MAXVAL(prk) below also sees modes that are not solved: clear the
+!     values of the previous job in worker mode
+      prk(j)=0.d0
+      prk_isocurv(j)=0.d0
+      p_isocurv(j)=0.d0
       enddo
        
       do i=1,20
@@ -158,7 +227,7 @@
       write(*,*) '========================================'
       
 !     Initialize metric matrix from metric.inc
-      include 'metric.inc'
+      call user_metric_matrix
       
 !      do iii=1,10000
 !       yy=( 0.1d0+(iii-100)*0.1d0)
@@ -181,12 +250,18 @@
 !     Read the initial conditions for the fields    
       do i=1,nf
    
-!     Include user-provided initial conditions
-      include 'initial_conditions.inc'
+!     User-provided initial conditions (initial_conditions.inc)
+      call user_initial_conditions(x,i)
        call xic(x,xd)
       print*, xd(i)
       !read(*,*)
       enddo
+!     Optionally replace the slow-roll velocities by the user-provided ones
+      if (rt_usexd.eq.1) then
+      do i=1,nf
+      xd(i)=rt_xd0(i)
+      enddo
+      endif
       !xd(1)=-0.00333333d0
       !xd(2)=-0.166168162202735d0
       
@@ -214,7 +289,7 @@
       xd(i)=q(i+nf)
       enddo         
       
-      varepsilon(1)=vareps(xd)
+      varepsilon(1)=vareps(x,xd)
       H(1)=Hubble(x,xd)
       logosH(1)=1.d0
       hta=(Abs(varepsilon(1)-dqdt(2)/q(2)))
@@ -240,7 +315,7 @@
 !        write(69,950) t(j), vxx
 !       enddo
       
-      varepsilon(j)=vareps(xd)
+      varepsilon(j)=vareps(x,xd)
       H(j)=Hubble(x,xd)
       logosH(j)=H(j)/H(1)
       hta(j)=(Abs(varepsilon(j)-dqdt(2)/q(2)))
@@ -259,6 +334,13 @@
      +  prslow(j)!,(VV(q(1))/(8*pi**2.d0*(3-varepsilon(j))*varepsilon(j)))
 !      write(*,*) t(j), x(1)!,x(2) 
        write(88,*) t(j), varepsilon(j),hta(j)   
+      fcols(j-1,1)=t(j)
+      do i=1,nf
+      fcols(j-1,i+1)=x(i)
+      enddo
+      ecols(j-1,1)=t(j)
+      ecols(j-1,2)=varepsilon(j)
+      ecols(j-1,3)=H(j)
 
        if (varepsilon(j).gt.1.0) exit
       enddo
@@ -315,6 +397,10 @@
        !kfinal=ks(timestep2)
       
        write(93,*) 0.d0,2.1d-9,5.d-2 !242 grammi
+      nspec=1
+      scols(1,1)=0.d0
+      scols(1,2)=2.1d-9
+      scols(1,3)=5.d-2
 
       
 !     Construction of Bardeen initial conditions
@@ -335,7 +421,14 @@
       j_bardeen=1+2*nf
       j_dbardeen=2+4*nf  
       
+!     Live progress: raw P_R of every finished mode, flushed per mode so
+!     the backend can stream the spectrum while the run is in progress
+      open(unit=86,file=jobfile("kmode_progress.txt"),status="unknown")
+      write(86,*) norma_back
+      
       DO k=2,timestep2,k_step!200,200!
+!     Modes skipped by the stride are not solved
+      if (mod((k-2)/k_step,rt_kstride).ne.0) cycle
 
       kmode=ks(k)
       parameters(1)=kmode
@@ -526,10 +619,14 @@ c      enddo
        !if (j.gt.2000) then
        print*, j-it ,prk(k)  
        !endif
+       ks_norm=kstar*cq*ks(k)/(ks(1))
+       write(86,*) k,t(k)+n_back,prk(k),ks_norm
+       flush(86)
    
         norma=prk(2)
       
       ENDDO
+      close(86)
       
        do k=2,timestep2-100,k_step
        ! if(norma_back.gt.0.d0) then
@@ -541,10 +638,15 @@ c      enddo
       !!ks(k)=kstar/(cq*H(1)*dexp(t(i_norm)))
        ks_norm=kstar*cq*ks(k)/(ks(1))
        write(93,*) t(k) +n_back,prk(k),ks_norm
+       nspec=nspec+1
+       scols(nspec,1)=t(k)+n_back
+       scols(nspec,2)=prk(k)
+       scols(nspec,3)=ks_norm
        prk_isocurv(k)=prk_isocurv(k)*norma_back/norma
        write(87,*) t(k) +n_back,prk_isocurv(k),ks_norm
       !kk(k)=kstar*cq*ks(k)/(ks(1))
        enddo
+      endif
        !kfinal=kfinal*kstar*cq/(ks(1))
         kfinal=int(k/k_step)
        !print*, kfinal
@@ -580,7 +682,7 @@ c      enddo
 
       write(99,'(1x,a20,1x,f20.3)') "_________________________"
 
-      open(unit=12,file="n_prz_kmode.txt",status="old")
+      open(unit=12,file=jobfile("n_prz_kmode.txt"),status="old")
       write(99,'(1x,a20,1x,f20.5)') "<<PBH ABUNDANCE>>"
         char1="dc:"
       write(99,'(1x,a20,1x,f20.3)')TRIM(ADJUSTL(char1)), dc
@@ -631,8 +733,36 @@ c      enddo
        !write(47,*) kk(j),vita_pt(j),s2m_pt(j)
        write(91,*) mpbh_pt(j),om_pt(j),kk(j)
        enddo   
-      ENDIF
+!     Flush and release the output files before the next job
+      close(11)
+      close(12)
+      do iunit=55,99
+      close(iunit)
+      enddo
+!     Binary twins last, so they are never older than the text files
+      nbg=min(timestep2,timestep-1)
+      call write_columns("fields.bin",fcols,timestep,nbg,nf+1)
+      call write_columns("n_epsilon_hubble.bin",ecols,timestep,nbg,3)
+      call write_columns("n_prz_kmode.bin",scols,timestep,nspec,3)
+      return
       END
+
+
+      subroutine write_columns(name,a,lda,rows,ncol)
+!     Binary output: rows and ncol (4-byte integers), then the columns
+!     one after the other (8-byte reals), in native byte order
+      use global
+      implicit none
+      character*(*) name
+      integer lda,rows,ncol,i,j
+      real*8 a(lda,ncol)
+      open(unit=84,file=jobfile(name),access='stream',
+     +form='unformatted',status='replace')
+      write(84) rows,ncol
+      write(84) ((a(i,j),i=1,rows),j=1,ncol)
+      close(84)
+      return
+      end
       
 !##############################################################
 
@@ -640,53 +770,53 @@ c      enddo
 !!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!
 !!      FUNCTION AND SUBROUTINES                !!
 !!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!      
+!     VV, Vx1, Vxx1 and the user_* subroutines called above include the
+!     generated .inc files and are in multifix_user.f
       
- 
-      function VV(x)
-      use global 
-      implicit none
-      
-      real*8 VV,x(nf)
-      REAL*8 a,V0
-      real*8 pi
-      real*8 f1,f2,f0
-      real*8 c0, c1, c2, c3,c4,c5,c6,c7,c8,f8,c9
-      a=1.d0
-      v0=1.d0
-      
-      pi=dacos(-1.d0)
 
-      
-!     Include user-provided potential expression
-      include 'potential.inc'
-      
-
-      end
- 
- 
- 
-
-      subroutine Vx1(Vx,x)
+      subroutine read_runtime_params(dt,kstar,cq)
+!     Read fields, velocities, potential parameters, dt, kstar and cq
+!     from cosmo_params.in, so one binary serves every numeric variation
       use global
       implicit none
-      integer i
-      real*8 Vxii,x(nf),Vx(nf)
-      do i=1,nf
-      Vx(i)=Vxii(x,i)
-      enddo
+      integer nfile,npar,i
+      real*8 dt,kstar,cq
+      open(unit=11,file=jobfile("cosmo_params.in"),status="old")
+      read(11,*) nfile,npar
+      if (nfile.ne.nf) then
+       write(*,*) 'cosmo_params.in: nf mismatch',nfile,nf
+       stop 1
+      endif
+      if (npar.gt.50) then
+       write(*,*) 'cosmo_params.in: too many parameters',npar
+       stop 1
+      endif
+      read(11,*) (rt_x0(i),i=1,nf)
+      read(11,*) (rt_xd0(i),i=1,nf)
+      read(11,*) rt_usexd
+      if (npar.gt.0) read(11,*) (potpar(i),i=1,npar)
+      read(11,*) dt,kstar,cq
+      close(11)
       return
       end
 
-      subroutine Vxx1(Vxx,x)
+
+      subroutine read_kstride
+!     Read the k-mode stride from kstride.in if present (default: 1)
       use global
       implicit none
-      integer i,j
-      real*8 Vxxij,x(nf),Vxx(nf,nf)
-      do i=1,nf
-      do j=1,nf
-      Vxx(i,j)=Vxxij(x,i,j)
-      enddo
-      enddo
+      logical exists
+      rt_kstride=1
+      inquire(file=jobfile("kstride.in"),exist=exists)
+      if (exists) then
+      open(unit=11,file=jobfile("kstride.in"),status="old")
+      read(11,*) rt_kstride
+      close(11)
+      if (rt_kstride.lt.1) then
+       write(*,*) 'kstride.in: invalid stride',rt_kstride
+       stop 1
+      endif
+      endif
       return
       end
 
@@ -804,7 +934,8 @@ c      enddo
       end 
       
       
-      function vareps(xd)
+      function vareps(x,xd)
+!     Metric at the fields x (was an uninitialised local array)
       use global
       implicit none
       integer j,k
@@ -1673,49 +1804,10 @@ c      enddo
       !!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!
       !!     Metric ,Christoffel Encounter       !!
       !!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!
+!     metric, lll, dmetric, christoffel and dchristoffel are in
+!     multifix_user.f
 
 
-      subroutine metric(ll,ll_inv,x)
-      use global     
-      implicit none
-      integer i,j,nrot
-      real*8 x(nf),ll(nf,nf),ll_inv(nf,nf),lll,d(nf),v(nf,nf)
-      do i=1,nf
-       do j=1,nf
-        ll(i,j)=lll(i,j,x)
-       enddo
-      enddo
-      
-      call jacobi(ll,nf,nf,d,v,nrot)
-       do i=1,nf
-       do j=1,nf
-        ll(i,j)=0.d0
-        ll_inv(i,j)=0.d0
-      enddo  
-      enddo   
-      do i=1,nf
-      ll(i,i)=d(i)
-      ll_inv(i,i)=1.d0/d(i)
-      enddo
-      
-      return
-      end
-
-
-       function lll(i,j,x)
-      use global
-      implicit none
-      integer i,j
-      real*8 x(nf),lll
-!      lll=x(i)**2.d0*x(j)**3.d0
-!     Default to metric_matrix(i,j) from metric.inc, but allow overriding
-!     with coordinate-dependent expressions from metric_function.inc.
-      lll=metric_matrix(i,j)
-      include 'metric_function.inc'
-
-      return
-      end
-
 
       FUNCTION llld(jj,kk,ii,x)
       use global
@@ -1765,20 +1857,6 @@ c      enddo
 
 
 
-      subroutine dmetric(lld,x)
-      use global
-      implicit none
-      integer i,j,k
-      real*8 x(nf),lld(nf,nf,nf),llld
-      do i=1,nf
-       do j=1,nf
-        do k=1,nf
-        lld(i,j,k)=llld(i,j,k,x)
-        enddo
-       enddo
-      enddo
-      return
-      end
 
 
       function g(i,j,k,x)
@@ -1801,25 +1879,6 @@ c      enddo
       end
 
 
-      subroutine christoffel(chris,x)
-      use global
-      implicit none
-      integer i,j,k
-      real*8 x(nf)
-      real*8 Chris(nf,nf,nf),g
-        
-      do i=1,nf
-       do j=1,nf
-         do k=1,nf
-         
-         Chris(i,j,k)=g(i,j,k,x)
-         
-         enddo       
-       enddo
-      enddo
-      
-      return
-      end
 
 
   
@@ -1870,25 +1929,6 @@ c      enddo
 
 
 
-      subroutine dchristoffel(dChris,x)
-      use global
-      implicit none
-      integer i,j,k,l
-      real*8 x(nf)
-      real*8 dChris(nf,nf,nf,nf),ggd
-        
-      do i=1,nf
-       do j=1,nf
-         do k=1,nf
-          do l=1,nf
-         dChris(l,i,j,k)=ggd(l,i,j,k,x)
-          enddo
-         enddo       
-       enddo
-      enddo
-      
-      return
-      end
 
 
      !!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!!
@@ -3013,11 +3053,11 @@ CU    USES gammln
       parameter(flag_method=2)
       !flag_method=1 Integration with Gaussian weight
       !flag_methos=2 monte-carlo
-      open(unit=11, file="n_prz_kmode.txt",status="old")
+      open(unit=11, file=jobfile("n_prz_kmode.txt"),status="old")
 !      open(unit=12, file="testpr.txt",status="unknown")
       !open(unit=13, file="sd.txt",status="unknown")
       !open(unit=99,file="gw1.txt",status="unknown")
-       open(unit=89,file="gw2.txt",status="unknown")
+       open(unit=89,file=jobfile("gw2.txt"),status="unknown")
              !!idum=-123456789
 
        pi=dacos(-1.d0)
@@ -3116,7 +3156,7 @@ c      do j=1,n_gauleg
       ps=0
       inte3=0.d0
       if (flag_method.eq.2) then
-      open(unit=88,file="gw1.txt",status="unknown")
+      open(unit=88,file=jobfile("gw1.txt"),status="unknown")
        !DO K=1,1000
         !kstar=((k+60.d0)/60.d0)
                 DO K=1,4000
@@ -0,0 +1,228 @@
+!*******************************************************************************
+!
+! PURPOSE: USER-SPECIFIC PART OF multifix.f
+!
+! Everything that includes the generated .inc files: the potential and its
+! derivatives, the field-space metric and its derivatives, and the runtime
+! parameters, metric matrix and initial conditions set by the main program.
+! The solver core in multifix.f does not change between requests, so the
+! backend compiles it once per nf, compiler and flags and only compiles and
+! links this file per request. Build by hand with
+!     gfortran multifix.f multifix_user.f -o m.exe
+!
+!*******************************************************************************
+
+      subroutine user_runtime_params(dt,kstar,cq)
+!     Time step, pivot scale, C_q and velocities from runtime_params.inc
+!     (either assignments or a call to read_runtime_params)
+      use global
+      implicit none
+      real*8 dt,kstar,cq
+      include 'runtime_params.inc'
+      return
+      end
+
+
+      subroutine user_metric_matrix
+!     Initialize metric matrix from metric.inc
+      use global
+      implicit none
+      include 'metric.inc'
+      return
+      end
+
+
+      subroutine user_initial_conditions(x,i)
+!     Initial value of field i from initial_conditions.inc
+      use global
+      implicit none
+      integer i
+      real*8 x(nf)
+      include 'initial_conditions.inc'
+      return
+      end
+
+
+      function VV(x)
+      use global 
+      implicit none
+      
+      real*8 VV,x(nf)
+      REAL*8 a,V0
+      real*8 pi
+      real*8 f1,f2,f0
+      real*8 c0, c1, c2, c3,c4,c5,c6,c7,c8,f8,c9
+      a=1.d0
+      v0=1.d0
+      
+      pi=dacos(-1.d0)
+
+      
+!     Include user-provided potential expression
+      include 'potential.inc'
+      
+
+      end
+
+
+      subroutine Vx1(Vx,x)
+      use global
+      implicit none
+      integer i
+      real*8 Vxii,x(nf),Vx(nf)
+      logical analytic
+!     Closed-form dV/dx(i) generated from the potential by the backend;
+!     analytic=.false. if there is none, then differentiate VV numerically
+      include 'potential_gradient.inc'
+      if (analytic) return
+      do i=1,nf
+      Vx(i)=Vxii(x,i)
+      enddo
+      return
+      end
+
+
+      subroutine Vxx1(Vxx,x)
+      use global
+      implicit none
+      integer i,j
+      real*8 Vxxij,x(nf),Vxx(nf,nf)
+      logical analytic
+!     Closed-form d2V/dx(i)dx(j), see Vx1
+      include 'potential_hessian.inc'
+      if (analytic) return
+      do i=1,nf
+      do j=1,nf
+      Vxx(i,j)=Vxxij(x,i,j)
+      enddo
+      enddo
+      return
+      end
+
+
+      subroutine metric(ll,ll_inv,x)
+      use global     
+      implicit none
+      integer i,j,nrot
+      real*8 x(nf),ll(nf,nf),ll_inv(nf,nf),lll,d(nf),v(nf,nf)
+      logical diagonal
+!     metric_diagonal.inc sets diagonal=.true. if all off-diagonal
+!     entries are zero: the eigenvalues are then the diagonal entries
+      include 'metric_diagonal.inc'
+      if (diagonal) then
+      do i=1,nf
+       do j=1,nf
+        ll(i,j)=0.d0
+        ll_inv(i,j)=0.d0
+       enddo
+       ll(i,i)=lll(i,i,x)
+       ll_inv(i,i)=1.d0/ll(i,i)
+      enddo
+      return
+      endif
+      do i=1,nf
+       do j=1,nf
+        ll(i,j)=lll(i,j,x)
+       enddo
+      enddo
+      
+      call jacobi(ll,nf,nf,d,v,nrot)
+       do i=1,nf
+       do j=1,nf
+        ll(i,j)=0.d0
+        ll_inv(i,j)=0.d0
+      enddo  
+      enddo   
+      do i=1,nf
+      ll(i,i)=d(i)
+      ll_inv(i,i)=1.d0/d(i)
+      enddo
+      
+      return
+      end
+
+
+       function lll(i,j,x)
+      use global
+      implicit none
+      integer i,j
+      real*8 x(nf),lll
+!      lll=x(i)**2.d0*x(j)**3.d0
+!     Default to metric_matrix(i,j) from metric.inc, but allow overriding
+!     with coordinate-dependent expressions from metric_function.inc.
+      lll=metric_matrix(i,j)
+      include 'metric_function.inc'
+
+      return
+      end
+
+
+      subroutine dmetric(lld,x)
+      use global
+      implicit none
+      integer i,j,k
+      real*8 x(nf),lld(nf,nf,nf),llld
+      logical analytic
+!     Closed-form dg(i,j)/dx(k) generated from the metric by the backend;
+!     analytic=.false. if there is none, then differentiate lll numerically
+      include 'metric_derivatives.inc'
+      if (analytic) return
+      do i=1,nf
+       do j=1,nf
+        do k=1,nf
+        lld(i,j,k)=llld(i,j,k,x)
+        enddo
+       enddo
+      enddo
+      return
+      end
+
+
+      subroutine christoffel(chris,x)
+      use global
+      implicit none
+      integer i,j,k
+      real*8 x(nf)
+      real*8 Chris(nf,nf,nf),g
+      logical analytic
+!     Closed-form symbols of a constant or diagonal metric, see dmetric
+      include 'christoffel.inc'
+      if (analytic) return
+        
+      do i=1,nf
+       do j=1,nf
+         do k=1,nf
+         
+         Chris(i,j,k)=g(i,j,k,x)
+         
+         enddo       
+       enddo
+      enddo
+      
+      return
+      end
+
+
+      subroutine dchristoffel(dChris,x)
+      use global
+      implicit none
+      integer i,j,k,l
+      real*8 x(nf)
+      real*8 dChris(nf,nf,nf,nf),ggd
+      logical analytic
+!     Closed-form derivatives of the symbols, see christoffel
+      include 'dchristoffel.inc'
+      if (analytic) return
+        
+      do i=1,nf
+       do j=1,nf
+         do k=1,nf
+          do l=1,nf
+         dChris(l,i,j,k)=ggd(l,i,j,k,x)
+          enddo
+         enddo       
+       enddo
+      enddo
+      
+      return
+      end
@@ -19,7 +19,7 @@ copy "%POTENTIAL_FILE%" potential_expression.inc >nul
 echo Copied to potential_expression.inc
 
 echo Compiling...
-gfortran multifix.f -o m.exe
+gfortran multifix.f multifix_user.f -o m.exe
 if errorlevel 1 (
     echo Compilation failed!
     exit /b 1
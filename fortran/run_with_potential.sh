@@ -19,7 +19,7 @@ cp "$POTENTIAL_FILE" potential_expression.inc
 echo "Copied to potential_expression.inc"
 
 echo "Compiling..."
-gfortran multifix.f -o m.exe
+gfortran multifix.f multifix_user.f -o m.exe
 if [ $? -ne 0 ]; then
     echo "Compilation failed!"
     exit 1
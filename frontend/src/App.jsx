@@ -6,6 +6,73 @@ import "./App.css";
 // API base URL - use environment variable in production, or relative path in development
 const API_BASE_URL = import.meta.env.VITE_API_URL || '';
 
+// Follow an execution over Server-Sent Events (GET /events/{executionId}).
+// Resolves with the final result, "cancelled", or null when the stream is not
+// available or drops before the result (the caller then falls back to polling).
+function waitForExecutionEvents(executionId, signal, onState) {
+  return new Promise(resolve => {
+    if (typeof EventSource === 'undefined') {
+      resolve(null);
+      return;
+    }
+    const source = new EventSource(`${API_BASE_URL}/api/cosmo-perturbations/events/${executionId}`);
+    let settled = false;
+    const onAbort = () => finish("cancelled");
+    const finish = (value) => {
+      if (settled) return;
+      settled = true;
+      source.close();
+      signal.removeEventListener('abort', onAbort);
+      resolve(value);
+    };
+    signal.addEventListener('abort', onAbort);
+    source.addEventListener('state', e => {
+      const data = JSON.parse(e.data);
+      onState(data.state);
+      if (data.state === "cancelled") finish("cancelled");
+    });
+    // While waiting in the scheduler queue, progress events carry the queue position
+    source.addEventListener('progress', e => {
+      const data = JSON.parse(e.data);
+      if (data.queuePosition) onState(`queued (position ${data.queuePosition})`);
+    });
+    source.addEventListener('result', e => finish(JSON.parse(e.data)));
+    source.onerror = () => finish(null);
+  });
+}
+
+// Live spectrum rows [N, P_R, k] while the run is in progress (GET /events/{executionId}/spectrum)
+function followSpectrum(executionId, onRows) {
+  if (typeof EventSource === 'undefined') return null;
+  const source = new EventSource(`${API_BASE_URL}/api/cosmo-perturbations/events/${executionId}/spectrum`);
+  source.addEventListener('rows', e => onRows(JSON.parse(e.data).rows));
+  source.addEventListener('done', () => source.close());
+  source.onerror = () => source.close();
+  return source;
+}
+
+// Minimal semilog plot (N vs log10 P_R) of the spectrum as it builds up
+function LiveSpectrum({ rows }) {
+  const points = rows.filter(r => r[1] > 0).sort((a, b) => a[0] - b[0]);
+  if (points.length < 2) return null;
+  const width = 480, height = 200, pad = 30;
+  const xs = points.map(r => r[0]);
+  const ys = points.map(r => Math.log10(r[1]));
+  const xMin = Math.min(...xs), xMax = Math.max(...xs);
+  const yMin = Math.min(...ys), yMax = Math.max(...ys);
+  const sx = x => pad + (x - xMin) / ((xMax - xMin) || 1) * (width - 2 * pad);
+  const sy = y => height - pad - (y - yMin) / ((yMax - yMin) || 1) * (height - 2 * pad);
+  const path = points.map((r, i) => `${i ? 'L' : 'M'}${sx(xs[i]).toFixed(1)},${sy(ys[i]).toFixed(1)}`).join(' ');
+  return (
+    <svg width={width} height={height} style={{ display: 'block', margin: '8px auto' }}>
+      <rect x={pad} y={pad} width={width - 2 * pad} height={height - 2 * pad} fill="none" stroke="#555" />
+      <path d={path} fill="none" stroke="#00ffc3" strokeWidth="1.5" />
+      <text x={width / 2} y={height - 8} fill="#aaa" fontSize="11" textAnchor="middle">N</text>
+      <text x={4} y={pad - 8} fill="#aaa" fontSize="11">log10 P_R ({points.length} modes)</text>
+    </svg>
+  );
+}
+
 function App() {
   // Which page is currently visible: "model", "initial", "summary", "about", "instructions", "notesList", or "pdfViewer"
   const [activePage, setActivePage] = useState("about");
@@ -203,6 +270,10 @@ function App() {
   const [isCalculating, setIsCalculating] = useState(false);
   const [error, setError] = useState(null);
   const [currentExecutionId, setCurrentExecutionId] = useState(null);
+  // Lifecycle state pushed by the backend (queued, compiling, running, plotting, ...)
+  const [executionPhase, setExecutionPhase] = useState(null);
+  // Spectrum rows [N, P_R, k] streamed while the run is in progress
+  const [liveSpectrum, setLiveSpectrum] = useState([]);
   const [abortController, setAbortController] = useState(null);
   const isCancelledRef = useRef(false);
   const pendingExecutionIdRef = useRef(null);
@@ -265,6 +336,8 @@ function App() {
     // Clear previous result immediately to prevent showing old plot
     setCalculationResult(null);
     setCurrentExecutionId(null);
+    setExecutionPhase(null);
+    setLiveSpectrum([]);
     pendingExecutionIdRef.current = null;
     
     // Force a small delay to ensure React re-renders and clears the old image
@@ -366,12 +439,46 @@ function App() {
         return;
       }
       
-      // Poll for status until completion or cancellation
+      const showFinishedResult = (result) => {
+        setCalculationResult(result);
+        
+        if (result.success) {
+          const fileCount = result.outputFiles ? result.outputFiles.length : 0;
+          alert(`✅ Calculation completed successfully!\n\nGenerated ${fileCount} output file(s).\n\nCheck the results below for details.`);
+        } else {
+          alert("❌ Calculation failed: " + result.message + "\n\nCheck the error details below.");
+        }
+      };
+      
+      // Follow state transitions over Server-Sent Events; once running, also the live spectrum
+      let spectrumSource = null;
+      const onState = (state) => {
+        setExecutionPhase(state);
+        if (state === "running" && !spectrumSource) {
+          spectrumSource = followSpectrum(executionId, rows => setLiveSpectrum(prev => prev.concat(rows)));
+        }
+      };
+      const streamed = await waitForExecutionEvents(executionId, controller.signal, onState);
+      if (spectrumSource) spectrumSource.close();
+      if (streamed === "cancelled" || isCancelledRef.current || controller.signal.aborted) {
+        return;
+      }
+      if (streamed) {
+        showFinishedResult({
+          executionId: executionId,
+          success: streamed.success,
+          message: streamed.message,
+          output: streamed.output,
+          outputFiles: streamed.outputFiles
+        });
+      }
+      
+      // Fallback: poll for status until completion or cancellation
       const pollInterval = 1000; // Poll every 1 second
       const maxPollTime = 30 * 60 * 1000; // Max 30 minutes
       const startTime = Date.now();
       
-      while (true) {
+      while (!streamed) {
         // Check if cancelled
         if (isCancelledRef.current || controller.signal.aborted) {
           console.log("Polling cancelled");
@@ -402,22 +509,13 @@ function App() {
           
           if (statusResult.status === "completed" || statusResult.status === "failed") {
             // Calculation finished
-            const result = {
+            showFinishedResult({
               executionId: executionId,
               success: statusResult.success,
               message: statusResult.message,
               output: statusResult.output,
               outputFiles: statusResult.outputFiles
-            };
-            
-            setCalculationResult(result);
-            
-            if (result.success) {
-              const fileCount = result.outputFiles ? result.outputFiles.length : 0;
-              alert(`✅ Calculation completed successfully!\n\nGenerated ${fileCount} output file(s).\n\nCheck the results below for details.`);
-            } else {
-              alert("❌ Calculation failed: " + result.message + "\n\nCheck the error details below.");
-            }
+            });
             
             break; // Exit polling loop
           } else if (statusResult.status === "cancelled") {
@@ -1634,9 +1732,10 @@ function App() {
                     marginRight: '8px',
                     animation: 'pulse 1.5s ease-in-out infinite'
                   }}>⏳</span>
-                  Calculating...
+                  Calculating...{executionPhase ? ` (${executionPhase})` : ''}
                 </div>
               )}
+              {isCalculating && liveSpectrum.length > 1 && <LiveSpectrum rows={liveSpectrum} />}
             </div>
             
             {/* Display calculation results */}
@@ -1697,7 +1796,11 @@ function App() {
                         const cacheBuster = calculationResult.executionId 
                           ? `?t=${Date.now()}&id=${calculationResult.executionId.substring(0, 8)}&v=${isPlotFile ? 'plot' : 'file'}`
                           : `?t=${Date.now()}&v=${isPlotFile ? 'plot' : 'file'}`;
-                        const fileUrl = `${API_BASE_URL}/api/cosmo-perturbations/files/${encodeURIComponent(file)}${cacheBuster}`;
+                        // Each execution has its own workspace on the backend, so files are addressed by execution ID
+                        const filePath = calculationResult.executionId
+                          ? `${encodeURIComponent(calculationResult.executionId)}/${encodeURIComponent(file)}`
+                          : encodeURIComponent(file);
+                        const fileUrl = `${API_BASE_URL}/api/cosmo-perturbations/files/${filePath}${cacheBuster}`;
                         
                         return (
                           <li key={idx} style={{ marginBottom: '8px' }}>